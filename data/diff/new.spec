@@ -0,0 +1,50 @@
+/*
+  New version of a module for testing the spec comparison.
+ */
+module Diff
+{
+    /* The comments have changed, but this is not a structural change. */
+    typedef string genome_id;
+
+    typedef structure {
+	genome_id id;
+	string name;
+	int size;
+	string domain;
+    } genome;
+
+    typedef list<genome> genomes;
+
+    typedef tuple<string contig, int start, string strand> location;
+
+    typedef structure {
+	string id;
+	location loc;
+    } feature;
+
+    typedef mapping<string, feature> feature_map;
+
+    typedef float score;
+
+    typedef list<tuple<string, float>> counts;
+
+    typedef structure {
+	string id;
+	list<tuple<string, int, float>> hits;
+	mapping<string, float> tags;
+    } report;
+
+    funcdef get_genome(genome_id id) returns (genome result);
+
+    funcdef list_genomes() returns (genomes result);
+
+    funcdef get_features(genome_id id) returns (feature_map result);
+
+    funcdef ping() returns (int ok, string version);
+
+    funcdef secure() returns (int ok);
+
+    funcdef count(string text) returns (counts result);
+
+    funcdef score_genome(genome_id id) returns (score result);
+};
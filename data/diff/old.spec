@@ -0,0 +1,46 @@
+/*
+  Old version of a module for testing the spec comparison.
+ */
+module Diff
+{
+    typedef string genome_id;
+
+    typedef structure {
+	genome_id id;
+	string name;
+	int size;
+    } genome;
+
+    typedef list<genome> genomes;
+
+    typedef tuple<string contig, int start> location;
+
+    typedef structure {
+	string id;
+	location loc;
+    } feature;
+
+    typedef mapping<string, feature> feature_map;
+
+    typedef string obsolete;
+
+    typedef list<tuple<string, int>> counts;
+
+    typedef structure {
+	string id;
+	list<tuple<string, int>> hits;
+	mapping<string, int> tags;
+    } report;
+
+    funcdef get_genome(genome_id id) returns (genome result);
+
+    funcdef list_genomes() returns (genomes result);
+
+    funcdef get_features(genome_id id) returns (feature_map result);
+
+    funcdef ping() returns (int ok);
+
+    funcdef secure() returns (int ok) authentication required;
+
+    funcdef count(string text) returns (counts result);
+};
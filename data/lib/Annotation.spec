@@ -0,0 +1,21 @@
+/*
+  A small service that uses the shared types.
+ */
+module Annotation
+{
+
+    /* A feature in a genome. */
+    typedef structure {
+	Common.feature_id id;
+	string function;
+    } feature;
+
+    typedef Common.genome_id genome_id;
+
+    typedef tuple<Common.genome_id genome, list<feature> features> genome_features;
+
+    funcdef get_features(genome_id genome) returns (genome_features result);
+
+    funcdef get_file(Common.Handle handle) returns (string contents);
+
+};
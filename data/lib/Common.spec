@@ -0,0 +1,23 @@
+/*
+  Types shared by the service specifications.
+ */
+module Common
+{
+
+    /*
+     * This is a handle service handle object, used for by-reference
+     * passing of data files.
+     */
+    typedef structure {
+	string file_name;
+	string id;
+	string type;
+	string url;
+	string remote_md5;
+	string remote_sha1;
+    } Handle;
+
+    typedef string genome_id;
+    typedef string feature_id;
+
+};
@@ -0,0 +1,4 @@
+module CycleA
+{
+    typedef CycleB.thing thing;
+};
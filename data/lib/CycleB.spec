@@ -0,0 +1,4 @@
+module CycleB
+{
+    typedef CycleA.thing thing;
+};
@@ -1,5 +1,9 @@
 package org.theseed.erdb.utils;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.theseed.basic.BaseProcessor;
 
@@ -9,33 +13,84 @@ import org.theseed.basic.BaseProcessor;
  * init		initialize a database from an SQL script file
  * display	display a web page describing a database
  * spec		display a web page describing a specification
+ * spec-diff	compare two versions of a specification
+ * spec-search	search the index of a specification web page
+ * schema	generate an SQL script to create a database from a specification
+ * codec	convert spec-typed JSON documents to and from a compact binary form
+ * json-load	load spec-typed JSON documents into a database
+ * load		load a database from a directory of table files
+ * export	export database tables to tab-delimited files
+ * indexes	find and create missing indexes on join paths
+ * query	run SQL queries and stream the results
+ * path		run queries that follow relationship paths through the database
+ * daemon	run a server that executes commands in a warm JVM
+ * client	send a command to a running daemon
+ * batch	run a file of commands concurrently in one JVM
  */
 public class App
 {
+    /** map of command names to processor class names */
+    private static final Map<String, String> COMMANDS = new LinkedHashMap<String, String>();
+    static {
+        final String pkg = "org.theseed.erdb.utils.";
+        COMMANDS.put("init", pkg + "InitProcessor");
+        COMMANDS.put("display", pkg + "DisplayProcessor");
+        COMMANDS.put("spec", pkg + "SpecPageProcessor");
+        COMMANDS.put("spec-diff", pkg + "SpecDiffProcessor");
+        COMMANDS.put("spec-search", pkg + "SpecSearchProcessor");
+        COMMANDS.put("schema", pkg + "SchemaProcessor");
+        COMMANDS.put("codec", pkg + "CodecProcessor");
+        COMMANDS.put("json-load", pkg + "JsonLoadProcessor");
+        COMMANDS.put("load", pkg + "LoadProcessor");
+        COMMANDS.put("export", pkg + "ExportProcessor");
+        COMMANDS.put("indexes", pkg + "IndexProcessor");
+        COMMANDS.put("query", pkg + "QueryProcessor");
+        COMMANDS.put("path", pkg + "PathProcessor");
+        COMMANDS.put("daemon", pkg + "DaemonProcessor");
+        COMMANDS.put("client", pkg + "ClientProcessor");
+        COMMANDS.put("batch", pkg + "BatchProcessor");
+    }
+
     public static void main( String[] args )
     {
         // Get the control parameter.
         String command = args[0];
         String[] newArgs = Arrays.copyOfRange(args, 1, args.length);
-        BaseProcessor processor;
-        // Determine the command to process.
-        switch (command) {
-        case "init" :
-            processor = new InitProcessor();
-            break;
-        case "display" :
-            processor = new DisplayProcessor();
-            break;
-        case "spec" :
-        	processor = new SpecPageProcessor();
-        	break;
-        default:
-            throw new RuntimeException("Invalid command " + command);
-        }
+        BaseProcessor processor = getProcessor(command);
         // Process it.
         boolean ok = processor.parseCommand(newArgs);
         if (ok) {
             processor.run();
         }
     }
+
+    /**
+     * Create the processor for a command. The processor class is only loaded when its command is
+     * chosen, so that a short command does not pay to load the classes for all the others.
+     *
+     * @param command	name of the command
+     *
+     * @return a new, unparsed processor for the command
+     */
+    public static BaseProcessor getProcessor(String command) {
+        BaseProcessor processor;
+        String className = COMMANDS.get(command);
+        if (className == null)
+            throw new RuntimeException("Invalid command " + command);
+        try {
+            Class<? extends BaseProcessor> processorClass = Class.forName(className).asSubclass(BaseProcessor.class);
+            processor = processorClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Cannot create processor for command " + command + ": " + e.toString(), e);
+        }
+        return processor;
+    }
+
+    /**
+     * @return the names of the available commands
+     */
+    public static Set<String> getCommands() {
+        return Collections.unmodifiableSet(COMMANDS.keySet());
+    }
+
 }
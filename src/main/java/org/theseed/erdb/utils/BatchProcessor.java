@@ -0,0 +1,357 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.text.StringTokenizer;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
+
+/**
+ * This command runs a file of utility commands inside a single JVM. Each line of the file is a command
+ * line, with the command name first, exactly as it would be passed to the application. Parameters
+ * containing spaces can be enclosed in double quotes. Blank lines and lines beginning with "#" are
+ * ignored.
+ *
+ * Commands run concurrently on a bounded thread pool, subject to one restriction: a command that writes a
+ * resource runs after all the earlier commands that use it, and a command that only reads a resource runs
+ * after the earlier commands that write it. The resources are the files and directories a command reads
+ * and writes, its database, and the standard output. A directory overlaps every file inside it.
+ *
+ * A command's processor declares its files and whether it writes its database or the standard output
+ * (see BatchResources). The database is the one named by the "--dbfile" or "--url" option, and commands
+ * that specify neither are assumed to share the default database. A command whose processor does not
+ * declare its resources, or whose parameters cannot be parsed, runs alone. This includes the "spec" and
+ * "schema" commands, whose input and output files are options of their base class.
+ *
+ * When all the commands are finished, a summary report is written to the standard output, with the
+ * line number, status, and elapsed time of each command. The status is "OK", "INVALID" (bad command
+ * parameters), or "FAILED" (an error escaped from the command).
+ *
+ * The positional parameter is the name of the command file. The command-line options are as follows.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --workers	maximum number of commands to run at once (default 4)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BatchProcessor extends BaseProcessor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(BatchProcessor.class);
+    /** resource key for the standard output */
+    private static final String STDOUT_KEY = "<stdout>";
+    /** resource key read by every command and written by the commands that must run alone */
+    private static final String BATCH_KEY = "<batch>";
+    /** resource key for the database of a command that does not name one */
+    private static final String DEFAULT_DB_KEY = "<default-db>";
+    /** prefix for the resource key of a file */
+    private static final String FILE_PREFIX = "file:";
+    /** prefix for the resource key of a database URL */
+    private static final String URL_PREFIX = "url:";
+    /** commands that cannot be run in a batch */
+    private static final Set<String> FORBIDDEN = Set.of("batch", "daemon", "client");
+
+    // COMMAND-LINE OPTIONS
+
+    /** maximum number of concurrent commands */
+    @Option(name = "--workers", metaVar = "8", usage = "maximum number of commands to run at once")
+    private int workers;
+
+    /** command file */
+    @Argument(index = 0, metaVar = "commands.txt", usage = "file of commands to run", required = true)
+    private File commandFile;
+
+    /**
+     * This object describes a command from the batch file.
+     */
+    private static class BatchCommand {
+
+        /** line number in the command file */
+        private int lineNum;
+        /** command arguments, starting with the command name */
+        private String[] argv;
+        /** map of the keys of the resources used by the command to TRUE if the resource is written */
+        private Map<String, Boolean> resources;
+
+        /**
+         * Parse a command line.
+         *
+         * @param lineNum	line number in the command file
+         * @param line		text of the command line
+         */
+        private BatchCommand(int lineNum, String line) {
+            this.lineNum = lineNum;
+            StringTokenizer tokenizer = new StringTokenizer(line);
+            tokenizer.setQuoteChar('"');
+            this.argv = tokenizer.getTokenArray();
+            this.resources = new LinkedHashMap<String, Boolean>();
+            if (this.argv.length > 0) {
+                List<String> parms = Arrays.asList(this.argv).subList(1, this.argv.length);
+                this.findResources(this.argv[0], parms);
+            }
+        }
+
+        /**
+         * Fill in the resources used by the command. The command's parameters are parsed into a new
+         * processor, which declares its resources if it implements BatchResources. If it does not, or the
+         * parameters are invalid, the command must run alone.
+         *
+         * @param name		name of the command
+         * @param parms		parameters of the command
+         */
+        private void findResources(String name, List<String> parms) {
+            boolean declared = false;
+            try {
+                BaseProcessor processor = App.getProcessor(name);
+                if (processor instanceof BatchResources) {
+                    new CmdLineParser(processor).parseArgument(parms);
+                    BatchResources user = (BatchResources) processor;
+                    for (File file : user.getInputFiles())
+                        this.use(FILE_PREFIX + file.getAbsolutePath(), false);
+                    for (File file : user.getOutputFiles())
+                        this.use(FILE_PREFIX + file.getAbsolutePath(), true);
+                    if (user.usesStandardOutput())
+                        this.use(STDOUT_KEY, true);
+                    if (processor instanceof BaseDbProcessor)
+                        this.useDatabase(parms, user.writesDatabase());
+                    declared = true;
+                }
+            } catch (Exception e) {
+                // The command will fail when it runs, so it may as well run alone.
+                log.debug("Could not determine the resources for line {}: {}", this.lineNum, e.toString());
+                this.resources.clear();
+            }
+            this.use(BATCH_KEY, ! declared);
+        }
+
+        /**
+         * Add the database named in a command's parameters to its resources.
+         *
+         * @param parms		parameters of the command
+         * @param write		TRUE if the command writes to the database
+         */
+        private void useDatabase(List<String> parms, boolean write) {
+            boolean found = false;
+            final int n = parms.size();
+            for (int i = 0; i < n; i++) {
+                String parm = parms.get(i);
+                // The option value can be attached with an equal sign or be the next parameter.
+                String[] parts = StringUtils.split(parm, "=", 2);
+                String value = (parts.length > 1 ? parts[1] : (i + 1 < n ? parms.get(i + 1) : null));
+                if (value != null) {
+                    if (parts[0].equals("--dbfile")) {
+                        this.use(FILE_PREFIX + WorkDirFileHandler.resolve(value).getAbsolutePath(), write);
+                        found = true;
+                    } else if (parts[0].equals("--url")) {
+                        this.use(URL_PREFIX + value, write);
+                        found = true;
+                    }
+                }
+            }
+            if (! found)
+                this.use(DEFAULT_DB_KEY, write);
+        }
+
+        /**
+         * Record the use of a resource. A resource both read and written is written.
+         *
+         * @param key		resource key
+         * @param write		TRUE if the resource is written
+         */
+        private void use(String key, boolean write) {
+            this.resources.merge(key, write, Boolean::logicalOr);
+        }
+
+    }
+
+    /**
+     * This object tracks the earlier commands that use a resource.
+     */
+    private static class ResourceUsers {
+
+        /** last command to write the resource, or NULL if none */
+        private CompletableFuture<CommandRunner.Result> writer;
+        /** commands that read the resource since it was last written */
+        private List<CompletableFuture<CommandRunner.Result>> readers;
+
+        /**
+         * Construct a tracker for a resource not yet used.
+         */
+        private ResourceUsers() {
+            this.writer = null;
+            this.readers = new ArrayList<CompletableFuture<CommandRunner.Result>>();
+        }
+
+        /**
+         * Add the commands a new user of the resource must wait for to a list.
+         *
+         * @param waits		list of commands to wait for
+         * @param write		TRUE if the new user writes the resource
+         */
+        private void addWaits(List<CompletableFuture<CommandRunner.Result>> waits, boolean write) {
+            if (this.writer != null)
+                waits.add(this.writer);
+            if (write)
+                waits.addAll(this.readers);
+        }
+
+        /**
+         * Record a new user of the resource.
+         *
+         * @param user		result of the new user's command
+         * @param write		TRUE if the new user writes the resource
+         */
+        private void add(CompletableFuture<CommandRunner.Result> user, boolean write) {
+            if (write) {
+                // Everything before the writer is now behind it.
+                this.writer = user;
+                this.readers.clear();
+            } else
+                this.readers.add(user);
+        }
+
+    }
+
+    /**
+     * @return TRUE if two resources overlap, that is, they are the same or one is a directory containing the other
+     *
+     * @param key1		key of the first resource
+     * @param key2		key of the second resource
+     */
+    private static boolean overlaps(String key1, String key2) {
+        boolean retVal = key1.equals(key2);
+        if (! retVal && key1.startsWith(FILE_PREFIX) && key2.startsWith(FILE_PREFIX)) {
+            retVal = key1.startsWith(key2 + File.separator) || key2.startsWith(key1 + File.separator);
+        }
+        return retVal;
+    }
+
+    @Override
+    protected void setDefaults() {
+        this.workers = 4;
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.workers < 1)
+            throw new ParseFailureException("Number of workers must be at least 1.");
+        if (! this.commandFile.canRead())
+            throw new FileNotFoundException("Command file " + this.commandFile + " is not found or unreadable.");
+        return true;
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        // Read the commands.
+        List<BatchCommand> commands = new ArrayList<BatchCommand>();
+        try (LineReader reader = new LineReader(this.commandFile)) {
+            int lineNum = 0;
+            for (String line : reader) {
+                lineNum++;
+                String trimmed = line.trim();
+                if (! trimmed.isEmpty() && ! trimmed.startsWith("#")) {
+                    BatchCommand command = new BatchCommand(lineNum, trimmed);
+                    if (FORBIDDEN.contains(command.argv[0]))
+                        throw new ParseFailureException("Command \"" + command.argv[0] + "\" on line " + lineNum
+                                + " cannot be run in a batch.");
+                    commands.add(command);
+                }
+            }
+        }
+        log.info("{} commands read from {}.", commands.size(), this.commandFile);
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(this.workers);
+        List<CompletableFuture<CommandRunner.Result>> results = new ArrayList<CompletableFuture<CommandRunner.Result>>(
+                commands.size());
+        try {
+            // This tracks the earlier users of each resource. A command must wait for the earlier users
+            // of every resource that overlaps one of its own.
+            Map<String, ResourceUsers> usersMap = new HashMap<String, ResourceUsers>();
+            for (BatchCommand command : commands) {
+                List<CompletableFuture<CommandRunner.Result>> waits = new ArrayList<CompletableFuture<CommandRunner.Result>>();
+                for (Map.Entry<String, Boolean> resource : command.resources.entrySet()) {
+                    for (Map.Entry<String, ResourceUsers> usersEntry : usersMap.entrySet()) {
+                        if (overlaps(resource.getKey(), usersEntry.getKey()))
+                            usersEntry.getValue().addWaits(waits, resource.getValue());
+                    }
+                }
+                CompletableFuture<CommandRunner.Result> result = CompletableFuture
+                        .allOf(waits.toArray(new CompletableFuture<?>[waits.size()]))
+                        .thenApplyAsync(x -> this.execute(command), pool);
+                for (Map.Entry<String, Boolean> resource : command.resources.entrySet())
+                    usersMap.computeIfAbsent(resource.getKey(), k -> new ResourceUsers()).add(result, resource.getValue());
+                results.add(result);
+            }
+            // Wait for everything to finish.
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()])).join();
+        } finally {
+            pool.shutdown();
+        }
+        // Write the summary report.
+        int failures = 0;
+        System.out.println("line\tstatus\tseconds\tcommand\tmessage");
+        for (int i = 0; i < commands.size(); i++) {
+            CommandRunner.Result result = results.get(i).join();
+            String status;
+            switch (result.getStatus()) {
+            case CommandRunner.OK :
+                status = "OK";
+                break;
+            case CommandRunner.INVALID :
+                status = "INVALID";
+                failures++;
+                break;
+            default :
+                status = "FAILED";
+                failures++;
+            }
+            System.out.format("%d\t%s\t%4.3f\t%s\t%s%n", commands.get(i).lineNum, status, result.getDuration() / 1000.0,
+                    result.getCommand(), result.getMessage());
+        }
+        System.out.flush();
+        log.info("{} commands run in {} seconds with {} failures.", commands.size(),
+                (System.currentTimeMillis() - start) / 1000.0, failures);
+    }
+
+    /**
+     * Execute a single command.
+     *
+     * @param command	command to run
+     *
+     * @return the result of the command
+     */
+    private CommandRunner.Result execute(BatchCommand command) {
+        log.info("Starting command on line {}.", command.lineNum);
+        CommandRunner.Result retVal = CommandRunner.execute(command.argv);
+        log.info("Command on line {} finished with status {} in {} ms.", command.lineNum, retVal.getStatus(),
+                retVal.getDuration());
+        return retVal;
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This interface is implemented by the processors of commands that can run concurrently in a batch. It
+ * declares the resources a command uses, so that the "batch" command knows which commands must wait for
+ * each other.
+ *
+ * The batch command parses the command's parameters into a new processor and then calls these methods.
+ * Neither the processor's defaults nor its parameter validation are run, so an option that was not
+ * specified has its Java default value (NULL for a file), and the methods must allow for that. The
+ * database used by a database command is determined by the batch command itself, from the "--dbfile"
+ * and "--url" options.
+ *
+ * A processor that does not implement this interface is assumed to use everything, so its command runs
+ * alone, after all the commands before it and before all the commands after it.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface BatchResources {
+
+    /**
+     * @return the files and directories read by the command, not counting its database
+     */
+    public Collection<File> getInputFiles();
+
+    /**
+     * @return the files and directories written by the command, not counting its database
+     */
+    public Collection<File> getOutputFiles();
+
+    /**
+     * @return TRUE if the command writes to the standard output
+     */
+    public boolean usesStandardOutput();
+
+    /**
+     * @return TRUE if the command updates its database
+     */
+    public boolean writesDatabase();
+
+    /**
+     * @return a list of the specified files, leaving out the ones that are NULL
+     *
+     * @param files		files to put in the list
+     */
+    public static List<File> listFiles(File... files) {
+        List<File> retVal = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (file != null)
+                retVal.add(file);
+        }
+        return retVal;
+    }
+
+}
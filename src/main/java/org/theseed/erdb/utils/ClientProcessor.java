@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.spi.RestOfArgumentsHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This command sends a utility command to a running daemon (see DaemonProcessor) and copies the output
+ * to the standard output. If the command fails, the JVM exits with the command's status code.
+ *
+ * The positional parameters are the command name and its parameters, exactly as they would be specified
+ * to run the command directly. The client's own options must come before the command name. Use the
+ * command "stop" to shut down the daemon. Relative file names in the command are resolved against the
+ * client's working directory, not the daemon's.
+ *
+ * The command-line options are as follows.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --socket		Unix domain socket file of the daemon (default "daemon.sock" in ".erdb" under the home directory)
+ * --tcp		connect to the daemon's TCP port instead of its Unix domain socket
+ * --port		TCP port number of the daemon (default 4567)
+ * --token		file containing the daemon's TCP access token (default "daemon.token" in ".erdb" under the home directory)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ClientProcessor extends BaseProcessor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ClientProcessor.class);
+
+    /** access token for TCP, or NULL if we are using a Unix domain socket */
+    private String token;
+
+    // COMMAND-LINE OPTIONS
+
+    /** socket file for Unix domain sockets */
+    @Option(name = "--socket", metaVar = "erdb.sock", usage = "Unix domain socket file of the daemon")
+    private File socketFile;
+
+    /** TRUE to connect to a TCP port */
+    @Option(name = "--tcp", usage = "if specified, the daemon will be contacted on a TCP port instead of a Unix domain socket")
+    private boolean tcpFlag;
+
+    /** port number for TCP */
+    @Option(name = "--port", metaVar = "9000", usage = "TCP port of the daemon")
+    private int port;
+
+    /** token file for TCP */
+    @Option(name = "--token", metaVar = "token.txt", usage = "file containing the daemon's TCP access token")
+    private File tokenFile;
+
+    /** command to send */
+    @Argument(index = 0, metaVar = "command parm1 parm2 ...", usage = "command to run", required = true,
+            handler = RestOfArgumentsHandler.class)
+    private List<String> argv;
+
+    @Override
+    protected void setDefaults() {
+        this.socketFile = DaemonProcessor.DEFAULT_SOCKET;
+        this.tcpFlag = false;
+        this.port = DaemonProcessor.DEFAULT_PORT;
+        this.tokenFile = DaemonProcessor.DEFAULT_TOKEN;
+        this.token = null;
+        this.argv = new ArrayList<String>();
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.argv.isEmpty())
+            throw new ParseFailureException("No command specified.");
+        if (this.tcpFlag) {
+            if (! this.tokenFile.canRead())
+                throw new FileNotFoundException("Token file " + this.tokenFile + " is not found or unreadable.");
+            this.token = Files.readString(this.tokenFile.toPath()).trim();
+        }
+        return true;
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        int status;
+        File serverFile = (this.tcpFlag ? null : this.socketFile);
+        try (SocketChannel channel = SocketChannel.open(DaemonProcessor.getAddress(serverFile, this.port))) {
+            DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            DataInputStream inStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            // Send the command, preceded by the access token for TCP.
+            if (this.token != null)
+                outStream.writeUTF(this.token);
+            // The daemon resolves relative file names against our working directory.
+            outStream.writeUTF(new File("").getAbsolutePath());
+            outStream.writeInt(this.argv.size());
+            for (String arg : this.argv)
+                outStream.writeUTF(arg);
+            outStream.flush();
+            // Copy the output frames.
+            byte[] buffer = new byte[8192];
+            int len = inStream.readInt();
+            while (len > 0) {
+                if (len > buffer.length)
+                    buffer = new byte[len];
+                inStream.readFully(buffer, 0, len);
+                System.out.write(buffer, 0, len);
+                len = inStream.readInt();
+            }
+            System.out.flush();
+            status = inStream.readInt();
+        }
+        if (status != CommandRunner.OK) {
+            log.error("Command failed with status {}.", status);
+            System.exit(status);
+        }
+    }
+
+}
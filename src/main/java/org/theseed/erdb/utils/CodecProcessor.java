@@ -0,0 +1,288 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.spec.ModuleNode;
+import org.theseed.spec.ModuleRepository;
+import org.theseed.spec.SpecCodec;
+import org.theseed.spec.SpecDecoder;
+import org.theseed.spec.SpecEncoder;
+import org.theseed.spec.SpecParser;
+import org.theseed.spec.TypeNode;
+
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+/**
+ * This command converts JSON documents of a type described by a spec file to and from a compact binary form.
+ * The binary form is driven by the spec: values are written in the order the type defines them, so no field
+ * names are stored (see SpecCodec).
+ *
+ * When encoding, each input file contains a single JSON document, and all of the documents are written to
+ * the output file. When decoding, there is a single input file in binary form, and the documents are
+ * written to the output file as JSON, one per line.
+ *
+ * A report is written to the standard output showing the number of documents, the size of the documents
+ * as compact JSON and in binary form, the ratio between the two, and the throughput of the encoding and
+ * decoding in megabytes of JSON per second. When encoding, the output file is decoded again to measure
+ * the decoding speed and to verify the document count. The first decoded document is also checked against
+ * its source. Since the codec drops fields the type does not define and does not preserve the Java types of
+ * numbers, the two documents are compared by their binary encodings.
+ *
+ * The positional parameters are the name of the spec file, the name of the type, the name of the output
+ * file, and the names of the input files. The command-line options are as follows.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --lib		directory containing the spec files for imported modules (default is the current directory)
+ * --decode		if specified, the input is decoded instead of encoded
+ * --noDict		if specified, the strings are not compressed with a dictionary
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CodecProcessor extends BaseProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(CodecProcessor.class);
+    /** codec for the type */
+    private SpecCodec codec;
+    /** number of bytes in a megabyte */
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+    // COMMAND-LINE OPTIONS
+
+    /** library directory for imported modules */
+    @Option(name = "--lib", metaVar = "specDir", usage = "directory containing the spec files for imported modules")
+    private File libDir;
+
+    /** if specified, the input is decoded */
+    @Option(name = "--decode", usage = "if specified, decode binary input to JSON")
+    private boolean decode;
+
+    /** if specified, no string dictionary is used */
+    @Option(name = "--noDict", usage = "if specified, do not compress strings with a dictionary")
+    private boolean noDict;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
+    /** spec file describing the documents */
+    @Argument(index = 0, metaVar = "module.spec", usage = "spec file describing the documents", required = true)
+    private File specFile;
+
+    /** name of the document type */
+    @Argument(index = 1, metaVar = "genomeTO", usage = "name of the document type", required = true)
+    private String typeName;
+
+    /** output file */
+    @Argument(index = 2, metaVar = "outFile", usage = "output file", required = true)
+    private File outFile;
+
+    /** input files */
+    @Argument(index = 3, metaVar = "inFile1 inFile2 ...", usage = "input files", required = true)
+    private List<File> inFiles;
+
+    @Override
+    protected void setDefaults() {
+        this.libDir = new File(System.getProperty("user.dir"));
+        this.decode = false;
+        this.noDict = false;
+        this.metricsFile = null;
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (! this.libDir.isDirectory())
+            throw new FileNotFoundException("Library directory " + this.libDir + " is not found or invalid.");
+        if (! this.specFile.canRead())
+            throw new FileNotFoundException("Spec file " + this.specFile + " is not found or unreadable.");
+        for (File inFile : this.inFiles) {
+            if (! inFile.canRead())
+                throw new FileNotFoundException("Input file " + inFile + " is not found or unreadable.");
+        }
+        if (this.decode && this.inFiles.size() > 1)
+            throw new ParseFailureException("Only one input file can be decoded at a time.");
+        // Compile the spec and find the type.
+        ModuleNode module;
+        try (LineReader reader = new LineReader(this.specFile)) {
+            module = new ModuleNode(new SpecParser(reader, ModuleRepository.forDirectory(this.libDir)));
+        }
+        TypeNode type = module.findType(this.typeName);
+        if (type == null)
+            throw new ParseFailureException("Type " + this.typeName + " is not defined in " + this.specFile + ".");
+        this.codec = SpecCodec.forType(type);
+        return true;
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        long jsonBytes = 0;
+        int docCount;
+        long binaryBytes;
+        long encodeNanos = 0;
+        long decodeNanos;
+        if (! this.decode) {
+            Object firstDoc = null;
+            // Encode the input files.
+            log.info("Encoding {} documents to {}.", this.inFiles.size(), this.outFile);
+            try (FileChannel channel = FileChannel.open(this.outFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    SpecEncoder encoder = new SpecEncoder(this.codec, this.typeName, channel, ! this.noDict)) {
+                for (File inFile : this.inFiles) {
+                    Object document;
+                    try (BufferedReader reader = Files.newBufferedReader(inFile.toPath(), StandardCharsets.UTF_8)) {
+                        document = Jsoner.deserialize(reader);
+                    }
+                    jsonBytes += Jsoner.serialize(document).getBytes(StandardCharsets.UTF_8).length;
+                    long start = System.nanoTime();
+                    encoder.write(document);
+                    encodeNanos += System.nanoTime() - start;
+                    if (firstDoc == null)
+                        firstDoc = document;
+                    log.debug("{} encoded.", inFile);
+                }
+                // Closing the encoder flushes the last buffer, so it is part of the encoding time.
+                long start = System.nanoTime();
+                encoder.close();
+                encodeNanos += System.nanoTime() - start;
+            }
+            // Decode the output to verify it and time the decoding.
+            log.info("Verifying {}.", this.outFile);
+            long start = System.nanoTime();
+            docCount = 0;
+            Object firstDecoded = null;
+            try (FileChannel channel = FileChannel.open(this.outFile.toPath(), StandardOpenOption.READ)) {
+                SpecDecoder decoder = new SpecDecoder(this.codec, this.typeName, channel);
+                for (Object document = decoder.read(); document != null; document = decoder.read()) {
+                    if (docCount == 0)
+                        firstDecoded = document;
+                    docCount++;
+                }
+                binaryBytes = decoder.getByteCount();
+            }
+            decodeNanos = System.nanoTime() - start;
+            if (docCount != this.inFiles.size())
+                throw new IOException("Verification failed: " + docCount + " documents decoded, but "
+                        + this.inFiles.size() + " were encoded.");
+            if (! Arrays.equals(this.encodeOne(firstDoc), this.encodeOne(firstDecoded)))
+                throw new IOException("Verification failed: the first document decoded from " + this.outFile
+                        + " does not match " + this.inFiles.get(0) + ".");
+        } else {
+            // Decode the input file.
+            File inFile = this.inFiles.get(0);
+            log.info("Decoding {} to {}.", inFile, this.outFile);
+            docCount = 0;
+            decodeNanos = 0;
+            try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+                    PrintWriter writer = new PrintWriter(this.outFile, StandardCharsets.UTF_8)) {
+                SpecDecoder decoder = new SpecDecoder(this.codec, this.typeName, channel);
+                long start = System.nanoTime();
+                Object document = decoder.read();
+                decodeNanos += System.nanoTime() - start;
+                while (document != null) {
+                    String json = Jsoner.serialize(document);
+                    jsonBytes += json.getBytes(StandardCharsets.UTF_8).length;
+                    writer.println(json);
+                    docCount++;
+                    start = System.nanoTime();
+                    document = decoder.read();
+                    decodeNanos += System.nanoTime() - start;
+                }
+                binaryBytes = decoder.getByteCount();
+            }
+        }
+        log.info("{} documents processed.", docCount);
+        // Write the report.
+        System.out.println("documents\tjson_bytes\tbinary_bytes\tratio\tencode_MB/s\tdecode_MB/s");
+        System.out.format("%d\t%d\t%d\t%4.2f\t%s\t%s%n", docCount, jsonBytes, binaryBytes,
+                (binaryBytes == 0 ? 0.0 : (double) jsonBytes / binaryBytes),
+                rate(jsonBytes, encodeNanos), rate(jsonBytes, decodeNanos));
+        System.out.flush();
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
+    }
+
+    /**
+     * @return the binary encoding of a single document, without a string dictionary
+     *
+     * @param document	document to encode
+     *
+     * @throws IOException
+     */
+    private byte[] encodeOne(Object document) throws IOException {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        try (SpecEncoder encoder = new SpecEncoder(this.codec, this.typeName, Channels.newChannel(outStream), false)) {
+            encoder.write(document);
+        }
+        return outStream.toByteArray();
+    }
+
+    /**
+     * @return a throughput in megabytes per second, formatted for the report
+     *
+     * @param bytes		number of bytes processed
+     * @param nanos		elapsed time in nanoseconds, or 0 if the operation was not performed
+     */
+    private static String rate(long bytes, long nanos) {
+        String retVal;
+        if (nanos == 0)
+            retVal = "";
+        else
+            retVal = String.format("%4.2f", bytes / MEGABYTE / (nanos / 1e9));
+        return retVal;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        List<File> retVal = BatchResources.listFiles(this.libDir, this.specFile);
+        if (this.inFiles != null)
+            retVal.addAll(this.inFiles);
+        return retVal;
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles(this.outFile, this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return true;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return false;
+    }
+
+}
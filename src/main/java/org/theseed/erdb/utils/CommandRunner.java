@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+
+/**
+ * This object runs a utility command inside the current JVM. It is used by the commands that execute
+ * other commands, so that the class loading and driver initialization costs are only paid once.
+ *
+ * The command is presented as an argument array, with the command name first, exactly as it would be
+ * on the command line. The result contains a status code and the elapsed time.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CommandRunner {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(CommandRunner.class);
+    /** status code for a successful command */
+    public static final int OK = 0;
+    /** status code for a command whose parameters were invalid */
+    public static final int INVALID = 1;
+    /** status code for a command that failed during execution */
+    public static final int FAILED = 2;
+
+    /**
+     * This object describes the result of running a command.
+     */
+    public static class Result {
+
+        /** command line */
+        private String command;
+        /** status code */
+        private int status;
+        /** elapsed time in milliseconds */
+        private long duration;
+        /** error message, or an empty string if the command succeeded */
+        private String message;
+
+        /**
+         * Construct a command result.
+         *
+         * @param command	command line
+         * @param status	status code
+         * @param duration	elapsed time in milliseconds
+         * @param message	error message, or an empty string
+         */
+        private Result(String command, int status, long duration, String message) {
+            this.command = command;
+            this.status = status;
+            this.duration = duration;
+            this.message = message;
+        }
+
+        /**
+         * @return the command line
+         */
+        public String getCommand() {
+            return this.command;
+        }
+
+        /**
+         * @return the status code
+         */
+        public int getStatus() {
+            return this.status;
+        }
+
+        /**
+         * @return TRUE if the command succeeded
+         */
+        public boolean isOk() {
+            return this.status == OK;
+        }
+
+        /**
+         * @return the elapsed time in milliseconds
+         */
+        public long getDuration() {
+            return this.duration;
+        }
+
+        /**
+         * @return the error message, or an empty string if the command succeeded
+         */
+        public String getMessage() {
+            return this.message;
+        }
+
+    }
+
+    /**
+     * Run a command.
+     *
+     * @param argv		command name followed by the command's parameters
+     *
+     * @return the result of the command
+     */
+    public static Result execute(String[] argv) {
+        long start = System.currentTimeMillis();
+        String commandLine = StringUtils.join(argv, ' ');
+        int status;
+        String message = "";
+        if (argv.length == 0) {
+            status = INVALID;
+            message = "No command specified.";
+        } else {
+            try {
+                BaseProcessor processor = App.getProcessor(argv[0]);
+                String[] parms = Arrays.copyOfRange(argv, 1, argv.length);
+                if (! processor.parseCommand(parms)) {
+                    status = INVALID;
+                    message = "Invalid command parameters.";
+                } else {
+                    processor.run();
+                    status = OK;
+                }
+            } catch (Exception e) {
+                log.error("Error running \"{}\".", commandLine, e);
+                status = FAILED;
+                message = e.toString();
+            }
+        }
+        return new Result(commandLine, status, System.currentTimeMillis() - start, message);
+    }
+
+}
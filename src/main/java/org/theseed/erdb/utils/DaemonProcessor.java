@@ -0,0 +1,422 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This command runs a daemon that executes utility commands sent to it by the "client" command. Because
+ * the daemon's JVM stays up, the classes, the HTML library, and the JDBC drivers are only loaded once,
+ * and the code the commands run is already compiled by the time later commands arrive.
+ *
+ * By default, the daemon listens on a Unix domain socket. The socket is created in a directory that only
+ * the daemon's owner can use: if the directory does not exist, it is created with owner-only permissions,
+ * and if it does exist, it must already be private, so no other user can reach the socket even before its
+ * own permissions are restricted. If "--tcp" is specified, the daemon listens on a TCP port on the loopback
+ * interface instead. Since any local user can connect to a TCP port, the daemon then writes a random token
+ * to a file readable only by its owner, and every client must present the token before its command is
+ * accepted.
+ *
+ * Each connection carries one command. The client sends the command's argument list, and the daemon runs
+ * the command with the standard output redirected to the connection. Commands are executed one at a time,
+ * since the standard output is shared by the whole JVM. A client that does not finish sending its request
+ * within the timeout is disconnected, so that it cannot block the other clients.
+ *
+ * The wire protocol is simple. For TCP, the client first sends the token as a string. The client then sends
+ * its working directory, an argument count, and the arguments, using the Java data stream formats. The
+ * daemon sends the output in frames, each a length followed by that many bytes. A frame with a length of 0
+ * is followed by the command's status code and ends the response.
+ *
+ * The special command "stop" shuts down the daemon. The "daemon" and "client" commands cannot be run
+ * inside the daemon.
+ *
+ * The JVM's working directory cannot be changed, so relative file names in a command are resolved against
+ * the client's working directory by the args4j file handler (see WorkDirFileHandler). While the command runs,
+ * the "user.dir" property is also set to the client's directory, so that defaults computed from it are
+ * correct.
+ *
+ * Each command still opens its own database connection, since the connections are created inside the
+ * individual commands.
+ *
+ * There are no positional parameters. The command-line options are as follows.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --socket		Unix domain socket file on which to listen (default "daemon.sock" in ".erdb" under the home directory)
+ * --tcp		listen on a TCP port instead of a Unix domain socket
+ * --port		TCP port number on which to listen (default 4567)
+ * --token		file to contain the TCP access token (default "daemon.token" in ".erdb" under the home directory)
+ * --timeout	maximum number of seconds to wait for a client to send its request (default 30)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DaemonProcessor extends BaseProcessor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(DaemonProcessor.class);
+    /** default port number */
+    public static final int DEFAULT_PORT = 4567;
+    /** special command to stop the daemon */
+    public static final String STOP_COMMAND = "stop";
+    /** commands that cannot be run inside the daemon */
+    private static final Set<String> FORBIDDEN = Set.of("daemon", "client");
+    /** size of an output frame buffer */
+    private static final int FRAME_SIZE = 8192;
+    /** default directory for the daemon's files */
+    private static final File DAEMON_DIR = new File(System.getProperty("user.home"), ".erdb");
+    /** default Unix domain socket file */
+    public static final File DEFAULT_SOCKET = new File(DAEMON_DIR, "daemon.sock");
+    /** default TCP token file */
+    public static final File DEFAULT_TOKEN = new File(DAEMON_DIR, "daemon.token");
+    /** number of random bytes in a TCP token */
+    private static final int TOKEN_BYTES = 32;
+    /** owner-only file permissions */
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+    /** owner-only directory permissions */
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIR = PosixFilePermissions.fromString("rwx------");
+    /** timer for disconnecting stalled clients */
+    private ScheduledExecutorService watchdog;
+    /** access token for TCP clients, or NULL if we are using a Unix domain socket */
+    private String token;
+
+    // COMMAND-LINE OPTIONS
+
+    /** socket file for Unix domain sockets */
+    @Option(name = "--socket", metaVar = "erdb.sock", usage = "Unix domain socket file on which to listen")
+    private File socketFile;
+
+    /** TRUE to listen on a TCP port */
+    @Option(name = "--tcp", usage = "if specified, the daemon will listen on a TCP port instead of a Unix domain socket")
+    private boolean tcpFlag;
+
+    /** port number for TCP */
+    @Option(name = "--port", metaVar = "9000", usage = "TCP port on which to listen")
+    private int port;
+
+    /** token file for TCP */
+    @Option(name = "--token", metaVar = "token.txt", usage = "file to contain the TCP access token")
+    private File tokenFile;
+
+    /** request timeout in seconds */
+    @Option(name = "--timeout", metaVar = "10", usage = "maximum number of seconds to wait for a client's request")
+    private int timeout;
+
+    /**
+     * This output stream writes the data it receives as frames on the underlying stream.
+     */
+    private static class FrameOutputStream extends OutputStream {
+
+        /** underlying output stream */
+        private DataOutputStream outStream;
+
+        /**
+         * Construct a frame output stream.
+         *
+         * @param outStream		underlying output stream
+         */
+        private FrameOutputStream(DataOutputStream outStream) {
+            this.outStream = outStream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.outStream.writeInt(1);
+            this.outStream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                this.outStream.writeInt(len);
+                this.outStream.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.outStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // We never close the underlying stream, since the status code still has to be written.
+            this.flush();
+        }
+
+    }
+
+    @Override
+    protected void setDefaults() {
+        this.socketFile = DEFAULT_SOCKET;
+        this.tcpFlag = false;
+        this.port = DEFAULT_PORT;
+        this.tokenFile = DEFAULT_TOKEN;
+        this.timeout = 30;
+        this.token = null;
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.timeout <= 0)
+            throw new ParseFailureException("Request timeout must be positive.");
+        if (! this.tcpFlag)
+            checkPrivateDirectory(this.socketFile);
+        else {
+            if (this.port <= 0 || this.port > 65535)
+                throw new ParseFailureException("Invalid port number " + this.port + ".");
+            // Create the access token and store it in a file only the owner can read.
+            byte[] tokenBytes = new byte[TOKEN_BYTES];
+            new SecureRandom().nextBytes(tokenBytes);
+            this.token = Base64.getUrlEncoder().withoutPadding().encodeToString(tokenBytes);
+            checkPrivateDirectory(this.tokenFile);
+            Path tokenPath = this.tokenFile.toPath();
+            Files.deleteIfExists(tokenPath);
+            Files.createFile(tokenPath, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            Files.writeString(tokenPath, this.token);
+            log.info("TCP access token written to {}.", this.tokenFile);
+        }
+        return true;
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        File serverFile = (this.tcpFlag ? null : this.socketFile);
+        SocketAddress address = getAddress(serverFile, this.port);
+        this.warmUp();
+        WorkDirFileHandler.register();
+        this.watchdog = Executors.newSingleThreadScheduledExecutor();
+        try (ServerSocketChannel server = openServer(serverFile)) {
+            server.bind(address);
+            if (serverFile != null)
+                Files.setPosixFilePermissions(serverFile.toPath(), OWNER_ONLY);
+            log.info("Daemon listening on {}.", address);
+            boolean done = false;
+            while (! done) {
+                try (SocketChannel channel = server.accept()) {
+                    done = this.processRequest(channel);
+                } catch (IOException e) {
+                    log.error("Error communicating with client: {}", e.toString());
+                }
+            }
+        } finally {
+            this.watchdog.shutdownNow();
+            if (serverFile != null)
+                Files.deleteIfExists(serverFile.toPath());
+            else
+                Files.deleteIfExists(this.tokenFile.toPath());
+        }
+        log.info("Daemon stopped.");
+    }
+
+    /**
+     * Insure that the directory for a daemon file can only be used by the current user. A missing directory
+     * is created with owner-only permissions. An existing directory is not changed, since it may be shared,
+     * so it must already be private.
+     *
+     * @param file		daemon file whose directory is to be checked
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    private static void checkPrivateDirectory(File file) throws IOException, ParseFailureException {
+        Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        if (! Files.isDirectory(dir)) {
+            log.info("Creating private directory {}.", dir);
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIR));
+            // The umask cannot add permissions, but we set them explicitly anyway.
+            Files.setPosixFilePermissions(dir, OWNER_ONLY_DIR);
+        } else {
+            Set<PosixFilePermission> perms = Files.getPosixFilePermissions(dir);
+            boolean shared = perms.stream().anyMatch(x -> ! OWNER_ONLY_DIR.contains(x));
+            if (shared || ! Files.getOwner(dir).getName().equals(System.getProperty("user.name")))
+                throw new ParseFailureException("Directory " + dir + " must be owned by the current user and have "
+                        + "no group or other permissions.");
+        }
+    }
+
+    /**
+     * Load the classes the commands are likely to need, so that the first command is as fast as the rest.
+     */
+    private void warmUp() {
+        log.info("Warming up command classes.");
+        for (String command : App.getCommands()) {
+            if (! FORBIDDEN.contains(command))
+                App.getProcessor(command);
+        }
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            log.warn("SQLite driver is not available.");
+        }
+    }
+
+    /**
+     * Process a single request from a client.
+     *
+     * @param channel	socket channel connected to the client
+     *
+     * @return TRUE if the daemon should stop, else FALSE
+     *
+     * @throws IOException
+     */
+    private boolean processRequest(SocketChannel channel) throws IOException {
+        boolean retVal = false;
+        DataInputStream inStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        // If the request is not complete before the timeout, the channel is closed, which causes the blocked
+        // read to fail.
+        ScheduledFuture<?> alarm = this.watchdog.schedule(() -> disconnect(channel), this.timeout, TimeUnit.SECONDS);
+        boolean authorized = true;
+        String[] argv = new String[0];
+        File workDir = null;
+        try {
+            // For TCP, the client must present the access token before anything else.
+            if (this.token != null) {
+                String clientToken = inStream.readUTF();
+                authorized = MessageDigest.isEqual(clientToken.getBytes(StandardCharsets.UTF_8),
+                        this.token.getBytes(StandardCharsets.UTF_8));
+            }
+            // Read the working directory and the arguments.
+            if (authorized) {
+                workDir = new File(inStream.readUTF());
+                argv = new String[inStream.readInt()];
+                for (int i = 0; i < argv.length; i++)
+                    argv[i] = inStream.readUTF();
+            }
+        } finally {
+            alarm.cancel(false);
+        }
+        final int argc = argv.length;
+        int status;
+        if (! authorized) {
+            log.warn("Client presented an invalid access token.");
+            status = CommandRunner.INVALID;
+        } else if (! workDir.isAbsolute() || ! workDir.isDirectory()) {
+            log.warn("Client working directory {} is invalid.", workDir);
+            status = CommandRunner.INVALID;
+        } else if (argc == 1 && argv[0].equals(STOP_COMMAND)) {
+            log.info("Stop request received.");
+            status = CommandRunner.OK;
+            retVal = true;
+        } else if (argc > 0 && FORBIDDEN.contains(argv[0])) {
+            log.warn("Client attempted to run forbidden command \"{}\".", argv[0]);
+            status = CommandRunner.INVALID;
+        } else {
+            // Run the command in the client's working directory with the standard output sent to the client.
+            PrintStream oldOut = System.out;
+            String oldDir = System.getProperty("user.dir");
+            PrintStream clientOut = new PrintStream(new BufferedOutputStream(new FrameOutputStream(outStream), FRAME_SIZE),
+                    false, StandardCharsets.UTF_8);
+            System.setOut(clientOut);
+            System.setProperty("user.dir", workDir.getPath());
+            WorkDirFileHandler.setWorkDir(workDir);
+            CommandRunner.Result result;
+            try {
+                result = CommandRunner.execute(argv);
+            } finally {
+                WorkDirFileHandler.setWorkDir(null);
+                System.setProperty("user.dir", oldDir);
+                clientOut.flush();
+                System.setOut(oldOut);
+            }
+            log.info("Command \"{}\" completed with status {} in {} ms.", result.getCommand(), result.getStatus(),
+                    result.getDuration());
+            status = result.getStatus();
+        }
+        // Terminate the response.
+        outStream.writeInt(0);
+        outStream.writeInt(status);
+        outStream.flush();
+        return retVal;
+    }
+
+    /**
+     * Close the channel to a client that has taken too long to send its request.
+     *
+     * @param channel	socket channel connected to the client
+     */
+    private static void disconnect(SocketChannel channel) {
+        log.warn("Client request timed out.");
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Error closing client channel: {}", e.toString());
+        }
+    }
+
+    /**
+     * Compute the socket address for the daemon.
+     *
+     * @param socketFile	Unix domain socket file, or NULL to use TCP
+     * @param port			TCP port number
+     *
+     * @return the address on which the daemon listens
+     */
+    public static SocketAddress getAddress(File socketFile, int port) {
+        SocketAddress retVal;
+        if (socketFile != null)
+            retVal = UnixDomainSocketAddress.of(socketFile.toPath());
+        else
+            retVal = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        return retVal;
+    }
+
+    /**
+     * Open an unbound server socket channel of the appropriate type.
+     *
+     * @param socketFile	Unix domain socket file, or NULL to use TCP
+     *
+     * @return the server socket channel
+     *
+     * @throws IOException
+     */
+    private static ServerSocketChannel openServer(File socketFile) throws IOException {
+        ServerSocketChannel retVal;
+        if (socketFile != null) {
+            // A stale socket file would prevent the bind.
+            Files.deleteIfExists(socketFile.toPath());
+            retVal = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else
+            retVal = ServerSocketChannel.open();
+        return retVal;
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.java.erdb.DbTable;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
+
+/**
+ * This class contains utilities for reading the metadata of a database connection. Each request is
+ * timed in the metrics registry and recorded as a flight recorder event, so that the cost of the
+ * metadata queries is visible.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DbMetadata {
+
+    // FIELDS
+    /** timer for table-list queries */
+    private static final Timer TABLE_LIST_TIMER = MetricsRegistry.global().timer("db.getTableNames");
+    /** timer for table-descriptor queries */
+    private static final Timer TABLE_DESC_TIMER = MetricsRegistry.global().timer("db.getTable");
+
+    /**
+     * Get the list of tables in a database.
+     *
+     * @param db	database connection
+     *
+     * @return the list of table names
+     *
+     * @throws SQLException
+     */
+    public static List<String> getTableNames(DbConnection db) throws SQLException {
+        List<String> retVal;
+        DbMetadataEvent event = new DbMetadataEvent();
+        event.begin();
+        try (Timer.Context t = TABLE_LIST_TIMER.start()) {
+            retVal = db.getTableNames();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "getTableNames";
+            event.size = retVal.size();
+            event.commit();
+        }
+        return retVal;
+    }
+
+    /**
+     * Get the descriptor for a table.
+     *
+     * @param db		database connection
+     * @param table		name of the desired table
+     *
+     * @return the descriptor for the table
+     *
+     * @throws SQLException
+     */
+    public static DbTable getTable(DbConnection db, String table) throws SQLException {
+        DbTable retVal;
+        DbMetadataEvent event = new DbMetadataEvent();
+        event.begin();
+        try (Timer.Context t = TABLE_DESC_TIMER.start()) {
+            retVal = db.getTable(table);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "getTable";
+            event.table = table;
+            event.size = retVal.getFields().size();
+            event.commit();
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This is a flight recorder event for a database metadata request, such as reading the table list or
+ * a table descriptor.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@Name("org.theseed.erdb.DbMetadata")
+@Label("Database Metadata")
+@Category({ "ERDB Utilities", "Database" })
+@Description("Database metadata request")
+class DbMetadataEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Table")
+    String table;
+
+    @Label("Size")
+    @Description("number of tables or fields returned")
+    int size;
+
+}
@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This object computes an automatic layout for a database diagram. The layout is layered: the waves of the
+ * table dependency graph determine the vertical order, so that a table is always below the tables its links
+ * refer to. Within each layer, each table is placed in the column nearest the average column of its parents
+ * (the barycenter heuristic), which tends to put a table under the tables it links to and reduces line
+ * crossings. The tables are placed in order of their barycenters, and a table whose column is already taken
+ * moves to the nearest free column. A layer that is wider than the maximum number of columns cannot be placed
+ * this way, so it is packed in barycenter order, wrapping onto additional rows.
+ *
+ * Because every table gets its own grid cell, rectangles never overlap. The whole computation is a single
+ * pass through the graph plus a sort of each layer and the search for free columns, which is at worst
+ * proportional to the number of tables times the maximum number of columns.
+ *
+ * Table names are normalized to lower case, as in the rest of the diagram code. Rows and columns are 1-based,
+ * to match the manual placements.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DiagramLayout {
+
+    // FIELDS
+    /** map of normalized table names to grid cells */
+    private Map<String, Cell> cellMap;
+    /** number of rows used */
+    private int rows;
+    /** number of columns used */
+    private int cols;
+
+    /**
+     * This object represents the position of a table in the diagram grid.
+     */
+    public static class Cell {
+
+        /** row number (1-based) */
+        private int row;
+        /** column number (1-based) */
+        private int col;
+
+        /**
+         * Construct a grid cell.
+         *
+         * @param row	row number (1-based)
+         * @param col	column number (1-based)
+         */
+        public Cell(int row, int col) {
+            this.row = row;
+            this.col = col;
+        }
+
+        /**
+         * @return the row number (1-based)
+         */
+        public int getRow() {
+            return this.row;
+        }
+
+        /**
+         * @return the column number (1-based)
+         */
+        public int getCol() {
+            return this.col;
+        }
+
+    }
+
+    /**
+     * This object is used to sort the tables in a layer.
+     */
+    private static class Slot {
+
+        /** normalized table name */
+        private String table;
+        /** barycenter of the parent columns */
+        private double center;
+
+        /**
+         * Construct a sort slot for a table.
+         *
+         * @param table		normalized table name
+         * @param center	barycenter of the parent columns
+         */
+        private Slot(String table, double center) {
+            this.table = table;
+            this.center = center;
+        }
+
+    }
+
+    /**
+     * Compute the layout for a database.
+     *
+     * @param graph		dependency graph of the database tables
+     * @param maxCols	maximum number of columns in a row, or 0 to compute a default
+     */
+    public DiagramLayout(TableGraph graph, int maxCols) {
+        final int n = graph.size();
+        if (maxCols <= 0)
+            maxCols = Math.max(4, (int) Math.ceil(Math.sqrt(n) * 1.5));
+        this.cellMap = new HashMap<String, Cell>(n * 4 / 3 + 1);
+        this.rows = 0;
+        this.cols = 0;
+        for (List<String> wave : graph.getWaves()) {
+            // Compute the barycenter for each table in this layer. A table with no placed parents keeps
+            // its position in the wave, scaled to the layer width.
+            List<Slot> slots = new ArrayList<Slot>(wave.size());
+            final int width = Math.min(wave.size(), maxCols);
+            for (int i = 0; i < wave.size(); i++) {
+                String table = wave.get(i);
+                double total = 0.0;
+                int count = 0;
+                for (String parent : graph.getParents(table)) {
+                    Cell parentCell = this.cellMap.get(parent.toLowerCase());
+                    if (parentCell != null) {
+                        total += parentCell.col;
+                        count++;
+                    }
+                }
+                double center = (count > 0 ? total / count : (i % width) + 1.0);
+                slots.add(new Slot(table.toLowerCase(), center));
+            }
+            // Sort the layer. The sort is stable, so ties keep their wave order.
+            slots.sort(Comparator.comparingDouble(x -> x.center));
+            if (slots.size() <= maxCols) {
+                // The layer fits in one row, so each table goes as close to its barycenter as possible.
+                this.rows++;
+                boolean[] used = new boolean[maxCols + 1];
+                for (Slot slot : slots) {
+                    int col = findFreeColumn(used, (int) Math.round(slot.center));
+                    used[col] = true;
+                    this.cellMap.put(slot.table, new Cell(this.rows, col));
+                    this.cols = Math.max(this.cols, col);
+                }
+            } else {
+                // Pack the cells, wrapping as needed.
+                int col = 0;
+                for (Slot slot : slots) {
+                    if (col == 0 || col >= maxCols) {
+                        this.rows++;
+                        col = 0;
+                    }
+                    col++;
+                    this.cellMap.put(slot.table, new Cell(this.rows, col));
+                    this.cols = Math.max(this.cols, col);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the free column nearest a desired column. At equal distances, the column to the right is chosen,
+     * since the tables are placed in order of increasing barycenter.
+     *
+     * @param used		array of flags indicating which columns are taken (index 0 is unused)
+     * @param desired	desired column
+     *
+     * @return the nearest free column, which must exist
+     */
+    private static int findFreeColumn(boolean[] used, int desired) {
+        final int maxCols = used.length - 1;
+        desired = Math.max(1, Math.min(maxCols, desired));
+        int retVal = -1;
+        for (int d = 0; retVal < 0; d++) {
+            if (desired + d <= maxCols && ! used[desired + d])
+                retVal = desired + d;
+            else if (desired - d >= 1 && ! used[desired - d])
+                retVal = desired - d;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the grid cell for a table, or NULL if the table is not in the layout
+     *
+     * @param table		name of the table of interest
+     */
+    public Cell get(String table) {
+        return this.cellMap.get(table.toLowerCase());
+    }
+
+    /**
+     * @return the number of rows in the layout
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the number of columns in the layout
+     */
+    public int getCols() {
+        return this.cols;
+    }
+
+}
@@ -8,6 +8,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +21,9 @@ import org.theseed.basic.ParseFailureException;
 import org.theseed.java.erdb.DbConnection;
 import org.theseed.java.erdb.DbTable;
 import org.theseed.java.erdb.DbTable.Field;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
 
 import j2html.tags.ContainerTag;
 import j2html.tags.DomContent;
@@ -29,8 +34,10 @@ import static j2html.TagCreator.*;
  * This command creates an HTML web page containing a diagram of an ERDB database.  This includes
  * an actual picture drawn with SVG and sections about each table.
  *
- * Note that at this time we cannot handle recursive relationships, including ones that are implemented
- * via relationship tables.  This will be fixed when I learn how to control bezier curves.
+ * Normally, the tables are placed on the diagram according to the row and column in their placement
+ * metadata.  For large schemas, the "--auto" option computes the placements from the link graph instead.
+ * A recursive relationship (a link from a table to itself) is drawn as a curved loop on the right side of
+ * the table's rectangle.
  *
  * There are no positional parameters.  The HTML is produced on the standard output.
  *
@@ -49,11 +56,18 @@ import static j2html.TagCreator.*;
  * --title		title of this database (default "Database Diagram")
  * --width		width of a rectangle (defeult 120)
  * --height		height of a rectangle (default 80)
+ * --stats		include table size statistics in the diagram and listings
+ * --timeout	maximum number of seconds for each statistics query (default 30)
+ * --auto		compute the table placements automatically from the links
+ * --maxcols	maximum number of columns for an automatic layout (default depends on the number of tables)
+ * --compact	produce a compact diagram using shared styles, a rectangle template, and combined line paths
+ * --mmap		memory map size in megabytes for reading an SQLite database (default 1024, 0 to disable)
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
  *
  * @author Bruce Parrello
  *
  */
-public class DisplayProcessor extends BaseDbProcessor {
+public class DisplayProcessor extends BaseDbProcessor implements BatchResources {
 
     // FIELDS
     /** logging facility */
@@ -70,12 +84,48 @@ public class DisplayProcessor extends BaseDbProcessor {
     private ContainerTag tableTables;
     /** map of table names to placements; note we must normalize table names to lower-case */
     private Map<String, DbTable.Placement> placeMap;
+    /** map of table names to diagram grid cells; the table names are normalized as above */
+    private Map<String, DiagramLayout.Cell> cellMap;
     /** non-breaking space for empty cells */
     private static final DomContent NBSP = rawHtml("&nbsp;");
     /** constant Y for flag columns */
     private static final DomContent YES_FLAG = text("Y");
     /** rectangle color */
     private static final String RECT_COLOR = "#00CCCC";
+    /** table statistics, or NULL if statistics are not being displayed */
+    private TableStats stats;
+    /** minimum fill opacity for a rectangle when statistics are displayed */
+    private static final double MIN_OPACITY = 0.25;
+    /** map of link kinds to combined line paths (compact mode only) */
+    private Map<LinkKind, StringBuilder> pathMap;
+    /** counter for tables processed */
+    private static final Counter TABLE_COUNT = MetricsRegistry.global().counter("display.tables");
+    /** timer for rendering the page */
+    private static final Timer RENDER_TIMER = MetricsRegistry.global().timer("output.render");
+    /** timer for writing the output */
+    private static final Timer WRITE_TIMER = MetricsRegistry.global().timer("output.write");
+    /** counter for characters written */
+    private static final Counter WRITE_CHARS = MetricsRegistry.global().counter("output.chars");
+
+    /**
+     * This enum describes the different kinds of half-links, each of which is drawn differently.
+     */
+    private static enum LinkKind {
+        /** the table is on the "many" side */
+        MANY("many"),
+        /** the table is on the "one" side */
+        ONE("one"),
+        /** the table is on the "one" side and the other side is optional */
+        OPTIONAL("opt");
+
+        /** style class for this kind of line */
+        private String styleClass;
+
+        private LinkKind(String styleClass) {
+            this.styleClass = styleClass;
+        }
+
+    }
 
     // COMMAND-LINE OPTIONS
 
@@ -103,6 +153,34 @@ public class DisplayProcessor extends BaseDbProcessor {
     @Option(name = "--points", aliases = { "-p" }, metaVar = "12", usage = "font size in points for rectangle titles")
     private int points;
 
+    /** TRUE to display table statistics */
+    @Option(name = "--stats", usage = "if specified, table size statistics will be displayed")
+    private boolean statsFlag;
+
+    /** timeout in seconds for statistics queries */
+    @Option(name = "--timeout", metaVar = "10", usage = "maximum number of seconds for each statistics query")
+    private int timeout;
+
+    /** TRUE to compute the layout automatically */
+    @Option(name = "--auto", usage = "if specified, table placements will be computed from the links")
+    private boolean autoFlag;
+
+    /** maximum number of columns for an automatic layout */
+    @Option(name = "--maxcols", metaVar = "20", usage = "maximum number of diagram columns for an automatic layout")
+    private int maxCols;
+
+    /** TRUE to produce a compact diagram */
+    @Option(name = "--compact", usage = "if specified, the diagram will use shared styles and definitions")
+    private boolean compact;
+
+    /** memory map size for reading */
+    @Option(name = "--mmap", metaVar = "4096", usage = "memory map size in megabytes for reading an SQLite database (0 to disable)")
+    private int mmapSize;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
     @Override
     protected void setDbDefaults() {
         this.outFile = null;
@@ -111,16 +189,27 @@ public class DisplayProcessor extends BaseDbProcessor {
         this.points = 12;
         this.margin = 50;
         this.title = "Database Diagram";
+        this.statsFlag = false;
+        this.timeout = 30;
+        this.autoFlag = false;
+        this.maxCols = 0;
+        this.compact = false;
+        this.mmapSize = SqlHelper.DEFAULT_MMAP_MB;
+        this.metricsFile = null;
     }
 
     @Override
     protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.mmapSize < 0)
+            throw new ParseFailureException("Memory map size cannot be negative.");
         if (this.height <= 0)
             throw new ParseFailureException("Rectangle height must be positive.");
         if (this.width <= 0)
             throw new ParseFailureException("Rectangle width must be positive.");
         if (this.points <= 0)
             throw new ParseFailureException("Font size must be positive.");
+        if (this.timeout <= 0)
+            throw new ParseFailureException("Statistics timeout must be positive.");
         // Set up the output file.
         if (this.outFile == null) {
             log.info("Output will be to the standard output.");
@@ -134,41 +223,89 @@ public class DisplayProcessor extends BaseDbProcessor {
 
     @Override
     protected void runDbCommand(DbConnection db) throws Exception {
+        SqlHelper helper = new SqlHelper(db);
+        helper.setReadOnly(this.mmapSize);
         // Get the list of tables names.
         log.info("Acquiring table list.");
-        List<String> tables = db.getTableNames();
+        List<String> tables = DbMetadata.getTableNames(db);
         log.info("{} tables in the database.", tables.size());
         // These will track the number of rows and columns we need.  The placement values are 1-based,
         // so the highest value is the one we keep.
         int rows = 0;
         int cols = 0;
         this.placeMap = new HashMap<String, DbTable.Placement>(tables.size() * 4 / 3);
+        this.cellMap = new HashMap<String, DiagramLayout.Cell>(tables.size() * 4 / 3);
         for (String table : tables) {
-            DbTable tableDesc = db.getTable(table);
+            DbTable tableDesc = DbMetadata.getTable(db, table);
             DbTable.Placement tablePlace = tableDesc.getPlacement();
-            rows = Math.max(tablePlace.getRow(), rows);
-            cols = Math.max(tablePlace.getCol(), cols);
             this.placeMap.put(table.toLowerCase(), tablePlace);
+            if (! this.autoFlag) {
+                rows = Math.max(tablePlace.getRow(), rows);
+                cols = Math.max(tablePlace.getCol(), cols);
+                this.cellMap.put(table.toLowerCase(), new DiagramLayout.Cell(tablePlace.getRow(), tablePlace.getCol()));
+            }
+        }
+        if (this.autoFlag) {
+            log.info("Computing automatic layout.");
+            DiagramLayout layout = new DiagramLayout(new TableGraph(db), this.maxCols);
+            rows = layout.getRows();
+            cols = layout.getCols();
+            for (String table : tables)
+                this.cellMap.put(table.toLowerCase(), layout.get(table));
         }
         log.info("Diagram has {} rows and {} columns.", rows, cols);
+        // Collect the statistics if we need them.
+        if (! this.statsFlag)
+            this.stats = null;
+        else {
+            log.info("Collecting table statistics.");
+            this.stats = new TableStats(helper, tables, this.timeout);
+        }
         // Create the table section.
         this.tableTables = div().withId("tables").with(h2("Table Listings"));
         // Create the diagram components.  Note we make do with a good estimate for the number of lines instead
         // of an upper bound.
         this.lines = new ArrayList<ContainerTag>(tables.size() * 2);
         this.blocks = new ArrayList<ContainerTag>(tables.size());
+        if (this.compact) {
+            this.pathMap = new EnumMap<LinkKind, StringBuilder>(LinkKind.class);
+            for (LinkKind kind : LinkKind.values())
+                this.pathMap.put(kind, new StringBuilder(tables.size() * 20));
+        }
         // Now loop through the tables, creating the HTML.
         for (String table : tables)
             this.processTable(db, table);
         // Create the diagram.  The lines go first so they appear in back.
         ContainerTag diagram = new ContainerTag("svg").attr("width", cols * this.width + this.margin)
-                .attr("height", rows * this.height + this.margin).with(this.lines).with(this.blocks);
+                .attr("height", rows * this.height + this.margin);
+        if (this.compact) {
+            // In compact mode, we have the style and definitions followed by one path for each
+            // kind of line.
+            diagram.with(this.compactDefinitions());
+            for (Map.Entry<LinkKind, StringBuilder> pathEntry : this.pathMap.entrySet()) {
+                if (pathEntry.getValue().length() > 0)
+                    diagram.with(new ContainerTag("path").withClass(pathEntry.getKey().styleClass)
+                            .attr("d", pathEntry.getValue().toString()));
+            }
+        }
+        diagram.with(this.lines).with(this.blocks);
         // It is time to assemble all of this.
         ContainerTag head = head().with(link().withRel("styleSheet").withHref(STYLE_SHEET))
                 .with(title(this.title));
         ContainerTag page = html().with(head, body().with(h1(this.title), diagram, this.tableTables));
-        writer.println(page.render());
-        writer.flush();
+        String pageHtml;
+        try (Timer.Context t = RENDER_TIMER.start()) {
+            pageHtml = page.render();
+        }
+        try (Timer.Context t = WRITE_TIMER.start()) {
+            writer.println(pageHtml);
+            writer.flush();
+        }
+        WRITE_CHARS.add(pageHtml.length());
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
     }
 
     /**
@@ -181,8 +318,9 @@ public class DisplayProcessor extends BaseDbProcessor {
      */
     private void processTable(DbConnection db, String table) throws SQLException {
         log.info("Processing table {}.", table);
+        TABLE_COUNT.increment();
         // Get the table's descriptor and placement.
-        DbTable tableDesc = db.getTable(table);
+        DbTable tableDesc = DbMetadata.getTable(db, table);
         DbTable.Placement placement = this.placeMap.get(table.toLowerCase());
         // First, we build the table of fields.
         ContainerTag fieldTable = table().with(tr().with(th("Field"), th("Key?"), th("Type"), th("description")));
@@ -197,49 +335,180 @@ public class DisplayProcessor extends BaseDbProcessor {
             if (! field.getName().equals(primaryKey))
                 fieldTable.with(this.fieldRow(field, false));
         }
-        ContainerTag section = div().with(a(h3(table)).withName(table), p(placement.getComment()),
-                fieldTable);
+        ContainerTag section = div().with(a(h3(table)).withName(table), p(placement.getComment()));
+        if (this.stats != null)
+            section.with(p(this.statsText(this.stats.get(table))));
+        section.with(fieldTable);
         this.tableTables.with(section);
-        // Produce the rectangle for the table.  The rectangle is managed by an inner SVG group.
-        int x1 = this.margin + (placement.getCol() - 1) * this.width;
-        int y1 = this.margin + (placement.getRow() - 1) * this.height;
-        ContainerTag tableGroup = new ContainerTag("svg").attr("x", x1).attr("y", y1)
-                .attr("width", this.width).attr("height", this.height).with(
-                new ContainerTag("rect").attr("x", 0).attr("y", 0).attr("width", "100%").attr("height", "100%")
-                        .attr("fill", RECT_COLOR).attr("stroke", "black").attr("stroke-width", 2),
-                new ContainerTag("text").attr("x", "50%").attr("y", "50%").attr("font-size", this.points)
-                        .attr("fill", "black").with(text(table)));
-        this.blocks.add(a(tableGroup).withHref("#" + table));
+        // Produce the rectangle for the table.
+        DiagramLayout.Cell cell = this.cellMap.get(table.toLowerCase());
+        int x1 = this.margin + (cell.getCol() - 1) * this.width;
+        int y1 = this.margin + (cell.getRow() - 1) * this.height;
+        if (this.compact)
+            this.blocks.add(a(this.compactBlock(table, x1, y1)).withHref("#" + table));
+        else
+            this.blocks.add(a(this.tableBlock(table, x1, y1)).withHref("#" + table));
         // Now we draw the lines.  Each line will start at our centerpoint.
         int x0 = x1 + this.width / 2;
         int y0 = y1 + this.height / 2;
         // Loop through the links.
         for (Map.Entry<String, DbTable.Link> link : tableDesc.getLinks()) {
-            // Get the other endpoint, midway between us and the other table.
-            DbTable.Placement otherPlace = this.placeMap.get(link.getKey());
-            int x2 = (x1 + this.margin + otherPlace.getCol() * this.width) / 2;
-            int y2 = (y1 + this.margin + otherPlace.getRow() * this.height) / 2;
-            // Start the line.
-            ContainerTag linkLine = new ContainerTag("line").attr("x1", x0).attr("y1", y0).attr("x2", x2)
-                    .attr("y2", y2).attr("stroke", "black").attr("stroke-linecap", "round");
+            // Compute the path for the line.  For a normal link, we also save the other endpoint.
+            String path;
+            int x2 = 0;
+            int y2 = 0;
+            boolean loop = link.getKey().equalsIgnoreCase(table);
+            if (loop) {
+                // A recursive link is a loop off the right side of the rectangle.  The "one" half-link
+                // loops above the middle and the "many" half-link below.
+                int xr = x1 + this.width;
+                int dy = (link.getValue().getLocalField().equals(primaryKey) ? -this.height : this.height) / 4;
+                path = String.format("M%d %dC%d %d %d %d %d %d", xr, y0, xr + this.width / 2, y0,
+                        xr + this.width / 2, y0 + 2 * dy, xr, y0 + 2 * dy);
+            } else {
+                // Get the other endpoint, midway between us and the other table.
+                DiagramLayout.Cell otherCell = this.cellMap.get(link.getKey().toLowerCase());
+                x2 = (x1 + this.margin + otherCell.getCol() * this.width) / 2;
+                y2 = (y1 + this.margin + otherCell.getRow() * this.height) / 2;
+                path = String.format("M%d %dL%d %d", x0, y0, x2, y2);
+            }
             // Now we need to determine the nature of the link.  If our field is NOT the primary key,
             // we are on the "many" side.  If the other field is nullable, we are conditional (1 or 0).
             // Otherwise, we are on the "one" side.
+            LinkKind kind;
             DbTable.Link linker = link.getValue();
-            if (! linker.getLocalField().equals(primaryKey)) {
-                // A "many" half-link is a thick link.
-                linkLine.attr("stroke-width", 7);
+            if (! linker.getLocalField().equals(primaryKey))
+                kind = LinkKind.MANY;
+            else {
+                DbTable.Field otherField = DbMetadata.getTable(db, link.getKey()).getField(linker.getOtherField());
+                kind = (otherField.isNullable() ? LinkKind.OPTIONAL : LinkKind.ONE);
+            }
+            if (this.compact) {
+                // In compact mode, the path is added to the combined path for its kind.
+                this.pathMap.get(kind).append(path);
             } else {
-                DbTable.Field otherField = db.getTable(link.getKey()).getField(linker.getOtherField());
-                if (otherField.isNullable())
-                    linkLine.attr("stroke-dasharray", "10,5");
-                linkLine.attr("stroke-width", 1);
+                ContainerTag linkLine;
+                if (loop)
+                    linkLine = new ContainerTag("path").attr("d", path).attr("fill", "none");
+                else
+                    linkLine = new ContainerTag("line").attr("x1", x0).attr("y1", y0).attr("x2", x2).attr("y2", y2);
+                linkLine.attr("stroke", "black").attr("stroke-linecap", "round");
+                if (kind == LinkKind.MANY) {
+                    // A "many" half-link is a thick link.
+                    linkLine.attr("stroke-width", 7);
+                } else {
+                    if (kind == LinkKind.OPTIONAL)
+                        linkLine.attr("stroke-dasharray", "10,5");
+                    linkLine.attr("stroke-width", 1);
+                }
+                // Add the line to the line list.
+                this.lines.add(linkLine);
             }
-            // Add the line to the line list.
-            this.lines.add(linkLine);
         }
     }
 
+    /**
+     * Create the fully-styled diagram block for a table.  The rectangle is managed by an inner SVG group.
+     *
+     * @param table		name of the table
+     * @param x1		X-coordinate of the table's rectangle
+     * @param y1		Y-coordinate of the table's rectangle
+     *
+     * @return the SVG group for the table
+     */
+    private ContainerTag tableBlock(String table, int x1, int y1) {
+        ContainerTag rect = new ContainerTag("rect").attr("x", 0).attr("y", 0).attr("width", "100%").attr("height", "100%")
+                .attr("fill", RECT_COLOR).attr("stroke", "black").attr("stroke-width", 2);
+        ContainerTag retVal = new ContainerTag("svg").attr("x", x1).attr("y", y1)
+                .attr("width", this.width).attr("height", this.height).with(rect);
+        if (this.stats == null) {
+            retVal.with(new ContainerTag("text").attr("x", "50%").attr("y", "50%").attr("font-size", this.points)
+                        .attr("fill", "black").with(text(table)));
+        } else {
+            // Here we have statistics. The row count goes under the name, and the fill is more opaque
+            // for bigger tables.
+            long tableRows = this.stats.get(table).getRows();
+            rect.attr("fill-opacity", String.format("%1.2f", this.opacity(tableRows)));
+            retVal.with(new ContainerTag("text").attr("x", "50%").attr("y", "40%").attr("font-size", this.points)
+                        .attr("fill", "black").with(text(table)),
+                    new ContainerTag("text").attr("x", "50%").attr("y", "70%").attr("font-size", this.points * 3 / 4)
+                        .attr("fill", "black").with(text(TableStats.formatCount(tableRows) + " rows")));
+        }
+        return retVal;
+    }
+
+    /**
+     * Create the compact diagram block for a table.  The rectangle is a reference to the template in the
+     * diagram definitions, and all the styling comes from the diagram style sheet.
+     *
+     * @param table		name of the table
+     * @param x1		X-coordinate of the table's rectangle
+     * @param y1		Y-coordinate of the table's rectangle
+     *
+     * @return the SVG group for the table
+     */
+    private ContainerTag compactBlock(String table, int x1, int y1) {
+        ContainerTag use = new ContainerTag("use").attr("href", "#tbl").attr("x", x1).attr("y", y1);
+        int xc = x1 + this.width / 2;
+        ContainerTag retVal = new ContainerTag("g").with(use);
+        if (this.stats == null)
+            retVal.with(new ContainerTag("text").attr("x", xc).attr("y", y1 + this.height / 2).with(text(table)));
+        else {
+            long tableRows = this.stats.get(table).getRows();
+            use.attr("fill-opacity", String.format("%1.2f", this.opacity(tableRows)));
+            retVal.with(new ContainerTag("text").attr("x", xc).attr("y", y1 + this.height * 2 / 5).with(text(table)),
+                    new ContainerTag("text").attr("x", xc).attr("y", y1 + this.height * 7 / 10).withClass("sub")
+                        .with(text(TableStats.formatCount(tableRows) + " rows")));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the style sheet and definitions for a compact diagram
+     */
+    private List<ContainerTag> compactDefinitions() {
+        String styles = String.format(".tbl{fill:%s;stroke:black;stroke-width:2}text{font-size:%dpx;fill:black}"
+                + ".sub{font-size:%dpx}path{fill:none;stroke:black;stroke-linecap:round}.many{stroke-width:7}"
+                + ".one{stroke-width:1}.opt{stroke-width:1;stroke-dasharray:10,5}", RECT_COLOR, this.points,
+                this.points * 3 / 4);
+        ContainerTag style = new ContainerTag("style").with(rawHtml(styles));
+        ContainerTag defs = new ContainerTag("defs").with(new ContainerTag("rect").withId("tbl").withClass("tbl")
+                .attr("width", this.width).attr("height", this.height));
+        return List.of(style, defs);
+    }
+
+    /**
+     * Compute the fill opacity for a table rectangle. The opacity is proportional to the logarithm of the
+     * row count, so that small tables are still visible.
+     *
+     * @param tableRows		number of rows in the table, or -1 if it is unknown
+     *
+     * @return the fill opacity for the table's rectangle
+     */
+    private double opacity(long tableRows) {
+        double retVal = MIN_OPACITY;
+        long maxRows = this.stats.getMaxRows();
+        if (tableRows > 0 && maxRows > 1)
+            retVal += (1.0 - MIN_OPACITY) * Math.log1p(tableRows) / Math.log1p(maxRows);
+        return retVal;
+    }
+
+    /**
+     * @return a description of a table's size statistics
+     *
+     * @param tableStats	statistics for the table
+     */
+    private String statsText(TableStats.Stats tableStats) {
+        StringBuilder retVal = new StringBuilder(80);
+        retVal.append(TableStats.formatCount(tableStats.getRows())).append(" rows");
+        if (tableStats.getPages() >= 0) {
+            retVal.append(", ").append(TableStats.formatCount(tableStats.getPages())).append(" pages, ")
+                    .append(TableStats.formatCount(tableStats.getBytes())).append(" bytes");
+        }
+        retVal.append('.');
+        return retVal.toString();
+    }
+
     /**
      * Create the table row describing the indicated field
      *
@@ -256,4 +525,24 @@ public class DisplayProcessor extends BaseDbProcessor {
         return retVal;
     }
 
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles();
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles(this.outFile, this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return this.outFile == null;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return false;
+    }
+
 }
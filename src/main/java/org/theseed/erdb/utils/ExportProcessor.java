@@ -0,0 +1,335 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.java.erdb.DbTable;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+
+/**
+ * This command exports database tables to tab-delimited files. Each table is written to a file named
+ * after the table in the output directory, with the field names in the header line. The field order
+ * is the order of the fields in the table descriptor. The values are escaped so that the "load" command
+ * can restore them exactly (see TsvCodec): a NULL is written as "\N", and backslashes, tabs, and line
+ * breaks are written as backslash sequences.
+ *
+ * The rows are streamed from a forward-only cursor, so memory use does not depend on the table size.
+ * The fetch size controls how many rows the driver retrieves at a time. For MySQL, the fetch size is
+ * only honored if "useCursorFetch=true" is specified in the connection parameters; otherwise the rows
+ * are streamed one at a time, since the driver would read the whole table into memory for any other
+ * fetch size.
+ *
+ * A connection cannot be shared between threads, so to export several tables at once, each worker thread
+ * opens its own connection from the JDBC URL of the command's connection (see SqlHelper.openWorker). This
+ * works for a file-based SQLite database, whose readers do not block each other, and for MySQL when the
+ * credentials are part of the URL. If the extra connections cannot be opened (for example, for an in-memory
+ * SQLite database), the tables are exported one at a time over the command's connection. All the table
+ * descriptors are read over the command's connection before the first table is exported, so a bad table
+ * name is found before any output is written.
+ *
+ * The positional parameters are the name of the output directory followed by the names of the tables
+ * to export. If no tables are specified, all of them are exported. The following command-line options
+ * are supported.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --type		type of database (default SQLITE)
+ * --dbfile		database file name (SQLITE only)
+ * --url		URL of database (host and name)
+ * --parms		database connection parameter string (currently only MySQL)
+ * --fetch		number of rows to fetch from the database at a time (default 1000; for MySQL, see above)
+ * --workers	number of tables to export at the same time (default 4)
+ * --gzip		if specified, the output files will be compressed
+ * --clear		erase the output directory before processing
+ * --mmap		memory map size in megabytes for reading an SQLite database (default 1024, 0 to disable)
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ExportProcessor extends BaseDbProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ExportProcessor.class);
+    /** counter for rows exported */
+    private static final Counter ROW_COUNT = MetricsRegistry.global().counter("export.rows");
+
+    // COMMAND-LINE OPTIONS
+
+    /** cursor fetch size */
+    @Option(name = "--fetch", metaVar = "5000", usage = "number of rows to fetch at a time (MySQL streams single rows unless useCursorFetch=true)")
+    private int fetchSize;
+
+    /** number of tables to export in parallel */
+    @Option(name = "--workers", metaVar = "8", usage = "number of tables to export at the same time")
+    private int workers;
+
+    /** TRUE to compress the output */
+    @Option(name = "--gzip", usage = "if specified, the output files will be GZIP-compressed")
+    private boolean gzip;
+
+    /** TRUE to erase the output directory */
+    @Option(name = "--clear", usage = "if specified, the output directory will be erased before processing")
+    private boolean clearFlag;
+
+    /** memory map size for reading */
+    @Option(name = "--mmap", metaVar = "4096", usage = "memory map size in megabytes for reading an SQLite database (0 to disable)")
+    private int mmapSize;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
+    /** output directory */
+    @Argument(index = 0, metaVar = "outDir", usage = "output directory", required = true)
+    private File outDir;
+
+    /** names of the tables to export */
+    @Argument(index = 1, metaVar = "table1 table2 ...", usage = "names of tables to export (default all)")
+    private List<String> tables;
+
+    @Override
+    protected void setDbDefaults() {
+        this.fetchSize = 1000;
+        this.workers = 4;
+        this.gzip = false;
+        this.clearFlag = false;
+        this.mmapSize = SqlHelper.DEFAULT_MMAP_MB;
+        this.metricsFile = null;
+        this.tables = new ArrayList<String>();
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.mmapSize < 0)
+            throw new ParseFailureException("Memory map size cannot be negative.");
+        if (this.fetchSize < 1)
+            throw new ParseFailureException("Fetch size must be at least 1.");
+        if (this.workers < 1)
+            throw new ParseFailureException("Number of workers must be at least 1.");
+        if (! this.outDir.isDirectory()) {
+            log.info("Creating output directory {}.", this.outDir);
+            if (! this.outDir.mkdirs())
+                throw new IOException("Could not create output directory " + this.outDir + ".");
+        } else if (this.clearFlag) {
+            log.info("Erasing output directory {}.", this.outDir);
+            for (File file : this.outDir.listFiles()) {
+                if (file.isFile())
+                    file.delete();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void runDbCommand(DbConnection db) throws Exception {
+        if (this.tables.isEmpty())
+            this.tables = DbMetadata.getTableNames(db);
+        log.info("{} tables to export.", this.tables.size());
+        SqlHelper helper = new SqlHelper(db);
+        helper.setReadOnly(this.mmapSize);
+        // Get all the table descriptors first.
+        List<DbTable> tableDescs = new ArrayList<DbTable>(this.tables.size());
+        for (String table : this.tables)
+            tableDescs.add(DbMetadata.getTable(db, table));
+        List<SqlHelper> workerHelpers = this.openWorkers(helper, Math.min(this.workers, this.tables.size()));
+        long total = 0;
+        if (workerHelpers.isEmpty()) {
+            for (int i = 0; i < tableDescs.size(); i++)
+                total += this.exportTable(helper, this.tables.get(i), tableDescs.get(i));
+        } else {
+            log.info("Exporting with {} worker connections.", workerHelpers.size());
+            // Each task borrows an idle connection. There is one connection per thread, so one is always free.
+            BlockingQueue<SqlHelper> idle = new ArrayBlockingQueue<SqlHelper>(workerHelpers.size(), false,
+                    workerHelpers);
+            ExecutorService pool = Executors.newFixedThreadPool(workerHelpers.size());
+            try {
+                List<Future<Long>> results = new ArrayList<Future<Long>>(tableDescs.size());
+                for (int i = 0; i < tableDescs.size(); i++) {
+                    final String table = this.tables.get(i);
+                    final DbTable tableDesc = tableDescs.get(i);
+                    results.add(pool.submit(() -> {
+                        SqlHelper worker = idle.take();
+                        try {
+                            return this.exportTable(worker, table, tableDesc);
+                        } finally {
+                            idle.put(worker);
+                        }
+                    }));
+                }
+                // Wait for the results. Any failure will be thrown from here.
+                for (Future<Long> result : results)
+                    total += result.get();
+            } finally {
+                pool.shutdownNow();
+                for (SqlHelper worker : workerHelpers)
+                    worker.close();
+            }
+        }
+        log.info("{} rows exported from {} tables.", total, this.tables.size());
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
+    }
+
+    /**
+     * Open the worker connections for a parallel export. If the database does not allow extra connections,
+     * no workers are returned and the export will be serial.
+     *
+     * @param helper	SQL helper for the command's connection
+     * @param count		number of workers desired
+     *
+     * @return a list of worker helpers configured for reading, or an empty list if the export must be serial
+     */
+    private List<SqlHelper> openWorkers(SqlHelper helper, int count) {
+        List<SqlHelper> retVal = new ArrayList<SqlHelper>(count);
+        if (count > 1) {
+            try {
+                boolean done = false;
+                while (! done && retVal.size() < count) {
+                    SqlHelper worker = helper.openWorker();
+                    if (worker == null) {
+                        log.info("The database cannot be opened twice, so the tables will be exported serially.");
+                        done = true;
+                    } else {
+                        retVal.add(worker);
+                        worker.setReadOnly(this.mmapSize);
+                    }
+                }
+            } catch (SQLException e) {
+                log.warn("Could not open worker connections, so the tables will be exported serially: {}",
+                        e.toString());
+            }
+            if (retVal.size() < count) {
+                // We only go parallel with a full set of workers.
+                for (SqlHelper worker : retVal) {
+                    try {
+                        worker.close();
+                    } catch (SQLException e) {
+                        log.warn("Error closing worker connection: {}", e.toString());
+                    }
+                }
+                retVal.clear();
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Export a single table.
+     *
+     * @param helper		SQL helper for the database connection to use
+     * @param table			name of the table to export
+     * @param tableDesc		descriptor of the table
+     *
+     * @return the number of rows exported
+     *
+     * @throws SQLException
+     * @throws IOException
+     */
+    private long exportTable(SqlHelper helper, String table, DbTable tableDesc) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        // Get the field names in order.
+        List<String> names = new ArrayList<String>();
+        List<String> cols = new ArrayList<String>();
+        for (DbTable.Field field : tableDesc.getFields()) {
+            names.add(field.getName());
+            cols.add(helper.quote(field.getName()));
+        }
+        final int width = names.size();
+        String sql = "SELECT " + StringUtils.join(cols, ", ") + " FROM " + helper.quote(table);
+        String fileName = table + (this.gzip ? ".tsv.gz" : ".tsv");
+        File outFile = new File(this.outDir, fileName);
+        log.info("Exporting table {} to {}.", table, outFile);
+        long retVal = 0;
+        try (PreparedStatement stmt = helper.prepare(sql); PrintWriter writer = this.openFile(outFile)) {
+            stmt.setFetchSize(helper.getFetchSize(this.fetchSize));
+            writer.println(StringUtils.join(names, '\t'));
+            StringBuilder line = new StringBuilder(100);
+            try (ResultSet results = stmt.executeQuery()) {
+                while (results.next()) {
+                    line.setLength(0);
+                    for (int i = 1; i <= width; i++) {
+                        if (i > 1)
+                            line.append('\t');
+                        TsvCodec.append(line, results.getString(i));
+                    }
+                    writer.println(line);
+                    retVal++;
+                }
+            }
+        }
+        log.info("{} rows exported from {} in {} ms.", retVal, table, System.currentTimeMillis() - start);
+        ROW_COUNT.add(retVal);
+        return retVal;
+    }
+
+    /**
+     * Open an output file for a table.
+     *
+     * @param outFile	file to open
+     *
+     * @return a print writer for the output file
+     *
+     * @throws IOException
+     */
+    private PrintWriter openFile(File outFile) throws IOException {
+        OutputStream outStream = new FileOutputStream(outFile);
+        if (this.gzip)
+            outStream = new GZIPOutputStream(outStream, 65536);
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8), 65536));
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles();
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles(this.outDir, this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return false;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return false;
+    }
+
+}
@@ -0,0 +1,279 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.java.erdb.DbTable;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
+
+/**
+ * This command looks for missing indexes on the join paths of a database. Every link field that is not
+ * a primary key is used to find the records on the "many" side of a relationship, and every primary key
+ * is used to find the record on the "one" side. If one of these fields is not the leading column of an
+ * index, we ask the database for the query plan of a lookup on the field. If the plan is a full table
+ * scan, an index is needed.
+ *
+ * For SQLite, the plan comes from "EXPLAIN QUERY PLAN", and a plan step beginning with "SCAN" is a full
+ * scan. For MySQL, the plan comes from "EXPLAIN", and an access type of "ALL" is a full scan.
+ *
+ * By default, the DDL for the missing indexes is written to the standard output. If "--create" is
+ * specified, the indexes are created, and the lookups are re-checked to confirm that they no longer
+ * scan. A report of the join paths examined is written to the log.
+ *
+ * There are no positional parameters. The following command-line options are supported.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --type		type of database (default SQLITE)
+ * --dbfile		database file name (SQLITE only)
+ * --url		URL of database (host and name)
+ * --parms		database connection parameter string (currently only MySQL)
+ * --create		create the missing indexes instead of displaying the DDL
+ * --mmap		memory map size in megabytes for reading an SQLite database (default 1024, 0 to disable)
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class IndexProcessor extends BaseDbProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(IndexProcessor.class);
+    /** timer for query plan checks */
+    private static final Timer PLAN_TIMER = MetricsRegistry.global().timer("db.explain");
+    /** SQL helper for the database */
+    private SqlHelper helper;
+
+    // COMMAND-LINE OPTIONS
+
+    /** TRUE to create the indexes */
+    @Option(name = "--create", usage = "if specified, the missing indexes will be created")
+    private boolean createFlag;
+
+    /** memory map size for reading */
+    @Option(name = "--mmap", metaVar = "4096", usage = "memory map size in megabytes for reading an SQLite database (0 to disable)")
+    private int mmapSize;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
+    /**
+     * This object describes a join path that needs an index.
+     */
+    private static class IndexNeed {
+
+        /** name of the table */
+        private String table;
+        /** name of the field */
+        private String field;
+
+        /**
+         * Construct a description of a missing index.
+         *
+         * @param table		name of the table
+         * @param field		name of the field needing an index
+         */
+        private IndexNeed(String table, String field) {
+            this.table = table;
+            this.field = field;
+        }
+
+        /**
+         * @return the name for the index
+         */
+        private String getIndexName() {
+            return "idx_" + this.table + "_" + this.field;
+        }
+
+        @Override
+        public String toString() {
+            return this.table + "." + this.field;
+        }
+
+    }
+
+    @Override
+    protected void setDbDefaults() {
+        this.createFlag = false;
+        this.mmapSize = SqlHelper.DEFAULT_MMAP_MB;
+        this.metricsFile = null;
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.mmapSize < 0)
+            throw new ParseFailureException("Memory map size cannot be negative.");
+        return true;
+    }
+
+    @Override
+    protected void runDbCommand(DbConnection db) throws Exception {
+        this.helper = new SqlHelper(db);
+        // We only need to write if we are creating indexes.
+        if (! this.createFlag)
+            this.helper.setReadOnly(this.mmapSize);
+        List<String> tables = DbMetadata.getTableNames(db);
+        log.info("Checking join paths for {} tables.", tables.size());
+        List<IndexNeed> needs = new ArrayList<IndexNeed>();
+        int pathCount = 0;
+        for (String table : tables) {
+            DbTable tableDesc = DbMetadata.getTable(db, table);
+            // Get the join fields for this table. The primary key is always one.
+            Set<String> joinFields = new LinkedHashSet<String>();
+            String primaryKey = tableDesc.getKeyName();
+            if (primaryKey != null)
+                joinFields.add(primaryKey);
+            for (Map.Entry<String, DbTable.Link> link : tableDesc.getLinks())
+                joinFields.add(link.getValue().getLocalField());
+            pathCount += joinFields.size();
+            // Find the fields that are already the leading column of an index.
+            Set<String> indexed = this.getIndexedFields(table);
+            for (String field : joinFields) {
+                if (indexed.contains(field.toLowerCase()))
+                    log.debug("{}.{} is indexed.", table, field);
+                else if (! this.isFullScan(table, field))
+                    log.info("{}.{} is not indexed, but the lookup plan does not use a full scan.", table, field);
+                else {
+                    log.info("{}.{} requires a full scan.", table, field);
+                    needs.add(new IndexNeed(table, field));
+                }
+            }
+        }
+        log.info("{} join paths checked, {} missing indexes found.", pathCount, needs.size());
+        // Now either create the indexes or display the DDL.
+        int fixed = 0;
+        for (IndexNeed need : needs) {
+            String ddl = "CREATE INDEX " + this.helper.quote(need.getIndexName()) + " ON "
+                    + this.helper.quote(need.table) + " (" + this.helper.quote(need.field) + ")";
+            if (! this.createFlag)
+                System.out.println(ddl + ";");
+            else {
+                log.info("Creating index for {}.", need);
+                try (PreparedStatement stmt = this.helper.prepare(ddl)) {
+                    stmt.execute();
+                }
+                if (this.isFullScan(need.table, need.field))
+                    log.warn("Lookups on {} still use a full scan.", need);
+                else {
+                    log.info("Lookups on {} no longer use a full scan.", need);
+                    fixed++;
+                }
+            }
+        }
+        if (this.createFlag)
+            log.info("{} indexes created, {} join paths no longer use full scans.", needs.size(), fixed);
+        System.out.flush();
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
+    }
+
+    /**
+     * Compute the set of fields that are the leading column of an index on a table. The primary key
+     * columns are included, since some engines do not report the primary key index.
+     *
+     * @param table		name of the table of interest
+     *
+     * @return the set of indexed field names, in lower case
+     *
+     * @throws SQLException
+     */
+    private Set<String> getIndexedFields(String table) throws SQLException {
+        Set<String> retVal = new HashSet<String>();
+        DatabaseMetaData metaData = this.helper.getMetaData();
+        try (ResultSet results = metaData.getIndexInfo(null, null, table, false, true)) {
+            while (results.next()) {
+                String colName = results.getString("COLUMN_NAME");
+                if (colName != null && results.getInt("ORDINAL_POSITION") == 1)
+                    retVal.add(colName.toLowerCase());
+            }
+        }
+        try (ResultSet results = metaData.getPrimaryKeys(null, null, table)) {
+            while (results.next()) {
+                if (results.getInt("KEY_SEQ") == 1)
+                    retVal.add(results.getString("COLUMN_NAME").toLowerCase());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Determine whether a lookup on a field requires a full table scan.
+     *
+     * @param table		name of the table
+     * @param field		name of the field used in the lookup
+     *
+     * @return TRUE if the query plan for the lookup scans the whole table, else FALSE
+     *
+     * @throws SQLException
+     */
+    private boolean isFullScan(String table, String field) throws SQLException {
+        boolean retVal = false;
+        String query = "SELECT * FROM " + this.helper.quote(table) + " WHERE " + this.helper.quote(field) + " = ?";
+        try (Timer.Context t = PLAN_TIMER.start()) {
+            if (this.helper.isSqlite()) {
+                try (PreparedStatement stmt = this.helper.prepare("EXPLAIN QUERY PLAN " + query)) {
+                    stmt.setString(1, "");
+                    try (ResultSet results = stmt.executeQuery()) {
+                        while (results.next() && ! retVal)
+                            retVal = results.getString("detail").startsWith("SCAN");
+                    }
+                }
+            } else {
+                try (PreparedStatement stmt = this.helper.prepare("EXPLAIN " + query)) {
+                    stmt.setString(1, "");
+                    try (ResultSet results = stmt.executeQuery()) {
+                        while (results.next() && ! retVal)
+                            retVal = "ALL".equals(results.getString("type"));
+                    }
+                }
+            }
+        }
+        return retVal;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles();
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles(this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return true;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return this.createFlag;
+    }
+
+}
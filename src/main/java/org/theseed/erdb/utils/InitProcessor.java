@@ -6,36 +6,84 @@ package org.theseed.erdb.utils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
 import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
 import org.theseed.java.erdb.DbConnection;
+import org.theseed.metrics.Gauge;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
+import org.theseed.spec.ModuleNode;
+import org.theseed.spec.ModuleRepository;
+import org.theseed.spec.SpecParser;
+import org.theseed.spec.SpecSchema;
 
 /**
  * This command connects to a database and initializes its schema from an SQL file.
  *
- * The positional parameter will be the name of the SQL file.  The following command-line options are
- * supported.
+ * If the file name ends in ".spec", it is a spec file instead, and the schema is generated from its
+ * structure types (see the "schema" command).
+ *
+ * The script is run by the database connection's script processor, which splits it into statements and
+ * executes them without reporting back. Timing and flight recorder events therefore cover the script as a
+ * whole; a per-statement breakdown is not possible without splitting the script here, and doing that
+ * would risk a different interpretation of the SQL than the one the connection uses.
+ *
+ * The positional parameter will be the name of the SQL or spec file.  The following command-line options
+ * are supported.
  *
  * -h	display command-line usage
  * -v	display more frequent log messages
  *
  * --type		type of database (default SQLITE)
  * --dbfile		database file name (SQLITE only)
+ * --lib		directory containing the spec files for imported modules (default is the current directory)
+ * --root		name of a root structure type in the spec file (may be specified more than once)
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
  *
  * @author Bruce Parrello
  *
  */
-public class InitProcessor extends BaseDbProcessor  {
+public class InitProcessor extends BaseDbProcessor implements BatchResources {
+
+    // FIELDS
+    /** timer for dropping the old tables */
+    private static final Timer CLEAR_TIMER = MetricsRegistry.global().timer("db.clearTables");
+    /** timer for running the initialization script */
+    private static final Timer SCRIPT_TIMER = MetricsRegistry.global().timer("db.scriptUpdate");
+    /** gauge for the number of tables created */
+    private static final Gauge TABLE_GAUGE = MetricsRegistry.global().gauge("init.tables");
 
     // COMMAND-LINE OPTIONS
 
+    /** library directory for imported modules */
+    @Option(name = "--lib", metaVar = "specDir", usage = "directory containing the spec files for imported modules")
+    private File libDir;
+
+    /** names of the root types */
+    @Option(name = "--root", metaVar = "genomeTO", usage = "name of a root structure type in the spec file (may be repeated)")
+    private List<String> roots;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
     /** name of the SQL input file */
-    @Argument(index = 0, metaVar = "initialize.sql", usage = "SQL file to create the tables")
+    @Argument(index = 0, metaVar = "initialize.sql", usage = "SQL or spec file to create the tables")
     private File sqlFile;
 
     @Override
     protected void setDbDefaults() {
+        this.libDir = new File(System.getProperty("user.dir"));
+        this.roots = new ArrayList<String>();
+        this.metricsFile = null;
     }
 
     @Override
@@ -43,19 +91,112 @@ public class InitProcessor extends BaseDbProcessor  {
         // Verify that the SQL file is readable.
         if (! this.sqlFile.canRead())
             throw new FileNotFoundException("SQL file " + this.sqlFile + " is not found or unreadable.");
+        if (! this.libDir.isDirectory())
+            throw new FileNotFoundException("Library directory " + this.libDir + " is not found or invalid.");
         return true;
     }
 
     @Override
     protected void runDbCommand(DbConnection db) throws Exception {
-        // First, we must drop all the current tables.
-        log.info("Removing current tables.");
-        db.clearTables();
-        // Now, run the SQL statements.
-        log.info("Executing initialization script from {}.", this.sqlFile);
-        db.scriptUpdate(this.sqlFile);
+        // If we have a spec file, generate the script from it. We do this first so that a bad spec
+        // leaves the database unchanged.
+        File scriptFile = this.sqlFile;
+        if (this.sqlFile.getName().endsWith(".spec"))
+            scriptFile = this.generateScript();
+        // Use write-ahead logging, so that readers are not blocked by later loads.
+        new SqlHelper(db).enableWal();
+        try {
+            // Now we must drop all the current tables.
+            log.info("Removing current tables.");
+            try (Timer.Context t = CLEAR_TIMER.start()) {
+                db.clearTables();
+            }
+            this.runScript(db, scriptFile);
+        } finally {
+            if (scriptFile != this.sqlFile)
+                Files.deleteIfExists(scriptFile.toPath());
+        }
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
+    }
+
+    /**
+     * Generate an initialization script from the spec file.
+     *
+     * @return a temporary file containing the script
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    private File generateScript() throws IOException, ParseFailureException {
+        log.info("Generating schema from {}.", this.sqlFile);
+        ModuleNode module;
+        try (LineReader reader = new LineReader(this.sqlFile)) {
+            module = new ModuleNode(new SpecParser(reader, ModuleRepository.forDirectory(this.libDir)));
+        }
+        SpecSchema schema;
+        try {
+            schema = SpecSchema.forModule(module, this.roots);
+        } catch (IllegalArgumentException e) {
+            throw new ParseFailureException(e.getMessage());
+        }
+        File retVal = File.createTempFile("init", ".sql");
+        try (PrintWriter writer = new PrintWriter(retVal)) {
+            schema.writeSql(writer);
+        }
+        log.info("{} tables generated for module {}.", schema.getTables().size(), module.getName());
+        return retVal;
+    }
+
+    /**
+     * Run an initialization script and report on the result.
+     *
+     * @param db			database connection
+     * @param scriptFile	SQL script file
+     *
+     * @throws Exception
+     */
+    private void runScript(DbConnection db, File scriptFile) throws Exception {
+        log.info("Executing initialization script from {}.", scriptFile);
+        InitScriptEvent event = new InitScriptEvent();
+        event.begin();
+        try (Timer.Context t = SCRIPT_TIMER.start()) {
+            db.scriptUpdate(scriptFile);
+        }
+        event.end();
         // Report on the number of tables in the database.
-        log.info("{} tables in database.", db.getTableNames().size());
+        int tableCount = DbMetadata.getTableNames(db).size();
+        if (event.shouldCommit()) {
+            // The script is run as a unit, so we describe it as a whole.
+            event.script = this.sqlFile.getPath();
+            event.size = scriptFile.length();
+            event.tables = tableCount;
+            event.commit();
+        }
+        TABLE_GAUGE.set(tableCount);
+        log.info("{} tables in database.", tableCount);
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles(this.libDir, this.sqlFile);
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles(this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return false;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return true;
     }
 
- }
+}
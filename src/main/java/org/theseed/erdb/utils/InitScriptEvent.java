@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This is a flight recorder event for running a database initialization script.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@Name("org.theseed.erdb.InitScript")
+@Label("Initialization Script")
+@Category({ "ERDB Utilities", "Database" })
+@Description("Execution of an SQL initialization script")
+class InitScriptEvent extends jdk.jfr.Event {
+
+    @Label("Script")
+    String script;
+
+    @Label("Script Size")
+    @DataAmount(DataAmount.BYTES)
+    long size;
+
+    @Label("Tables")
+    @Description("number of tables in the database afterward")
+    int tables;
+
+}
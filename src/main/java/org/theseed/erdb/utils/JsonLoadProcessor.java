@@ -0,0 +1,434 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.spec.ModuleNode;
+import org.theseed.spec.ModuleRepository;
+import org.theseed.spec.SpecParser;
+import org.theseed.spec.SpecSchema;
+import org.theseed.spec.SpecShredder;
+
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+/**
+ * This command loads JSON documents of a spec type into a database whose schema was generated from the same
+ * spec (see the "schema" and "init" commands). Each input file contains a single document of the root type.
+ * The document is broken into rows by walking it against the schema for its type (see SpecShredder), so that
+ * each element of a list or entry of a mapping becomes a row in a child table.
+ *
+ * The files are parsed and shredded in parallel, but the rows are written in document order by a single
+ * writer over the command's connection. Only a limited number of documents is in progress at any time, so
+ * memory use does not depend on the number of files. The keys of the new rows follow the highest keys already
+ * in the tables, so documents can be added to a database that already contains some. The inserts are batched
+ * for each table, and when the batches are written, the parent tables are always written before their
+ * children, so the link columns never refer to missing rows.
+ *
+ * The whole load is a single transaction: if any document fails, nothing is loaded.
+ *
+ * Progress is logged periodically in documents and rows per second, and a report of the rows loaded into
+ * each table is written to the standard output.
+ *
+ * The positional parameters are the name of the spec file, the name of the root type, and the names of the
+ * input files. If an input file is a directory, all the ".json" files in it are loaded. The command-line
+ * options are as follows.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --type		type of database (default SQLITE)
+ * --dbfile		database file name (SQLITE only)
+ * --url		URL of database (host and name)
+ * --parms		database connection parameter string (currently only MySQL)
+ * --lib		directory containing the spec files for imported modules (default is the current directory)
+ * --root		name of a root structure type used to create the schema (may be specified more than once)
+ * --batch		number of rows to buffer before the batches are written (default 1000)
+ * --workers	number of parsing threads (default 4)
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class JsonLoadProcessor extends BaseDbProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(JsonLoadProcessor.class);
+    /** counter for documents loaded */
+    private static final Counter DOC_COUNT = MetricsRegistry.global().counter("jsonLoad.documents");
+    /** counter for rows loaded */
+    private static final Counter ROW_COUNT = MetricsRegistry.global().counter("jsonLoad.rows");
+    /** shredder for the documents */
+    private SpecShredder shredder;
+    /** list of input files */
+    private List<File> files;
+    /** number of documents each worker can have in progress */
+    private static final int QUEUE_SIZE = 4;
+    /** number of milliseconds between progress messages */
+    private static final long PROGRESS_INTERVAL = 10000;
+
+    // COMMAND-LINE OPTIONS
+
+    /** library directory for imported modules */
+    @Option(name = "--lib", metaVar = "specDir", usage = "directory containing the spec files for imported modules")
+    private File libDir;
+
+    /** names of the root types */
+    @Option(name = "--root", metaVar = "genomeTO", usage = "name of a root structure type used to create the schema (may be repeated)")
+    private List<String> roots;
+
+    /** number of rows to buffer */
+    @Option(name = "--batch", metaVar = "500", usage = "number of rows to buffer before writing the insert batches")
+    private int batchSize;
+
+    /** number of parsing threads */
+    @Option(name = "--workers", metaVar = "8", usage = "number of threads for parsing input files")
+    private int workers;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
+    /** spec file describing the documents */
+    @Argument(index = 0, metaVar = "module.spec", usage = "spec file describing the documents", required = true)
+    private File specFile;
+
+    /** name of the document type */
+    @Argument(index = 1, metaVar = "genomeTO", usage = "name of the document type", required = true)
+    private String typeName;
+
+    /** input files */
+    @Argument(index = 2, metaVar = "inFile1 inFile2 ...", usage = "input files or directories", required = true)
+    private List<File> inFiles;
+
+    /**
+     * This object manages the insert statement and the pending rows for a single table.
+     */
+    private static class TableWriter {
+
+        /** insert statement */
+        private PreparedStatement stmt;
+        /** JDBC type of each column, for NULL values */
+        private int[] sqlTypes;
+        /** number of rows in the current batch */
+        private int pending;
+        /** total number of rows inserted */
+        private long count;
+
+        /**
+         * Construct a writer for a table.
+         *
+         * @param helper	SQL helper for the database connection
+         * @param table		schema descriptor for the table
+         *
+         * @throws SQLException
+         */
+        private TableWriter(SqlHelper helper, SpecSchema.Table table) throws SQLException {
+            List<SpecSchema.Column> columns = table.getColumns();
+            final int width = columns.size();
+            List<String> cols = new ArrayList<String>(width);
+            this.sqlTypes = new int[width];
+            for (int i = 0; i < width; i++) {
+                SpecSchema.Column column = columns.get(i);
+                cols.add(helper.quote(column.getName()));
+                switch (column.getSqlType()) {
+                case "INTEGER" :
+                    this.sqlTypes[i] = Types.BIGINT;
+                    break;
+                case "DOUBLE" :
+                    this.sqlTypes[i] = Types.DOUBLE;
+                    break;
+                default :
+                    this.sqlTypes[i] = Types.VARCHAR;
+                }
+            }
+            String sql = "INSERT INTO " + helper.quote(table.getName()) + " (" + StringUtils.join(cols, ", ")
+                    + ") VALUES (" + StringUtils.repeat("?", ", ", width) + ")";
+            this.stmt = helper.prepare(sql);
+            this.pending = 0;
+            this.count = 0;
+        }
+
+        /**
+         * Add a row to the current batch.
+         *
+         * @param row	array of column values
+         *
+         * @throws SQLException
+         */
+        private void add(Object[] row) throws SQLException {
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] == null)
+                    this.stmt.setNull(i + 1, this.sqlTypes[i]);
+                else
+                    this.stmt.setObject(i + 1, row[i]);
+            }
+            this.stmt.addBatch();
+            this.pending++;
+        }
+
+        /**
+         * Write the current batch.
+         *
+         * @throws SQLException
+         */
+        private void flush() throws SQLException {
+            if (this.pending > 0) {
+                this.stmt.executeBatch();
+                this.count += this.pending;
+                this.pending = 0;
+            }
+        }
+
+        /**
+         * Close the insert statement.
+         */
+        private void close() {
+            try {
+                this.stmt.close();
+            } catch (SQLException e) {
+                // Closing is only done at the end, so an error here is harmless.
+            }
+        }
+
+    }
+
+    @Override
+    protected void setDbDefaults() {
+        this.libDir = new File(System.getProperty("user.dir"));
+        this.roots = new ArrayList<String>();
+        this.batchSize = 1000;
+        this.workers = 4;
+        this.metricsFile = null;
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.batchSize < 1)
+            throw new ParseFailureException("Batch size must be at least 1.");
+        if (this.workers < 1)
+            throw new ParseFailureException("Number of workers must be at least 1.");
+        if (! this.libDir.isDirectory())
+            throw new FileNotFoundException("Library directory " + this.libDir + " is not found or invalid.");
+        if (! this.specFile.canRead())
+            throw new FileNotFoundException("Spec file " + this.specFile + " is not found or unreadable.");
+        // Collect the input files.
+        this.files = new ArrayList<File>();
+        for (File inFile : this.inFiles) {
+            if (inFile.isDirectory()) {
+                File[] jsonFiles = inFile.listFiles((dir, name) -> name.endsWith(".json"));
+                Arrays.sort(jsonFiles);
+                this.files.addAll(Arrays.asList(jsonFiles));
+            } else if (! inFile.canRead())
+                throw new FileNotFoundException("Input file " + inFile + " is not found or unreadable.");
+            else
+                this.files.add(inFile);
+        }
+        log.info("{} input files found.", this.files.size());
+        // Compile the spec and build the schema. The roots must be the same as the ones used to create
+        // the database, so that the table names match.
+        ModuleNode module;
+        try (LineReader reader = new LineReader(this.specFile)) {
+            module = new ModuleNode(new SpecParser(reader, ModuleRepository.forDirectory(this.libDir)));
+        }
+        try {
+            SpecSchema schema = SpecSchema.forModule(module, this.roots);
+            this.shredder = new SpecShredder(schema, this.typeName);
+        } catch (IllegalArgumentException e) {
+            throw new ParseFailureException(e.getMessage());
+        }
+        return true;
+    }
+
+    @Override
+    protected void runDbCommand(DbConnection db) throws Exception {
+        SqlHelper helper = new SqlHelper(db);
+        helper.enableWal();
+        List<SpecSchema.Table> tables = this.shredder.getTables();
+        final int n = tables.size();
+        // Create the table writers and find the first free key in each table.
+        List<TableWriter> writers = new ArrayList<TableWriter>(n);
+        long[] nextKeys = new long[n];
+        for (int i = 0; i < n; i++) {
+            SpecSchema.Table table = tables.get(i);
+            writers.add(new TableWriter(helper, table));
+            nextKeys[i] = this.getNextKey(helper, table);
+        }
+        log.info("Loading {} documents into {} tables using {} workers.", this.files.size(), n, this.workers);
+        long start = System.currentTimeMillis();
+        long lastLog = start;
+        long docs = 0;
+        long rows = 0;
+        int pending = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(this.workers);
+        helper.beginTransaction();
+        try {
+            // The documents are parsed in parallel, but the futures are consumed in file order, so the keys
+            // are assigned in a predictable way. The window limits the number of documents in memory.
+            final int window = this.workers * QUEUE_SIZE;
+            Deque<Future<SpecShredder.Rows>> queue = new ArrayDeque<Future<SpecShredder.Rows>>(window);
+            int nextFile = 0;
+            final int fileCount = this.files.size();
+            while (nextFile < fileCount || ! queue.isEmpty()) {
+                while (nextFile < fileCount && queue.size() < window) {
+                    File inFile = this.files.get(nextFile);
+                    queue.add(pool.submit(() -> this.shredFile(inFile)));
+                    nextFile++;
+                }
+                SpecShredder.Rows docRows = queue.remove().get();
+                docRows.assignKeys(nextKeys);
+                for (int i = 0; i < n; i++) {
+                    TableWriter writer = writers.get(i);
+                    for (Object[] row : docRows.get(i))
+                        writer.add(row);
+                }
+                pending += docRows.size();
+                rows += docRows.size();
+                docs++;
+                if (pending >= this.batchSize) {
+                    // Write the parents before the children.
+                    for (TableWriter writer : writers)
+                        writer.flush();
+                    pending = 0;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastLog >= PROGRESS_INTERVAL) {
+                    double seconds = (now - start) / 1000.0;
+                    log.info("{} documents loaded ({} docs/s), {} rows ({} rows/s).", docs,
+                            String.format("%4.1f", docs / seconds), rows, String.format("%4.1f", rows / seconds));
+                    lastLog = now;
+                }
+            }
+            for (TableWriter writer : writers)
+                writer.flush();
+            helper.commit();
+        } catch (Exception e) {
+            log.error("Load failed after {} documents.", docs);
+            helper.rollback();
+            throw e;
+        } finally {
+            pool.shutdownNow();
+            for (TableWriter writer : writers)
+                writer.close();
+        }
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        DOC_COUNT.add(docs);
+        ROW_COUNT.add(rows);
+        log.info("{} documents and {} rows loaded in {} seconds.", docs, rows, String.format("%4.3f", seconds));
+        // Write the report.
+        System.out.println("table\trows");
+        for (int i = 0; i < n; i++)
+            System.out.println(tables.get(i).getName() + "\t" + writers.get(i).count);
+        System.out.println();
+        System.out.println("documents\trows\tseconds\tdocs/sec\trows/sec");
+        System.out.format("%d\t%d\t%4.3f\t%4.1f\t%4.1f%n", docs, rows, seconds,
+                (seconds > 0.0 ? docs / seconds : 0.0), (seconds > 0.0 ? rows / seconds : 0.0));
+        System.out.flush();
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
+    }
+
+    /**
+     * Parse an input file and break its document into rows.
+     *
+     * @param inFile	input file containing a document
+     *
+     * @return the rows for the document
+     *
+     * @throws IOException
+     */
+    private SpecShredder.Rows shredFile(File inFile) throws IOException {
+        Object document;
+        try (BufferedReader reader = Files.newBufferedReader(inFile.toPath(), StandardCharsets.UTF_8)) {
+            document = Jsoner.deserialize(reader);
+        } catch (JsonException e) {
+            throw new IOException("Invalid JSON in " + inFile + ": " + e.getMessage());
+        }
+        SpecShredder.Rows retVal;
+        try {
+            retVal = this.shredder.shred(document);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Document in " + inFile + " does not match type " + this.typeName + ": "
+                    + e.getMessage());
+        }
+        log.debug("{} rows produced from {}.", retVal.size(), inFile);
+        return retVal;
+    }
+
+    /**
+     * Compute the first free key in a table.
+     *
+     * @param helper	SQL helper for the database connection
+     * @param table		schema descriptor for the table
+     *
+     * @return the key following the highest key in the table, or 1 if the table is empty
+     *
+     * @throws SQLException
+     */
+    private long getNextKey(SqlHelper helper, SpecSchema.Table table) throws SQLException {
+        long retVal = 1;
+        String sql = "SELECT MAX(" + helper.quote(SpecSchema.KEY_COLUMN) + ") FROM " + helper.quote(table.getName());
+        try (PreparedStatement stmt = helper.prepare(sql); ResultSet results = stmt.executeQuery()) {
+            if (results.next())
+                retVal = results.getLong(1) + 1;
+        }
+        return retVal;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        List<File> retVal = BatchResources.listFiles(this.libDir, this.specFile);
+        if (this.inFiles != null)
+            retVal.addAll(this.inFiles);
+        return retVal;
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles(this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return true;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return true;
+    }
+
+}
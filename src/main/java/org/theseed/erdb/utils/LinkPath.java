@@ -0,0 +1,765 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.java.erdb.DbTable;
+
+/**
+ * This object represents a query that follows a path of relationships through an ERDB database. The path
+ * is a list of tables separated by arrows, each of which may be followed by filter conditions in
+ * parentheses, and then optionally a colon and a list of the fields to return. For example,
+ *
+ * 		Genome(domain = 'Bacteria') -> Feature(type = ?, length >= 1000) -> Protein : Genome.name, Feature.*, sequence
+ *
+ * Each filter condition compares a field of its table to a string in quotes, a number, or a question mark
+ * denoting a parameter supplied when the query is run. The operators are "=", "<>", "!=", "<", "<=", ">",
+ * ">=", and "LIKE". A field to return can be qualified by its table name, and an unqualified field must
+ * belong to exactly one table in the path. "Table.*" returns all the fields of a table, and "*" returns all
+ * the fields of every table. The fields returned by "*" or "Table.*" are labelled "Table.field", like the
+ * qualified fields, so that fields with the same name in different tables remain distinct. If no fields are
+ * specified, all the fields of the last table are returned under their own names. A field cannot be
+ * returned twice.
+ *
+ * The path is compiled into a single SQL statement by joining each pair of adjacent tables on the link
+ * between them from the ERDB metadata. The literal values in the filters are passed as parameters, so
+ * queries on the same path with different values produce the same SQL and can share a prepared statement.
+ *
+ * If table statistics are available, the join order is chosen from them: the join starts at the table with
+ * the fewest estimated rows after filtering and then grows along the path, always toward the smaller
+ * neighbor. The order is forced using CROSS JOIN in SQLite and STRAIGHT_JOIN in MySQL. Without statistics,
+ * or if the row count of any table in the path is unknown (for example, because its statistics query timed
+ * out), the tables are joined in path order and the database's optimizer is left to choose.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class LinkPath {
+
+    // FIELDS
+    /** list of steps in the path */
+    private List<Step> steps;
+    /** list of fields to return */
+    private List<FieldRef> fields;
+    /** number of parameters to be supplied when the query is run */
+    private int parmCount;
+    /** estimated fraction of rows kept by an equality filter */
+    private static final double EQUAL_FACTOR = 0.1;
+    /** estimated fraction of rows kept by any other filter */
+    private static final double OTHER_FACTOR = 0.3;
+    /** set of valid comparison operators */
+    private static final Set<String> OPERATORS = Set.of("=", "<>", "!=", "<", "<=", ">", ">=", "LIKE");
+
+    /**
+     * This object describes a filter condition on a table.
+     */
+    public static class Condition {
+
+        /** name of the field */
+        private String field;
+        /** comparison operator */
+        private String op;
+        /** literal value (a String, Long, or Double), or NULL for a parameter */
+        private Object value;
+
+        /**
+         * Create a filter condition.
+         *
+         * @param field		name of the field
+         * @param op		comparison operator
+         * @param value		literal value, or NULL for a parameter
+         */
+        private Condition(String field, String op, Object value) {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        /**
+         * @return the name of the field
+         */
+        public String getField() {
+            return this.field;
+        }
+
+        /**
+         * @return the comparison operator
+         */
+        public String getOp() {
+            return this.op;
+        }
+
+        /**
+         * @return the literal value, or NULL if the value is a parameter
+         */
+        public Object getValue() {
+            return this.value;
+        }
+
+    }
+
+    /**
+     * This object describes a single table in the path.
+     */
+    public static class Step {
+
+        /** name of the table */
+        private String table;
+        /** list of filter conditions */
+        private List<Condition> conditions;
+
+        /**
+         * Create a path step.
+         *
+         * @param table		name of the table
+         */
+        private Step(String table) {
+            this.table = table;
+            this.conditions = new ArrayList<Condition>(2);
+        }
+
+        /**
+         * @return the name of the table
+         */
+        public String getTable() {
+            return this.table;
+        }
+
+        /**
+         * @return the list of filter conditions
+         */
+        public List<Condition> getConditions() {
+            return this.conditions;
+        }
+
+    }
+
+    /**
+     * This object describes a field to return.
+     */
+    public static class FieldRef {
+
+        /** name of the table, or NULL if it is unqualified */
+        private String table;
+        /** name of the field, or "*" for all fields */
+        private String field;
+
+        /**
+         * Create a field reference.
+         *
+         * @param table		name of the table, or NULL
+         * @param field		name of the field, or "*"
+         */
+        private FieldRef(String table, String field) {
+            this.table = table;
+            this.field = field;
+        }
+
+        /**
+         * @return the name of the table, or NULL if the field is unqualified
+         */
+        public String getTable() {
+            return this.table;
+        }
+
+        /**
+         * @return the name of the field, or "*" for all fields
+         */
+        public String getField() {
+            return this.field;
+        }
+
+        @Override
+        public String toString() {
+            return (this.table == null ? this.field : this.table + "." + this.field);
+        }
+
+    }
+
+    /**
+     * This object contains a compiled path query.
+     */
+    public static class Compiled {
+
+        /** SQL statement */
+        private String sql;
+        /** values to bind, in order; a NULL is filled from the next run-time parameter */
+        private List<Object> bindings;
+
+        /**
+         * Create a compiled query.
+         *
+         * @param sql			SQL statement
+         * @param bindings		values to bind, with NULL for run-time parameters
+         */
+        private Compiled(String sql, List<Object> bindings) {
+            this.sql = sql;
+            this.bindings = bindings;
+        }
+
+        /**
+         * @return the SQL statement
+         */
+        public String getSql() {
+            return this.sql;
+        }
+
+        /**
+         * Bind the literal values and run-time parameters to a prepared statement for this query.
+         *
+         * @param stmt		prepared statement for the SQL
+         * @param parms		run-time parameter values, in order
+         *
+         * @throws SQLException
+         */
+        public void bind(PreparedStatement stmt, List<String> parms) throws SQLException {
+            int next = 0;
+            final int n = this.bindings.size();
+            for (int i = 0; i < n; i++) {
+                Object value = this.bindings.get(i);
+                if (value == null) {
+                    if (next >= parms.size())
+                        throw new SQLException("Too few parameters for path query: " + (next + 1) + " or more needed.");
+                    stmt.setString(i + 1, parms.get(next));
+                    next++;
+                } else
+                    stmt.setObject(i + 1, value);
+            }
+            if (next < parms.size())
+                throw new SQLException("Too many parameters for path query: " + parms.size() + " found but "
+                        + next + " needed.");
+        }
+
+    }
+
+    /**
+     * Parse a path query.
+     *
+     * @param text		text of the query
+     *
+     * @throws IllegalArgumentException if the query is invalid
+     */
+    public LinkPath(String text) {
+        this.steps = new ArrayList<Step>();
+        this.fields = new ArrayList<FieldRef>();
+        this.parmCount = 0;
+        Tokenizer tokens = new Tokenizer(text);
+        this.parseStep(tokens);
+        while (tokens.accept("->"))
+            this.parseStep(tokens);
+        if (tokens.accept(":")) {
+            this.parseField(tokens);
+            while (tokens.accept(","))
+                this.parseField(tokens);
+        }
+        if (! tokens.atEnd())
+            throw new IllegalArgumentException("Unexpected \"" + tokens.peek() + "\" in path query.");
+        // Verify that the qualified fields refer to tables in the path.
+        for (FieldRef field : this.fields) {
+            if (field.table != null && this.findStep(field.table) < 0)
+                throw new IllegalArgumentException("Table " + field.table + " in field " + field + " is not in the path.");
+        }
+    }
+
+    /**
+     * Parse a table name and its filter conditions.
+     *
+     * @param tokens	token source
+     */
+    private void parseStep(Tokenizer tokens) {
+        Step step = new Step(tokens.name("table name"));
+        if (tokens.accept("(")) {
+            do {
+                String field = tokens.name("field name");
+                String op = tokens.next("operator").toUpperCase();
+                if (! OPERATORS.contains(op))
+                    throw new IllegalArgumentException("Invalid operator \"" + op + "\" in path query.");
+                Object value = tokens.value();
+                if (value == null)
+                    this.parmCount++;
+                step.conditions.add(new Condition(field, op, value));
+            } while (tokens.accept(","));
+            tokens.expect(")");
+        }
+        this.steps.add(step);
+    }
+
+    /**
+     * Parse a field reference.
+     *
+     * @param tokens	token source
+     */
+    private void parseField(Tokenizer tokens) {
+        FieldRef retVal;
+        if (tokens.accept("*"))
+            retVal = new FieldRef(null, "*");
+        else {
+            String name = tokens.name("field name");
+            if (! tokens.accept("."))
+                retVal = new FieldRef(null, name);
+            else if (tokens.accept("*"))
+                retVal = new FieldRef(name, "*");
+            else
+                retVal = new FieldRef(name, tokens.name("field name"));
+        }
+        this.fields.add(retVal);
+    }
+
+    /**
+     * @return the index of the step for a table, or -1 if it is not in the path
+     *
+     * @param table		name of the table
+     *
+     * @throws IllegalArgumentException if the table occurs more than once
+     */
+    private int findStep(String table) {
+        int retVal = -1;
+        final int n = this.steps.size();
+        for (int i = 0; i < n; i++) {
+            if (this.steps.get(i).table.equalsIgnoreCase(table)) {
+                if (retVal >= 0)
+                    throw new IllegalArgumentException("Table " + table + " occurs more than once in the path, so its fields are ambiguous.");
+                retVal = i;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Compile this path into an SQL query.
+     *
+     * @param helper	SQL helper for the database connection
+     * @param stats		table statistics for choosing the join order, or NULL to use the path order
+     *
+     * @return the compiled query
+     *
+     * @throws SQLException
+     * @throws IllegalArgumentException if the path does not match the database
+     */
+    public Compiled compile(SqlHelper helper, TableStats stats) throws SQLException {
+        DbConnection db = helper.getDb();
+        // Resolve the table names.
+        Map<String, String> nameMap = new HashMap<String, String>();
+        for (String table : DbMetadata.getTableNames(db))
+            nameMap.put(table.toLowerCase(), table);
+        final int n = this.steps.size();
+        List<String> tables = new ArrayList<String>(n);
+        List<DbTable> descs = new ArrayList<DbTable>(n);
+        for (Step step : this.steps) {
+            String table = nameMap.get(step.table.toLowerCase());
+            if (table == null)
+                throw new IllegalArgumentException("Table " + step.table + " is not in the database.");
+            tables.add(table);
+            DbTable desc = DbMetadata.getTable(db, table);
+            descs.add(desc);
+            for (Condition cond : step.conditions) {
+                if (desc.getField(cond.field) == null)
+                    throw new IllegalArgumentException("Table " + table + " has no field named " + cond.field + ".");
+            }
+        }
+        // Find the link between each pair of adjacent tables. The fields in position i join step i to step i+1.
+        String[] leftFields = new String[n - 1];
+        String[] rightFields = new String[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            DbTable.Link link = findLink(descs.get(i), tables.get(i + 1));
+            if (link != null) {
+                leftFields[i] = link.getLocalField();
+                rightFields[i] = link.getOtherField();
+            } else {
+                link = findLink(descs.get(i + 1), tables.get(i));
+                if (link == null)
+                    throw new IllegalArgumentException("There is no link between " + tables.get(i) + " and "
+                            + tables.get(i + 1) + ".");
+                leftFields[i] = link.getOtherField();
+                rightFields[i] = link.getLocalField();
+            }
+        }
+        // Choose the join order.
+        double[] estimates = this.estimateRows(tables, stats);
+        List<Integer> order = joinOrder(estimates, n);
+        boolean forced = (estimates != null);
+        // Build the field list.
+        List<String> selections = new ArrayList<String>();
+        Set<String> labels = new HashSet<String>();
+        if (this.fields.isEmpty())
+            selections.add(alias(n - 1) + ".*");
+        for (FieldRef field : this.fields) {
+            if (field.table == null && field.field.equals("*")) {
+                for (int i = 0; i < n; i++)
+                    selectAll(helper, selections, labels, i, tables.get(i), descs.get(i));
+            } else {
+                int idx;
+                if (field.table != null)
+                    idx = this.findStep(field.table);
+                else {
+                    // Find the one table that has this field.
+                    idx = -1;
+                    for (int i = 0; i < n; i++) {
+                        if (descs.get(i).getField(field.field) != null) {
+                            if (idx >= 0)
+                                throw new IllegalArgumentException("Field " + field + " is ambiguous: it is in both "
+                                        + tables.get(idx) + " and " + tables.get(i) + ".");
+                            idx = i;
+                        }
+                    }
+                    if (idx < 0)
+                        throw new IllegalArgumentException("No table in the path has a field named " + field + ".");
+                }
+                if (field.field.equals("*"))
+                    selectAll(helper, selections, labels, idx, tables.get(idx), descs.get(idx));
+                else if (descs.get(idx).getField(field.field) == null)
+                    throw new IllegalArgumentException("Table " + tables.get(idx) + " has no field named " + field.field + ".");
+                else {
+                    String label = (field.table == null ? field.field : tables.get(idx) + "." + field.field);
+                    select(helper, selections, labels, idx, field.field, label);
+                }
+            }
+        }
+        // Now assemble the query.
+        StringBuilder sql = new StringBuilder(100 * n);
+        sql.append("SELECT ");
+        if (forced && ! helper.isSqlite())
+            sql.append("STRAIGHT_JOIN ");
+        sql.append(String.join(", ", selections));
+        int first = order.get(0);
+        sql.append(" FROM ").append(helper.quote(tables.get(first))).append(" ").append(alias(first));
+        Set<Integer> joined = new LinkedHashSet<Integer>();
+        joined.add(first);
+        for (int k = 1; k < n; k++) {
+            int idx = order.get(k);
+            sql.append(forced && helper.isSqlite() ? " CROSS JOIN " : " JOIN ");
+            sql.append(helper.quote(tables.get(idx))).append(" ").append(alias(idx)).append(" ON ");
+            // The order is contiguous, so exactly one neighbor is already joined.
+            if (joined.contains(idx - 1))
+                sql.append(alias(idx - 1)).append(".").append(helper.quote(leftFields[idx - 1])).append(" = ")
+                        .append(alias(idx)).append(".").append(helper.quote(rightFields[idx - 1]));
+            else
+                sql.append(alias(idx)).append(".").append(helper.quote(leftFields[idx])).append(" = ")
+                        .append(alias(idx + 1)).append(".").append(helper.quote(rightFields[idx]));
+            joined.add(idx);
+        }
+        // The filters are in path order, so the parameters match the order in the text.
+        List<Object> bindings = new ArrayList<Object>();
+        String delim = " WHERE ";
+        for (int i = 0; i < n; i++) {
+            for (Condition cond : this.steps.get(i).conditions) {
+                sql.append(delim).append(alias(i)).append(".").append(helper.quote(cond.field)).append(" ")
+                        .append(cond.op).append(" ?");
+                bindings.add(cond.value);
+                delim = " AND ";
+            }
+        }
+        return new Compiled(sql.toString(), bindings);
+    }
+
+    /**
+     * Add all the fields of a table to the selection list. Each field is labelled with the table name, so
+     * that fields with the same name in different tables remain distinct.
+     *
+     * @param helper		SQL helper for the database
+     * @param selections	list of selection expressions to update
+     * @param labels		set of labels already used
+     * @param idx			position of the table in the path
+     * @param table			name of the table
+     * @param desc			descriptor of the table
+     */
+    private static void selectAll(SqlHelper helper, List<String> selections, Set<String> labels, int idx, String table,
+            DbTable desc) {
+        for (DbTable.Field field : desc.getFields())
+            select(helper, selections, labels, idx, field.getName(), table + "." + field.getName());
+    }
+
+    /**
+     * Add a field to the selection list.
+     *
+     * @param helper		SQL helper for the database
+     * @param selections	list of selection expressions to update
+     * @param labels		set of labels already used
+     * @param idx			position of the field's table in the path
+     * @param field			name of the field
+     * @param label			label for the field in the results
+     */
+    private static void select(SqlHelper helper, List<String> selections, Set<String> labels, int idx, String field,
+            String label) {
+        if (! labels.add(label.toLowerCase()))
+            throw new IllegalArgumentException("Field " + label + " is selected more than once.");
+        selections.add(alias(idx) + "." + helper.quote(field) + " AS " + helper.quote(label));
+    }
+
+    /**
+     * Estimate the number of rows each step of the path contributes, after its filters.
+     *
+     * @param tables	list of table names, in path order
+     * @param stats		table statistics, or NULL if none are available
+     *
+     * @return an array of row estimates in path order, or NULL if the statistics are missing or incomplete
+     */
+    private double[] estimateRows(List<String> tables, TableStats stats) {
+        final int n = tables.size();
+        double[] retVal = null;
+        if (stats != null) {
+            retVal = new double[n];
+            for (int i = 0; i < n && retVal != null; i++) {
+                long rows = stats.get(tables.get(i)).getRows();
+                if (rows < 0)
+                    retVal = null;
+                else {
+                    double estimate = rows;
+                    for (Condition cond : this.steps.get(i).conditions)
+                        estimate *= (cond.op.equals("=") ? EQUAL_FACTOR : OTHER_FACTOR);
+                    retVal[i] = estimate;
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the order in which to join the tables.
+     *
+     * @param estimates		array of row estimates in path order, or NULL to use the path order
+     * @param n				number of tables in the path
+     *
+     * @return a list of step indices in the order they should be joined
+     */
+    private static List<Integer> joinOrder(double[] estimates, int n) {
+        List<Integer> retVal = new ArrayList<Integer>(n);
+        if (estimates == null) {
+            // Use the path order.
+            for (int i = 0; i < n; i++)
+                retVal.add(i);
+        } else {
+            // Start at the smallest table and grow toward the smaller neighbor.
+            int lo = 0;
+            for (int i = 1; i < n; i++) {
+                if (estimates[i] < estimates[lo])
+                    lo = i;
+            }
+            int hi = lo;
+            retVal.add(lo);
+            while (retVal.size() < n) {
+                if (hi + 1 >= n || lo > 0 && estimates[lo - 1] <= estimates[hi + 1]) {
+                    lo--;
+                    retVal.add(lo);
+                } else {
+                    hi++;
+                    retVal.add(hi);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the link from a table to another table, or NULL if there is none
+     *
+     * @param desc		descriptor of the source table
+     * @param other		name of the target table
+     */
+    private static DbTable.Link findLink(DbTable desc, String other) {
+        DbTable.Link retVal = null;
+        for (Map.Entry<String, DbTable.Link> link : desc.getLinks()) {
+            if (link.getKey().equalsIgnoreCase(other))
+                retVal = link.getValue();
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the alias for the table at a path position
+     *
+     * @param idx	index of the step in the path
+     */
+    private static String alias(int idx) {
+        return "t" + (idx + 1);
+    }
+
+    /**
+     * @return the list of steps in the path
+     */
+    public List<Step> getSteps() {
+        return this.steps;
+    }
+
+    /**
+     * @return the list of fields to return (empty for the default)
+     */
+    public List<FieldRef> getFields() {
+        return this.fields;
+    }
+
+    /**
+     * @return the number of parameters to be supplied when the query is run
+     */
+    public int getParmCount() {
+        return this.parmCount;
+    }
+
+    /**
+     * @return the names of the tables in the path
+     */
+    public List<String> getTables() {
+        List<String> retVal = new ArrayList<String>(this.steps.size());
+        for (Step step : this.steps)
+            retVal.add(step.table);
+        return retVal;
+    }
+
+    /**
+     * This object breaks the text of a path query into tokens.
+     */
+    private static class Tokenizer {
+
+        /** list of tokens */
+        private List<String> tokens;
+        /** position of the next token */
+        private int pos;
+
+        /**
+         * Break a path query into tokens. A quoted string is kept with its quotes.
+         *
+         * @param text	text to break up
+         */
+        private Tokenizer(String text) {
+            this.tokens = new ArrayList<String>();
+            this.pos = 0;
+            final int n = text.length();
+            int i = 0;
+            while (i < n) {
+                char c = text.charAt(i);
+                int start = i;
+                if (Character.isWhitespace(c))
+                    i++;
+                else {
+                    if (Character.isLetter(c) || c == '_') {
+                        while (i < n && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_'))
+                            i++;
+                    } else if (Character.isDigit(c) || c == '-' && i + 1 < n && Character.isDigit(text.charAt(i + 1))) {
+                        i++;
+                        while (i < n && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.'))
+                            i++;
+                    } else if (c == '\'' || c == '"') {
+                        // A doubled quote inside the string stands for the quote itself.
+                        i++;
+                        boolean done = false;
+                        while (! done) {
+                            if (i >= n)
+                                throw new IllegalArgumentException("Unterminated string in path query.");
+                            if (text.charAt(i) == c && (i + 1 >= n || text.charAt(i + 1) != c))
+                                done = true;
+                            else if (text.charAt(i) == c)
+                                i++;
+                            i++;
+                        }
+                    } else if (text.startsWith("->", i) || text.startsWith("<=", i) || text.startsWith(">=", i)
+                            || text.startsWith("<>", i) || text.startsWith("!=", i))
+                        i += 2;
+                    else
+                        i++;
+                    this.tokens.add(text.substring(start, i));
+                }
+            }
+        }
+
+        /**
+         * @return TRUE if there are no more tokens
+         */
+        private boolean atEnd() {
+            return this.pos >= this.tokens.size();
+        }
+
+        /**
+         * @return the next token without consuming it, or an empty string at the end
+         */
+        private String peek() {
+            return (this.atEnd() ? "" : this.tokens.get(this.pos));
+        }
+
+        /**
+         * @return the next token
+         *
+         * @param expected	description of the expected token, for error messages
+         */
+        private String next(String expected) {
+            if (this.atEnd())
+                throw new IllegalArgumentException("Path query ended where a " + expected + " was expected.");
+            String retVal = this.tokens.get(this.pos);
+            this.pos++;
+            return retVal;
+        }
+
+        /**
+         * Consume the next token if it matches.
+         *
+         * @param token		token to look for
+         *
+         * @return TRUE if the token was found and consumed
+         */
+        private boolean accept(String token) {
+            boolean retVal = this.peek().equals(token);
+            if (retVal)
+                this.pos++;
+            return retVal;
+        }
+
+        /**
+         * Consume a required token.
+         *
+         * @param token		token that must come next
+         */
+        private void expect(String token) {
+            if (! this.accept(token))
+                throw new IllegalArgumentException("Expected \"" + token + "\" but found \"" + this.peek() + "\" in path query.");
+        }
+
+        /**
+         * @return the next token, which must be a name
+         *
+         * @param expected	description of the expected name, for error messages
+         */
+        private String name(String expected) {
+            String retVal = this.next(expected);
+            if (! retVal.matches("[A-Za-z_]\\w*"))
+                throw new IllegalArgumentException("Expected a " + expected + " but found \"" + retVal + "\" in path query.");
+            return retVal;
+        }
+
+        /**
+         * @return the next token as a literal value (a String, Long, or Double), or NULL for a parameter
+         */
+        private Object value() {
+            String token = this.next("value");
+            Object retVal;
+            char c = token.charAt(0);
+            if (token.equals("?"))
+                retVal = null;
+            else if (c == '\'' || c == '"') {
+                String quote = token.substring(0, 1);
+                retVal = token.substring(1, token.length() - 1).replace(quote + quote, quote);
+            } else {
+                try {
+                    if (token.contains("."))
+                        retVal = Double.valueOf(token);
+                    else
+                        retVal = Long.valueOf(token);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid value \"" + token + "\" in path query.");
+                }
+            }
+            return retVal;
+        }
+
+    }
+
+}
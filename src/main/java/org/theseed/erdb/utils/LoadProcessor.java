@@ -0,0 +1,503 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.java.erdb.DbTable;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
+
+/**
+ * This command loads a whole database from a directory of table files. Each table file is tab-delimited,
+ * with field names in the header line, and is named after the table it loads, with a suffix of ".tsv"
+ * or ".tsv.gz". Tables without a file are left alone. The field values are escaped as in the files
+ * written by the "export" command (see TsvCodec): "\N" is a NULL, an empty field is an empty string, and
+ * backslash sequences stand for tabs, line breaks, and backslashes.
+ *
+ * The tables are loaded in the order dictated by the link dependency graph, so that a table is always
+ * loaded after the tables its link fields refer to. Tables with no dependencies between them form a
+ * wave. The files in a wave are parsed in parallel while a single writer inserts the rows over the
+ * command's connection. This is the only safe arrangement for SQLite, which permits only one writer
+ * at a time, and for MySQL it still overlaps parsing with the inserts.
+ *
+ * Each table is loaded in a single transaction, and its name is appended to a checkpoint file when the
+ * transaction commits. If the load fails, the failing table is rolled back, and a subsequent run will
+ * skip the tables already in the checkpoint file. When the whole load succeeds the checkpoint file is
+ * deleted.
+ *
+ * A timing report for the tables loaded is written to the standard output.
+ *
+ * The positional parameter is the name of the input directory. The following command-line options are
+ * supported.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --type		type of database (default SQLITE)
+ * --dbfile		database file name (SQLITE only)
+ * --url		URL of database (host and name)
+ * --parms		database connection parameter string (currently only MySQL)
+ * --batch		number of rows per insert batch (default 1000)
+ * --workers	number of parsing threads (default 4)
+ * --checkpoint	name of the checkpoint file (default "load.checkpoint" in the input directory)
+ * --restart	ignore any existing checkpoint file and load all tables
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class LoadProcessor extends BaseDbProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(LoadProcessor.class);
+    /** counter for rows loaded */
+    private static final Counter ROW_COUNT = MetricsRegistry.global().counter("load.rows");
+    /** timer for loading a table */
+    private static final Timer TABLE_TIMER = MetricsRegistry.global().timer("load.table");
+    /** map of normalized table names to input files */
+    private Map<String, File> fileMap;
+    /** set of normalized names for tables already loaded */
+    private Set<String> completed;
+    /** list of timing results */
+    private List<TableTiming> timings;
+    /** number of batches to buffer for each table being parsed */
+    private static final int QUEUE_SIZE = 4;
+
+    // COMMAND-LINE OPTIONS
+
+    /** number of rows per insert batch */
+    @Option(name = "--batch", metaVar = "500", usage = "number of rows per insert batch")
+    private int batchSize;
+
+    /** number of parsing threads */
+    @Option(name = "--workers", metaVar = "8", usage = "number of threads for parsing input files")
+    private int workers;
+
+    /** checkpoint file */
+    @Option(name = "--checkpoint", metaVar = "progress.txt", usage = "checkpoint file for resuming a failed load")
+    private File checkFile;
+
+    /** TRUE to ignore the checkpoint file */
+    @Option(name = "--restart", usage = "if specified, any existing checkpoint is ignored")
+    private boolean restart;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
+    /** input directory */
+    @Argument(index = 0, metaVar = "inDir", usage = "input directory containing the table files", required = true)
+    private File inDir;
+
+    /**
+     * This object contains a batch of rows parsed from a table file. A batch with the "last" flag set
+     * terminates the table. If parsing fails, the last batch contains the error.
+     */
+    private static class RowBatch {
+
+        /** list of rows; each row is a list of field values */
+        private List<String[]> rows;
+        /** TRUE if this is the last batch */
+        private boolean last;
+        /** error that terminated the parse, or NULL if none */
+        private Exception error;
+
+        /**
+         * Construct a batch.
+         *
+         * @param rows		list of rows in the batch
+         * @param last		TRUE if this is the last batch
+         * @param error		error that terminated the parse, or NULL
+         */
+        private RowBatch(List<String[]> rows, boolean last, Exception error) {
+            this.rows = rows;
+            this.last = last;
+            this.error = error;
+        }
+
+    }
+
+    /**
+     * This object contains the timing results for a table.
+     */
+    private static class TableTiming {
+
+        /** name of the table */
+        private String table;
+        /** wave number (1-based) */
+        private int wave;
+        /** number of rows loaded */
+        private long rows;
+        /** elapsed time in milliseconds */
+        private long duration;
+
+        /**
+         * Construct a timing result.
+         *
+         * @param table		name of the table
+         * @param wave		wave number
+         * @param rows		number of rows loaded
+         * @param duration	elapsed time in milliseconds
+         */
+        private TableTiming(String table, int wave, long rows, long duration) {
+            this.table = table;
+            this.wave = wave;
+            this.rows = rows;
+            this.duration = duration;
+        }
+
+        /**
+         * @return the report line for this table
+         */
+        private String toLine() {
+            double seconds = this.duration / 1000.0;
+            double rate = (seconds > 0.0 ? this.rows / seconds : 0.0);
+            return String.format("%s\t%d\t%d\t%4.3f\t%4.1f", this.table, this.wave, this.rows, seconds, rate);
+        }
+
+    }
+
+    /**
+     * This task parses a table file and queues the rows in batches for the writer.
+     */
+    private class TableParser implements Runnable {
+
+        /** input file */
+        private File inFile;
+        /** output queue */
+        private BlockingQueue<RowBatch> queue;
+        /** number of columns expected */
+        private int width;
+
+        /**
+         * Construct a parser for a table file.
+         *
+         * @param inFile	input file
+         * @param width		number of columns in the header
+         */
+        private TableParser(File inFile, int width) {
+            this.inFile = inFile;
+            this.width = width;
+            this.queue = new ArrayBlockingQueue<RowBatch>(QUEUE_SIZE);
+        }
+
+        @Override
+        public void run() {
+            Exception error = null;
+            try (LineReader reader = openFile(this.inFile)) {
+                // Skip the header line.
+                if (reader.hasNext())
+                    reader.next();
+                List<String[]> rows = new ArrayList<String[]>(LoadProcessor.this.batchSize);
+                for (String line : reader) {
+                    String[] fields = StringUtils.splitPreserveAllTokens(line, '\t');
+                    if (fields.length != this.width)
+                        throw new IOException("Line in " + this.inFile + " has " + fields.length
+                                + " fields but " + this.width + " were expected.");
+                    for (int i = 0; i < this.width; i++)
+                        fields[i] = TsvCodec.decode(fields[i]);
+                    rows.add(fields);
+                    if (rows.size() >= LoadProcessor.this.batchSize) {
+                        this.queue.put(new RowBatch(rows, false, null));
+                        rows = new ArrayList<String[]>(LoadProcessor.this.batchSize);
+                    }
+                }
+                this.queue.put(new RowBatch(rows, true, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = e;
+            } catch (Exception e) {
+                error = e;
+            }
+            if (error != null) {
+                // Queue the error for the writer. We need to clear the queue first so the final
+                // batch is guaranteed room.
+                this.queue.clear();
+                this.queue.offer(new RowBatch(Collections.emptyList(), true, error));
+            }
+        }
+
+        /**
+         * @return the queue of parsed batches
+         */
+        private BlockingQueue<RowBatch> getQueue() {
+            return this.queue;
+        }
+
+    }
+
+    @Override
+    protected void setDbDefaults() {
+        this.batchSize = 1000;
+        this.workers = 4;
+        this.checkFile = null;
+        this.restart = false;
+        this.metricsFile = null;
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.batchSize < 1)
+            throw new ParseFailureException("Batch size must be at least 1.");
+        if (this.workers < 1)
+            throw new ParseFailureException("Number of workers must be at least 1.");
+        if (! this.inDir.isDirectory())
+            throw new FileNotFoundException("Input directory " + this.inDir + " is not found or invalid.");
+        // Map the table files.
+        File[] files = this.inDir.listFiles();
+        this.fileMap = new HashMap<String, File>(files.length * 4 / 3 + 1);
+        for (File file : files) {
+            String name = file.getName();
+            String table = null;
+            if (name.endsWith(".tsv"))
+                table = StringUtils.removeEnd(name, ".tsv");
+            else if (name.endsWith(".tsv.gz"))
+                table = StringUtils.removeEnd(name, ".tsv.gz");
+            if (table != null)
+                this.fileMap.put(table.toLowerCase(), file);
+        }
+        log.info("{} table files found in {}.", this.fileMap.size(), this.inDir);
+        // Process the checkpoint file.
+        if (this.checkFile == null)
+            this.checkFile = new File(this.inDir, "load.checkpoint");
+        this.completed = new HashSet<String>();
+        if (this.checkFile.exists()) {
+            if (this.restart)
+                log.info("Ignoring checkpoint file {}.", this.checkFile);
+            else {
+                for (String table : Files.readAllLines(this.checkFile.toPath()))
+                    this.completed.add(table.toLowerCase());
+                log.info("{} tables already loaded according to {}.", this.completed.size(), this.checkFile);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void runDbCommand(DbConnection db) throws Exception {
+        log.info("Computing table dependencies.");
+        TableGraph graph = new TableGraph(db);
+        List<List<String>> waves = graph.getWaves();
+        log.info("{} tables organized into {} waves.", graph.size(), waves.size());
+        // If we are restarting, start a fresh checkpoint file.
+        if (this.restart)
+            Files.deleteIfExists(this.checkFile.toPath());
+        SqlHelper helper = new SqlHelper(db);
+        helper.enableWal();
+        this.timings = new ArrayList<TableTiming>(graph.size());
+        ExecutorService pool = Executors.newFixedThreadPool(this.workers);
+        try {
+            int waveNum = 0;
+            for (List<String> wave : waves) {
+                waveNum++;
+                // Find the tables in this wave that need loading.
+                List<String> tables = new ArrayList<String>(wave.size());
+                for (String table : wave) {
+                    String normal = table.toLowerCase();
+                    if (this.completed.contains(normal))
+                        log.info("Skipping table {}: already loaded.", table);
+                    else if (! this.fileMap.containsKey(normal))
+                        log.info("Skipping table {}: no input file.", table);
+                    else
+                        tables.add(table);
+                }
+                log.info("Loading {} tables in wave {}.", tables.size(), waveNum);
+                // Start the parsers. The writer processes the tables in the same order they are
+                // submitted, so the parser the writer is waiting on is always running.
+                List<TableParser> parsers = new ArrayList<TableParser>(tables.size());
+                List<List<String>> headers = new ArrayList<List<String>>(tables.size());
+                for (String table : tables) {
+                    File inFile = this.fileMap.get(table.toLowerCase());
+                    List<String> header = this.readHeader(inFile);
+                    headers.add(header);
+                    TableParser parser = this.new TableParser(inFile, header.size());
+                    parsers.add(parser);
+                    pool.execute(parser);
+                }
+                // Now write the tables.
+                for (int i = 0; i < tables.size(); i++)
+                    this.loadTable(db, helper, tables.get(i), headers.get(i), parsers.get(i), waveNum);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        // The load succeeded, so the checkpoint is no longer needed.
+        Files.deleteIfExists(this.checkFile.toPath());
+        // Write the timing report.
+        System.out.println("table\twave\trows\tseconds\trows/sec");
+        for (TableTiming timing : this.timings)
+            System.out.println(timing.toLine());
+        System.out.flush();
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
+    }
+
+    /**
+     * Load a single table from its parser's queue.
+     *
+     * @param db		database connection
+     * @param helper	SQL helper for the connection
+     * @param table		name of the table to load
+     * @param header	list of column names
+     * @param parser	parser producing the rows
+     * @param waveNum	number of the current wave
+     *
+     * @throws Exception
+     */
+    private void loadTable(DbConnection db, SqlHelper helper, String table, List<String> header,
+            TableParser parser, int waveNum) throws Exception {
+        log.info("Loading table {}.", table);
+        long start = System.currentTimeMillis();
+        DbTable tableDesc = DbMetadata.getTable(db, table);
+        // Build the insert statement.
+        final int width = header.size();
+        List<String> cols = new ArrayList<String>(width);
+        for (int i = 0; i < width; i++) {
+            String fieldName = header.get(i);
+            DbTable.Field field = tableDesc.getField(fieldName);
+            if (field == null)
+                throw new SQLException("Table " + table + " has no field named \"" + fieldName + "\".");
+            cols.add(helper.quote(fieldName));
+        }
+        String sql = "INSERT INTO " + helper.quote(table) + " (" + StringUtils.join(cols, ", ") + ") VALUES ("
+                + StringUtils.repeat("?", ", ", width) + ")";
+        long rows = 0;
+        helper.beginTransaction();
+        try (PreparedStatement stmt = helper.prepare(sql)) {
+            boolean done = false;
+            while (! done) {
+                RowBatch batch = parser.getQueue().take();
+                if (batch.error != null)
+                    throw batch.error;
+                for (String[] row : batch.rows) {
+                    for (int i = 0; i < width; i++) {
+                        // The parser has already decoded the NULLs.
+                        if (row[i] == null)
+                            stmt.setNull(i + 1, Types.VARCHAR);
+                        else
+                            stmt.setString(i + 1, row[i]);
+                    }
+                    stmt.addBatch();
+                }
+                if (! batch.rows.isEmpty())
+                    stmt.executeBatch();
+                rows += batch.rows.size();
+                done = batch.last;
+            }
+            helper.commit();
+        } catch (Exception e) {
+            log.error("Load of table {} failed after {} rows.", table, rows);
+            helper.rollback();
+            throw e;
+        }
+        // Record the table in the checkpoint file.
+        Files.writeString(this.checkFile.toPath(), table + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        TableTiming timing = new TableTiming(table, waveNum, rows, System.currentTimeMillis() - start);
+        this.timings.add(timing);
+        ROW_COUNT.add(rows);
+        TABLE_TIMER.record(timing.duration * 1000000L);
+        log.info("{} rows loaded into {} in {} ms.", rows, table, timing.duration);
+    }
+
+    /**
+     * Read the header line of a table file.
+     *
+     * @param inFile	table file to read
+     *
+     * @return a list of the column names in the file
+     *
+     * @throws IOException
+     */
+    private List<String> readHeader(File inFile) throws IOException {
+        List<String> retVal;
+        try (LineReader reader = openFile(inFile)) {
+            if (! reader.hasNext())
+                throw new IOException("Table file " + inFile + " is empty.");
+            String[] names = StringUtils.splitPreserveAllTokens(reader.next(), '\t');
+            retVal = List.of(names);
+        }
+        return retVal;
+    }
+
+    /**
+     * Open a table file for reading. Files with a ".gz" suffix are decompressed.
+     *
+     * @param inFile	table file to open
+     *
+     * @return a line reader for the file
+     *
+     * @throws IOException
+     */
+    private static LineReader openFile(File inFile) throws IOException {
+        LineReader retVal;
+        if (inFile.getName().endsWith(".gz")) {
+            InputStream inStream = new GZIPInputStream(new FileInputStream(inFile));
+            retVal = new LineReader(inStream);
+        } else
+            retVal = new LineReader(inFile);
+        return retVal;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles(this.inDir);
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        // The checkpoint file defaults to a file in the input directory.
+        File checkpoint = this.checkFile;
+        if (checkpoint == null && this.inDir != null)
+            checkpoint = new File(this.inDir, "load.checkpoint");
+        return BatchResources.listFiles(checkpoint, this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return true;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return true;
+    }
+
+}
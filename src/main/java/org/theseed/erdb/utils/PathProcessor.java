@@ -0,0 +1,278 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
+
+/**
+ * This command runs queries that follow paths of relationships through an ERDB database, such as
+ *
+ * 		Genome(domain = 'Bacteria') -> Feature(type = ?) -> Protein : Genome.name, Feature.id, sequence
+ *
+ * Each path is compiled into a single SQL join using the link metadata (see LinkPath), and the results are
+ * streamed to the output (see ResultWriter). The path can be specified on the command line, followed by its
+ * parameter values, or a file of paths can be run instead. Each line of a path file is tab-delimited,
+ * containing a path followed by its parameter values. Blank lines and lines beginning with "#" are skipped.
+ *
+ * Each distinct path is only compiled once, and since the literal values in a path are passed to the
+ * database as parameters, paths that differ only in their values share a prepared statement.
+ *
+ * The results are fetched from the database in batches whose size is set by "--fetch". The MySQL driver
+ * ignores the batch size unless "useCursorFetch=true" is in the connection parameters, so without that
+ * parameter the rows are streamed from MySQL one at a time instead (see SqlHelper.getFetchSize).
+ *
+ * If the "--stats" option is specified, the row counts of the tables in the paths are collected before
+ * the queries are run, and the join order is chosen from them. Otherwise, the tables are joined in path
+ * order and the database chooses the plan.
+ *
+ * For each query, the time to the first row and the total time are logged, and if a report file is
+ * specified they are written there as well (see QueryRunner).
+ *
+ * The positional parameters are the path and the parameter values. The following command-line options are
+ * supported.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ * -o	output file (if not STDOUT)
+ *
+ * --type		type of database (default SQLITE)
+ * --dbfile		database file name (SQLITE only)
+ * --url		URL of database (host and name)
+ * --parms		database connection parameter string (currently only MySQL)
+ * --file		name of a file of paths to run instead of the command-line path
+ * --format		output format (TSV or JSON, default TSV)
+ * --fetch		number of rows to fetch from the database at a time (default 1000; for MySQL, see above)
+ * --cache		maximum number of prepared statements to keep (default 100)
+ * --stats		use table statistics to choose the join order
+ * --timeout	maximum number of seconds for each statistics query (default 30)
+ * --report		if specified, a file to contain the timing report for the queries
+ * --mmap		memory map size in megabytes for reading an SQLite database (default 1024, 0 to disable)
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PathProcessor extends BaseDbProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(PathProcessor.class);
+    /** output print writer */
+    private PrintWriter writer;
+    /** list of queries to run; each is the path text followed by the parameter values */
+    private List<String[]> queries;
+    /** map of path texts to parsed paths */
+    private Map<String, LinkPath> pathMap;
+    /** timer for compiling a path */
+    private static final Timer COMPILE_TIMER = MetricsRegistry.global().timer("path.compile");
+
+    // COMMAND-LINE OPTIONS
+
+    /** output file */
+    @Option(name = "--output", aliases = { "-o" }, usage = "output file (if not STDOUT)")
+    private File outFile;
+
+    /** file of paths */
+    @Option(name = "--file", metaVar = "paths.tbl", usage = "file of paths to run, with parameter values")
+    private File pathFile;
+
+    /** output format */
+    @Option(name = "--format", usage = "output format")
+    private ResultWriter.Format format;
+
+    /** cursor fetch size */
+    @Option(name = "--fetch", metaVar = "5000", usage = "number of rows to fetch at a time (MySQL streams single rows unless useCursorFetch=true)")
+    private int fetchSize;
+
+    /** maximum number of cached statements */
+    @Option(name = "--cache", metaVar = "20", usage = "maximum number of prepared statements to keep")
+    private int cacheSize;
+
+    /** TRUE to choose the join order from table statistics */
+    @Option(name = "--stats", usage = "if specified, table statistics will be used to choose the join order")
+    private boolean statsFlag;
+
+    /** timeout in seconds for statistics queries */
+    @Option(name = "--timeout", metaVar = "10", usage = "maximum number of seconds for each statistics query")
+    private int timeout;
+
+    /** timing report file */
+    @Option(name = "--report", metaVar = "timings.tbl", usage = "if specified, a file to contain the timing report")
+    private File reportFile;
+
+    /** memory map size for reading */
+    @Option(name = "--mmap", metaVar = "4096", usage = "memory map size in megabytes for reading an SQLite database (0 to disable)")
+    private int mmapSize;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
+    /** path text and parameters */
+    @Argument(index = 0, metaVar = "\"Genome -> Feature\" parm1 parm2 ...", usage = "path to query, followed by its parameter values")
+    private List<String> path;
+
+    @Override
+    protected void setDbDefaults() {
+        this.outFile = null;
+        this.pathFile = null;
+        this.format = ResultWriter.Format.TSV;
+        this.fetchSize = 1000;
+        this.cacheSize = 100;
+        this.statsFlag = false;
+        this.timeout = 30;
+        this.reportFile = null;
+        this.mmapSize = SqlHelper.DEFAULT_MMAP_MB;
+        this.metricsFile = null;
+        this.path = new ArrayList<String>();
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.mmapSize < 0)
+            throw new ParseFailureException("Memory map size cannot be negative.");
+        if (this.fetchSize < 1)
+            throw new ParseFailureException("Fetch size must be at least 1.");
+        if (this.cacheSize < 1)
+            throw new ParseFailureException("Cache size must be at least 1.");
+        if (this.timeout <= 0)
+            throw new ParseFailureException("Statistics timeout must be positive.");
+        // Get the queries.
+        this.queries = new ArrayList<String[]>();
+        if (this.pathFile == null) {
+            if (this.path.isEmpty())
+                throw new ParseFailureException("Either a path or a path file must be specified.");
+            this.queries.add(this.path.toArray(new String[this.path.size()]));
+        } else if (! this.path.isEmpty())
+            throw new ParseFailureException("Cannot specify both a path and a path file.");
+        else if (! this.pathFile.canRead())
+            throw new FileNotFoundException("Path file " + this.pathFile + " is not found or unreadable.");
+        else {
+            try (LineReader reader = new LineReader(this.pathFile)) {
+                for (String line : reader) {
+                    if (! line.isBlank() && ! line.startsWith("#"))
+                        this.queries.add(StringUtils.splitPreserveAllTokens(line, '\t'));
+                }
+            }
+            log.info("{} paths read from {}.", this.queries.size(), this.pathFile);
+        }
+        // Parse the paths, so that syntax errors are found before we connect.
+        this.pathMap = new HashMap<String, LinkPath>();
+        for (String[] query : this.queries) {
+            if (! this.pathMap.containsKey(query[0])) {
+                LinkPath linkPath;
+                try {
+                    linkPath = new LinkPath(query[0]);
+                } catch (IllegalArgumentException e) {
+                    throw new ParseFailureException(e.getMessage());
+                }
+                this.pathMap.put(query[0], linkPath);
+            }
+            int parms = this.pathMap.get(query[0]).getParmCount();
+            if (parms != query.length - 1)
+                throw new ParseFailureException("Path \"" + query[0] + "\" needs " + parms + " parameters but "
+                        + (query.length - 1) + " were given.");
+        }
+        // Set up the output file.
+        if (this.outFile == null) {
+            log.info("Output will be to the standard output.");
+            this.writer = new PrintWriter(System.out);
+        } else {
+            log.info("Output will be to {}.", this.outFile);
+            this.writer = new PrintWriter(this.outFile);
+        }
+        return true;
+    }
+
+    @Override
+    protected void runDbCommand(DbConnection db) throws Exception {
+        SqlHelper helper = new SqlHelper(db);
+        helper.setReadOnly(this.mmapSize);
+        // Collect the statistics if we need them.
+        TableStats stats = null;
+        if (this.statsFlag) {
+            Set<String> tables = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+            for (LinkPath linkPath : this.pathMap.values())
+                tables.addAll(linkPath.getTables());
+            log.info("Collecting statistics for {} tables.", tables.size());
+            stats = new TableStats(helper, tables, this.timeout);
+        }
+        // Compile the paths.
+        Map<String, LinkPath.Compiled> compiledMap = new HashMap<String, LinkPath.Compiled>(this.pathMap.size() * 4 / 3 + 1);
+        for (Map.Entry<String, LinkPath> entry : this.pathMap.entrySet()) {
+            LinkPath.Compiled compiled;
+            try (Timer.Context t = COMPILE_TIMER.start()) {
+                compiled = entry.getValue().compile(helper, stats);
+            } catch (IllegalArgumentException e) {
+                throw new ParseFailureException("Error in path \"" + entry.getKey() + "\": " + e.getMessage());
+            }
+            log.info("Path \"{}\" compiled to: {}", entry.getKey(), compiled.getSql());
+            compiledMap.put(entry.getKey(), compiled);
+        }
+        ResultWriter results = new ResultWriter(this.writer, this.format);
+        try (QueryRunner runner = new QueryRunner(helper, results, this.cacheSize, this.fetchSize, this.reportFile,
+                "path", "path")) {
+            for (String[] query : this.queries) {
+                LinkPath.Compiled compiled = compiledMap.get(query[0]);
+                List<String> parms = Arrays.asList(query).subList(1, query.length);
+                runner.run(compiled.getSql(), stmt -> compiled.bind(stmt, parms), query[0]);
+            }
+            log.info("{} queries run, {} statements prepared, {} reused.", runner.getQueryCount(),
+                    runner.getPrepared(), runner.getReused());
+        } finally {
+            // We must not close the standard output, since we may be running in a daemon.
+            if (this.outFile == null)
+                this.writer.flush();
+            else
+                this.writer.close();
+        }
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles(this.pathFile);
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles(this.outFile, this.reportFile, this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return this.outFile == null;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return false;
+    }
+
+}
@@ -0,0 +1,228 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.metrics.MetricsRegistry;
+
+/**
+ * This command runs SQL queries against a database and streams the results to the output. The query can be
+ * specified on the command line, followed by its parameter values, or a file of queries can be run instead.
+ * Each line of a query file is tab-delimited, containing the text of a query followed by its parameter
+ * values. Blank lines and lines beginning with "#" are skipped. The parameter values are bound as strings,
+ * and an empty parameter value is bound as NULL.
+ *
+ * The prepared statements are cached, so a query that appears more than once in the file (usually with
+ * different parameters) is only compiled once. The results are fetched from the database a batch at a time
+ * and written as they are read (see ResultWriter). A statement that is not a query writes no results. The
+ * statements are run by a QueryRunner.
+ *
+ * The batch size is set by "--fetch". The MySQL driver ignores it unless "useCursorFetch=true" is in the
+ * connection parameters, so without that parameter the rows are streamed from MySQL one at a time instead
+ * (see SqlHelper.getFetchSize).
+ *
+ * Unless "--update" is specified, the connection is read-only, which for SQLite also enables memory-mapped
+ * reads and a larger page cache (see SqlHelper.setReadOnly).
+ *
+ * For each query, the time to the first row and the total time are logged. If a report file is specified,
+ * these times are also written there, along with the number of rows and whether or not the statement came
+ * from the cache.
+ *
+ * The positional parameters are the query text and the parameter values. The following command-line options
+ * are supported.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ * -o	output file (if not STDOUT)
+ *
+ * --type		type of database (default SQLITE)
+ * --dbfile		database file name (SQLITE only)
+ * --url		URL of database (host and name)
+ * --parms		database connection parameter string (currently only MySQL)
+ * --file		name of a file of queries to run instead of the command-line query
+ * --format		output format (TSV or JSON, default TSV)
+ * --fetch		number of rows to fetch from the database at a time (default 1000; for MySQL, see above)
+ * --cache		maximum number of prepared statements to keep (default 100)
+ * --report		if specified, a file to contain the timing report for the queries
+ * --update		allow the queries to update the database
+ * --mmap		memory map size in megabytes for reading an SQLite database (default 1024, 0 to disable)
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class QueryProcessor extends BaseDbProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(QueryProcessor.class);
+    /** output print writer */
+    private PrintWriter writer;
+    /** list of queries to run; each is the query text followed by the parameter values */
+    private List<String[]> queries;
+
+    // COMMAND-LINE OPTIONS
+
+    /** output file */
+    @Option(name = "--output", aliases = { "-o" }, usage = "output file (if not STDOUT)")
+    private File outFile;
+
+    /** file of queries */
+    @Option(name = "--file", metaVar = "queries.tbl", usage = "file of queries to run, with parameter values")
+    private File queryFile;
+
+    /** output format */
+    @Option(name = "--format", usage = "output format")
+    private ResultWriter.Format format;
+
+    /** cursor fetch size */
+    @Option(name = "--fetch", metaVar = "5000", usage = "number of rows to fetch at a time (MySQL streams single rows unless useCursorFetch=true)")
+    private int fetchSize;
+
+    /** maximum number of cached statements */
+    @Option(name = "--cache", metaVar = "20", usage = "maximum number of prepared statements to keep")
+    private int cacheSize;
+
+    /** timing report file */
+    @Option(name = "--report", metaVar = "timings.tbl", usage = "if specified, a file to contain the timing report")
+    private File reportFile;
+
+    /** TRUE to allow updates */
+    @Option(name = "--update", usage = "if specified, the queries may update the database")
+    private boolean updateFlag;
+
+    /** memory map size for reading */
+    @Option(name = "--mmap", metaVar = "4096", usage = "memory map size in megabytes for reading an SQLite database (0 to disable)")
+    private int mmapSize;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
+
+    /** query text and parameters */
+    @Argument(index = 0, metaVar = "\"SELECT ...\" parm1 parm2 ...", usage = "query to run, followed by its parameter values")
+    private List<String> query;
+
+    @Override
+    protected void setDbDefaults() {
+        this.outFile = null;
+        this.queryFile = null;
+        this.format = ResultWriter.Format.TSV;
+        this.fetchSize = 1000;
+        this.cacheSize = 100;
+        this.reportFile = null;
+        this.updateFlag = false;
+        this.mmapSize = SqlHelper.DEFAULT_MMAP_MB;
+        this.metricsFile = null;
+        this.query = new ArrayList<String>();
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.mmapSize < 0)
+            throw new ParseFailureException("Memory map size cannot be negative.");
+        if (this.fetchSize < 1)
+            throw new ParseFailureException("Fetch size must be at least 1.");
+        if (this.cacheSize < 1)
+            throw new ParseFailureException("Cache size must be at least 1.");
+        // Get the queries.
+        this.queries = new ArrayList<String[]>();
+        if (this.queryFile == null) {
+            if (this.query.isEmpty())
+                throw new ParseFailureException("Either a query or a query file must be specified.");
+            this.queries.add(this.query.toArray(new String[this.query.size()]));
+        } else if (! this.query.isEmpty())
+            throw new ParseFailureException("Cannot specify both a query and a query file.");
+        else if (! this.queryFile.canRead())
+            throw new FileNotFoundException("Query file " + this.queryFile + " is not found or unreadable.");
+        else {
+            try (LineReader reader = new LineReader(this.queryFile)) {
+                for (String line : reader) {
+                    if (! line.isBlank() && ! line.startsWith("#"))
+                        this.queries.add(StringUtils.splitPreserveAllTokens(line, '\t'));
+                }
+            }
+            log.info("{} queries read from {}.", this.queries.size(), this.queryFile);
+        }
+        // Set up the output file.
+        if (this.outFile == null) {
+            log.info("Output will be to the standard output.");
+            this.writer = new PrintWriter(System.out);
+        } else {
+            log.info("Output will be to {}.", this.outFile);
+            this.writer = new PrintWriter(this.outFile);
+        }
+        return true;
+    }
+
+    @Override
+    protected void runDbCommand(DbConnection db) throws Exception {
+        SqlHelper helper = new SqlHelper(db);
+        if (! this.updateFlag)
+            helper.setReadOnly(this.mmapSize);
+        ResultWriter results = new ResultWriter(this.writer, this.format);
+        try (QueryRunner runner = new QueryRunner(helper, results, this.cacheSize, this.fetchSize, this.reportFile,
+                "sql", "query")) {
+            for (String[] query : this.queries) {
+                runner.run(query[0], stmt -> {
+                    for (int i = 1; i < query.length; i++) {
+                        if (query[i].isEmpty())
+                            stmt.setNull(i, Types.VARCHAR);
+                        else
+                            stmt.setString(i, query[i]);
+                    }
+                }, query[0]);
+            }
+            log.info("{} queries run, {} statements prepared, {} reused.", runner.getQueryCount(),
+                    runner.getPrepared(), runner.getReused());
+        } finally {
+            // We must not close the standard output, since we may be running in a daemon.
+            if (this.outFile == null)
+                this.writer.flush();
+            else
+                this.writer.close();
+        }
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles(this.queryFile);
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles(this.outFile, this.reportFile, this.metricsFile);
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return this.outFile == null;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return this.updateFlag;
+    }
+
+}
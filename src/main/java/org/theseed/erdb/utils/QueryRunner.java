@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
+
+/**
+ * This object runs a series of SQL statements for the query commands. The statements are taken from a
+ * statement cache (see StatementCache), and the results are streamed to a result writer (see ResultWriter).
+ * A statement that is not a query writes no results, and its update count is used as the row count.
+ *
+ * For each statement, the time to the first row and the total time are logged and recorded in the metrics
+ * registry under a prefix chosen by the caller. If a report file is specified, the times are also written
+ * there, along with the number of rows, whether or not the statement came from the cache, and a description
+ * of the query.
+ *
+ * The runner owns the statement cache and the report file, but not the result writer's output stream, since
+ * that may be the standard output.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class QueryRunner implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(QueryRunner.class);
+    /** statement cache */
+    private StatementCache cache;
+    /** result writer */
+    private ResultWriter results;
+    /** report writer, or NULL if there is no report */
+    private PrintWriter reporter;
+    /** fetch size for the driver */
+    private int fetchSize;
+    /** number of statements run */
+    private int queryNum;
+    /** counter for rows returned */
+    private Counter rowCount;
+    /** timer for the first row of a statement */
+    private Timer firstRowTimer;
+    /** timer for a whole statement */
+    private Timer queryTimer;
+
+    /**
+     * This interface binds the parameter values for a statement.
+     */
+    @FunctionalInterface
+    public interface Binder {
+
+        /**
+         * Bind the parameter values.
+         *
+         * @param stmt		prepared statement to bind
+         *
+         * @throws SQLException
+         */
+        public void bind(PreparedStatement stmt) throws SQLException;
+
+    }
+
+    /**
+     * Construct a query runner.
+     *
+     * @param helper		SQL helper for the database connection
+     * @param results		result writer for the output
+     * @param cacheSize		maximum number of prepared statements to keep
+     * @param fetchSize		number of rows to fetch from the database at a time (see SqlHelper.getFetchSize)
+     * @param reportFile	timing report file, or NULL if there is no report
+     * @param label			heading for the query description column of the report
+     * @param metricPrefix	prefix for the names of the metrics
+     *
+     * @throws IOException
+     */
+    public QueryRunner(SqlHelper helper, ResultWriter results, int cacheSize, int fetchSize, File reportFile,
+            String label, String metricPrefix) throws IOException {
+        this.results = results;
+        this.fetchSize = helper.getFetchSize(fetchSize);
+        this.queryNum = 0;
+        MetricsRegistry registry = MetricsRegistry.global();
+        this.rowCount = registry.counter(metricPrefix + ".rows");
+        this.firstRowTimer = registry.timer(metricPrefix + ".firstRow");
+        this.queryTimer = registry.timer(metricPrefix + ".total");
+        if (reportFile == null)
+            this.reporter = null;
+        else {
+            this.reporter = new PrintWriter(reportFile);
+            this.reporter.println("query\trows\tfirst_ms\ttotal_ms\tcached\t" + label);
+        }
+        this.cache = new StatementCache(helper, cacheSize);
+    }
+
+    /**
+     * Run a statement and write its results.
+     *
+     * @param sql			text of the statement
+     * @param binder		binder for the statement's parameter values
+     * @param description	description of the query for the report
+     *
+     * @return the number of rows returned or updated
+     *
+     * @throws SQLException
+     */
+    public long run(String sql, Binder binder, String description) throws SQLException {
+        this.queryNum++;
+        boolean cached = this.cache.contains(sql);
+        long start = System.nanoTime();
+        PreparedStatement stmt = this.cache.get(sql);
+        stmt.setFetchSize(this.fetchSize);
+        binder.bind(stmt);
+        long retVal;
+        long firstRow;
+        if (stmt.execute()) {
+            try (ResultSet resultSet = stmt.getResultSet()) {
+                retVal = this.results.write(resultSet);
+            }
+            firstRow = this.results.getFirstRowTime();
+        } else {
+            retVal = stmt.getUpdateCount();
+            firstRow = -1;
+        }
+        long end = System.nanoTime();
+        // If there was no first row, the latency is the whole query.
+        long firstNanos = (firstRow < 0 ? end : firstRow) - start;
+        this.queryTimer.record(end - start);
+        this.firstRowTimer.record(firstNanos);
+        this.rowCount.add(retVal);
+        log.info("Query {}: {} rows, first row in {} ms, total {} ms{}.", this.queryNum, retVal,
+                String.format("%4.3f", firstNanos / 1e6), String.format("%4.3f", (end - start) / 1e6),
+                (cached ? " (cached)" : ""));
+        if (this.reporter != null)
+            this.reporter.format("%d\t%d\t%4.3f\t%4.3f\t%s\t%s%n", this.queryNum, retVal, firstNanos / 1e6,
+                    (end - start) / 1e6, (cached ? "Y" : ""), description);
+        return retVal;
+    }
+
+    /**
+     * @return the number of statements run
+     */
+    public int getQueryCount() {
+        return this.queryNum;
+    }
+
+    /**
+     * @return the number of statements prepared
+     */
+    public long getPrepared() {
+        return this.cache.getMisses();
+    }
+
+    /**
+     * @return the number of statements reused from the cache
+     */
+    public long getReused() {
+        return this.cache.getHits();
+    }
+
+    @Override
+    public void close() {
+        this.cache.close();
+        if (this.reporter != null)
+            this.reporter.close();
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.PrintWriter;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.github.cliftonlabs.json_simple.JsonObject;
+
+/**
+ * This object streams the rows of query results to an output writer. Each row is written as soon as it
+ * is read, so memory use does not depend on the size of the results.
+ *
+ * In TSV format, each result set begins with a header line containing the column labels, and the values
+ * are escaped as in the "export" command (see TsvCodec), so that a NULL is written as "\N" and tabs and
+ * line breaks inside a value do not break the line. In JSON format, each row is written as a JSON object
+ * on a line by itself, keyed on the column labels. Since a duplicate label would make the header ambiguous
+ * and would overwrite a JSON value, a result set whose column labels are not distinct is rejected before
+ * any rows are written.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ResultWriter {
+
+    // FIELDS
+    /** output writer */
+    private PrintWriter writer;
+    /** output format */
+    private Format format;
+    /** time at which the first row was read, in nanoseconds, or -1 if there were no rows */
+    private long firstRowTime;
+
+    /**
+     * This enum describes the output formats.
+     */
+    public static enum Format {
+        /** tab-delimited with headers */
+        TSV,
+        /** one JSON object per line */
+        JSON;
+    }
+
+    /**
+     * Construct a result writer.
+     *
+     * @param writer	output writer
+     * @param format	output format
+     */
+    public ResultWriter(PrintWriter writer, Format format) {
+        this.writer = writer;
+        this.format = format;
+        this.firstRowTime = -1;
+    }
+
+    /**
+     * Write all the rows of a result set.
+     *
+     * @param results	result set to write; it is positioned before the first row
+     *
+     * @return the number of rows written
+     *
+     * @throws SQLException
+     */
+    public long write(ResultSet results) throws SQLException {
+        ResultSetMetaData meta = results.getMetaData();
+        final int width = meta.getColumnCount();
+        List<String> labels = new ArrayList<String>(width);
+        Set<String> found = new HashSet<String>(width * 4 / 3 + 1);
+        for (int i = 1; i <= width; i++) {
+            String label = meta.getColumnLabel(i);
+            if (! found.add(label))
+                throw new SQLException("Column label \"" + label + "\" appears more than once in the results. "
+                        + "Use AS to give the columns distinct labels.");
+            labels.add(label);
+        }
+        if (this.format == Format.TSV)
+            this.writer.println(StringUtils.join(labels, '\t'));
+        this.firstRowTime = -1;
+        long retVal = 0;
+        StringBuilder line = new StringBuilder(100);
+        while (results.next()) {
+            if (retVal == 0)
+                this.firstRowTime = System.nanoTime();
+            switch (this.format) {
+            case TSV :
+                line.setLength(0);
+                for (int i = 1; i <= width; i++) {
+                    if (i > 1)
+                        line.append('\t');
+                    TsvCodec.append(line, results.getString(i));
+                }
+                this.writer.println(line);
+                break;
+            case JSON :
+                JsonObject row = new JsonObject();
+                for (int i = 1; i <= width; i++) {
+                    Object value = results.getObject(i);
+                    // JSON only understands numbers, strings, and booleans.
+                    if (value != null && ! (value instanceof Number || value instanceof Boolean))
+                        value = results.getString(i);
+                    row.put(labels.get(i - 1), value);
+                }
+                this.writer.println(row.toJson());
+            }
+            retVal++;
+        }
+        this.writer.flush();
+        return retVal;
+    }
+
+    /**
+     * @return the time the first row of the last result set was read, in nanoseconds, or -1 if it was empty
+     */
+    public long getFirstRowTime() {
+        return this.firstRowTime;
+    }
+
+}
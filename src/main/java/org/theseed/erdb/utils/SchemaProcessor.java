@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
+import org.theseed.spec.ModuleNode;
+import org.theseed.spec.ModuleRepository;
+import org.theseed.spec.SpecParser;
+import org.theseed.spec.SpecSchema;
+import org.theseed.utils.BaseTextProcessor;
+
+/**
+ * This command produces an SQL script to create a database for documents described by a spec file. The
+ * spec file is read from the standard input and the script is produced on the standard output. The script
+ * can be run by the "init" command, and the resulting database can be displayed by the "display" command.
+ *
+ * Each root structure type becomes a table, and its list and mapping fields become child tables (see
+ * SpecSchema). If no root types are specified, the structure types not used by any other type are the
+ * roots.
+ *
+ * The command-line options are as follows:
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ * -i	input file containing the spec (if not STDIN)
+ *
+ * --lib		directory containing the spec files for imported modules (default is the current directory)
+ * --root		name of a root structure type (may be specified more than once)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SchemaProcessor extends BaseTextProcessor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(SchemaProcessor.class);
+
+    // COMMAND-LINE OPTIONS
+
+    /** library directory for imported modules */
+    @Option(name = "--lib", metaVar = "specDir", usage = "directory containing the spec files for imported modules")
+    private File libDir;
+
+    /** names of the root types */
+    @Option(name = "--root", metaVar = "genomeTO", usage = "name of a root structure type (may be repeated)")
+    private List<String> roots;
+
+    @Override
+    protected void setTextDefaults() {
+        this.libDir = new File(System.getProperty("user.dir"));
+        this.roots = new ArrayList<String>();
+    }
+
+    @Override
+    protected void validateTextParms() throws IOException, ParseFailureException {
+        if (! this.libDir.isDirectory())
+            throw new FileNotFoundException("Library directory " + this.libDir + " is not found or invalid.");
+    }
+
+    @Override
+    protected void runPipeline(LineReader inputStream, PrintWriter writer) throws Exception {
+        ModuleNode module = new ModuleNode(new SpecParser(inputStream, ModuleRepository.forDirectory(this.libDir)));
+        SpecSchema schema;
+        try {
+            schema = SpecSchema.forModule(module, this.roots);
+        } catch (IllegalArgumentException e) {
+            throw new ParseFailureException(e.getMessage());
+        }
+        log.info("{} tables generated for module {}.", schema.getTables().size(), module.getName());
+        schema.writeSql(writer);
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.LineReader;
+import org.theseed.spec.ModuleNode;
+import org.theseed.spec.ModuleRepository;
+import org.theseed.spec.SpecDiff;
+import org.theseed.spec.SpecParser;
+
+/**
+ * This command compares two versions of a spec file and lists the types and functions that were added,
+ * removed, or changed. Declarations that are unchanged themselves but use a changed type are listed as
+ * affected. Each change is classified as compatible or breaking for existing clients.
+ *
+ * The report is written to the standard output as a tab-delimited file with the columns status, severity,
+ * kind (type or function), name, and details. The functions whose clients may be affected are listed in
+ * the log.
+ *
+ * The positional parameters are the names of the old and new spec files. The command-line options are as
+ * follows.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --lib		directory containing the spec files for imported modules (default is the current directory)
+ * --strict		if specified, the command fails when a breaking change is found
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecDiffProcessor extends BaseProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(SpecDiffProcessor.class);
+
+    // COMMAND-LINE OPTIONS
+
+    /** library directory for imported modules */
+    @Option(name = "--lib", metaVar = "specDir", usage = "directory containing the spec files for imported modules")
+    private File libDir;
+
+    /** if specified, breaking changes cause an error */
+    @Option(name = "--strict", usage = "if specified, fail when a breaking change is found")
+    private boolean strict;
+
+    /** old version of the spec */
+    @Argument(index = 0, metaVar = "old.spec", usage = "old version of the spec file", required = true)
+    private File oldFile;
+
+    /** new version of the spec */
+    @Argument(index = 1, metaVar = "new.spec", usage = "new version of the spec file", required = true)
+    private File newFile;
+
+    @Override
+    protected void setDefaults() {
+        this.libDir = new File(System.getProperty("user.dir"));
+        this.strict = false;
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (! this.libDir.isDirectory())
+            throw new FileNotFoundException("Library directory " + this.libDir + " is not found or invalid.");
+        if (! this.oldFile.canRead())
+            throw new FileNotFoundException("Old spec file " + this.oldFile + " is not found or unreadable.");
+        if (! this.newFile.canRead())
+            throw new FileNotFoundException("New spec file " + this.newFile + " is not found or unreadable.");
+        return true;
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        ModuleRepository repository = ModuleRepository.forDirectory(this.libDir);
+        ModuleNode oldModule = this.parse(this.oldFile, repository);
+        ModuleNode newModule = this.parse(this.newFile, repository);
+        log.info("Comparing module {} to module {}.", oldModule.getName(), newModule.getName());
+        SpecDiff diff = new SpecDiff(oldModule, newModule);
+        List<SpecDiff.Change> changes = diff.getChanges();
+        System.out.println("status\tseverity\tkind\tname\tdetails");
+        for (SpecDiff.Change change : changes)
+            System.out.format("%s\t%s\t%s\t%s\t%s%n", change.getStatus(), change.getSeverity(), change.getKind(),
+                    change.getName(), String.join("; ", change.getDetails()));
+        System.out.flush();
+        log.info("{} changes found, {} declarations unchanged.", changes.size(), diff.getUnchangedCount());
+        List<String> affected = diff.getAffectedFunctions();
+        if (! affected.isEmpty())
+            log.info("Affected functions: {}.", String.join(", ", affected));
+        if (this.strict && diff.isBreaking())
+            throw new ParseFailureException("Breaking changes found between " + this.oldFile + " and " + this.newFile + ".");
+    }
+
+    /**
+     * Parse a spec file.
+     *
+     * @param inFile		spec file to parse
+     * @param repository	repository for imported modules
+     *
+     * @return the module node for the spec
+     *
+     * @throws IOException
+     */
+    private ModuleNode parse(File inFile, ModuleRepository repository) throws IOException {
+        log.info("Parsing {}.", inFile);
+        ModuleNode retVal;
+        try (LineReader reader = new LineReader(inFile)) {
+            retVal = new ModuleNode(new SpecParser(reader, repository));
+        }
+        retVal.freeze();
+        return retVal;
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles(this.libDir, this.oldFile, this.newFile);
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles();
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return true;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return false;
+    }
+
+}
@@ -9,15 +9,26 @@ import static j2html.TagCreator.html;
 import static j2html.TagCreator.link;
 import static j2html.TagCreator.title;
 
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import org.kohsuke.args4j.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.basic.ParseFailureException;
 import org.theseed.io.LineReader;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
 import org.theseed.spec.ModuleNode;
+import org.theseed.spec.ModuleRepository;
 import org.theseed.spec.SpecParser;
+import org.theseed.spec.SpecSearchIndex;
 import org.theseed.utils.BaseTextProcessor;
 
 import j2html.tags.ContainerTag;
@@ -26,12 +37,27 @@ import j2html.tags.ContainerTag;
  * This command produces a web page describing a spec file. The spec file is read from the standard input and
  * the web page is produced on the standard output.
  *
+ * A spec can use types from other modules by qualifying the type name with the module name (for example,
+ * "Common.Handle"). The other modules are compiled from the library directory, and the links to their
+ * types presume that their web pages are in the same directory as this one.
+ *
+ * The page includes a search box over the type, field, and function names and the comments. The search
+ * index can also be saved to a file for use by the "spec-search" command.
+ *
+ * A very large spec can be parsed in parallel by specifying more than one worker. The whole spec is then
+ * read into memory, and its declarations are divided into chunks that are parsed at the same time.
+ *
  * The command-line options are as follows:
  *
  * -h	display command-line usage
  * -i	input file containing the genome spec (if not STDIN)
  * -o	output file for the web page (if not STDOUT)
  *
+ * --lib		directory containing the spec files for imported modules (default is the current directory)
+ * --index		if specified, a file to contain the JSON search index
+ * --workers	number of threads for parsing the spec (default 1)
+ * --metrics	if specified, a file to contain a JSON report of performance metrics
+ *
  * @author Bruce Parrello
  *
  */
@@ -40,28 +66,98 @@ public class SpecPageProcessor extends BaseTextProcessor {
     // FIELDS
     /** logging facility */
     protected static Logger log = LoggerFactory.getLogger(SpecPageProcessor.class);
+    /** timer for rendering the page */
+    private static final Timer RENDER_TIMER = MetricsRegistry.global().timer("output.render");
+    /** timer for writing the output */
+    private static final Timer WRITE_TIMER = MetricsRegistry.global().timer("output.write");
+    /** counter for characters written */
+    private static final Counter WRITE_CHARS = MetricsRegistry.global().counter("output.chars");
+
+    // COMMAND-LINE OPTIONS
+
+    /** library directory for imported modules */
+    @Option(name = "--lib", metaVar = "specDir", usage = "directory containing the spec files for imported modules")
+    private File libDir;
+
+    /** search index output file */
+    @Option(name = "--index", metaVar = "index.json", usage = "if specified, a file to contain the JSON search index")
+    private File indexFile;
+
+    /** number of parsing threads */
+    @Option(name = "--workers", metaVar = "4", usage = "number of threads for parsing the spec")
+    private int workers;
+
+    /** metrics report file */
+    @Option(name = "--metrics", metaVar = "metrics.json", usage = "if specified, a file to contain a JSON report of performance metrics")
+    private File metricsFile;
 
     @Override
     protected void setTextDefaults() {
+        this.libDir = new File(System.getProperty("user.dir"));
+        this.indexFile = null;
+        this.workers = 1;
+        this.metricsFile = null;
     }
 
     @Override
     protected void validateTextParms() throws IOException, ParseFailureException {
+        if (! this.libDir.isDirectory())
+            throw new FileNotFoundException("Library directory " + this.libDir + " is not found or invalid.");
+        if (this.workers < 1)
+            throw new ParseFailureException("Number of workers must be at least 1.");
     }
 
     @Override
     protected void runPipeline(LineReader inputStream, PrintWriter writer) throws Exception {
         log.info("Initializing parser.");
-        SpecParser parser = new SpecParser(inputStream);
-        log.info("Creating module node.");
-        ModuleNode modNode = new ModuleNode(parser);
+        ModuleRepository repository = ModuleRepository.forDirectory(this.libDir);
+        ModuleNode modNode;
+        if (this.workers == 1) {
+            SpecParser parser = new SpecParser(inputStream, repository);
+            log.info("Creating module node.");
+            modNode = new ModuleNode(parser);
+        } else {
+            List<String> lines = new ArrayList<String>();
+            for (String line : inputStream)
+                lines.add(line);
+            ForkJoinPool pool = new ForkJoinPool(this.workers);
+            try {
+                SpecParser parser = new SpecParser(lines, repository, pool);
+                log.info("Creating module node from {} chunks.", parser.getChunks().size());
+                modNode = new ModuleNode(parser);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        modNode.freeze();
+        log.info("Building search index.");
+        SpecSearchIndex index = new SpecSearchIndex(modNode);
+        log.info("{} terms indexed for {} declarations.", index.getTermCount(), index.size());
+        if (this.indexFile != null) {
+            log.info("Writing search index to {}.", this.indexFile);
+            try (PrintWriter indexWriter = new PrintWriter(this.indexFile)) {
+                indexWriter.println(index.toJson());
+            }
+        }
         log.info("Building web page.");
         ContainerTag modHtml = modNode.toHtml();
         ContainerTag head = head().with(link().withRel("styleSheet").withHref(DisplayProcessor.STYLE_SHEET))
                 .with(title(modNode.getName()));
-        ContainerTag page = html().with(head, body().with(modHtml));
+        ContainerTag page = html().with(head, body().with(index.toHtml(), modHtml));
+        String pageHtml;
+        try (Timer.Context t = RENDER_TIMER.start()) {
+            pageHtml = page.render();
+        }
         log.info("Writing output.");
-        writer.println(page.render());
+        try (Timer.Context t = WRITE_TIMER.start()) {
+            writer.println(pageHtml);
+            writer.flush();
+        }
+        WRITE_CHARS.add(pageHtml.length());
+        if (this.metricsFile != null) {
+            log.info("Writing metrics report to {}.", this.metricsFile);
+            MetricsRegistry.global().writeReport(this.metricsFile);
+        }
     }
 
 }
@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.spi.RestOfArgumentsHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.spec.SpecSearchIndex;
+
+/**
+ * This command searches the index of a spec web page. The index is produced by the "--index" option of
+ * the "spec" command, and is loaded directly, without re-parsing the spec.
+ *
+ * Each query word matches any indexed word of which it is a prefix, and a result must match all the
+ * query words. The results are written to the standard output as a tab-delimited file with the columns
+ * score, kind (type, field, or function), name, popularity, and anchor.
+ *
+ * The positional parameters are the name of the index file and the query words. The command-line
+ * options are as follows.
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --max	maximum number of results to display (default 20)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecSearchProcessor extends BaseProcessor implements BatchResources {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(SpecSearchProcessor.class);
+
+    // COMMAND-LINE OPTIONS
+
+    /** maximum number of results */
+    @Option(name = "--max", metaVar = "50", usage = "maximum number of results to display")
+    private int maxResults;
+
+    /** index file */
+    @Argument(index = 0, metaVar = "index.json", usage = "search index file", required = true)
+    private File indexFile;
+
+    /** query words */
+    @Argument(index = 1, metaVar = "word1 word2 ...", usage = "query words", required = true,
+            handler = RestOfArgumentsHandler.class)
+    private List<String> query;
+
+    @Override
+    protected void setDefaults() {
+        this.maxResults = 20;
+        this.query = new ArrayList<String>();
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.maxResults < 1)
+            throw new ParseFailureException("Maximum number of results must be at least 1.");
+        if (! this.indexFile.canRead())
+            throw new FileNotFoundException("Index file " + this.indexFile + " is not found or unreadable.");
+        if (this.query.isEmpty())
+            throw new ParseFailureException("No query words specified.");
+        return true;
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        SpecSearchIndex index;
+        try (Reader reader = new FileReader(this.indexFile)) {
+            index = new SpecSearchIndex(reader);
+        }
+        log.info("{} declarations and {} terms loaded from {}.", index.size(), index.getTermCount(), this.indexFile);
+        List<SpecSearchIndex.Hit> hits = index.search(String.join(" ", this.query), this.maxResults);
+        System.out.println("score\tkind\tname\tpopularity\tanchor");
+        for (SpecSearchIndex.Hit hit : hits) {
+            SpecSearchIndex.Document doc = hit.getDoc();
+            System.out.format("%d\t%s\t%s\t%d\t%s%n", hit.getScore(), doc.getKind(), doc.getName(), doc.getPopularity(),
+                    doc.getAnchor());
+        }
+        System.out.flush();
+        log.info("{} results found.", hits.size());
+    }
+
+    @Override
+    public Collection<File> getInputFiles() {
+        return BatchResources.listFiles(this.indexFile);
+    }
+
+    @Override
+    public Collection<File> getOutputFiles() {
+        return BatchResources.listFiles();
+    }
+
+    @Override
+    public boolean usesStandardOutput() {
+        return true;
+    }
+
+    @Override
+    public boolean writesDatabase() {
+        return false;
+    }
+
+}
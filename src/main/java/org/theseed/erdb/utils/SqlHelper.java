@@ -0,0 +1,285 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.theseed.java.erdb.DbConnection;
+
+/**
+ * This object provides low-level SQL services for the utilities that need to work below the level of
+ * the ERDB metadata. It is attached to a database connection, and determines the type of the underlying
+ * database engine so that identifiers can be quoted properly and engine-specific features can be
+ * selected.
+ *
+ * For SQLite, a connection used only for reading can be tuned with memory-mapped I/O and a larger page
+ * cache (see setReadOnly), and the commands that write a database put it in write-ahead-log mode, so that
+ * readers never wait on a concurrent writer.
+ *
+ * A JDBC connection cannot be shared between threads, so a command that reads in parallel can open a
+ * worker helper for each thread (see openWorker). A worker helper has its own connection to the same
+ * database, but no ERDB connection, and it must be closed when the thread is done with it.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SqlHelper {
+
+    // FIELDS
+    /** controlling database connection */
+    private DbConnection db;
+    /** underlying JDBC connection */
+    private Connection conn;
+    /** TRUE if this is an SQLite database */
+    private boolean sqlite;
+    /** TRUE if this helper opened its own connection and must close it */
+    private boolean owner;
+    /** TRUE if this is a MySQL connection with server-side cursors enabled */
+    private boolean cursorFetch;
+    /** default memory map size for read-only SQLite connections, in megabytes */
+    public static final int DEFAULT_MMAP_MB = 1024;
+    /** page cache size for read-only SQLite connections, in kilobytes */
+    private static final int READ_CACHE_KB = 65536;
+
+    /**
+     * Construct a SQL helper for a database connection.
+     *
+     * @param db		database connection of interest
+     *
+     * @throws SQLException
+     */
+    public SqlHelper(DbConnection db) throws SQLException {
+        this.db = db;
+        // We use a dummy statement to get access to the JDBC connection.
+        try (PreparedStatement stmt = db.createStatement("SELECT 1")) {
+            this.conn = stmt.getConnection();
+        }
+        String product = this.conn.getMetaData().getDatabaseProductName();
+        this.sqlite = product.toLowerCase().contains("sqlite");
+        this.owner = false;
+        this.cursorFetch = hasCursorFetch(this.conn, this.sqlite);
+    }
+
+    /**
+     * Construct a worker helper for a JDBC connection it owns.
+     *
+     * @param conn		JDBC connection opened for the worker
+     * @param sqlite	TRUE if the database is an SQLite database
+     *
+     * @throws SQLException
+     */
+    private SqlHelper(Connection conn, boolean sqlite) throws SQLException {
+        this.db = null;
+        this.conn = conn;
+        this.sqlite = sqlite;
+        this.owner = true;
+        this.cursorFetch = hasCursorFetch(conn, sqlite);
+    }
+
+    /**
+     * @return TRUE if a connection is a MySQL connection with server-side cursors enabled
+     *
+     * @param conn		JDBC connection to check
+     * @param sqlite	TRUE if the database is an SQLite database
+     *
+     * @throws SQLException
+     */
+    private static boolean hasCursorFetch(Connection conn, boolean sqlite) throws SQLException {
+        return ! sqlite && StringUtils.containsIgnoreCase(conn.getMetaData().getURL(), "useCursorFetch=true");
+    }
+
+    /**
+     * Open a worker helper with a second connection to the same database. The connection is opened from the
+     * JDBC URL of this helper's connection, so it gets the same connection parameters. For MySQL, this only
+     * works if the credentials are part of the URL, and otherwise an exception is thrown. An in-memory SQLite
+     * database cannot be reached from a second connection.
+     *
+     * @return a worker helper for the database, or NULL if the database is an in-memory SQLite database
+     *
+     * @throws SQLException
+     */
+    public SqlHelper openWorker() throws SQLException {
+        SqlHelper retVal = null;
+        String url = this.conn.getMetaData().getURL();
+        boolean memory = this.sqlite && (url.equals("jdbc:sqlite:") || url.contains(":memory:")
+                || url.contains("mode=memory"));
+        if (! memory)
+            retVal = new SqlHelper(DriverManager.getConnection(url), this.sqlite);
+        return retVal;
+    }
+
+    /**
+     * Close the connection of a worker helper. For a helper attached to an ERDB connection, this method
+     * does nothing, since the connection belongs to the command.
+     *
+     * @throws SQLException
+     */
+    public void close() throws SQLException {
+        if (this.owner)
+            this.conn.close();
+    }
+
+    /**
+     * @return TRUE if the database is an SQLite database
+     */
+    public boolean isSqlite() {
+        return this.sqlite;
+    }
+
+    /**
+     * @return the underlying database connection, or NULL for a worker helper
+     */
+    public DbConnection getDb() {
+        return this.db;
+    }
+
+    /**
+     * @return the JDBC metadata object for the database
+     *
+     * @throws SQLException
+     */
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return this.conn.getMetaData();
+    }
+
+    /**
+     * Compute the fetch size that makes the driver stream a result set in batches of a specified size.
+     * SQLite honors the fetch size directly. The MySQL driver reads the whole result set into memory no
+     * matter what the fetch size is, unless "useCursorFetch=true" is in the connection parameters, in
+     * which case it fetches the rows in batches from a server-side cursor. Otherwise, the only way to
+     * stream is the special fetch size Integer.MIN_VALUE, which reads the rows one at a time. In that
+     * mode the connection cannot run another statement until the result set is closed.
+     *
+     * @param rows		desired number of rows per batch
+     *
+     * @return the fetch size to give the driver
+     */
+    public int getFetchSize(int rows) {
+        int retVal = rows;
+        if (! this.sqlite && ! this.cursorFetch)
+            retVal = Integer.MIN_VALUE;
+        return retVal;
+    }
+
+    /**
+     * Quote an identifier for use in an SQL statement.
+     *
+     * @param name		identifier (table or field name) to quote
+     *
+     * @return the quoted identifier
+     */
+    public String quote(String name) {
+        String retVal;
+        if (this.sqlite)
+            retVal = "\"" + name + "\"";
+        else
+            retVal = "`" + name + "`";
+        return retVal;
+    }
+
+    /**
+     * Prepare an SQL statement.
+     *
+     * @param sql		text of the statement
+     *
+     * @return a prepared statement for the SQL
+     *
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement retVal;
+        if (this.db == null)
+            retVal = this.conn.prepareStatement(sql);
+        else
+            retVal = this.db.createStatement(sql);
+        return retVal;
+    }
+
+    /**
+     * Configure the connection for reading only. For SQLite, updates are refused by the engine, the page
+     * cache is enlarged, temporary structures are kept in memory, and, if a map size is specified, the file
+     * is read through memory-mapped I/O instead of read calls. For other engines, the connection is marked
+     * read-only, which allows the server to skip the work of preparing for updates.
+     *
+     * @param mmapMB	size of the memory map in megabytes, or 0 to use ordinary reads
+     *
+     * @throws SQLException
+     */
+    public void setReadOnly(int mmapMB) throws SQLException {
+        if (! this.sqlite)
+            this.conn.setReadOnly(true);
+        else {
+            this.pragma("query_only = 1");
+            this.pragma("cache_size = -" + READ_CACHE_KB);
+            this.pragma("temp_store = MEMORY");
+            if (mmapMB > 0)
+                this.pragma("mmap_size = " + mmapMB * 1024L * 1024L);
+        }
+    }
+
+    /**
+     * Put an SQLite database in write-ahead-log mode. In this mode, readers see the last committed state
+     * while a writer is active, instead of waiting for it to finish. The mode is recorded in the database
+     * file, so it only needs to be set by the commands that write. For other engines, this method does
+     * nothing.
+     *
+     * @throws SQLException
+     */
+    public void enableWal() throws SQLException {
+        if (this.sqlite)
+            this.pragma("journal_mode = WAL");
+    }
+
+    /**
+     * Execute an SQLite pragma statement.
+     *
+     * @param pragma	text of the pragma, without the PRAGMA keyword
+     *
+     * @throws SQLException
+     */
+    private void pragma(String pragma) throws SQLException {
+        try (PreparedStatement stmt = this.prepare("PRAGMA " + pragma)) {
+            stmt.execute();
+        }
+    }
+
+    /**
+     * Start a transaction. Until the transaction is committed or rolled back, no updates will be
+     * visible to other connections.
+     *
+     * @throws SQLException
+     */
+    public void beginTransaction() throws SQLException {
+        this.conn.setAutoCommit(false);
+    }
+
+    /**
+     * Commit the current transaction and return to auto-commit mode.
+     *
+     * @throws SQLException
+     */
+    public void commit() throws SQLException {
+        this.conn.commit();
+        this.conn.setAutoCommit(true);
+    }
+
+    /**
+     * Roll back the current transaction and return to auto-commit mode. This method is used during
+     * error recovery, so it never throws an exception.
+     */
+    public void rollback() {
+        try {
+            this.conn.rollback();
+            this.conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            // We are already failing, so we just let the original error through.
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+
+/**
+ * This object caches prepared statements for a database connection, so that a query that is run
+ * repeatedly with different parameters is only compiled once. The cache is keyed on the text of the
+ * SQL statement and holds a limited number of statements. When it is full, the least recently used
+ * statement is closed and removed.
+ *
+ * A statement from the cache is owned by the cache and must not be closed by the caller. Because the
+ * same statement object is returned for the same SQL, the cache must only be used by one thread at a
+ * time.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class StatementCache implements AutoCloseable {
+
+    // FIELDS
+    /** SQL helper for the database connection */
+    private SqlHelper helper;
+    /** map of SQL text to prepared statements, in access order */
+    private LinkedHashMap<String, PreparedStatement> cache;
+    /** maximum number of statements to keep */
+    private int maxSize;
+    /** number of requests satisfied from the cache */
+    private long hits;
+    /** number of statements prepared */
+    private long misses;
+    /** counter for cache hits */
+    private static final Counter HIT_COUNT = MetricsRegistry.global().counter("db.stmtCache.hits");
+    /** counter for cache misses */
+    private static final Counter MISS_COUNT = MetricsRegistry.global().counter("db.stmtCache.misses");
+
+    /**
+     * Construct a statement cache.
+     *
+     * @param helper	SQL helper for the database connection
+     * @param maxSize	maximum number of statements to keep
+     */
+    public StatementCache(SqlHelper helper, int maxSize) {
+        this.helper = helper;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, PreparedStatement>(maxSize * 4 / 3 + 1, 0.75f, true);
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Get a prepared statement for an SQL string. Any parameters from a previous use are cleared.
+     *
+     * @param sql	text of the statement
+     *
+     * @return a prepared statement for the SQL, owned by the cache
+     *
+     * @throws SQLException
+     */
+    public PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement retVal = this.cache.get(sql);
+        if (retVal != null) {
+            retVal.clearParameters();
+            this.hits++;
+            HIT_COUNT.increment();
+        } else {
+            retVal = this.helper.prepare(sql);
+            this.misses++;
+            MISS_COUNT.increment();
+            this.cache.put(sql, retVal);
+            // If the cache is too big, close the least recently used statement.
+            if (this.cache.size() > this.maxSize) {
+                Iterator<Map.Entry<String, PreparedStatement>> iter = this.cache.entrySet().iterator();
+                PreparedStatement oldest = iter.next().getValue();
+                iter.remove();
+                oldest.close();
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a statement for the specified SQL is in the cache
+     *
+     * @param sql	text of the statement
+     */
+    public boolean contains(String sql) {
+        return this.cache.containsKey(sql);
+    }
+
+    /**
+     * @return the number of requests satisfied from the cache
+     */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of statements prepared
+     */
+    public long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Close all the statements in the cache.
+     */
+    @Override
+    public void close() {
+        for (PreparedStatement stmt : this.cache.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                // Closing is only done at the end, so an error here is harmless.
+            }
+        }
+        this.cache.clear();
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.java.erdb.DbTable;
+
+/**
+ * This object represents the dependency graph for the tables in a database. A table depends on another
+ * table if it has a link whose local field is not its primary key. In that case, the table is on the
+ * "many" side of the relationship, and its link field refers to a record in the other table. The other
+ * table must therefore be loaded first.
+ *
+ * The tables are organized into waves. The tables in the first wave depend on nothing. The tables in
+ * each subsequent wave depend only on tables in earlier waves. Tables in the same wave are independent
+ * and can be processed in any order. If the links contain a cycle, the tables in the cycle are put into
+ * a final wave of their own.
+ *
+ * Table names are not case-sensitive, so internally we normalize them to lower case. The waves contain
+ * the names as the database reports them.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TableGraph {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(TableGraph.class);
+    /** map of normalized table names to real table names */
+    private Map<String, String> nameMap;
+    /** map of normalized table names to the normalized names of the tables they depend on */
+    private Map<String, Set<String>> parentMap;
+    /** list of waves, each a list of real table names */
+    private List<List<String>> waves;
+
+    /**
+     * Construct the dependency graph for a database.
+     *
+     * @param db		database connection of interest
+     *
+     * @throws SQLException
+     */
+    public TableGraph(DbConnection db) throws SQLException {
+        List<String> tables = DbMetadata.getTableNames(db);
+        final int hashSize = tables.size() * 4 / 3 + 1;
+        this.nameMap = new HashMap<String, String>(hashSize);
+        for (String table : tables)
+            this.nameMap.put(table.toLowerCase(), table);
+        // Now we find the dependencies for each table. Note we ignore recursive links and links to
+        // tables we don't know about.
+        this.parentMap = new HashMap<String, Set<String>>(hashSize);
+        for (String table : tables) {
+            String normal = table.toLowerCase();
+            DbTable tableDesc = DbMetadata.getTable(db, table);
+            String primaryKey = tableDesc.getKeyName();
+            Set<String> parents = new TreeSet<String>();
+            for (Map.Entry<String, DbTable.Link> link : tableDesc.getLinks()) {
+                String other = link.getKey().toLowerCase();
+                if (! other.equals(normal) && this.nameMap.containsKey(other)
+                        && ! link.getValue().getLocalField().equals(primaryKey))
+                    parents.add(other);
+            }
+            this.parentMap.put(normal, parents);
+        }
+        this.computeWaves();
+    }
+
+    /**
+     * Organize the tables into waves. This is a level-by-level topological sort.
+     */
+    private void computeWaves() {
+        // Count the unprocessed parents of each table and build the reverse map.
+        Map<String, Integer> pending = new HashMap<String, Integer>(this.parentMap.size() * 4 / 3 + 1);
+        Map<String, List<String>> childMap = new HashMap<String, List<String>>(this.parentMap.size() * 4 / 3 + 1);
+        Set<String> current = new TreeSet<String>();
+        for (Map.Entry<String, Set<String>> entry : this.parentMap.entrySet()) {
+            String table = entry.getKey();
+            Set<String> parents = entry.getValue();
+            pending.put(table, parents.size());
+            if (parents.isEmpty())
+                current.add(table);
+            for (String parent : parents)
+                childMap.computeIfAbsent(parent, x -> new ArrayList<String>()).add(table);
+        }
+        // Now peel off the waves.
+        this.waves = new ArrayList<List<String>>();
+        int done = 0;
+        while (! current.isEmpty()) {
+            this.waves.add(this.realNames(current));
+            done += current.size();
+            Set<String> next = new TreeSet<String>();
+            for (String table : current) {
+                for (String child : childMap.getOrDefault(table, Collections.emptyList())) {
+                    int count = pending.get(child) - 1;
+                    pending.put(child, count);
+                    if (count == 0)
+                        next.add(child);
+                }
+            }
+            current = next;
+        }
+        // Anything left over is in a cycle.
+        if (done < this.parentMap.size()) {
+            Set<String> residual = new TreeSet<String>();
+            for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+                if (entry.getValue() > 0)
+                    residual.add(entry.getKey());
+            }
+            log.warn("Circular dependencies found among {} tables: {}.", residual.size(), residual);
+            this.waves.add(this.realNames(residual));
+        }
+    }
+
+    /**
+     * @return a list of the real table names for a collection of normalized names
+     *
+     * @param tables	collection of normalized table names
+     */
+    private List<String> realNames(Collection<String> tables) {
+        List<String> retVal = new ArrayList<String>(tables.size());
+        for (String table : tables)
+            retVal.add(this.nameMap.get(table));
+        return retVal;
+    }
+
+    /**
+     * @return the list of waves; each wave is a list of table names
+     */
+    public List<List<String>> getWaves() {
+        return this.waves;
+    }
+
+    /**
+     * @return the names of the tables on which the specified table depends
+     *
+     * @param table		name of the table of interest
+     */
+    public List<String> getParents(String table) {
+        Set<String> parents = this.parentMap.getOrDefault(table.toLowerCase(), Collections.emptySet());
+        return this.realNames(parents);
+    }
+
+    /**
+     * @return the number of tables in the graph
+     */
+    public int size() {
+        return this.nameMap.size();
+    }
+
+}
@@ -0,0 +1,210 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
+
+/**
+ * This object collects size statistics for database tables. For every table we count the rows. For
+ * SQLite we also get the number of pages and bytes from the "dbstat" virtual table, if the engine
+ * supports it.
+ *
+ * The queries run one at a time on the caller's connection, since a JDBC connection cannot safely be used
+ * by more than one thread. Each query is subject to a timeout, so that a huge table cannot stall the caller.
+ * A statistic that could not be computed is stored as -1.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TableStats {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(TableStats.class);
+    /** map of normalized table names to statistics */
+    private Map<String, Stats> statMap;
+    /** largest row count found */
+    private long maxRows;
+    /** statistics to use for an unknown table */
+    private static final Stats UNKNOWN = new Stats(-1, -1, -1);
+    /** timer for statistics queries */
+    private static final Timer QUERY_TIMER = MetricsRegistry.global().timer("db.stats.query");
+
+    /**
+     * This object contains the statistics for a single table.
+     */
+    public static class Stats {
+
+        /** number of rows */
+        private long rows;
+        /** number of pages */
+        private long pages;
+        /** number of bytes */
+        private long bytes;
+
+        /**
+         * Construct a statistics object.
+         *
+         * @param rows		number of rows
+         * @param pages		number of pages
+         * @param bytes		number of bytes
+         */
+        private Stats(long rows, long pages, long bytes) {
+            this.rows = rows;
+            this.pages = pages;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the number of rows, or -1 if it is unknown
+         */
+        public long getRows() {
+            return this.rows;
+        }
+
+        /**
+         * @return the number of pages, or -1 if it is unknown
+         */
+        public long getPages() {
+            return this.pages;
+        }
+
+        /**
+         * @return the number of bytes, or -1 if it is unknown
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+    }
+
+    /**
+     * Collect the statistics for a set of tables.
+     *
+     * @param helper	SQL helper for the database connection
+     * @param tables	names of the tables to examine
+     * @param timeout	maximum number of seconds to allow for each query
+     *
+     * @throws SQLException
+     */
+    public TableStats(SqlHelper helper, Collection<String> tables, int timeout) throws SQLException {
+        this.statMap = new HashMap<String, Stats>(tables.size() * 4 / 3 + 1);
+        this.maxRows = 0;
+        // Determine whether or not page statistics are available.
+        boolean pagesAvailable = false;
+        if (helper.isSqlite()) {
+            try (PreparedStatement stmt = helper.prepare("SELECT COUNT(*) FROM dbstat WHERE name = ?")) {
+                // If we get here, the statement compiled, so the table exists.
+                pagesAvailable = true;
+            } catch (SQLException e) {
+                log.info("Page statistics are not available in this database.");
+            }
+        }
+        for (String table : tables) {
+            Stats stats;
+            try {
+                stats = computeStats(helper, table, pagesAvailable, timeout);
+            } catch (SQLTimeoutException e) {
+                log.warn("Statistics query for {} timed out.", table);
+                stats = UNKNOWN;
+            } catch (SQLException e) {
+                log.warn("Statistics query for {} failed: {}", table, e.toString());
+                stats = UNKNOWN;
+            }
+            this.statMap.put(table.toLowerCase(), stats);
+            this.maxRows = Math.max(this.maxRows, stats.rows);
+        }
+    }
+
+    /**
+     * Compute the statistics for a single table.
+     *
+     * @param helper			SQL helper for the database connection
+     * @param table				name of the table to examine
+     * @param pagesAvailable	TRUE if page statistics are available
+     * @param timeout			maximum number of seconds to allow for each query
+     *
+     * @return the statistics for the table
+     *
+     * @throws SQLException
+     */
+    private static Stats computeStats(SqlHelper helper, String table, boolean pagesAvailable, int timeout)
+            throws SQLException {
+        long rows = -1;
+        long pages = -1;
+        long bytes = -1;
+        try (PreparedStatement stmt = helper.prepare("SELECT COUNT(*) FROM " + helper.quote(table));
+                Timer.Context t = QUERY_TIMER.start()) {
+            stmt.setQueryTimeout(timeout);
+            try (ResultSet results = stmt.executeQuery()) {
+                if (results.next())
+                    rows = results.getLong(1);
+            }
+        }
+        if (pagesAvailable) {
+            try (PreparedStatement stmt = helper.prepare("SELECT COUNT(*), SUM(pgsize) FROM dbstat WHERE name = ?");
+                    Timer.Context t = QUERY_TIMER.start()) {
+                stmt.setQueryTimeout(timeout);
+                stmt.setString(1, table);
+                try (ResultSet results = stmt.executeQuery()) {
+                    if (results.next()) {
+                        pages = results.getLong(1);
+                        bytes = results.getLong(2);
+                    }
+                }
+            }
+        }
+        return new Stats(rows, pages, bytes);
+    }
+
+    /**
+     * @return the statistics for a table
+     *
+     * @param table		name of the table of interest
+     */
+    public Stats get(String table) {
+        return this.statMap.getOrDefault(table.toLowerCase(), UNKNOWN);
+    }
+
+    /**
+     * @return the largest row count for any table
+     */
+    public long getMaxRows() {
+        return this.maxRows;
+    }
+
+    /**
+     * Format a count in a compact form for display.
+     *
+     * @param count		count to format
+     *
+     * @return a compact string for the count, or a question mark if it is unknown
+     */
+    public static String formatCount(long count) {
+        String retVal;
+        if (count < 0)
+            retVal = "?";
+        else if (count < 10000)
+            retVal = Long.toString(count);
+        else if (count < 10000000)
+            retVal = String.format("%1.1fK", count / 1000.0);
+        else if (count < 10000000000L)
+            retVal = String.format("%1.1fM", count / 1000000.0);
+        else
+            retVal = String.format("%1.1fG", count / 1000000000.0);
+        return retVal;
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+/**
+ * This class encodes and decodes the field values in the tab-delimited files written by the "export" and
+ * "query" commands and read by the "load" command. Tabs and line breaks would break the file format, and
+ * a NULL would be indistinguishable from an empty string, so values are escaped with backslashes in the
+ * same way as the MySQL LOAD DATA format.
+ *
+ * \\	backslash
+ * \t	tab
+ * \n	line feed
+ * \r	carriage return
+ * \N	NULL (the whole field)
+ *
+ * An empty field is an empty string. A backslash followed by any other character decodes to that character.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TsvCodec {
+
+    // FIELDS
+    /** encoded form of a NULL value */
+    public static final String NULL_VALUE = "\\N";
+
+    /**
+     * Append the encoded form of a field value to an output line.
+     *
+     * @param line		output line being built
+     * @param value		field value to encode, or NULL
+     */
+    public static void append(StringBuilder line, String value) {
+        if (value == null)
+            line.append(NULL_VALUE);
+        else {
+            final int n = value.length();
+            for (int i = 0; i < n; i++) {
+                char ch = value.charAt(i);
+                switch (ch) {
+                case '\\' :
+                    line.append("\\\\");
+                    break;
+                case '\t' :
+                    line.append("\\t");
+                    break;
+                case '\n' :
+                    line.append("\\n");
+                    break;
+                case '\r' :
+                    line.append("\\r");
+                    break;
+                default :
+                    line.append(ch);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the field value represented by an encoded field, or NULL if the field is a NULL
+     *
+     * @param field		encoded field from an input line
+     */
+    public static String decode(String field) {
+        String retVal;
+        if (field.equals(NULL_VALUE))
+            retVal = null;
+        else if (field.indexOf('\\') < 0)
+            retVal = field;
+        else {
+            final int n = field.length();
+            StringBuilder buffer = new StringBuilder(n);
+            for (int i = 0; i < n; i++) {
+                char ch = field.charAt(i);
+                // A backslash at the end of the field has nothing to escape, so it stands for itself.
+                if (ch == '\\' && i + 1 < n) {
+                    i++;
+                    ch = field.charAt(i);
+                    switch (ch) {
+                    case 't' :
+                        ch = '\t';
+                        break;
+                    case 'n' :
+                        ch = '\n';
+                        break;
+                    case 'r' :
+                        ch = '\r';
+                        break;
+                    }
+                }
+                buffer.append(ch);
+            }
+            retVal = buffer.toString();
+        }
+        return retVal;
+    }
+
+}
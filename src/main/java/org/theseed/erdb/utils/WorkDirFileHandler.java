@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import java.io.File;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.OptionDef;
+import org.kohsuke.args4j.OptionHandlerRegistry;
+import org.kohsuke.args4j.spi.FileOptionHandler;
+import org.kohsuke.args4j.spi.Setter;
+
+/**
+ * This option handler parses file parameters relative to a working directory other than the JVM's. The
+ * daemon uses it so that the relative file names in a client's command are resolved against the client's
+ * working directory instead of the daemon's.
+ *
+ * The working directory belongs to the current thread and is inherited by the threads it creates, so the
+ * commands a batch runs in parallel see the same directory as the batch. If no working directory is set,
+ * file names are parsed the usual way.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class WorkDirFileHandler extends FileOptionHandler {
+
+    // FIELDS
+    /** working directory for the current thread, or NULL to use the JVM's */
+    private static final InheritableThreadLocal<File> WORK_DIR = new InheritableThreadLocal<File>();
+
+    /**
+     * Construct a file option handler.
+     *
+     * @param parser	parent command-line parser
+     * @param option	option or argument definition
+     * @param setter	setter for the parameter value
+     */
+    public WorkDirFileHandler(CmdLineParser parser, OptionDef option, Setter<? super File> setter) {
+        super(parser, option, setter);
+    }
+
+    @Override
+    protected File parse(String argument) throws CmdLineException {
+        return resolve(argument);
+    }
+
+    /**
+     * @return the file for a file name, resolved against the current thread's working directory
+     *
+     * @param name		file name to resolve
+     */
+    public static File resolve(String name) {
+        File retVal = new File(name);
+        File workDir = WORK_DIR.get();
+        if (workDir != null && ! retVal.isAbsolute())
+            retVal = new File(workDir, name);
+        return retVal;
+    }
+
+    /**
+     * Use this handler for all file parameters.
+     */
+    public static void register() {
+        OptionHandlerRegistry.getRegistry().registerHandler(File.class, WorkDirFileHandler.class);
+    }
+
+    /**
+     * Specify the working directory for the current thread.
+     *
+     * @param workDir	working directory for file parameters, or NULL to use the JVM's
+     */
+    public static void setWorkDir(File workDir) {
+        if (workDir == null)
+            WORK_DIR.remove();
+        else
+            WORK_DIR.set(workDir);
+    }
+
+}
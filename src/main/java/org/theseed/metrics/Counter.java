@@ -0,0 +1,58 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This object is a metric that counts things, such as tokens read or tables processed. It is
+ * safe to update from multiple threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Counter {
+
+    // FIELDS
+    /** current count */
+    private final LongAdder count;
+
+    /**
+     * Construct a new, empty counter.
+     */
+    protected Counter() {
+        this.count = new LongAdder();
+    }
+
+    /**
+     * Add one to the count.
+     */
+    public void increment() {
+        this.count.increment();
+    }
+
+    /**
+     * Add a value to the count.
+     *
+     * @param n		value to add
+     */
+    public void add(long n) {
+        this.count.add(n);
+    }
+
+    /**
+     * @return the current count
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Reset the count to zero.
+     */
+    protected void reset() {
+        this.count.reset();
+    }
+
+}
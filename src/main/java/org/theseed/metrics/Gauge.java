@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This object is a metric that records a single value, such as the number of types in a module or
+ * the size of a work queue. The value can either be set directly or raised to a high-water mark.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Gauge {
+
+    // FIELDS
+    /** current value */
+    private final AtomicLong value;
+
+    /**
+     * Construct a new gauge with a value of zero.
+     */
+    protected Gauge() {
+        this.value = new AtomicLong();
+    }
+
+    /**
+     * Store a new value.
+     *
+     * @param newValue	value to store
+     */
+    public void set(long newValue) {
+        this.value.set(newValue);
+    }
+
+    /**
+     * Store a new value if it is higher than the current one.
+     *
+     * @param newValue	proposed new high-water mark
+     */
+    public void setMax(long newValue) {
+        this.value.accumulateAndGet(newValue, Math::max);
+    }
+
+    /**
+     * @return the current value
+     */
+    public long getValue() {
+        return this.value.get();
+    }
+
+    /**
+     * Reset the value to zero.
+     */
+    protected void reset() {
+        this.value.set(0);
+    }
+
+}
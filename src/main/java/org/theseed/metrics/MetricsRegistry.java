@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+/**
+ * This object is a registry of named metrics. There is one registry for the whole JVM, and the
+ * instrumented classes hold on to the metrics they update, so the cost of a measurement is a single
+ * atomic update.
+ *
+ * Metric names are dotted paths, such as "spec.tokens" or "db.getTable". The report is a JSON object
+ * with one sub-object for each kind of metric (counters, timers, gauges), plus the heap usage. The heap
+ * high-water mark is the sum of the peak usages of the heap memory pools, as reported by the JVM.
+ *
+ * Because the registry is JVM-wide, a report written from a command run inside the daemon or the batch
+ * processor includes the activity of the other commands run by the same JVM.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MetricsRegistry {
+
+    // FIELDS
+    /** the global registry */
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+    /** map of counter names to counters */
+    private final ConcurrentMap<String, Counter> counters;
+    /** map of timer names to timers */
+    private final ConcurrentMap<String, Timer> timers;
+    /** map of gauge names to gauges */
+    private final ConcurrentMap<String, Gauge> gauges;
+
+    /**
+     * Construct an empty metrics registry.
+     */
+    public MetricsRegistry() {
+        this.counters = new ConcurrentHashMap<String, Counter>();
+        this.timers = new ConcurrentHashMap<String, Timer>();
+        this.gauges = new ConcurrentHashMap<String, Gauge>();
+    }
+
+    /**
+     * @return the registry for the whole JVM
+     */
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return the counter with the specified name, creating it if necessary
+     *
+     * @param name		name of the desired counter
+     */
+    public Counter counter(String name) {
+        return this.counters.computeIfAbsent(name, x -> new Counter());
+    }
+
+    /**
+     * @return the timer with the specified name, creating it if necessary
+     *
+     * @param name		name of the desired timer
+     */
+    public Timer timer(String name) {
+        return this.timers.computeIfAbsent(name, x -> new Timer());
+    }
+
+    /**
+     * @return the gauge with the specified name, creating it if necessary
+     *
+     * @param name		name of the desired gauge
+     */
+    public Gauge gauge(String name) {
+        return this.gauges.computeIfAbsent(name, x -> new Gauge());
+    }
+
+    /**
+     * Reset all the metrics to their empty state. The metric objects themselves are kept, since the
+     * instrumented classes hold references to them.
+     */
+    public void reset() {
+        this.counters.values().forEach(Counter::reset);
+        this.timers.values().forEach(Timer::reset);
+        this.gauges.values().forEach(Gauge::reset);
+    }
+
+    /**
+     * @return a report of the current values of all the metrics, as a map of sections that can be
+     * 		   serialized to JSON
+     */
+    public Map<String, Object> getReport() {
+        // We use sorted maps to make the report easier to read.
+        Map<String, Object> retVal = new LinkedHashMap<String, Object>();
+        Map<String, Object> counterMap = new TreeMap<String, Object>();
+        for (Map.Entry<String, Counter> entry : this.counters.entrySet())
+            counterMap.put(entry.getKey(), entry.getValue().getCount());
+        retVal.put("counters", counterMap);
+        Map<String, Object> timerMap = new TreeMap<String, Object>();
+        for (Map.Entry<String, Timer> entry : this.timers.entrySet()) {
+            Timer timer = entry.getValue();
+            Map<String, Object> timerData = new LinkedHashMap<String, Object>();
+            timerData.put("count", timer.getCount());
+            timerData.put("total_ms", timer.getTotalMillis());
+            timerData.put("mean_ms", timer.getMeanMillis());
+            timerData.put("max_ms", timer.getMaxMillis());
+            timerMap.put(entry.getKey(), timerData);
+        }
+        retVal.put("timers", timerMap);
+        Map<String, Object> gaugeMap = new TreeMap<String, Object>();
+        for (Map.Entry<String, Gauge> entry : this.gauges.entrySet())
+            gaugeMap.put(entry.getKey(), entry.getValue().getValue());
+        retVal.put("gauges", gaugeMap);
+        // Finally, the heap usage.
+        long peak = 0;
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        Map<String, Object> heapMap = new LinkedHashMap<String, Object>();
+        heapMap.put("peak_bytes", peak);
+        heapMap.put("used_bytes", used);
+        heapMap.put("max_bytes", Runtime.getRuntime().maxMemory());
+        retVal.put("heap", heapMap);
+        return retVal;
+    }
+
+    /**
+     * Write a JSON report of the metrics to a file.
+     *
+     * @param outFile	output file for the report
+     *
+     * @throws IOException
+     */
+    public void writeReport(File outFile) throws IOException {
+        try (PrintWriter writer = new PrintWriter(outFile)) {
+            writer.println(Jsoner.prettyPrint(Jsoner.serialize(this.getReport())));
+        }
+    }
+
+}
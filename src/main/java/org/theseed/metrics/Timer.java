@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This object is a metric that records the elapsed time of an operation. It tracks the number of
+ * times the operation was performed, the total time, and the longest single time. The normal use
+ * is
+ *
+ * 		try (Timer.Context t = timer.start()) {
+ * 			... operation ...
+ * 		}
+ *
+ * It is safe to update from multiple threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Timer {
+
+    // FIELDS
+    /** number of operations timed */
+    private final LongAdder count;
+    /** total elapsed nanoseconds */
+    private final LongAdder totalNanos;
+    /** longest single elapsed time in nanoseconds */
+    private final LongAccumulator maxNanos;
+
+    /**
+     * This object times a single operation. The time is recorded when it is closed.
+     */
+    public class Context implements AutoCloseable {
+
+        /** start time in nanoseconds */
+        private final long start;
+
+        /**
+         * Start timing an operation.
+         */
+        private Context() {
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            Timer.this.record(System.nanoTime() - this.start);
+        }
+
+    }
+
+    /**
+     * Construct a new, empty timer.
+     */
+    protected Timer() {
+        this.count = new LongAdder();
+        this.totalNanos = new LongAdder();
+        this.maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * @return a context that records the time of an operation when closed
+     */
+    public Context start() {
+        return this.new Context();
+    }
+
+    /**
+     * Record the elapsed time of an operation.
+     *
+     * @param nanos		elapsed time in nanoseconds
+     */
+    public void record(long nanos) {
+        this.count.increment();
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return the number of operations timed
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return the total elapsed time in milliseconds
+     */
+    public double getTotalMillis() {
+        return this.totalNanos.sum() / 1e6;
+    }
+
+    /**
+     * @return the mean elapsed time in milliseconds, or 0 if nothing was timed
+     */
+    public double getMeanMillis() {
+        long n = this.count.sum();
+        return (n == 0 ? 0.0 : this.totalNanos.sum() / (n * 1e6));
+    }
+
+    /**
+     * @return the longest elapsed time in milliseconds
+     */
+    public double getMaxMillis() {
+        return this.maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Reset the timer to its empty state.
+     */
+    protected void reset() {
+        this.count.reset();
+        this.totalNanos.reset();
+        this.maxNanos.reset();
+    }
+
+}
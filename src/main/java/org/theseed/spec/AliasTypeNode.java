@@ -4,7 +4,6 @@
 package org.theseed.spec;
 
 import j2html.tags.ContainerTag;
-import static j2html.TagCreator.*;
 
 /**
  * This type node indicates an alias name for an existing type.
@@ -35,12 +34,10 @@ public class AliasTypeNode extends TypeNode {
 
 	@Override
 	public ContainerTag toDetailHtml() {
-		// Get the target type.
+		// Get the target type. It is always named, so its HTML is a link to its definition,
+		// which may be in another module.
 		TypeNode target = this.getActualType();
-		// Extract its anchor label.
-		String label = target.getId();
-		// Build an anchor tag to link to it.
-		ContainerTag retVal = a(target.getName()).withHref("#" + label);
+		ContainerTag retVal = target.toHtml();
 		return retVal;
 	}
 
@@ -0,0 +1,36 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This is a flight recorder event for parsing a single type or function definition.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@Name("org.theseed.spec.Definition")
+@Label("Spec Definition")
+@Category({ "ERDB Utilities", "Spec" })
+@Description("Parsing of a typedef or funcdef")
+class DefinitionEvent extends jdk.jfr.Event {
+
+	@Label("Kind")
+	@Description("typedef or funcdef")
+	String kind;
+
+	@Label("Name")
+	String name;
+
+	@Label("Start Line")
+	int startLine;
+
+	@Label("End Line")
+	int endLine;
+
+}
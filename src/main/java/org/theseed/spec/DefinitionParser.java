@@ -8,6 +8,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import jdk.jfr.EventType;
+
 /**
  * The definition parser is a list parser that processes type and function definitions. A list of type
  * and function definitions makes up a module.
@@ -20,6 +22,10 @@ public class DefinitionParser extends ListParser {
 	// FIELDS
 	/** map of type names to type definition nodes */
 	private Map<String, TypeNode> typeMap;
+	/** TRUE if this parser is parsing one chunk of a parallel parse */
+	private boolean chunk;
+	/** flight recorder type for definition events, used to check for recording without creating an event */
+	private static final EventType DEFINITION_EVENT = EventType.getEventType(DefinitionEvent.class);
 
 	/**
 	 * Parse the list of definitions in a module node.
@@ -35,6 +41,47 @@ public class DefinitionParser extends ListParser {
 		this.installPrimitiveType(parentNode, "int", "basic integer number");
 		this.installPrimitiveType(parentNode, "float", "basic floating-point number");
 		this.installPrimitiveType(parentNode, "string", "character or text string");
+		this.chunk = false;
+	}
+
+	/**
+	 * Construct a parser for one chunk of a parallel parse. The chunk contains only declarations, and the
+	 * type map holds only the types defined in the chunk, so the subclass must supply placeholders for the
+	 * types defined elsewhere (see lookupType). The declarations are returned rather than added to the
+	 * module, and the type uses are not recorded, since the placeholders have not yet been resolved.
+	 *
+	 * @param parentNode	module node being parsed
+	 * @param specParser	specification parser for the chunk
+	 * @param typeMap		initially-empty type map for the chunk
+	 */
+	protected DefinitionParser(ModuleNode parentNode, SpecParser specParser, Map<String, TypeNode> typeMap) {
+		super(parentNode, specParser);
+		this.typeMap = typeMap;
+		this.chunk = true;
+	}
+
+	/**
+	 * Parse all the declarations in a chunk.
+	 *
+	 * @return the list of declarations, in order
+	 */
+	protected List<SpecNode> parseChunk() {
+		List<SpecNode> retVal = new ArrayList<SpecNode>();
+		SpecParser parser = this.getSpecParser();
+		SpecToken next = parser.nextTokenOrNull();
+		while (next != null) {
+			retVal.add(this.parseDeclaration(next));
+			next = parser.nextTokenOrNull();
+		}
+		parser.finish();
+		return retVal;
+	}
+
+	/**
+	 * @return the map of type names to type definition nodes
+	 */
+	protected Map<String, TypeNode> getTypeMap() {
+		return this.typeMap;
 	}
 
 	/**
@@ -50,19 +97,57 @@ public class DefinitionParser extends ListParser {
 		parentNode.addChild(type);
 	}
 
+	/**
+	 * Find the type for a type name used at the current position. A qualified name is imported from
+	 * another module.
+	 *
+	 * @param name		name of the type
+	 *
+	 * @return the type with the specified name
+	 */
+	protected TypeNode lookupType(String name) {
+		TypeNode retVal = this.typeMap.get(name);
+		if (retVal == null && name.indexOf('.') >= 0) {
+			retVal = TypeNode.importType(name, this.getSpecParser());
+			this.typeMap.put(name, retVal);
+		}
+		if (retVal == null)
+			this.getSpecParser().throwSyntaxException("Undefined type \"" + name + "\" specified.");
+		return retVal;
+	}
+
+	/**
+	 * Define a new type whose name has just been parsed.
+	 *
+	 * @param name		name of the type
+	 * @param type		type definition node
+	 */
+	protected void defineType(String name, TypeNode type) {
+		// Insure the type name is not a duplicate.
+		if (this.typeMap.containsKey(name))
+			this.getSpecParser().throwSyntaxException("Duplicate type name \"" + name + "\".");
+		this.typeMap.put(name, type);
+	}
+
 	@Override
 	protected SpecNode processDeclaration(SpecToken next) {
 		SpecNode retVal;
 		// Save the spec parser.
 		SpecParser parser = this.getSpecParser();
-		// Create an output list for comments.
-		List<String> comments = new ArrayList<String>(1);
 		// Here we must parse a definition. Check the opening token.
 		String tokenText = next.getText();
+		// Only create the flight recorder event if someone is recording it.
+		DefinitionEvent event = null;
+		if (DEFINITION_EVENT.isEnabled()) {
+			event = new DefinitionEvent();
+			event.begin();
+		}
+		int startLine = parser.getLineNum();
 		switch (tokenText) {
 		case "typedef" :
-			// Here we have a type definition.
-			TypeNode type = TypeNode.parse(this.typeMap, parser, comments);
+			// Here we have a type definition. The comments go in the parser's declaration buffer.
+			List<String> comments = parser.getDeclarationComments();
+			TypeNode type = TypeNode.parse(this, parser, comments);
 			// Get the type name and save all the comments into the type node.
 			SpecToken nameToken = parser.nextToken();
 			comments.addAll(parser.pullComments());
@@ -71,9 +156,9 @@ public class DefinitionParser extends ListParser {
 			if (! nameToken.isWord())
 				parser.throwUnexpectedException("identifier", nameToken);
 			String name = nameToken.getText();
-			// Insure the type name is not a duplicate.
-			if (this.typeMap.containsKey(name))
-				parser.throwSyntaxException("Duplicate type name \"" + name + "\".");
+			// Only imported types have qualified names.
+			if (name.indexOf('.') >= 0)
+				parser.throwSyntaxException("Qualified name \"" + name + "\" cannot be defined here.");
 			// Is this type an alias?
 			if (! type.isAnonymous()) {
 				// Create an alias node.
@@ -82,7 +167,7 @@ public class DefinitionParser extends ListParser {
 				type.setName(name);
 			}
 			// Save the type under the specified name.
-			this.typeMap.put(name, type);
+			this.defineType(name, type);
 			retVal = type;
 			// Push past the delimiter.
 			SpecToken token = parser.nextToken();
@@ -91,13 +176,26 @@ public class DefinitionParser extends ListParser {
 			break;
 		case "funcdef" :
 			// Here we have a function declaration.
-			retVal = FuncNode.parse(this.typeMap, parser);
+			retVal = FuncNode.parse(this, parser);
 			break;
 		default :
 			// Here we have an error.
 			retVal = null;
 			parser.throwUnexpectedException("\"typedef\" or \"funcdef\"", next);
 		}
+		// Record the types this declaration uses.
+		if (! this.chunk)
+			TypeNode.recordUses(retVal);
+		if (event != null) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.kind = tokenText;
+				event.name = (retVal instanceof TypeNode ? ((TypeNode) retVal).getName() : ((FuncNode) retVal).getName());
+				event.startLine = startLine;
+				event.endLine = parser.getLineNum();
+				event.commit();
+			}
+		}
 		return retVal;
 	}
 
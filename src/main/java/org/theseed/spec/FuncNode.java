@@ -7,8 +7,8 @@ import static j2html.TagCreator.*;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 import j2html.tags.ContainerTag;
@@ -33,8 +33,12 @@ public class FuncNode extends SpecNode implements Comparable<FuncNode> {
 	private boolean authRequired;
 	/** unique function identifier */
 	private String funcID;
-	/** index number for next function identifier */
-	private static int nextNum = 0;
+	/** index number for the last function identifier; this is shared by all threads */
+	private static final AtomicInteger nextNum = new AtomicInteger();
+	/** cached list of parameters, or NULL if it must be rebuilt */
+	private List<MemberNode> parms;
+	/** cached list of results, or NULL if it must be rebuilt */
+	private List<MemberNode> results;
 
 	/**
 	 * Construct a new, blank function node.
@@ -46,29 +50,28 @@ public class FuncNode extends SpecNode implements Comparable<FuncNode> {
 		this.funcName = name;
 		this.authRequired = false;
 		// Generate the anchor label.
-		nextNum++;
-		this.funcID = String.format("func%06d", nextNum);
+		this.funcID = String.format("func%06d", nextNum.incrementAndGet());
 	}
 
 	/**
 	 * Parse the function definition at the current location. The entire definition will
 	 * be consumed, up to and including the terminating delimiter.
 	 *
-	 * @param typeMap	map of previously-defined types
+	 * @param definitions	definition parser for resolving type names
 	 * @param parser	controlling specification parser
 	 *
 	 * @return the function definition node
 	 */
-	public static FuncNode parse(Map<String, TypeNode> typeMap, SpecParser parser) {
-		// We will accumulate comments in here.
-		List<String> comments = new ArrayList<String>(1);
+	public static FuncNode parse(DefinitionParser definitions, SpecParser parser) {
+		// We will accumulate comments in the parser's declaration buffer.
+		List<String> comments = parser.getDeclarationComments();
 		// Get the function name.
 		SpecToken token = parser.nextToken();
 		FuncNode retVal = new FuncNode(token.getText());
 		// Save the comments.
 		comments.addAll(parser.pullComments());
 		// Parse the parameter type list.
-		TypeNode.parseTypeList(retVal, "(", ")", typeMap, parser, comments);
+		TypeNode.parseTypeList(retVal, "(", ")", definitions, parser, comments);
 		// Save the parameter count.
 		retVal.parmCount = retVal.getChildCount();
 		// Get the next token. It can be "returns", "authentication" or a delimiter.
@@ -76,7 +79,7 @@ public class FuncNode extends SpecNode implements Comparable<FuncNode> {
 		comments.addAll(parser.pullComments());
 		if (token.isWord("returns")) {
 			// Here we have a return list to parse.
-			TypeNode.parseTypeList(retVal, "(", ")", typeMap, parser, comments);
+			TypeNode.parseTypeList(retVal, "(", ")", definitions, parser, comments);
 			// Get the next token after the return list.
 			token = parser.nextToken();
 			comments.addAll(parser.pullComments());
@@ -202,17 +205,38 @@ public class FuncNode extends SpecNode implements Comparable<FuncNode> {
 	 * @return the list of function parameters
 	 */
 	List<MemberNode> getParms() {
-		List<MemberNode> retVal = IntStream.range(0, this.parmCount).mapToObj(i -> new MemberNode(this, i))
-				.toList();
-		return retVal;
+		if (this.parms == null)
+			this.parms = IntStream.range(0, this.parmCount).mapToObj(i -> new MemberNode(this, i)).toList();
+		return this.parms;
 	}
 
 	/**
 	 * @return the list of function results
 	 */
 	List<MemberNode> getResults() {
-		List<MemberNode> retVal = IntStream.range(this.parmCount, this.getChildCount())
-				.mapToObj(i -> new MemberNode(this, i)).toList();
+		if (this.results == null)
+			this.results = IntStream.range(this.parmCount, this.getChildCount())
+					.mapToObj(i -> new MemberNode(this, i)).toList();
+		return this.results;
+	}
+
+	@Override
+	protected void childrenChanged() {
+		this.parms = null;
+		this.results = null;
+	}
+
+	/**
+	 * @return a description of the role of the child at the specified position ("parameter 2" or "result 1")
+	 *
+	 * @param idx	child position
+	 */
+	protected String getRole(int idx) {
+		String retVal;
+		if (idx < this.parmCount)
+			retVal = "parameter " + (idx + 1);
+		else
+			retVal = "result " + (idx - this.parmCount + 1);
 		return retVal;
 	}
 
@@ -223,6 +247,14 @@ public class FuncNode extends SpecNode implements Comparable<FuncNode> {
 		return this.authRequired;
 	}
 
+	/**
+	 * Assign a new unique ID to this function. This is used when functions are built out of order, so
+	 * that the IDs are in the order of the definitions.
+	 */
+	protected void renumber() {
+		this.funcID = String.format("func%06d", nextNum.incrementAndGet());
+	}
+
 	/**
 	 * @return the unique ID label of this function
 	 */
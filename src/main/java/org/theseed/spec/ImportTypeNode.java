@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import j2html.tags.ContainerTag;
+import static j2html.TagCreator.*;
+
+/**
+ * This type node is a reference to a type defined in another module. Its name is the qualified name
+ * ("Module.type") used in the specification. The target type belongs to a compiled module in the module
+ * repository, so it is kept in a field rather than as a child: traversals of this module must not walk
+ * into the other module's nodes.
+ *
+ * In the web page, references to the type link to its definition in the other module's page, which is
+ * presumed to be named after the module and to be in the same directory.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ImportTypeNode extends TypeNode {
+
+	// FIELDS
+	/** name of the module containing the type */
+	private String modName;
+	/** type definition in the other module */
+	private TypeNode target;
+
+	/**
+	 * Construct an imported type node.
+	 *
+	 * @param modName	name of the module containing the type
+	 * @param target	type definition in the other module
+	 */
+	public ImportTypeNode(String modName, TypeNode target) {
+		this.modName = modName;
+		this.target = target;
+		this.setName(modName + "." + target.getName());
+	}
+
+	/**
+	 * @return the name of the module containing the type
+	 */
+	public String getModuleName() {
+		return this.modName;
+	}
+
+	/**
+	 * @return the type definition in the other module
+	 */
+	public TypeNode getTarget() {
+		return this.target;
+	}
+
+	/**
+	 * @return the URL of the type definition in the other module's web page
+	 */
+	public String getUrl() {
+		return this.modName + ".html#" + this.target.getName();
+	}
+
+	@Override
+	public ContainerTag toHtml() {
+		return a(this.getName()).withHref(this.getUrl());
+	}
+
+	@Override
+	protected ContainerTag toDetailHtml() {
+		ContainerTag retVal = p(text("Imported from module " + this.modName + ": "), this.toHtml());
+		return retVal;
+	}
+
+}
@@ -46,19 +46,30 @@ public abstract class ListParser {
 		// the subclass to parse the nodes.
 		SpecToken next = this.parser.nextToken();
 		while (! next.isDelim("}")) {
-			// Save the initial comments.
-			List<String> initialComments = parser.pullComments();
-			// Parse the declaration, absorbing the semi-colon.
-			SpecNode declaration = this.processDeclaration(next);
-			// Store the initial comments.
-			declaration.storeInitialComments(initialComments);
-			this.parent.addChild(declaration);
+			this.parent.addChild(this.parseDeclaration(next));
 			next = this.parser.nextToken();
 		}
 		// Save any comments that belong to the ending delimiter.
 		this.parent.addComments(parser.pullComments());
 	}
 
+	/**
+	 * Parse the declaration at the current position, including the comments that precede it.
+	 *
+	 * @param next		token that initiates the declaration
+	 *
+	 * @return the specification node representing the declaration
+	 */
+	protected SpecNode parseDeclaration(SpecToken next) {
+		// Save the initial comments.
+		List<String> initialComments = this.parser.pullComments();
+		// Parse the declaration, absorbing the semi-colon.
+		SpecNode retVal = this.processDeclaration(next);
+		// Store the initial comments.
+		retVal.storeInitialComments(initialComments);
+		return retVal;
+	}
+
 	/**
 	 * Parse the declaration at the current position. The declaration node is returned and
 	 * will be added to the parent node by the parser. The trailing delimiter must be
@@ -70,6 +81,13 @@ public abstract class ListParser {
 	 */
 	protected abstract SpecNode processDeclaration(SpecToken next);
 
+	/**
+	 * @return the parent node
+	 */
+	protected SpecNode getParent() {
+		return this.parent;
+	}
+
 	/**
 	 * @return the controlling spec parser
 	 */
@@ -4,7 +4,6 @@
 package org.theseed.spec;
 
 import java.util.List;
-import java.util.Map;
 
 import j2html.tags.ContainerTag;
 import static j2html.TagCreator.*;
@@ -24,12 +23,12 @@ public class ListTypeNode extends TypeNode {
 	/**
 	 * Construct a list type and consume its tokens.
 	 *
-	 * @param typeMap		map of currently-existing types
+	 * @param definitions	definition parser for resolving type names
 	 * @param specParser	controlling specification parser
 	 * @param comments		comment buffer for comments relating to this type instance
 	 */
-	public ListTypeNode(Map<String, TypeNode> typeMap, SpecParser specParser, List<String> comments) {
-		TypeNode.parseTypeList(this, "<", ">", typeMap, specParser, comments);
+	public ListTypeNode(DefinitionParser definitions, SpecParser specParser, List<String> comments) {
+		TypeNode.parseTypeList(this, "<", ">", definitions, specParser, comments);
 		if (this.getChildCount() != 1)
 			specParser.throwSyntaxException("Lists must have exactly one member type.");
 	}
@@ -4,7 +4,6 @@
 package org.theseed.spec;
 
 import java.util.List;
-import java.util.Map;
 
 import j2html.tags.ContainerTag;
 import static j2html.TagCreator.*;
@@ -21,12 +20,12 @@ public class MappingTypeNode extends TypeNode {
 	/**
 	 * Construct a mapping type and consume its tokens.
 	 *
-	 * @param typeMap		map of currently-existing types
+	 * @param definitions	definition parser for resolving type names
 	 * @param specParser	controlling specification parser
 	 * @param comments		comment buffer for comments relating to this type instance
 	 */
-	public MappingTypeNode(Map<String, TypeNode> typeMap, SpecParser specParser, List<String> comments) {
-		TypeNode.parseTypeList(this, "<", ">", typeMap, specParser, comments);
+	public MappingTypeNode(DefinitionParser definitions, SpecParser specParser, List<String> comments) {
+		TypeNode.parseTypeList(this, "<", ">", definitions, specParser, comments);
 		// A mapping type has exactly two subtypes-- key and value.
 		if (this.getChildCount() != 2)
 			specParser.throwSyntaxException("A mapping type must have exactly two subtypes.");
@@ -13,6 +13,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import org.theseed.metrics.Gauge;
+import org.theseed.metrics.MetricsRegistry;
+import org.theseed.metrics.Timer;
+
 import j2html.tags.ContainerTag;
 import static j2html.TagCreator.*;
 
@@ -28,6 +32,14 @@ public class ModuleNode extends SpecNode {
 	// FIELDS
 	/** module name */
 	private String modName;
+	/** timer for parsing the definitions */
+	private static final Timer PARSE_TIMER = MetricsRegistry.global().timer("spec.parse");
+	/** timer for the reference-count traversal */
+	private static final Timer REFCOUNT_TIMER = MetricsRegistry.global().timer("spec.refcount");
+	/** timer for building the HTML */
+	private static final Timer HTML_TIMER = MetricsRegistry.global().timer("spec.html");
+	/** gauge for the number of definitions in the last module */
+	private static final Gauge DEFINITION_GAUGE = MetricsRegistry.global().gauge("spec.definitions");
 
 	/**
 	 * Construct the master module node for a specification parser.
@@ -48,10 +60,27 @@ public class ModuleNode extends SpecNode {
 		// Save the comments.
 		this.addComments(specParser.pullComments());
 		// Create the definition parser.
-		ListParser parser = new DefinitionParser(this, specParser);
+		ListParser parser;
+		if (specParser.isParallel())
+			parser = new ParallelDefinitionParser(this, specParser);
+		else
+			parser = new DefinitionParser(this, specParser);
 		// Parse the type and function definitions.
-		parser.parse();
-		// Now we need to update the type node reference counts. This requires a recursive
+		try (Timer.Context t = PARSE_TIMER.start()) {
+			parser.parse();
+		}
+		specParser.finish();
+		DEFINITION_GAUGE.set(this.getChildCount());
+		try (Timer.Context t = REFCOUNT_TIMER.start()) {
+			this.countReferences();
+		}
+	}
+
+	/**
+	 * Update the reference counts of the type nodes.
+	 */
+	private void countReferences() {
+		// We need to update the type node reference counts. This requires a recursive
 		// traversal of the named types. (Only the named types matter for this.) We create
 		// a "visited" set to prevent traversing the same node twice. Circular references
 		// basically don't count.
@@ -123,12 +152,25 @@ public class ModuleNode extends SpecNode {
 
 	@Override
 	public ContainerTag toHtml() {
+		ContainerTag retVal;
+		try (Timer.Context t = HTML_TIMER.start()) {
+			retVal = this.buildHtml();
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the HTML for the body of the module's web page
+	 */
+	private ContainerTag buildHtml() {
 		// The module is the highest-level entry in the specification, so it defines the body of the
 		// web page. We have three sections-- the table of contents, the type definitions, and
 		// the function definitions.
 		// First we build the type definition segment. In the process, we'll accumulate a type table
 		// of contents. This is a map of type names to identifiers.
 		Map<String, String> typeTocMap = new LinkedHashMap<String, String>();
+		RenderEvent event = new RenderEvent();
+		event.begin();
 		// Get the list of types.
 		List<TypeNode> typeList = this.getTypes();
 		// This will be a list of type definitions.
@@ -137,12 +179,17 @@ public class ModuleNode extends SpecNode {
 		for (TypeNode type : typeList) {
 			String typeName = type.getName();
 			typeTocMap.put(typeName, type.getId());
-			// The type definition consists of a header and a definition.
-			ContainerTag typeDiv = div(type.getHeader(), type.toDetailHtml()).withClass("type");
+			// The type definition consists of a header and a definition. The ID is the type name, so
+			// other modules can link to it.
+			ContainerTag typeDiv = div(type.getHeader(), type.toDetailHtml(), type.getUsersHtml()).withClass("type")
+					.withId(typeName);
 			typeDivs.add(typeDiv);
 		}
 		// Now we wrap the type definitions in a section.
 		ContainerTag typeListHtml = div(a(h2("Type Definitions")).withName("Types")).with(typeDivs);
+		this.commitRenderEvent(event, "Types", typeDivs.size());
+		event = new RenderEvent();
+		event.begin();
 		// Next we build the function definition segment. We need another TOC map and a list
 		// of definitions.
 		Map<String, String> funcTocMap = new TreeMap<String, String>();
@@ -158,6 +205,9 @@ public class ModuleNode extends SpecNode {
 		}
 		// Wrap the function definitions in a section as well.
 		ContainerTag funcListHtml = div(a(h2("Function Definitions")).withName("Functions")).with(funcDivs);
+		this.commitRenderEvent(event, "Functions", funcDivs.size());
+		event = new RenderEvent();
+		event.begin();
 		// We'll assemble the sections here.
 		List<ContainerTag> sections = new ArrayList<ContainerTag>(4);
 		// Set up for the table of contents.
@@ -182,11 +232,29 @@ public class ModuleNode extends SpecNode {
 		ContainerTag tocList = ul().with(tocItems);
 		// Put it at the front of the sections.
 		sections.add(0, tocList);
+		this.commitRenderEvent(event, "Contents", typeTocMap.size() + funcTocMap.size());
 		// Assemble the full module definition.
 		ContainerTag retVal = div(h1(this.modName)).with(sections);
 		return retVal;
 	}
 
+	/**
+	 * End a section-rendering event and commit it if it is being recorded.
+	 *
+	 * @param event		event to end
+	 * @param section	name of the section rendered
+	 * @param items		number of definitions in the section
+	 */
+	private void commitRenderEvent(RenderEvent event, String section, int items) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.module = this.modName;
+			event.section = section;
+			event.items = items;
+			event.commit();
+		}
+	}
+
 	/**
 	 * Build a table of contents section.
 	 *
@@ -201,6 +269,22 @@ public class ModuleNode extends SpecNode {
 		return retVal;
 	}
 
+	/**
+	 * @return the named type defined by this module, or NULL if there is none
+	 *
+	 * @param typeName	name of the desired type
+	 */
+	public TypeNode findType(String typeName) {
+		TypeNode retVal = null;
+		for (SpecNode child : this.getChildNodes()) {
+			if (child instanceof TypeNode && typeName.equals(((TypeNode) child).getName())) {
+				retVal = (TypeNode) child;
+				break;
+			}
+		}
+		return retVal;
+	}
+
 	/**
 	 * @return the type map for this module
 	 */
@@ -0,0 +1,256 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.LineReader;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+
+/**
+ * A module repository compiles the modules in a library directory on demand so that their types can be
+ * imported by other specifications. A module named "X" is read from the file "X.spec" in the library
+ * directory, and a type "t" in that module is referenced from another specification as "X.t".
+ *
+ * Each module is compiled once and kept in a least-recently-used cache. There is one repository per
+ * library directory for the whole JVM, so the cache is shared by all the specifications and all the
+ * threads that use the library. If two threads ask for the same module at once, one compiles it and the
+ * other waits for the result. Compiled modules are frozen, so they can be read safely from any thread.
+ *
+ * A circular import would make a compilation wait for itself. To detect this, the repository tracks the
+ * thread compiling each module and the module each thread is waiting for. Before a thread waits for a
+ * module, it follows the chain of compiling threads and the modules they are waiting for, and if the chain
+ * leads back to itself, the import is rejected. This catches a cycle that crosses threads (one thread
+ * compiling A, which imports B, while another compiles B, which imports A) as well as one within a thread.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ModuleRepository {
+
+	// FIELDS
+	/** logging facility */
+	protected static Logger log = LoggerFactory.getLogger(ModuleRepository.class);
+	/** default maximum number of modules to keep */
+	public static final int DEFAULT_CAPACITY = 50;
+	/** map of library directories to repositories */
+	private static final ConcurrentMap<File, ModuleRepository> REPOSITORIES =
+			new ConcurrentHashMap<File, ModuleRepository>();
+	/** counter for module compilations */
+	private static final Counter COMPILE_COUNT = MetricsRegistry.global().counter("spec.modules.compiled");
+	/** counter for cache hits */
+	private static final Counter HIT_COUNT = MetricsRegistry.global().counter("spec.modules.hits");
+	/** library directory */
+	private final File libDir;
+	/** cache of module names to module compilations, in least-recently-used order */
+	private final Map<String, FutureTask<ModuleNode>> cache;
+	/** map of the modules being compiled to their compiling threads (guarded by the cache lock) */
+	private final Map<String, Thread> compilers;
+	/** map of the threads waiting for a module to the module names (guarded by the cache lock) */
+	private final Map<Thread, String> waiters;
+
+	/**
+	 * Construct a module repository for a library directory.
+	 *
+	 * @param libDir		directory containing the module specification files
+	 * @param capacity		maximum number of modules to keep in the cache
+	 */
+	public ModuleRepository(File libDir, int capacity) {
+		this.libDir = libDir;
+		this.cache = new LinkedHashMap<String, FutureTask<ModuleNode>>(capacity * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = -2519683746019204815L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, FutureTask<ModuleNode>> eldest) {
+				return this.size() > capacity;
+			}
+		};
+		this.compilers = new HashMap<String, Thread>();
+		this.waiters = new HashMap<Thread, String>();
+	}
+
+	/**
+	 * @return the shared repository for a library directory
+	 *
+	 * @param libDir	directory containing the module specification files
+	 */
+	public static ModuleRepository forDirectory(File libDir) {
+		File key = libDir.getAbsoluteFile();
+		return REPOSITORIES.computeIfAbsent(key, x -> new ModuleRepository(x, DEFAULT_CAPACITY));
+	}
+
+	/**
+	 * @return the library directory for this repository
+	 */
+	public File getLibDir() {
+		return this.libDir;
+	}
+
+	/**
+	 * Get a compiled module. If the module is not in the cache, it will be compiled.
+	 *
+	 * @param modName	name of the desired module
+	 *
+	 * @return the compiled module
+	 *
+	 * @throws IOException
+	 */
+	public ModuleNode getModule(String modName) throws IOException {
+		// Find the compilation for this module, and claim it if there is none.
+		Thread current = Thread.currentThread();
+		FutureTask<ModuleNode> task;
+		boolean owner = false;
+		synchronized (this.cache) {
+			task = this.cache.get(modName);
+			if (task == null) {
+				task = new FutureTask<ModuleNode>(() -> this.compile(modName));
+				this.cache.put(modName, task);
+				this.compilers.put(modName, current);
+				owner = true;
+			} else if (! task.isDone()) {
+				// We are going to wait, so insure the wait will end.
+				this.checkCycle(modName, current);
+				this.waiters.put(current, modName);
+			}
+		}
+		if (owner) {
+			try {
+				task.run();
+			} finally {
+				synchronized (this.cache) {
+					this.compilers.remove(modName);
+				}
+			}
+		} else
+			HIT_COUNT.increment();
+		ModuleNode retVal;
+		try {
+			retVal = task.get();
+		} catch (ExecutionException | CancellationException e) {
+			// Failed compilations are not cached, so the next request can try again.
+			synchronized (this.cache) {
+				this.cache.remove(modName, task);
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			else if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			else
+				throw new IOException("Error compiling module " + modName + ".", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for module " + modName + ".");
+		} finally {
+			synchronized (this.cache) {
+				this.waiters.remove(current);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Insure that a thread can wait for a module without waiting for itself. The caller must hold the
+	 * cache lock.
+	 *
+	 * @param modName	name of the module to wait for
+	 * @param current	thread that will wait
+	 *
+	 * @throws IOException if the module's compilation is waiting, directly or indirectly, for the thread
+	 */
+	private void checkCycle(String modName, Thread current) throws IOException {
+		// Each thread waits for at most one module, so the chain has no branches, and since every wait
+		// is checked before it starts, it has no loops.
+		Thread compiler = this.compilers.get(modName);
+		while (compiler != null) {
+			if (compiler == current)
+				throw new IOException("Circular import of module " + modName + ".");
+			String waitingFor = this.waiters.get(compiler);
+			compiler = (waitingFor == null ? null : this.compilers.get(waitingFor));
+		}
+	}
+
+	/**
+	 * Compile a module from the library directory.
+	 *
+	 * @param modName	name of the module to compile
+	 *
+	 * @return the compiled, frozen module
+	 *
+	 * @throws IOException
+	 */
+	private ModuleNode compile(String modName) throws IOException {
+		File inFile = new File(this.libDir, modName + ".spec");
+		if (! inFile.canRead())
+			throw new IOException("Module file " + inFile + " is not found or unreadable.");
+		log.info("Compiling module {} from {}.", modName, inFile);
+		ModuleNode retVal;
+		try (LineReader reader = new LineReader(inFile)) {
+			retVal = new ModuleNode(new SpecParser(reader, this));
+		}
+		if (! retVal.getName().equals(modName))
+			throw new IOException("Module file " + inFile + " contains module " + retVal.getName() + " instead of "
+					+ modName + ".");
+		retVal.freeze();
+		COMPILE_COUNT.increment();
+		return retVal;
+	}
+
+	/**
+	 * Find an exported type.
+	 *
+	 * @param qualifiedName		qualified type name, in the form "Module.type"
+	 *
+	 * @return the named type, or NULL if the module does not define it
+	 *
+	 * @throws IOException
+	 */
+	public TypeNode getType(String qualifiedName) throws IOException {
+		int dot = qualifiedName.lastIndexOf('.');
+		ModuleNode module = this.getModule(qualifiedName.substring(0, dot));
+		return module.findType(qualifiedName.substring(dot + 1));
+	}
+
+	/**
+	 * @return the number of modules in the cache
+	 */
+	public int size() {
+		synchronized (this.cache) {
+			return this.cache.size();
+		}
+	}
+
+	/**
+	 * @return TRUE if the specified module is in the cache
+	 *
+	 * @param modName	name of the module to check
+	 */
+	public boolean contains(String modName) {
+		synchronized (this.cache) {
+			return this.cache.containsKey(modName);
+		}
+	}
+
+	/**
+	 * Remove all the modules from the cache.
+	 */
+	public void clear() {
+		synchronized (this.cache) {
+			this.cache.clear();
+		}
+	}
+
+}
@@ -0,0 +1,320 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import j2html.tags.ContainerTag;
+
+/**
+ * This definition parser parses the declarations of a module in parallel. The declarations have already
+ * been divided into chunks by the specification parser (see SpecSplitter). Each chunk is parsed on the
+ * fork-join pool by its own definition parser. A type that is not defined earlier in the same chunk is
+ * represented by a placeholder.
+ *
+ * When the chunks are done, the declarations are stitched into the module in order. The placeholders
+ * are replaced by the real types, which at that point are exactly the types that would have been defined
+ * in a serial parse. The work that depends on the real types-- recording type uses, counting function
+ * uses, and checking for undefined and duplicate types-- is done during stitching, and the type and
+ * function IDs are reassigned in definition order. The result is the same module a serial parse would
+ * produce, and errors are reported at the same places.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelDefinitionParser extends DefinitionParser {
+
+	/**
+	 * This is a placeholder for a type used in a chunk but not defined there. It remembers where it was
+	 * used, so that errors can be reported at the right place.
+	 */
+	private static class ForwardTypeNode extends TypeNode {
+
+		/** line number of the type reference */
+		private int lineNum;
+		/** position of the end of the type reference */
+		private int pos;
+		/** TRUE if this marks a type definition rather than a type reference */
+		private boolean definition;
+
+		/**
+		 * Create a placeholder for a type.
+		 *
+		 * @param name			name of the type
+		 * @param parser		parser positioned after the type name
+		 * @param definition	TRUE if this marks a type definition rather than a type reference
+		 */
+		protected ForwardTypeNode(String name, SpecParser parser, boolean definition) {
+			this.setName(name);
+			this.lineNum = parser.getLineNum();
+			this.pos = parser.getPos();
+			this.definition = definition;
+		}
+
+		/**
+		 * Throw an error at the location of the type reference.
+		 *
+		 * @param message	error message
+		 */
+		protected void fail(String message) {
+			throw new SpecParsingException(this.lineNum, this.pos, message);
+		}
+
+		@Override
+		protected ContainerTag toDetailHtml() {
+			throw new IllegalStateException("Unresolved type \"" + this.getName() + "\".");
+		}
+
+	}
+
+	/**
+	 * This is the definition parser for a chunk. Its type map contains only the types defined in the chunk,
+	 * and it returns a placeholder for any other type. It also remembers where each type was defined, so
+	 * that a duplicate found while stitching can be reported at the right place, and keeps a list of the
+	 * placeholders for the current declaration, in case the declaration turns out to have a syntax error.
+	 */
+	private static class ChunkParser extends DefinitionParser {
+
+		/** map of defined type names to placeholders marking their definitions */
+		private Map<String, ForwardTypeNode> definitions;
+		/** placeholders created for the current declaration, in order */
+		private List<ForwardTypeNode> pending;
+
+		/**
+		 * Create a definition parser for a chunk.
+		 *
+		 * @param module	module being parsed
+		 * @param parser	specification parser for the chunk
+		 */
+		protected ChunkParser(ModuleNode module, SpecParser parser) {
+			super(module, parser, new HashMap<String, TypeNode>());
+			this.definitions = new HashMap<String, ForwardTypeNode>();
+			this.pending = new ArrayList<ForwardTypeNode>();
+		}
+
+		@Override
+		protected SpecNode parseDeclaration(SpecToken next) {
+			this.pending.clear();
+			return super.parseDeclaration(next);
+		}
+
+		@Override
+		protected TypeNode lookupType(String name) {
+			TypeNode retVal = this.getTypeMap().get(name);
+			if (retVal == null) {
+				ForwardTypeNode placeholder = new ForwardTypeNode(name, this.getSpecParser(), false);
+				this.pending.add(placeholder);
+				retVal = placeholder;
+			}
+			return retVal;
+		}
+
+		@Override
+		protected void defineType(String name, TypeNode type) {
+			ForwardTypeNode mark = new ForwardTypeNode(name, this.getSpecParser(), true);
+			this.definitions.put(name, mark);
+			this.pending.add(mark);
+			super.defineType(name, type);
+		}
+
+		/**
+		 * @return a placeholder marking the definition of a type
+		 *
+		 * @param name	name of the defined type
+		 */
+		protected ForwardTypeNode getDefinition(String name) {
+			return this.definitions.get(name);
+		}
+
+	}
+
+	/**
+	 * This task parses a single chunk. A syntax error is saved rather than thrown, so that the
+	 * declarations before it can be stitched first.
+	 */
+	private static class ChunkTask extends RecursiveAction {
+
+		/** serialization identifier */
+		private static final long serialVersionUID = -2870541062316722143L;
+		/** module being parsed */
+		private transient ModuleNode module;
+		/** chunk to parse */
+		private transient SpecSplitter.Chunk chunk;
+		/** definition parser for the chunk */
+		private transient ChunkParser definitions;
+		/** declarations parsed */
+		private transient List<SpecNode> declarations;
+		/** syntax error found, or NULL if there was none */
+		private SpecParsingException error;
+
+		/**
+		 * Create a task to parse a chunk.
+		 *
+		 * @param module	module being parsed
+		 * @param chunk		chunk to parse
+		 */
+		protected ChunkTask(ModuleNode module, SpecSplitter.Chunk chunk) {
+			this.module = module;
+			this.chunk = chunk;
+			this.declarations = List.of();
+			this.error = null;
+		}
+
+		@Override
+		protected void compute() {
+			this.definitions = new ChunkParser(this.module, new SpecParser(this.chunk));
+			try {
+				this.declarations = this.definitions.parseChunk();
+			} catch (SpecParsingException e) {
+				this.error = e;
+			}
+		}
+
+	}
+
+	/**
+	 * Construct a parallel parser for the definitions in a module.
+	 *
+	 * @param parentNode	parent module node
+	 * @param specParser	controlling specification parser
+	 */
+	public ParallelDefinitionParser(ModuleNode parentNode, SpecParser specParser) {
+		super(parentNode, specParser);
+	}
+
+	@Override
+	public void parse() {
+		SpecParser parser = this.getSpecParser();
+		ModuleNode module = (ModuleNode) this.getParent();
+		// The opening brace comes from the skeleton, and its comments belong to the module.
+		SpecToken opening = module.nextToken(parser);
+		if (! opening.isDelim("{"))
+			parser.throwUnexpectedException("\"{\"", opening);
+		// Parse the chunks. We wait for all of them before stitching, so that the IDs assigned while
+		// stitching do not depend on the timing of the threads.
+		ForkJoinPool pool = parser.getPool();
+		List<ChunkTask> tasks = parser.getChunks().stream().map(x -> new ChunkTask(module, x)).toList();
+		for (ChunkTask task : tasks)
+			pool.execute(task);
+		for (ChunkTask task : tasks)
+			task.join();
+		// Stitch the declarations into the module in order.
+		for (ChunkTask task : tasks) {
+			for (SpecNode declaration : task.declarations) {
+				this.stitch(declaration, task.definitions);
+				module.addChild(declaration);
+			}
+			if (task.error != null) {
+				// A serial parse would find the errors in the placeholders before the syntax error.
+				this.checkPending(task.definitions);
+				throw task.error;
+			}
+		}
+		// All that is left in the skeleton is the closing brace. The comments before it belong to the module.
+		SpecToken closing = parser.nextToken();
+		if (! closing.isDelim("}"))
+			parser.throwUnexpectedException("\"}\"", closing);
+		module.addComments(parser.pullComments());
+	}
+
+	/**
+	 * Complete a declaration parsed from a chunk.
+	 *
+	 * @param declaration	declaration to complete
+	 * @param chunkParser	definition parser of the chunk
+	 */
+	private void stitch(SpecNode declaration, ChunkParser chunkParser) {
+		Map<String, TypeNode> typeMap = this.getTypeMap();
+		if (declaration instanceof FuncNode) {
+			((FuncNode) declaration).renumber();
+			this.resolveChildren(declaration);
+		} else if (declaration instanceof AliasTypeNode) {
+			// An alias is created after its target is resolved.
+			this.resolveChildren(declaration);
+			((TypeNode) declaration).renumber();
+		} else {
+			((TypeNode) declaration).renumber();
+			this.resolveChildren(declaration);
+		}
+		if (declaration instanceof TypeNode) {
+			String name = ((TypeNode) declaration).getName();
+			if (typeMap.containsKey(name))
+				chunkParser.getDefinition(name).fail("Duplicate type name \"" + name + "\".");
+			typeMap.put(name, (TypeNode) declaration);
+		}
+		TypeNode.recordUses(declaration);
+	}
+
+	/**
+	 * Check the placeholders for a declaration that has a syntax error, and throw an exception if one of
+	 * them is for an undefined or duplicate type.
+	 *
+	 * @param chunkParser	definition parser of the chunk containing the declaration
+	 */
+	private void checkPending(ChunkParser chunkParser) {
+		Map<String, TypeNode> typeMap = this.getTypeMap();
+		for (ForwardTypeNode placeholder : chunkParser.pending) {
+			String name = placeholder.getName();
+			if (! placeholder.definition)
+				this.resolve(placeholder);
+			else if (typeMap.containsKey(name))
+				placeholder.fail("Duplicate type name \"" + name + "\".");
+		}
+	}
+
+	/**
+	 * Replace the placeholders among the children of a node, and renumber the anonymous types. Named
+	 * types are separate declarations, so we do not look inside them.
+	 *
+	 * @param node		node to process
+	 */
+	private void resolveChildren(SpecNode node) {
+		final int n = node.getChildCount();
+		for (int i = 0; i < n; i++) {
+			SpecNode child = node.getChild(i);
+			if (child instanceof ForwardTypeNode) {
+				TypeNode type = this.resolve((ForwardTypeNode) child);
+				node.setChild(i, type);
+				// The function parser could not count the use of a placeholder.
+				if (node instanceof FuncNode)
+					type.markUsed();
+			} else if (child instanceof FieldNode)
+				this.resolveChildren(child);
+			else if (((TypeNode) child).isAnonymous()) {
+				((TypeNode) child).renumber();
+				this.resolveChildren(child);
+			}
+		}
+	}
+
+	/**
+	 * Find the real type for a placeholder.
+	 *
+	 * @param placeholder	placeholder to resolve
+	 *
+	 * @return the type defined or imported by the declarations stitched so far
+	 */
+	private TypeNode resolve(ForwardTypeNode placeholder) {
+		Map<String, TypeNode> typeMap = this.getTypeMap();
+		String name = placeholder.getName();
+		TypeNode retVal = typeMap.get(name);
+		if (retVal == null && name.indexOf('.') >= 0) {
+			try {
+				retVal = TypeNode.importType(name, this.getSpecParser().getRepository());
+			} catch (IllegalArgumentException e) {
+				placeholder.fail(e.getMessage());
+			}
+			typeMap.put(name, retVal);
+		}
+		if (retVal == null)
+			placeholder.fail("Undefined type \"" + name + "\" specified.");
+		return retVal;
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This is a flight recorder event for building the HTML for one section of a module's web page.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@Name("org.theseed.spec.Render")
+@Label("Spec Render")
+@Category({ "ERDB Utilities", "Spec" })
+@Description("Building the HTML for a module section")
+class RenderEvent extends jdk.jfr.Event {
+
+	@Label("Module")
+	String module;
+
+	@Label("Section")
+	String section;
+
+	@Label("Items")
+	@Description("number of definitions in the section")
+	int items;
+
+}
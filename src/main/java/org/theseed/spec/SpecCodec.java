@@ -0,0 +1,481 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonObject;
+
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+
+/**
+ * A spec codec converts values of a particular specification type between their JSON form and a compact
+ * binary form. The binary form contains no field names or type information: the type is known to both
+ * sides, so the values are simply written in the order the type defines them. This is the same idea as
+ * an Avro schema, with the spec type in the role of the schema.
+ *
+ * 	-	an int is a zigzag-encoded variable-length integer
+ * 	-	a float is an eight-byte IEEE double
+ * 	-	a string is a variable-length header followed by UTF-8 bytes, or a reference to a string already
+ * 		in the stream's dictionary (see SpecEncoder)
+ * 	-	a structure is a bitmap of the fields present, followed by the present fields in the order of
+ * 		the field nodes
+ * 	-	a tuple is a bitmap of the members present, followed by the present members in order
+ * 	-	a list is a length followed by the elements
+ * 	-	a mapping is a length followed by the keys and values, alternating
+ *
+ * Aliases are encoded as the type they name, and imported types as their definition in the other module.
+ *
+ * On the JSON side, structures and mappings are JSON objects, tuples and lists are JSON arrays, ints are
+ * Long, floats are Double, and strings are String. Mapping keys are always strings in JSON, so a mapping
+ * key must be a primitive type. Structure fields that are missing or NULL are simply omitted, but list
+ * elements and mapping values cannot be NULL. Structure fields that are not in the spec are dropped.
+ *
+ * A codec is built once for a type and can then be shared by any number of encoders and decoders.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public abstract class SpecCodec {
+
+	// FIELDS
+	/** counter for structure fields dropped because they are not in the spec */
+	private static final Counter DROPPED_COUNT = MetricsRegistry.global().counter("codec.fields.dropped");
+
+	/**
+	 * Write a value to an encoder.
+	 *
+	 * @param value		value to write (never NULL)
+	 * @param out		encoder to receive the value
+	 *
+	 * @throws IOException
+	 */
+	protected abstract void write(Object value, SpecEncoder out) throws IOException;
+
+	/**
+	 * Read a value from a decoder.
+	 *
+	 * @param in		decoder containing the value
+	 *
+	 * @return the value read
+	 *
+	 * @throws IOException
+	 */
+	protected abstract Object read(SpecDecoder in) throws IOException;
+
+	/**
+	 * Convert a JSON object key to a value for this codec. Only primitive codecs support this.
+	 *
+	 * @param key	key string to convert
+	 *
+	 * @return the key value
+	 */
+	protected Object fromKey(String key) {
+		throw new IllegalStateException("Mapping keys must be primitive types.");
+	}
+
+	/**
+	 * @return a codec for a specification type
+	 *
+	 * @param type	type to encode and decode
+	 */
+	public static SpecCodec forType(TypeNode type) {
+		return build(type, new IdentityHashMap<TypeNode, SpecCodec>());
+	}
+
+	/**
+	 * Build the codec for a type, reusing the codecs already built for shared types.
+	 *
+	 * @param type		type to encode and decode
+	 * @param codecs	map of the codecs already built
+	 *
+	 * @return the codec for the type
+	 */
+	private static SpecCodec build(TypeNode type, Map<TypeNode, SpecCodec> codecs) {
+		SpecCodec retVal = codecs.get(type);
+		if (retVal == null) {
+			if (type instanceof AliasTypeNode)
+				retVal = build(((AliasTypeNode) type).getActualType(), codecs);
+			else if (type instanceof ImportTypeNode)
+				retVal = build(((ImportTypeNode) type).getTarget(), codecs);
+			else if (type instanceof PrimitiveTypeNode) {
+				switch (type.getName()) {
+				case "int" :
+					retVal = new IntCodec();
+					break;
+				case "float" :
+					retVal = new FloatCodec();
+					break;
+				default :
+					retVal = new StringCodec();
+				}
+			} else if (type instanceof StructureTypeNode) {
+				List<FieldNode> fields = ((StructureTypeNode) type).getFields();
+				final int n = fields.size();
+				String[] names = new String[n];
+				SpecCodec[] members = new SpecCodec[n];
+				for (int i = 0; i < n; i++) {
+					FieldNode field = fields.get(i);
+					names[i] = field.getName();
+					members[i] = build(field.getType(), codecs);
+				}
+				retVal = new StructureCodec(names, members);
+			} else {
+				List<TypeNode> children = type.getChildTypes();
+				if (type instanceof TupleTypeNode)
+					retVal = new TupleCodec(children.stream().map(x -> build(x, codecs)).toArray(SpecCodec[]::new));
+				else if (type instanceof ListTypeNode)
+					retVal = new ListCodec(build(children.get(0), codecs));
+				else if (type instanceof MappingTypeNode) {
+					TypeNode keyType = children.get(0).getBaseType();
+					if (! (keyType instanceof PrimitiveTypeNode))
+						throw new IllegalArgumentException("Mapping key type must be primitive in " + SpecDiff.describe(type) + ".");
+					retVal = new MappingCodec(build(keyType, codecs), build(children.get(1), codecs));
+				} else
+					throw new IllegalArgumentException("Cannot encode type " + SpecDiff.describe(type) + ".");
+			}
+			codecs.put(type, retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Throw an exception for a value of the wrong type.
+	 *
+	 * @param expected	description of the expected value
+	 * @param found		value actually found
+	 */
+	protected static void mismatch(String expected, Object found) {
+		throw new IllegalArgumentException("Expected " + expected + " but found " +
+				(found == null ? "null" : found.getClass().getSimpleName()) + ".");
+	}
+
+	/**
+	 * Write a bitmap of the non-null values in an array.
+	 *
+	 * @param values	array of values
+	 * @param out		encoder to receive the bitmap
+	 *
+	 * @throws IOException
+	 */
+	protected static void writeBitmap(Object[] values, SpecEncoder out) throws IOException {
+		final int n = values.length;
+		for (int i = 0; i < n; i += 8) {
+			int bits = 0;
+			final int end = Math.min(n, i + 8);
+			for (int j = i; j < end; j++) {
+				if (values[j] != null)
+					bits |= 1 << (j - i);
+			}
+			out.writeByte(bits);
+		}
+	}
+
+	/**
+	 * Read a bitmap of present values.
+	 *
+	 * @param n		number of values in the bitmap
+	 * @param in	decoder containing the bitmap
+	 *
+	 * @return an array of flags, TRUE for each present value
+	 *
+	 * @throws IOException
+	 */
+	protected static boolean[] readBitmap(int n, SpecDecoder in) throws IOException {
+		boolean[] retVal = new boolean[n];
+		for (int i = 0; i < n; i += 8) {
+			int bits = in.readByte();
+			final int end = Math.min(n, i + 8);
+			for (int j = i; j < end; j++)
+				retVal[j] = (bits & (1 << (j - i))) != 0;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Codec for integers.
+	 */
+	protected static class IntCodec extends SpecCodec {
+
+		@Override
+		protected void write(Object value, SpecEncoder out) throws IOException {
+			long number = 0;
+			if (value instanceof BigDecimal) {
+				try {
+					number = ((BigDecimal) value).longValueExact();
+				} catch (ArithmeticException e) {
+					mismatch("an integer", value);
+				}
+			} else if (value instanceof Integer || value instanceof Long)
+				number = ((Number) value).longValue();
+			else
+				mismatch("an integer", value);
+			out.writeLong(number);
+		}
+
+		@Override
+		protected Object read(SpecDecoder in) throws IOException {
+			return in.readLong();
+		}
+
+		@Override
+		protected Object fromKey(String key) {
+			return Long.valueOf(key);
+		}
+
+	}
+
+	/**
+	 * Codec for floating-point numbers.
+	 */
+	protected static class FloatCodec extends SpecCodec {
+
+		@Override
+		protected void write(Object value, SpecEncoder out) throws IOException {
+			if (! (value instanceof Number))
+				mismatch("a number", value);
+			out.writeDouble(((Number) value).doubleValue());
+		}
+
+		@Override
+		protected Object read(SpecDecoder in) throws IOException {
+			return in.readDouble();
+		}
+
+		@Override
+		protected Object fromKey(String key) {
+			return Double.valueOf(key);
+		}
+
+	}
+
+	/**
+	 * Codec for strings.
+	 */
+	protected static class StringCodec extends SpecCodec {
+
+		@Override
+		protected void write(Object value, SpecEncoder out) throws IOException {
+			if (! (value instanceof String))
+				mismatch("a string", value);
+			out.writeString((String) value);
+		}
+
+		@Override
+		protected Object read(SpecDecoder in) throws IOException {
+			return in.readString();
+		}
+
+		@Override
+		protected Object fromKey(String key) {
+			return key;
+		}
+
+	}
+
+	/**
+	 * Codec for structures. The fields are written in order after a bitmap of the fields present.
+	 */
+	protected static class StructureCodec extends SpecCodec {
+
+		/** field names */
+		private String[] names;
+		/** field codecs */
+		private SpecCodec[] members;
+
+		/**
+		 * Create a structure codec.
+		 *
+		 * @param names		field names, in order
+		 * @param members	field codecs, in order
+		 */
+		protected StructureCodec(String[] names, SpecCodec[] members) {
+			this.names = names;
+			this.members = members;
+		}
+
+		@Override
+		protected void write(Object value, SpecEncoder out) throws IOException {
+			if (! (value instanceof Map))
+				mismatch("a JSON object", value);
+			Map<?, ?> map = (Map<?, ?>) value;
+			final int n = this.names.length;
+			Object[] values = new Object[n];
+			int found = 0;
+			for (int i = 0; i < n; i++) {
+				values[i] = map.get(this.names[i]);
+				if (values[i] != null)
+					found++;
+			}
+			// Count the fields that are in the document but not the spec. NULL fields are included.
+			if (map.size() > found) {
+				int known = 0;
+				for (String name : this.names) {
+					if (map.containsKey(name))
+						known++;
+				}
+				DROPPED_COUNT.add(map.size() - known);
+			}
+			writeBitmap(values, out);
+			for (int i = 0; i < n; i++) {
+				if (values[i] != null)
+					this.members[i].write(values[i], out);
+			}
+		}
+
+		@Override
+		protected Object read(SpecDecoder in) throws IOException {
+			final int n = this.names.length;
+			boolean[] present = readBitmap(n, in);
+			JsonObject retVal = new JsonObject();
+			for (int i = 0; i < n; i++) {
+				if (present[i])
+					retVal.put(this.names[i], this.members[i].read(in));
+			}
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * Codec for tuples. The members are written in order after a bitmap of the members present.
+	 */
+	protected static class TupleCodec extends SpecCodec {
+
+		/** member codecs */
+		private SpecCodec[] members;
+
+		/**
+		 * Create a tuple codec.
+		 *
+		 * @param members	member codecs, in order
+		 */
+		protected TupleCodec(SpecCodec[] members) {
+			this.members = members;
+		}
+
+		@Override
+		protected void write(Object value, SpecEncoder out) throws IOException {
+			if (! (value instanceof List))
+				mismatch("a JSON array", value);
+			List<?> list = (List<?>) value;
+			final int n = this.members.length;
+			if (list.size() != n)
+				throw new IllegalArgumentException("Expected a tuple of " + n + " members but found " + list.size() + ".");
+			Object[] values = list.toArray();
+			writeBitmap(values, out);
+			for (int i = 0; i < n; i++) {
+				if (values[i] != null)
+					this.members[i].write(values[i], out);
+			}
+		}
+
+		@Override
+		protected Object read(SpecDecoder in) throws IOException {
+			final int n = this.members.length;
+			boolean[] present = readBitmap(n, in);
+			JsonArray retVal = new JsonArray();
+			for (int i = 0; i < n; i++)
+				retVal.add(present[i] ? this.members[i].read(in) : null);
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * Codec for lists. The length is written before the elements.
+	 */
+	protected static class ListCodec extends SpecCodec {
+
+		/** element codec */
+		private SpecCodec element;
+
+		/**
+		 * Create a list codec.
+		 *
+		 * @param element	element codec
+		 */
+		protected ListCodec(SpecCodec element) {
+			this.element = element;
+		}
+
+		@Override
+		protected void write(Object value, SpecEncoder out) throws IOException {
+			if (! (value instanceof List))
+				mismatch("a JSON array", value);
+			List<?> list = (List<?>) value;
+			out.writeLength(list.size());
+			for (Object item : list) {
+				if (item == null)
+					mismatch("a list element", null);
+				this.element.write(item, out);
+			}
+		}
+
+		@Override
+		protected Object read(SpecDecoder in) throws IOException {
+			final int n = in.readLength();
+			JsonArray retVal = new JsonArray();
+			for (int i = 0; i < n; i++)
+				retVal.add(this.element.read(in));
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * Codec for mappings. The length is written before the keys and values.
+	 */
+	protected static class MappingCodec extends SpecCodec {
+
+		/** key codec */
+		private SpecCodec key;
+		/** value codec */
+		private SpecCodec value;
+
+		/**
+		 * Create a mapping codec.
+		 *
+		 * @param key		key codec (must be primitive)
+		 * @param value		value codec
+		 */
+		protected MappingCodec(SpecCodec key, SpecCodec value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		protected void write(Object value, SpecEncoder out) throws IOException {
+			if (! (value instanceof Map))
+				mismatch("a JSON object", value);
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeLength(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				if (entry.getValue() == null)
+					mismatch("a mapping value", null);
+				this.key.write(this.key.fromKey(entry.getKey().toString()), out);
+				this.value.write(entry.getValue(), out);
+			}
+		}
+
+		@Override
+		protected Object read(SpecDecoder in) throws IOException {
+			final int n = in.readLength();
+			JsonObject retVal = new JsonObject();
+			for (int i = 0; i < n; i++) {
+				String keyString = this.key.read(in).toString();
+				retVal.put(keyString, this.value.read(in));
+			}
+			return retVal;
+		}
+
+	}
+
+}
@@ -0,0 +1,244 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+
+/**
+ * This object reads a stream of values written by a SpecEncoder. The type name in the stream header
+ * must match the name of the type being decoded. The values are returned in their JSON form (see
+ * SpecCodec).
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecDecoder {
+
+	// FIELDS
+	/** input channel */
+	private ReadableByteChannel channel;
+	/** input buffer */
+	private ByteBuffer buffer;
+	/** codec for the values */
+	private SpecCodec codec;
+	/** string dictionary, or NULL if dictionaries are not in use */
+	private List<String> dictionary;
+	/** TRUE if the end-of-stream marker has been read */
+	private boolean done;
+	/** number of bytes read from the channel */
+	private long byteCount;
+	/** counter for values decoded */
+	private static final Counter RECORD_COUNT = MetricsRegistry.global().counter("codec.decoded");
+	/** counter for bytes decoded */
+	private static final Counter BYTE_COUNT = MetricsRegistry.global().counter("codec.decoded.bytes");
+
+	/**
+	 * Create a decoder for a channel.
+	 *
+	 * @param codec			codec for the values to read
+	 * @param typeName		name of the type being decoded
+	 * @param channel		input channel
+	 *
+	 * @throws IOException
+	 */
+	public SpecDecoder(SpecCodec codec, String typeName, ReadableByteChannel channel) throws IOException {
+		this(codec, typeName, channel, SpecEncoder.BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a decoder for a channel with a specific buffer size.
+	 *
+	 * @param codec			codec for the values to read
+	 * @param typeName		name of the type being decoded
+	 * @param channel		input channel
+	 * @param bufferSize	size of the input buffer, in bytes
+	 *
+	 * @throws IOException
+	 */
+	public SpecDecoder(SpecCodec codec, String typeName, ReadableByteChannel channel, int bufferSize) throws IOException {
+		this.codec = codec;
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(Math.max(bufferSize, 16));
+		// The buffer starts out empty.
+		this.buffer.flip();
+		this.done = false;
+		this.byteCount = 0;
+		// Read the header.
+		byte[] magic = this.readBytes(SpecEncoder.MAGIC.length);
+		if (! Arrays.equals(magic, SpecEncoder.MAGIC))
+			throw new IOException("Input is not a spec-encoded stream.");
+		int flags = this.readByte();
+		this.dictionary = ((flags & SpecEncoder.DICTIONARY_FLAG) != 0 ? new ArrayList<String>() : null);
+		String streamType = new String(this.readBytes(this.readLength()), StandardCharsets.UTF_8);
+		if (! streamType.equals(typeName))
+			throw new IOException("Stream contains type \"" + streamType + "\", but \"" + typeName + "\" was expected.");
+	}
+
+	/**
+	 * Read the next value from the stream.
+	 *
+	 * @return the next value, or NULL at the end of the stream
+	 *
+	 * @throws IOException
+	 */
+	public Object read() throws IOException {
+		Object retVal = null;
+		if (! this.done) {
+			int marker = this.readByte();
+			if (marker == 0)
+				this.done = true;
+			else {
+				retVal = this.codec.read(this);
+				RECORD_COUNT.increment();
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Insure the buffer contains the specified number of bytes.
+	 *
+	 * @param n		number of bytes needed
+	 *
+	 * @throws IOException
+	 */
+	private void require(int n) throws IOException {
+		if (this.buffer.remaining() < n) {
+			if (n > this.buffer.capacity()) {
+				// Here the buffer is too small, so we need a bigger one.
+				ByteBuffer bigger = ByteBuffer.allocate(n);
+				bigger.put(this.buffer);
+				this.buffer = bigger;
+			} else
+				this.buffer.compact();
+			while (this.buffer.position() < n) {
+				int count = this.channel.read(this.buffer);
+				if (count < 0)
+					throw new EOFException("Spec-encoded stream is truncated.");
+				this.byteCount += count;
+				BYTE_COUNT.add(count);
+			}
+			this.buffer.flip();
+		}
+	}
+
+	/**
+	 * @return the next byte, as an unsigned value
+	 *
+	 * @throws IOException
+	 */
+	protected int readByte() throws IOException {
+		this.require(1);
+		return this.buffer.get() & 0xFF;
+	}
+
+	/**
+	 * @return the next unsigned variable-length integer
+	 *
+	 * @throws IOException
+	 */
+	protected long readVarint() throws IOException {
+		long retVal = 0;
+		int shift = 0;
+		int b = this.readByte();
+		while ((b & 0x80) != 0) {
+			retVal |= (long) (b & 0x7F) << shift;
+			shift += 7;
+			if (shift > 63)
+				throw new IOException("Invalid variable-length integer in spec-encoded stream.");
+			b = this.readByte();
+		}
+		return retVal | ((long) b << shift);
+	}
+
+	/**
+	 * @return the next signed integer
+	 *
+	 * @throws IOException
+	 */
+	protected long readLong() throws IOException {
+		long zigzag = this.readVarint();
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	/**
+	 * @return the next list or mapping length
+	 *
+	 * @throws IOException
+	 */
+	protected int readLength() throws IOException {
+		long retVal = this.readVarint();
+		if (retVal > Integer.MAX_VALUE)
+			throw new IOException("Invalid length in spec-encoded stream.");
+		return (int) retVal;
+	}
+
+	/**
+	 * @return the next floating-point number
+	 *
+	 * @throws IOException
+	 */
+	protected double readDouble() throws IOException {
+		this.require(8);
+		return this.buffer.getDouble();
+	}
+
+	/**
+	 * @return the next string
+	 *
+	 * @throws IOException
+	 */
+	protected String readString() throws IOException {
+		String retVal;
+		long header = this.readVarint();
+		if ((header & 1) != 0) {
+			long idx = header >>> 1;
+			if (this.dictionary == null || idx >= this.dictionary.size())
+				throw new IOException("Invalid string reference in spec-encoded stream.");
+			retVal = this.dictionary.get((int) idx);
+		} else {
+			long len = header >>> 1;
+			if (len > Integer.MAX_VALUE)
+				throw new IOException("Invalid string length in spec-encoded stream.");
+			byte[] bytes = this.readBytes((int) len);
+			retVal = new String(bytes, StandardCharsets.UTF_8);
+			if (this.dictionary != null && bytes.length <= SpecEncoder.MAX_DICTIONARY_STRING
+					&& this.dictionary.size() < SpecEncoder.MAX_DICTIONARY)
+				this.dictionary.add(retVal);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the specified number of bytes
+	 *
+	 * @param n		number of bytes to read
+	 *
+	 * @throws IOException
+	 */
+	private byte[] readBytes(int n) throws IOException {
+		this.require(n);
+		byte[] retVal = new byte[n];
+		this.buffer.get(retVal);
+		return retVal;
+	}
+
+	/**
+	 * @return the number of bytes read from the channel
+	 */
+	public long getByteCount() {
+		return this.byteCount;
+	}
+
+}
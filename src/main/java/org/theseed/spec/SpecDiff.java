@@ -0,0 +1,659 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This object computes the structural differences between two versions of a module. Each named type and
+ * function in each version is given two SHA-256 hashes.
+ *
+ * 	-	The shape hash describes the declaration itself: its kind, its field names, and the names of the
+ * 		named types it refers to. Anonymous types are part of the declaration that contains them, so their
+ * 		shapes are folded in.
+ * 	-	The deep hash is a Merkle hash that also covers the definitions of all the types the declaration
+ * 		depends on, so it changes whenever anything the declaration uses changes.
+ *
+ * Comments and tuple member names are not part of either hash, since they do not affect the wire format.
+ * The hashes are computed bottom-up and memoized, so each node in each module is hashed only once and the
+ * whole comparison is linear in the size of the modules.
+ *
+ * A declaration whose shape hash differs is CHANGED, and is compared field by field to produce details.
+ * A declaration with the same shape but a different deep hash is AFFECTED: it is unchanged itself but
+ * uses a type that changed. Declarations whose deep hashes match are skipped without further examination.
+ *
+ * Each change is classified as COMPATIBLE or BREAKING from the point of view of an existing client.
+ * Adding a type, function, structure field, or function result is compatible, as is dropping an
+ * authentication requirement. Removals, type changes, changes to tuple or parameter lists, and new
+ * authentication requirements are breaking. An affected declaration is breaking if any of the changed
+ * types it uses is breaking. Changes to imported types are always treated as breaking, since the other
+ * module is not compared here.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecDiff {
+
+	/**
+	 * Status of a declaration in the new module.
+	 */
+	public static enum Status {
+		ADDED, REMOVED, CHANGED, AFFECTED;
+	}
+
+	/**
+	 * Effect of a change on existing clients.
+	 */
+	public static enum Severity {
+		COMPATIBLE, BREAKING;
+
+		/**
+		 * @return the more severe of this severity and another
+		 *
+		 * @param other		other severity to check
+		 */
+		public Severity max(Severity other) {
+			return (this.compareTo(other) >= 0 ? this : other);
+		}
+	}
+
+	/**
+	 * This object describes a change to a single declaration.
+	 */
+	public static class Change {
+
+		/** kind of declaration ("type" or "function") */
+		private String kind;
+		/** name of the declaration */
+		private String name;
+		/** status of the declaration */
+		private Status status;
+		/** severity of the change */
+		private Severity severity;
+		/** detail messages */
+		private List<String> details;
+
+		/**
+		 * Create a change descriptor.
+		 *
+		 * @param kind		kind of declaration ("type" or "function")
+		 * @param name		name of the declaration
+		 * @param status	status of the declaration
+		 */
+		protected Change(String kind, String name, Status status) {
+			this.kind = kind;
+			this.name = name;
+			this.status = status;
+			this.severity = Severity.COMPATIBLE;
+			this.details = new ArrayList<String>(2);
+		}
+
+		/**
+		 * Add a detail message and update the severity.
+		 *
+		 * @param severity	severity of the detail
+		 * @param detail	description of the detail
+		 */
+		protected void add(Severity severity, String detail) {
+			this.severity = this.severity.max(severity);
+			this.details.add(detail);
+		}
+
+		/**
+		 * @return the kind of declaration ("type" or "function")
+		 */
+		public String getKind() {
+			return this.kind;
+		}
+
+		/**
+		 * @return the name of the declaration
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the status of the declaration
+		 */
+		public Status getStatus() {
+			return this.status;
+		}
+
+		/**
+		 * @return the severity of the change
+		 */
+		public Severity getSeverity() {
+			return this.severity;
+		}
+
+		/**
+		 * @return the detail messages for the change
+		 */
+		public List<String> getDetails() {
+			return this.details;
+		}
+
+		@Override
+		public String toString() {
+			return this.status + " " + this.severity + " " + this.kind + " " + this.name + ": "
+					+ String.join("; ", this.details);
+		}
+
+	}
+
+	/**
+	 * This object computes and memoizes the hashes for the declarations in one module.
+	 */
+	private static class Hasher {
+
+		/** map of nodes to shape hashes */
+		private final Map<SpecNode, byte[]> shapes;
+		/** map of nodes to deep hashes */
+		private final Map<SpecNode, byte[]> deeps;
+		/** message digest engine */
+		private final MessageDigest digest;
+
+		/**
+		 * Construct a new, empty hasher.
+		 */
+		protected Hasher() {
+			this.shapes = new IdentityHashMap<SpecNode, byte[]>();
+			this.deeps = new IdentityHashMap<SpecNode, byte[]>();
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				// Every Java platform is required to support SHA-256.
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * @return the shape hash of a declaration
+		 *
+		 * @param node	type or function node to hash
+		 */
+		protected byte[] shape(SpecNode node) {
+			byte[] retVal = this.shapes.get(node);
+			if (retVal == null) {
+				retVal = this.compute(node, false);
+				this.shapes.put(node, retVal);
+			}
+			return retVal;
+		}
+
+		/**
+		 * @return the deep hash of a declaration
+		 *
+		 * @param node	type or function node to hash
+		 */
+		protected byte[] deep(SpecNode node) {
+			byte[] retVal = this.deeps.get(node);
+			if (retVal == null) {
+				retVal = this.compute(node, true);
+				this.deeps.put(node, retVal);
+			}
+			return retVal;
+		}
+
+		/**
+		 * @return the hash to use for a reference to a type from inside another declaration
+		 *
+		 * @param type	type being referenced
+		 * @param deep	TRUE for a deep hash, FALSE for a shape hash
+		 */
+		protected byte[] ref(TypeNode type, boolean deep) {
+			byte[] retVal;
+			if (deep)
+				retVal = this.deep(type);
+			else if (type.isAnonymous())
+				retVal = this.shape(type);
+			else
+				retVal = type.getName().getBytes(StandardCharsets.UTF_8);
+			return retVal;
+		}
+
+		/**
+		 * Compute a hash for a declaration. The child hashes are computed first, since the digest
+		 * engine can only work on one hash at a time.
+		 *
+		 * @param node	type or function node to hash
+		 * @param deep	TRUE for a deep hash, FALSE for a shape hash
+		 *
+		 * @return the hash for the node
+		 */
+		private byte[] compute(SpecNode node, boolean deep) {
+			List<byte[]> parts = new ArrayList<byte[]>(node.getChildCount() * 2 + 4);
+			// The deep hash includes the shape, so that matching deep hashes imply matching shapes.
+			if (deep)
+				parts.add(this.shape(node));
+			parts.add(node.getClass().getSimpleName().getBytes(StandardCharsets.UTF_8));
+			if (node instanceof PrimitiveTypeNode)
+				parts.add(((PrimitiveTypeNode) node).getName().getBytes(StandardCharsets.UTF_8));
+			else if (node instanceof ImportTypeNode) {
+				ImportTypeNode importNode = (ImportTypeNode) node;
+				parts.add(importNode.getName().getBytes(StandardCharsets.UTF_8));
+				if (deep)
+					parts.add(this.deep(importNode.getTarget()));
+			} else if (node instanceof FuncNode) {
+				FuncNode func = (FuncNode) node;
+				parts.add(new byte[] { (byte) (func.requiresAuthentication() ? 1 : 0), (byte) func.getParms().size() });
+			}
+			for (SpecNode child : node.getChildNodes()) {
+				if (child instanceof FieldNode) {
+					FieldNode field = (FieldNode) child;
+					parts.add(field.getName().getBytes(StandardCharsets.UTF_8));
+					parts.add(this.ref(field.getType(), deep));
+				} else
+					parts.add(this.ref((TypeNode) child, deep));
+			}
+			// Now hash the parts. Each is preceded by its length so that the boundaries are unambiguous.
+			for (byte[] part : parts) {
+				int len = part.length;
+				this.digest.update(new byte[] { (byte) (len >> 24), (byte) (len >> 16), (byte) (len >> 8), (byte) len });
+				this.digest.update(part);
+			}
+			return this.digest.digest();
+		}
+
+	}
+
+	// FIELDS
+	/** hasher for the old module */
+	private final Hasher oldHasher;
+	/** hasher for the new module */
+	private final Hasher newHasher;
+	/** list of changes found */
+	private final List<Change> changes;
+	/** map of type names to the severity of their changes, for types that changed or were affected */
+	private final Map<String, Severity> typeSeverities;
+	/** number of declarations skipped because their deep hashes matched */
+	private int unchanged;
+
+	/**
+	 * Compare two versions of a module.
+	 *
+	 * @param oldModule		old version of the module
+	 * @param newModule		new version of the module
+	 */
+	public SpecDiff(ModuleNode oldModule, ModuleNode newModule) {
+		this.oldHasher = new Hasher();
+		this.newHasher = new Hasher();
+		this.changes = new ArrayList<Change>();
+		this.typeSeverities = new HashMap<String, Severity>();
+		this.unchanged = 0;
+		// Compare the types. The types in a module are defined before they are used, so processing them in
+		// the new module's order guarantees we see a type's dependencies before the type itself.
+		Map<String, TypeNode> oldTypes = namedTypes(oldModule);
+		Map<String, TypeNode> newTypes = namedTypes(newModule);
+		for (Map.Entry<String, TypeNode> newEntry : newTypes.entrySet()) {
+			String name = newEntry.getKey();
+			TypeNode oldType = oldTypes.get(name);
+			if (oldType == null)
+				this.added("type", name);
+			else
+				this.compareTypes(name, oldType, newEntry.getValue());
+		}
+		for (String name : oldTypes.keySet()) {
+			if (! newTypes.containsKey(name))
+				this.removed("type", name);
+		}
+		// Now compare the functions. These come back sorted by name.
+		Map<String, FuncNode> oldFuncs = oldModule.getFunctions();
+		Map<String, FuncNode> newFuncs = newModule.getFunctions();
+		for (Map.Entry<String, FuncNode> newEntry : newFuncs.entrySet()) {
+			String name = newEntry.getKey();
+			FuncNode oldFunc = oldFuncs.get(name);
+			if (oldFunc == null)
+				this.added("function", name);
+			else
+				this.compareFunctions(name, oldFunc, newEntry.getValue());
+		}
+		for (String name : oldFuncs.keySet()) {
+			if (! newFuncs.containsKey(name))
+				this.removed("function", name);
+		}
+	}
+
+	/**
+	 * @return a map of type names to types for the named, non-primitive types in a module, in definition order
+	 *
+	 * @param module	module whose types are desired
+	 */
+	private static Map<String, TypeNode> namedTypes(ModuleNode module) {
+		Map<String, TypeNode> retVal = new LinkedHashMap<String, TypeNode>();
+		for (SpecNode child : module.getChildNodes()) {
+			if (child instanceof TypeNode && ! (child instanceof PrimitiveTypeNode)) {
+				TypeNode type = (TypeNode) child;
+				retVal.put(type.getName(), type);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Record an added declaration.
+	 *
+	 * @param kind	kind of declaration
+	 * @param name	name of declaration
+	 */
+	private void added(String kind, String name) {
+		Change change = new Change(kind, name, Status.ADDED);
+		change.add(Severity.COMPATIBLE, kind + " added");
+		this.changes.add(change);
+	}
+
+	/**
+	 * Record a removed declaration.
+	 *
+	 * @param kind	kind of declaration
+	 * @param name	name of declaration
+	 */
+	private void removed(String kind, String name) {
+		Change change = new Change(kind, name, Status.REMOVED);
+		change.add(Severity.BREAKING, kind + " removed");
+		this.changes.add(change);
+	}
+
+	/**
+	 * Compare two versions of a named type.
+	 *
+	 * @param name		name of the type
+	 * @param oldType	old version of the type
+	 * @param newType	new version of the type
+	 */
+	private void compareTypes(String name, TypeNode oldType, TypeNode newType) {
+		if (Arrays.equals(this.oldHasher.deep(oldType), this.newHasher.deep(newType)))
+			this.unchanged++;
+		else {
+			Change change;
+			if (! Arrays.equals(this.oldHasher.shape(oldType), this.newHasher.shape(newType))) {
+				change = new Change("type", name, Status.CHANGED);
+				this.compareDetails(change, "", oldType, newType);
+			} else {
+				change = new Change("type", name, Status.AFFECTED);
+				this.addDependencies(change, oldType, newType);
+			}
+			this.typeSeverities.put(name, change.getSeverity());
+			this.changes.add(change);
+		}
+	}
+
+	/**
+	 * Compare two versions of a function.
+	 *
+	 * @param name		name of the function
+	 * @param oldFunc	old version of the function
+	 * @param newFunc	new version of the function
+	 */
+	private void compareFunctions(String name, FuncNode oldFunc, FuncNode newFunc) {
+		if (Arrays.equals(this.oldHasher.deep(oldFunc), this.newHasher.deep(newFunc)))
+			this.unchanged++;
+		else {
+			Change change;
+			if (! Arrays.equals(this.oldHasher.shape(oldFunc), this.newHasher.shape(newFunc))) {
+				change = new Change("function", name, Status.CHANGED);
+				// Check the authentication.
+				if (! oldFunc.requiresAuthentication() && newFunc.requiresAuthentication())
+					change.add(Severity.BREAKING, "authentication now required");
+				else if (oldFunc.requiresAuthentication() && ! newFunc.requiresAuthentication())
+					change.add(Severity.COMPATIBLE, "authentication no longer required");
+				// Parameters are positional, so any change breaks existing calls.
+				this.compareMembers(change, "parameter", oldFunc.getParms(), newFunc.getParms(), false);
+				// New results can be ignored by existing clients.
+				this.compareMembers(change, "result", oldFunc.getResults(), newFunc.getResults(), true);
+			} else {
+				change = new Change("function", name, Status.AFFECTED);
+				this.addDependencies(change, oldFunc, newFunc);
+			}
+			this.changes.add(change);
+		}
+	}
+
+	/**
+	 * Compare two positional member lists.
+	 *
+	 * @param change		change descriptor to update
+	 * @param label			label for a member in the detail messages
+	 * @param oldMembers	old member list
+	 * @param newMembers	new member list
+	 * @param appendOK		TRUE if adding members at the end is compatible
+	 */
+	private void compareMembers(Change change, String label, List<MemberNode> oldMembers, List<MemberNode> newMembers,
+			boolean appendOK) {
+		final int oldN = oldMembers.size();
+		final int newN = newMembers.size();
+		final int n = Math.min(oldN, newN);
+		for (int i = 0; i < n; i++) {
+			TypeNode oldType = oldMembers.get(i).getType();
+			TypeNode newType = newMembers.get(i).getType();
+			if (! this.sameRef(oldType, newType))
+				change.add(Severity.BREAKING, label + " " + (i + 1) + " changed from " + describe(oldType)
+						+ " to " + describe(newType));
+		}
+		if (newN > oldN)
+			change.add(appendOK ? Severity.COMPATIBLE : Severity.BREAKING, label + " count increased from " + oldN
+					+ " to " + newN);
+		else if (newN < oldN)
+			change.add(Severity.BREAKING, label + " count decreased from " + oldN + " to " + newN);
+	}
+
+	/**
+	 * Produce the detail messages for a changed type.
+	 *
+	 * @param change	change descriptor to update
+	 * @param prefix	prefix for detail messages, identifying the position of an anonymous type
+	 * @param oldType	old version of the type
+	 * @param newType	new version of the type
+	 */
+	private void compareDetails(Change change, String prefix, TypeNode oldType, TypeNode newType) {
+		if (oldType.getClass() != newType.getClass())
+			change.add(Severity.BREAKING, prefix + "changed from " + describe(oldType) + " to " + describe(newType));
+		else if (oldType instanceof StructureTypeNode) {
+			// Structure fields are matched by name.
+			final int oldCount = change.getDetails().size();
+			Map<String, FieldNode> oldFields = fieldMap((StructureTypeNode) oldType);
+			Map<String, FieldNode> newFields = fieldMap((StructureTypeNode) newType);
+			for (Map.Entry<String, FieldNode> oldEntry : oldFields.entrySet()) {
+				String fieldName = oldEntry.getKey();
+				FieldNode newField = newFields.get(fieldName);
+				if (newField == null)
+					change.add(Severity.BREAKING, prefix + "field " + fieldName + " removed");
+				else {
+					TypeNode oldFieldType = oldEntry.getValue().getType();
+					TypeNode newFieldType = newField.getType();
+					if (! this.sameRef(oldFieldType, newFieldType)) {
+						String label = prefix + "field " + fieldName;
+						if (oldFieldType.isAnonymous() && newFieldType.isAnonymous())
+							this.compareDetails(change, label + ": ", oldFieldType, newFieldType);
+						else
+							change.add(Severity.BREAKING, label + " changed from " + describe(oldFieldType) + " to "
+									+ describe(newFieldType));
+					}
+				}
+			}
+			for (String fieldName : newFields.keySet()) {
+				if (! oldFields.containsKey(fieldName))
+					change.add(Severity.COMPATIBLE, prefix + "field " + fieldName + " added");
+			}
+			if (change.getDetails().size() == oldCount)
+				change.add(Severity.COMPATIBLE, prefix + "fields reordered");
+		} else if (oldType instanceof TupleTypeNode) {
+			List<MemberNode> oldMembers = oldType.getMembers();
+			List<MemberNode> newMembers = newType.getMembers();
+			this.compareMembers(change, prefix + "element", oldMembers, newMembers, false);
+		} else {
+			// Here we have an alias, list, or mapping. The children are compared by position.
+			List<TypeNode> oldChildren = oldType.getChildTypes();
+			List<TypeNode> newChildren = newType.getChildTypes();
+			for (int i = 0; i < oldChildren.size(); i++) {
+				TypeNode oldChild = oldChildren.get(i);
+				TypeNode newChild = newChildren.get(i);
+				if (! this.sameRef(oldChild, newChild)) {
+					String label = prefix + childLabel(oldType, i);
+					if (oldChild.isAnonymous() && newChild.isAnonymous())
+						this.compareDetails(change, label + ": ", oldChild, newChild);
+					else
+						change.add(Severity.BREAKING, label + " changed from " + describe(oldChild) + " to "
+								+ describe(newChild));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a label for a child of a type, used in the detail messages
+	 *
+	 * @param type	parent type
+	 * @param idx	index of the child
+	 */
+	private static String childLabel(TypeNode type, int idx) {
+		String retVal;
+		if (type instanceof MappingTypeNode)
+			retVal = (idx == 0 ? "key type" : "value type");
+		else if (type instanceof ListTypeNode)
+			retVal = "element type";
+		else
+			retVal = "target type";
+		return retVal;
+	}
+
+	/**
+	 * @return a map of field names to fields for a structure
+	 *
+	 * @param type	structure type whose fields are desired
+	 */
+	private static Map<String, FieldNode> fieldMap(StructureTypeNode type) {
+		Map<String, FieldNode> retVal = new LinkedHashMap<String, FieldNode>();
+		for (FieldNode field : type.getFields())
+			retVal.put(field.getName(), field);
+		return retVal;
+	}
+
+	/**
+	 * @return TRUE if two type references are structurally the same
+	 *
+	 * @param oldType	type referenced in the old module
+	 * @param newType	type referenced in the new module
+	 */
+	private boolean sameRef(TypeNode oldType, TypeNode newType) {
+		return Arrays.equals(this.oldHasher.ref(oldType, false), this.newHasher.ref(newType, false));
+	}
+
+	/**
+	 * Add the changed types used by an affected declaration to its change descriptor. The old and new
+	 * declarations have the same shape, so they refer to the same named types.
+	 *
+	 * @param change	change descriptor to update
+	 * @param oldNode	old version of the declaration
+	 * @param newNode	new version of the declaration
+	 */
+	private void addDependencies(Change change, SpecNode oldNode, SpecNode newNode) {
+		Map<String, TypeNode> oldRefs = new HashMap<String, TypeNode>();
+		collectNamedRefs(oldNode, oldRefs);
+		Map<String, TypeNode> newRefs = new TreeMap<String, TypeNode>();
+		collectNamedRefs(newNode, newRefs);
+		for (Map.Entry<String, TypeNode> newEntry : newRefs.entrySet()) {
+			String name = newEntry.getKey();
+			TypeNode newType = newEntry.getValue();
+			Severity severity = this.typeSeverities.get(name);
+			if (severity == null && newType instanceof ImportTypeNode) {
+				// An imported type is not compared, so if its definition changed we must assume the worst.
+				TypeNode oldType = oldRefs.get(name);
+				if (! Arrays.equals(this.oldHasher.deep(oldType), this.newHasher.deep(newType)))
+					severity = Severity.BREAKING;
+			}
+			if (severity != null)
+				change.add(severity, "uses changed type " + name);
+		}
+	}
+
+	/**
+	 * Collect the named types used by a declaration. Anonymous types are part of the declaration, so we
+	 * look inside them.
+	 *
+	 * @param node		declaration to examine
+	 * @param refs		map into which the types should be placed, keyed by name
+	 */
+	private static void collectNamedRefs(SpecNode node, Map<String, TypeNode> refs) {
+		for (SpecNode child : node.getChildNodes()) {
+			TypeNode type = (child instanceof FieldNode ? ((FieldNode) child).getType() : (TypeNode) child);
+			if (type.isAnonymous())
+				collectNamedRefs(type, refs);
+			else if (! (type instanceof PrimitiveTypeNode))
+				refs.put(type.getName(), type);
+		}
+	}
+
+	/**
+	 * @return a short description of a type for use in detail messages
+	 *
+	 * @param type	type to describe
+	 */
+	public static String describe(TypeNode type) {
+		String retVal;
+		if (! type.isAnonymous())
+			retVal = type.getName();
+		else if (type instanceof StructureTypeNode)
+			retVal = "structure";
+		else {
+			String kind;
+			if (type instanceof ListTypeNode)
+				kind = "list";
+			else if (type instanceof MappingTypeNode)
+				kind = "mapping";
+			else
+				kind = "tuple";
+			List<String> parts = new ArrayList<String>(type.getChildCount());
+			for (TypeNode child : type.getChildTypes())
+				parts.add(describe(child));
+			retVal = kind + "<" + String.join(",", parts) + ">";
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the list of changes, types first (in definition order) and then functions (by name)
+	 */
+	public List<Change> getChanges() {
+		return Collections.unmodifiableList(this.changes);
+	}
+
+	/**
+	 * @return TRUE if any of the changes is breaking
+	 */
+	public boolean isBreaking() {
+		return this.changes.stream().anyMatch(x -> x.getSeverity() == Severity.BREAKING);
+	}
+
+	/**
+	 * @return the names of the functions in the new module whose behavior may differ for clients, because
+	 * 		   they changed or use a type that changed
+	 */
+	public List<String> getAffectedFunctions() {
+		List<String> retVal = this.changes.stream().filter(x -> x.getKind().equals("function")
+				&& (x.getStatus() == Status.CHANGED || x.getStatus() == Status.AFFECTED))
+				.map(x -> x.getName()).toList();
+		return retVal;
+	}
+
+	/**
+	 * @return the number of declarations present in both modules whose deep hashes matched
+	 */
+	public int getUnchangedCount() {
+		return this.unchanged;
+	}
+
+}
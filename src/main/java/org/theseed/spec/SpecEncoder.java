@@ -0,0 +1,302 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
+
+/**
+ * This object writes a stream of values of a single specification type to a channel in the binary form
+ * described by SpecCodec. The stream begins with a header containing a magic number, the option flags,
+ * and the type name. Each value is preceded by a one-byte record marker, and the stream is terminated
+ * by a zero byte when it is closed.
+ *
+ * If the dictionary option is on, each short string is added to a dictionary the first time it is
+ * written, and later occurrences are written as a dictionary index. This is very effective for the
+ * identifiers, type codes, and role names that repeat throughout a genome. The decoder builds the same
+ * dictionary as it reads, so the dictionary itself is never written.
+ *
+ * The output is buffered. The channel is not closed when the encoder is closed.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecEncoder implements Closeable {
+
+	// FIELDS
+	/** output channel */
+	private WritableByteChannel channel;
+	/** output buffer */
+	private ByteBuffer buffer;
+	/** codec for the values */
+	private SpecCodec codec;
+	/** string dictionary, or NULL if dictionaries are not in use */
+	private Map<String, Integer> dictionary;
+	/** number of bytes written to the channel */
+	private long byteCount;
+	/** number of values written */
+	private int recordCount;
+	/** TRUE if the stream has been terminated */
+	private boolean closed;
+	/** magic number at the start of the stream */
+	protected static final byte[] MAGIC = { 'S', 'P', 'C', 1 };
+	/** flag bit indicating the dictionary is in use */
+	protected static final int DICTIONARY_FLAG = 1;
+	/** maximum number of strings in the dictionary */
+	protected static final int MAX_DICTIONARY = 1 << 16;
+	/** maximum UTF-8 length of a string in the dictionary */
+	protected static final int MAX_DICTIONARY_STRING = 64;
+	/** default buffer size */
+	public static final int BUFFER_SIZE = 64 * 1024;
+	/** counter for values encoded */
+	private static final Counter RECORD_COUNT = MetricsRegistry.global().counter("codec.encoded");
+	/** counter for bytes encoded */
+	private static final Counter BYTE_COUNT = MetricsRegistry.global().counter("codec.encoded.bytes");
+
+	/**
+	 * Create an encoder for a channel.
+	 *
+	 * @param codec			codec for the values to write
+	 * @param typeName		name of the type being encoded
+	 * @param channel		output channel
+	 * @param dictionary	TRUE to use a string dictionary
+	 *
+	 * @throws IOException
+	 */
+	public SpecEncoder(SpecCodec codec, String typeName, WritableByteChannel channel, boolean dictionary) throws IOException {
+		this(codec, typeName, channel, dictionary, BUFFER_SIZE);
+	}
+
+	/**
+	 * Create an encoder for a channel with a specific buffer size.
+	 *
+	 * @param codec			codec for the values to write
+	 * @param typeName		name of the type being encoded
+	 * @param channel		output channel
+	 * @param dictionary	TRUE to use a string dictionary
+	 * @param bufferSize	size of the output buffer, in bytes
+	 *
+	 * @throws IOException
+	 */
+	public SpecEncoder(SpecCodec codec, String typeName, WritableByteChannel channel, boolean dictionary,
+			int bufferSize) throws IOException {
+		this.codec = codec;
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(Math.max(bufferSize, 16));
+		this.dictionary = (dictionary ? new HashMap<String, Integer>() : null);
+		this.byteCount = 0;
+		this.recordCount = 0;
+		this.closed = false;
+		// Write the header.
+		this.writeBytes(MAGIC);
+		this.writeByte(dictionary ? DICTIONARY_FLAG : 0);
+		this.writeBytes(typeName.getBytes(StandardCharsets.UTF_8), true);
+	}
+
+	/**
+	 * Write a value to the stream.
+	 *
+	 * @param value		value to write; it must match the codec's type
+	 *
+	 * @throws IOException
+	 */
+	public void write(Object value) throws IOException {
+		if (value == null)
+			SpecCodec.mismatch("a value", null);
+		this.writeByte(1);
+		this.codec.write(value, this);
+		this.recordCount++;
+		RECORD_COUNT.increment();
+	}
+
+	/**
+	 * Insure there is room in the buffer for the specified number of bytes.
+	 *
+	 * @param n		number of bytes needed (no more than the buffer size)
+	 *
+	 * @throws IOException
+	 */
+	private void reserve(int n) throws IOException {
+		if (this.buffer.remaining() < n)
+			this.flush();
+	}
+
+	/**
+	 * Write the buffered data to the channel.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		this.buffer.flip();
+		this.drain(this.buffer);
+		this.buffer.clear();
+	}
+
+	/**
+	 * Write all the data in a byte buffer to the channel.
+	 *
+	 * @param data		buffer to write
+	 *
+	 * @throws IOException
+	 */
+	private void drain(ByteBuffer data) throws IOException {
+		final int n = data.remaining();
+		while (data.hasRemaining())
+			this.channel.write(data);
+		this.byteCount += n;
+		BYTE_COUNT.add(n);
+	}
+
+	/**
+	 * Write a single byte.
+	 *
+	 * @param b		byte to write (only the low-order eight bits are used)
+	 *
+	 * @throws IOException
+	 */
+	protected void writeByte(int b) throws IOException {
+		this.reserve(1);
+		this.buffer.put((byte) b);
+	}
+
+	/**
+	 * Write an unsigned variable-length integer. Each byte holds seven bits, low-order first, and the
+	 * high bit is set on every byte but the last.
+	 *
+	 * @param value		value to write, treated as unsigned
+	 *
+	 * @throws IOException
+	 */
+	protected void writeVarint(long value) throws IOException {
+		this.reserve(10);
+		while ((value & ~0x7FL) != 0) {
+			this.buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		this.buffer.put((byte) value);
+	}
+
+	/**
+	 * Write a signed integer. Zigzag encoding makes small negative numbers as short as small positive ones.
+	 *
+	 * @param value		value to write
+	 *
+	 * @throws IOException
+	 */
+	protected void writeLong(long value) throws IOException {
+		this.writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Write a list or mapping length.
+	 *
+	 * @param n		length to write
+	 *
+	 * @throws IOException
+	 */
+	protected void writeLength(int n) throws IOException {
+		this.writeVarint(n);
+	}
+
+	/**
+	 * Write a floating-point number.
+	 *
+	 * @param value		value to write
+	 *
+	 * @throws IOException
+	 */
+	protected void writeDouble(double value) throws IOException {
+		this.reserve(8);
+		this.buffer.putDouble(value);
+	}
+
+	/**
+	 * Write a string. The header is the UTF-8 length times two for a literal string, or the dictionary
+	 * index times two plus one for a string already in the dictionary.
+	 *
+	 * @param value		string to write
+	 *
+	 * @throws IOException
+	 */
+	protected void writeString(String value) throws IOException {
+		Integer idx = (this.dictionary == null ? null : this.dictionary.get(value));
+		if (idx != null)
+			this.writeVarint(((long) idx << 1) | 1);
+		else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			this.writeVarint((long) bytes.length << 1);
+			this.writeBytes(bytes);
+			if (this.dictionary != null && bytes.length <= MAX_DICTIONARY_STRING
+					&& this.dictionary.size() < MAX_DICTIONARY)
+				this.dictionary.put(value, this.dictionary.size());
+		}
+	}
+
+	/**
+	 * Write a byte array, optionally preceded by its length.
+	 *
+	 * @param bytes		bytes to write
+	 * @param counted	TRUE to write the length first
+	 *
+	 * @throws IOException
+	 */
+	private void writeBytes(byte[] bytes, boolean counted) throws IOException {
+		if (counted)
+			this.writeVarint(bytes.length);
+		this.writeBytes(bytes);
+	}
+
+	/**
+	 * Write a byte array. An array too big for the buffer is written directly.
+	 *
+	 * @param bytes		bytes to write
+	 *
+	 * @throws IOException
+	 */
+	private void writeBytes(byte[] bytes) throws IOException {
+		if (bytes.length <= this.buffer.capacity()) {
+			this.reserve(bytes.length);
+			this.buffer.put(bytes);
+		} else {
+			this.flush();
+			this.drain(ByteBuffer.wrap(bytes));
+		}
+	}
+
+	/**
+	 * @return the number of values written
+	 */
+	public int getRecordCount() {
+		return this.recordCount;
+	}
+
+	/**
+	 * @return the number of bytes written to the channel (including any still in the buffer)
+	 */
+	public long getByteCount() {
+		return this.byteCount + this.buffer.position();
+	}
+
+	/**
+	 * Terminate the stream and flush the buffer. The channel is left open. Closing the encoder again has
+	 * no effect.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (! this.closed) {
+			this.writeByte(0);
+			this.flush();
+			this.closed = true;
+		}
+	}
+
+}
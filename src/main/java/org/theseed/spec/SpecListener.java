@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+/**
+ * This interface receives the events produced by a streaming pass over a specification (see SpecRecognizer).
+ * The events arrive in the order of the corresponding text in the input file, so a listener that needs to
+ * know the name of a type definition will find it at the end of the definition rather than the beginning.
+ *
+ * A type expression produces either a single "typeRef" event (for a type name) or a "beginType" event,
+ * the events for the subtypes, and an "endType" event. The name that follows a type in a structure is
+ * reported by "field", and the optional name that follows a type in a tuple, list, mapping, or function
+ * parameter list is reported by "memberName".
+ *
+ * All the methods have empty default implementations, so a listener need only override the events it
+ * cares about.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface SpecListener {
+
+	/**
+	 * The module header has been read.
+	 *
+	 * @param name		module name
+	 */
+	public default void beginModule(String name) { }
+
+	/**
+	 * The module's closing brace has been read.
+	 *
+	 * @param name		module name
+	 */
+	public default void endModule(String name) { }
+
+	/**
+	 * A comment has been read.
+	 *
+	 * @param text		text of the comment
+	 */
+	public default void comment(String text) { }
+
+	/**
+	 * A type definition has begun.
+	 *
+	 * @param lineNum	line number of the "typedef" keyword
+	 */
+	public default void beginTypedef(int lineNum) { }
+
+	/**
+	 * A type definition has ended.
+	 *
+	 * @param name		name of the defined type
+	 */
+	public default void endTypedef(String name) { }
+
+	/**
+	 * A function definition has begun.
+	 *
+	 * @param name		function name
+	 * @param lineNum	line number of the "funcdef" keyword
+	 */
+	public default void beginFuncdef(String name, int lineNum) { }
+
+	/**
+	 * A function parameter is about to be read.
+	 *
+	 * @param idx		parameter number (1-based)
+	 */
+	public default void param(int idx) { }
+
+	/**
+	 * A function result is about to be read.
+	 *
+	 * @param idx		result number (1-based)
+	 */
+	public default void result(int idx) { }
+
+	/**
+	 * The current function requires authentication.
+	 */
+	public default void authentication() { }
+
+	/**
+	 * A function definition has ended.
+	 *
+	 * @param name		function name
+	 */
+	public default void endFuncdef(String name) { }
+
+	/**
+	 * A compound type expression has begun.
+	 *
+	 * @param kind		type of compound ("structure", "tuple", "list", or "mapping")
+	 */
+	public default void beginType(String kind) { }
+
+	/**
+	 * A compound type expression has ended.
+	 *
+	 * @param kind		type of compound ("structure", "tuple", "list", or "mapping")
+	 */
+	public default void endType(String kind) { }
+
+	/**
+	 * A type name has been used in a type expression.
+	 *
+	 * @param name		type name (possibly qualified with a module name)
+	 */
+	public default void typeRef(String name) { }
+
+	/**
+	 * A structure field name has been read. It follows the field type.
+	 *
+	 * @param name		field name
+	 */
+	public default void field(String name) { }
+
+	/**
+	 * A member name has been read for a tuple, list, mapping, parameter, or result. It follows the member type.
+	 *
+	 * @param name		member name
+	 */
+	public default void memberName(String name) { }
+
+}
@@ -3,8 +3,13 @@
  */
 package org.theseed.spec;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -40,6 +45,12 @@ import static j2html.TagCreator.*;
  * separated by commas. The return type is a single type specification enclosed in parentheses. The
  * authentication indicator is the reserved phrase "authentication required" and is optional.
  *
+ * Most nodes have no comments and many have no children, so the node lists start out as the shared empty
+ * list and are only allocated when something is added. While a specification is being parsed, the
+ * allocated lists are growable. Once parsing is complete, the tree can be frozen, which replaces each list
+ * with an immutable list of exactly the right size (or the shared empty list). A frozen node cannot be
+ * modified.
+ *
  * @author Bruce Parrello
  *
  */
@@ -57,9 +68,9 @@ public abstract class SpecNode {
 	 * Create a blank specification node.
 	 */
 	public SpecNode() {
-		this.childNodes = new ArrayList<SpecNode>(5);
-		this.comments = new ArrayList<String>(1);
-		this.childComments = new ArrayList<List<String>>(5);
+		this.childNodes = Collections.emptyList();
+		this.comments = Collections.emptyList();
+		this.childComments = Collections.emptyList();
 	}
 
 	/**
@@ -68,7 +79,12 @@ public abstract class SpecNode {
 	 * @param pullComments
 	 */
 	protected void addComments(List<String> pullComments) {
-		this.comments.addAll(pullComments);
+		if (! pullComments.isEmpty()) {
+			if (this.comments.isEmpty())
+				this.comments = new ArrayList<String>(pullComments);
+			else
+				this.comments.addAll(pullComments);
+		}
 	}
 
 	/**
@@ -88,9 +104,25 @@ public abstract class SpecNode {
 	 * @param child		new child node to add
 	 */
 	protected void addChild(SpecNode child) {
+		if (this.childNodes.isEmpty()) {
+			this.childNodes = new ArrayList<SpecNode>(4);
+			this.childComments = new ArrayList<List<String>>(4);
+		}
 		this.childNodes.add(child);
-		// Add the associated comment list.
-		this.childComments.add(new ArrayList<String>(1));
+		// Add the associated comment list. It stays empty until a comment is stored.
+		this.childComments.add(Collections.emptyList());
+		this.childrenChanged();
+	}
+
+	/**
+	 * Replace a child node.
+	 *
+	 * @param idx		position of the child to replace
+	 * @param child		new child node
+	 */
+	protected void setChild(int idx, SpecNode child) {
+		this.childNodes.set(idx, child);
+		this.childrenChanged();
 	}
 
 	/**
@@ -99,7 +131,15 @@ public abstract class SpecNode {
 	 * @param comments	comments to add
 	 */
 	public void storeChildComments(List<String> comments) {
-		this.childComments.getLast().addAll(comments);
+		if (! comments.isEmpty()) {
+			final int last = this.childComments.size() - 1;
+			List<String> oldComments = this.childComments.get(last);
+			if (oldComments.isEmpty())
+				this.childComments.set(last, new ArrayList<String>(comments));
+			else
+				oldComments.addAll(comments);
+			this.childrenChanged();
+		}
 	}
 
 	/**
@@ -108,9 +148,20 @@ public abstract class SpecNode {
 	 * @param comments0		initial comments
 	 */
 	public void storeInitialComments(List<String> comments0) {
-		this.comments.addAll(0, comments0);
+		if (! comments0.isEmpty()) {
+			if (this.comments.isEmpty())
+				this.comments = new ArrayList<String>(comments0);
+			else
+				this.comments.addAll(0, comments0);
+		}
 	}
 
+	/**
+	 * This method is called when the children or their comments change, so that subclasses can
+	 * discard any lists they have built from them.
+	 */
+	protected void childrenChanged() { }
+
 	/**
 	 * @return the number of child nodes
 	 */
@@ -126,6 +177,52 @@ public abstract class SpecNode {
 	}
 
 
+	/**
+	 * Freeze this node and all the nodes reachable from it. Named types can be children of many
+	 * nodes, so we track the nodes already frozen.
+	 */
+	public void freeze() {
+		Set<SpecNode> visited = Collections.newSetFromMap(new IdentityHashMap<SpecNode, Boolean>());
+		Deque<SpecNode> stack = new ArrayDeque<SpecNode>();
+		stack.push(this);
+		visited.add(this);
+		while (! stack.isEmpty()) {
+			SpecNode node = stack.pop();
+			node.compact();
+			for (SpecNode child : node.childNodes) {
+				if (visited.add(child))
+					stack.push(child);
+			}
+		}
+	}
+
+	/**
+	 * Replace this node's lists with compact immutable copies.
+	 */
+	protected void compact() {
+		this.childNodes = frozenList(this.childNodes);
+		this.comments = frozenList(this.comments);
+		List<List<String>> newChildComments = new ArrayList<List<String>>(this.childComments.size());
+		for (List<String> childComment : this.childComments)
+			newChildComments.add(frozenList(childComment));
+		this.childComments = frozenList(newChildComments);
+		this.childrenChanged();
+	}
+
+	/**
+	 * @return an immutable copy of a list, or the shared empty list if the list is empty
+	 *
+	 * @param list	list to copy
+	 */
+	protected static <T> List<T> frozenList(List<T> list) {
+		List<T> retVal;
+		if (list.isEmpty())
+			retVal = Collections.emptyList();
+		else
+			retVal = List.copyOf(list);
+		return retVal;
+	}
+
 	/**
 	 * @return basic HTML for this node
 	 */
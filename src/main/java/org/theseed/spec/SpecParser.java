@@ -4,14 +4,23 @@
 package org.theseed.spec;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 import org.theseed.io.LineReader;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
 
 /**
  * This object parses a specification. It takes a stream of tokens and converts it into
  * a module definition node.
  *
+ * A specification held in memory can be parsed in parallel. In that case, the declarations are divided
+ * into chunks (see SpecSplitter), and this parser reads only the skeleton of the module. The chunks
+ * are parsed by the ParallelDefinitionParser.
+ *
  * @author Bruce Parrello
  *
  */
@@ -24,6 +33,20 @@ public class SpecParser {
 	private Iterator<SpecToken> tokens;
 	/** current saved comment list */
 	private List<String> comments;
+	/** reusable comment buffer for the declaration being parsed */
+	private List<String> declarationComments;
+	/** repository for resolving imported types, or NULL if imports are not allowed */
+	private ModuleRepository repository;
+	/** chunks of declarations to parse in parallel (empty if the parse is serial) */
+	private List<SpecSplitter.Chunk> chunks;
+	/** fork-join pool for parsing the chunks, or NULL if the parse is serial */
+	private ForkJoinPool pool;
+	/** number of chunks to create for each thread in the pool */
+	private static final int CHUNKS_PER_THREAD = 4;
+	/** minimum number of declarations in a chunk */
+	private static final int MIN_CHUNK_SIZE = 20;
+	/** counter for comments attached to nodes */
+	private static final Counter ATTACHED_COUNT = MetricsRegistry.global().counter("spec.comments.attached");
 
 	/**
 	 * Construct a parser for an input stream.
@@ -31,10 +54,73 @@ public class SpecParser {
 	 * @param reader	line reader containing the input
 	 */
 	public SpecParser(LineReader reader) {
+		this(reader, null);
+	}
+
+	/**
+	 * Construct a parser for an input stream that can import types from other modules.
+	 *
+	 * @param reader		line reader containing the input
+	 * @param repository	repository for resolving imported types, or NULL if imports are not allowed
+	 */
+	public SpecParser(LineReader reader, ModuleRepository repository) {
 		// Attach ourselves to the line reader to get tokens.
-		this.tokenStream = new SpecTokenizer(reader);
+		this(new SpecTokenizer(reader), repository);
+	}
+
+	/**
+	 * Construct a parser for a specification held in memory. If a pool is specified and the module is big
+	 * enough, the declarations will be parsed in parallel.
+	 *
+	 * @param lines			lines of the specification
+	 * @param repository	repository for resolving imported types, or NULL if imports are not allowed
+	 * @param pool			fork-join pool for parsing the declarations, or NULL to parse serially
+	 */
+	public SpecParser(List<String> lines, ModuleRepository repository, ForkJoinPool pool) {
+		this.comments = Collections.emptyList();
+		this.declarationComments = new ArrayList<String>();
+		this.repository = repository;
+		this.chunks = Collections.emptyList();
+		this.pool = null;
+		List<String> source = lines;
+		if (pool != null) {
+			// Find the declaration boundaries and check for enough declarations to be worth splitting.
+			SpecSplitter splitter = new SpecSplitter(lines);
+			int count = Math.min(pool.getParallelism() * CHUNKS_PER_THREAD, splitter.size() / MIN_CHUNK_SIZE);
+			if (splitter.isSplittable() && count > 1) {
+				this.chunks = splitter.getChunks(count);
+				this.pool = pool;
+				source = splitter.getSkeleton();
+			}
+		}
+		this.tokenStream = new SpecTokenizer(source.iterator(), 1);
+		this.tokens = this.tokenStream.iterator();
+	}
+
+	/**
+	 * Construct a parser for a chunk of declarations. Imports are not allowed, because type names are
+	 * resolved after all the chunks are parsed.
+	 *
+	 * @param chunk		chunk of declarations to parse
+	 */
+	protected SpecParser(SpecSplitter.Chunk chunk) {
+		this(new SpecTokenizer(chunk.getLines().iterator(), chunk.getLineNum()), null);
+	}
+
+	/**
+	 * Construct a serial parser for a token stream.
+	 *
+	 * @param tokenStream	source of the tokens
+	 * @param repository	repository for resolving imported types, or NULL if imports are not allowed
+	 */
+	private SpecParser(SpecTokenizer tokenStream, ModuleRepository repository) {
+		this.tokenStream = tokenStream;
 		this.tokens = this.tokenStream.iterator();
-		this.comments = new ArrayList<String>(1);
+		this.comments = Collections.emptyList();
+		this.declarationComments = new ArrayList<String>();
+		this.repository = repository;
+		this.chunks = Collections.emptyList();
+		this.pool = null;
 	}
 
 	/**
@@ -43,16 +129,29 @@ public class SpecParser {
 	 * @return a non-comment token that is not null
 	 */
 	public SpecToken nextToken() {
+		SpecToken retVal = this.nextTokenOrNull();
+		if (retVal == null)
+			this.tokenStream.throwParseError("Unexpected end of file.");
+		return retVal;
+	}
+
+	/**
+	 * Get the next non-comment token, if there is one.
+	 *
+	 * @return the next non-comment token, or NULL if the end of the input has been reached
+	 */
+	public SpecToken nextTokenOrNull() {
 		SpecToken retVal = null;
 		while (this.tokens.hasNext() && retVal == null) {
 			SpecToken token = this.tokens.next();
-			if (token.isComment())
+			if (token.isComment()) {
+				if (this.comments.isEmpty())
+					this.comments = new ArrayList<String>(1);
 				this.comments.add(token.getText());
+			}
 			else
 				retVal = token;
 		}
-		if (retVal == null)
-			this.tokenStream.throwParseError("Unexpected end of file.");
 		return retVal;
 	}
 
@@ -68,17 +167,82 @@ public class SpecParser {
 	}
 
 	/**
-	 * Get the comments for the current token and remove them from the comment list.
+	 * Get the comments for the current token and remove them from the comment list. Most tokens have
+	 * no comments, and in that case the shared empty list is returned.
 	 *
 	 * @return the list of comments for the current token
 	 */
 	public List<String> pullComments() {
 		List<String> retVal = this.comments;
-		// Note we create a new list because the old list is now owned by the client.
-		this.comments = new ArrayList<String>(1);
+		if (! retVal.isEmpty()) {
+			ATTACHED_COUNT.add(retVal.size());
+			// Note we start a new list because the old list is now owned by the client.
+			this.comments = Collections.emptyList();
+		}
 		return retVal;
 	}
 
+	/**
+	 * Get an empty buffer for the comments of a new type or function declaration. The buffer belongs to
+	 * this parser and is cleared each time it is requested, so the comments must be copied out of it (as
+	 * SpecNode.addComments does) before the next declaration begins.
+	 *
+	 * @return the cleared declaration comment buffer
+	 */
+	protected List<String> getDeclarationComments() {
+		this.declarationComments.clear();
+		return this.declarationComments;
+	}
+
+	/**
+	 * Denote that parsing is complete.
+	 */
+	public void finish() {
+		this.tokenStream.endEvent();
+	}
+
+	/**
+	 * @return the repository for resolving imported types, or NULL if imports are not allowed
+	 */
+	public ModuleRepository getRepository() {
+		return this.repository;
+	}
+
+	/**
+	 * @return the current line number in the input file
+	 */
+	public int getLineNum() {
+		return this.tokenStream.getLineNum();
+	}
+
+	/**
+	 * @return the current position in the current line
+	 */
+	public int getPos() {
+		return this.tokenStream.getPos();
+	}
+
+	/**
+	 * @return TRUE if the declarations are to be parsed in parallel
+	 */
+	public boolean isParallel() {
+		return this.pool != null;
+	}
+
+	/**
+	 * @return the chunks of declarations to parse in parallel (empty if the parse is serial)
+	 */
+	public List<SpecSplitter.Chunk> getChunks() {
+		return this.chunks;
+	}
+
+	/**
+	 * @return the fork-join pool for parsing the chunks, or NULL if the parse is serial
+	 */
+	public ForkJoinPool getPool() {
+		return this.pool;
+	}
+
 	/**
 	 * This throws an exception that indicates a general error at the current position.
 	 *
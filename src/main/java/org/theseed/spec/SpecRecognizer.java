@@ -0,0 +1,239 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.util.Iterator;
+
+import org.theseed.io.LineReader;
+
+/**
+ * This object makes a single streaming pass over a specification and reports what it finds to a
+ * SpecListener. Unlike the SpecParser, it builds no nodes and keeps no type map, so the memory it uses
+ * does not depend on the size of the input. The price is that it only checks the syntax: type names
+ * are reported but not resolved, so a listener that wants to validate them must keep its own set of
+ * definitions.
+ *
+ * Comments are passed to the listener as soon as they are read, in between the other events.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecRecognizer {
+
+	// FIELDS
+	/** source tokenizer */
+	private final SpecTokenizer tokenizer;
+	/** token iterator */
+	private final Iterator<SpecToken> tokens;
+	/** event listener */
+	private SpecListener listener;
+
+	/**
+	 * Construct a recognizer for an input stream.
+	 *
+	 * @param reader	line reader containing the input
+	 */
+	public SpecRecognizer(LineReader reader) {
+		this.tokenizer = new SpecTokenizer(reader);
+		this.tokens = this.tokenizer.iterator();
+	}
+
+	/**
+	 * Process the input, passing the events to a listener.
+	 *
+	 * @param listener	listener to receive the events
+	 */
+	public void run(SpecListener listener) {
+		this.listener = listener;
+		SpecToken token = this.nextToken();
+		if (! token.isWord("module"))
+			this.unexpected("\"module\"", token);
+		token = this.nextToken();
+		if (! token.isWord())
+			this.unexpected("module name", token);
+		String modName = token.getText();
+		listener.beginModule(modName);
+		this.expectDelim("{");
+		token = this.nextToken();
+		while (! token.isDelim("}")) {
+			if (token.isWord("typedef"))
+				this.typedef();
+			else if (token.isWord("funcdef"))
+				this.funcdef();
+			else
+				this.unexpected("\"typedef\" or \"funcdef\"", token);
+			token = this.nextToken();
+		}
+		// Consume any trailing comments and the optional semicolon after the closing brace.
+		while (this.tokens.hasNext()) {
+			token = this.tokens.next();
+			if (token.isComment())
+				listener.comment(token.getText());
+			else if (! token.isDelim(";"))
+				this.unexpected("end of file", token);
+		}
+		this.tokenizer.endEvent();
+		listener.endModule(modName);
+	}
+
+	/**
+	 * Process a type definition. The "typedef" keyword has been consumed.
+	 */
+	private void typedef() {
+		this.listener.beginTypedef(this.tokenizer.getLineNum());
+		this.type(this.nextToken());
+		SpecToken token = this.nextToken();
+		if (! token.isWord())
+			this.unexpected("identifier", token);
+		String name = token.getText();
+		this.expectDelim(";");
+		this.listener.endTypedef(name);
+	}
+
+	/**
+	 * Process a function definition. The "funcdef" keyword has been consumed.
+	 */
+	private void funcdef() {
+		int lineNum = this.tokenizer.getLineNum();
+		SpecToken token = this.nextToken();
+		if (! token.isWord())
+			this.unexpected("function name", token);
+		String name = token.getText();
+		this.listener.beginFuncdef(name, lineNum);
+		this.expectDelim("(");
+		this.memberList(")", true);
+		token = this.nextToken();
+		if (token.isWord("returns")) {
+			this.expectDelim("(");
+			this.memberList(")", false);
+			token = this.nextToken();
+		}
+		if (token.isWord("authentication")) {
+			token = this.nextToken();
+			if (! token.isWord("required"))
+				this.unexpected("\"required\"", token);
+			this.listener.authentication();
+			token = this.nextToken();
+		}
+		if (! token.isDelim(";"))
+			this.unexpected("\";\"", token);
+		this.listener.endFuncdef(name);
+	}
+
+	/**
+	 * Process a type expression.
+	 *
+	 * @param token		first token of the type expression
+	 */
+	private void type(SpecToken token) {
+		if (! token.isWord())
+			this.unexpected("type", token);
+		String text = token.getText();
+		switch (text) {
+		case "structure" :
+			this.listener.beginType(text);
+			this.expectDelim("{");
+			token = this.nextToken();
+			while (! token.isDelim("}")) {
+				this.type(token);
+				token = this.nextToken();
+				if (! token.isWord())
+					this.unexpected("a field name", token);
+				this.listener.field(token.getText());
+				this.expectDelim(";");
+				token = this.nextToken();
+			}
+			this.listener.endType(text);
+			break;
+		case "tuple" :
+		case "list" :
+		case "mapping" :
+			this.listener.beginType(text);
+			this.expectDelim("<");
+			int count = this.memberList(">", null);
+			if (text.equals("list") && count != 1)
+				this.tokenizer.throwParseError("Lists must have exactly one member type.");
+			else if (text.equals("mapping") && count != 2)
+				this.tokenizer.throwParseError("A mapping type must have exactly two subtypes.");
+			this.listener.endType(text);
+			break;
+		default :
+			this.listener.typeRef(text);
+		}
+	}
+
+	/**
+	 * Process a comma-delimited list of types, each optionally followed by a member name. The opening
+	 * delimiter has been consumed, and the closing delimiter will be consumed.
+	 *
+	 * @param closeDelim	closing delimiter
+	 * @param parms			TRUE for a parameter list, FALSE for a result list, NULL for a type's member list
+	 *
+	 * @return the number of members found
+	 */
+	private int memberList(String closeDelim, Boolean parms) {
+		int retVal = 0;
+		SpecToken token = this.nextToken();
+		boolean endFound = token.isDelim(closeDelim);
+		while (! endFound) {
+			retVal++;
+			if (parms == Boolean.TRUE)
+				this.listener.param(retVal);
+			else if (parms == Boolean.FALSE)
+				this.listener.result(retVal);
+			this.type(token);
+			token = this.nextToken();
+			if (token.isWord()) {
+				this.listener.memberName(token.getText());
+				token = this.nextToken();
+			}
+			if (token.isDelim(closeDelim))
+				endFound = true;
+			else if (! token.isDelim(","))
+				this.unexpected("\",\" or \"" + closeDelim + "\"", token);
+			else
+				token = this.nextToken();
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the next non-comment token, after passing any comments to the listener
+	 */
+	private SpecToken nextToken() {
+		SpecToken retVal = null;
+		while (retVal == null && this.tokens.hasNext()) {
+			SpecToken token = this.tokens.next();
+			if (token.isComment())
+				this.listener.comment(token.getText());
+			else
+				retVal = token;
+		}
+		if (retVal == null)
+			this.tokenizer.throwParseError("Unexpected end of file.");
+		return retVal;
+	}
+
+	/**
+	 * Consume a required delimiter.
+	 *
+	 * @param delim		expected delimiter
+	 */
+	private void expectDelim(String delim) {
+		SpecToken token = this.nextToken();
+		if (! token.isDelim(delim))
+			this.unexpected("\"" + delim + "\"", token);
+	}
+
+	/**
+	 * Throw an exception for an unexpected token.
+	 *
+	 * @param expected	description of the expected token
+	 * @param found		token actually found
+	 */
+	private void unexpected(String expected, SpecToken found) {
+		this.tokenizer.throwParseError("Expected " + expected + " found \"" + found + "\".");
+	}
+
+}
@@ -0,0 +1,679 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This object describes a relational schema derived from the structure types of a specification, in the
+ * form expected by an ERDB database. Each root structure type becomes a table with one row per document.
+ * Inside a table, the scalar fields become columns. Aliases and imports are resolved to the type they
+ * stand for, and nested structures and tuples are flattened, with the column names built from the field
+ * and member names joined by underscores. A list or mapping field becomes a child table with one row per
+ * element. If the element is a named structure, the child table is named after the structure; otherwise,
+ * it is named after the parent table and the field.
+ *
+ * Every table has an integer key column "_id". A child table also has a link column "_parent" that
+ * references the parent row, and either a "_pos" column containing the position in the list or a "_key"
+ * column containing the mapping key. A primitive element is stored in a "_value" column. Each link column
+ * is indexed. The generated column names begin with an underscore, so they do not conflict with the field
+ * names from the spec. A field name that is an SQL reserved word has an underscore appended.
+ *
+ * The SQL script also creates the ERDB metadata tables: "_diagram" contains the diagram placement and
+ * description of each table, and "_fields" contains the description of each column. The descriptions come
+ * from the spec comments. The tables are placed on the diagram by depth, with each child table in the row
+ * below its parent.
+ *
+ * Each column and child table records the path from a row's value to its data, so that the tables can be
+ * filled directly from JSON documents of the root type.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecSchema {
+
+	// FIELDS
+	/** list of tables, with each parent before its children */
+	private List<Table> tables;
+	/** map of lower-case table names to tables */
+	private Map<String, Table> tableMap;
+	/** next free diagram column for each diagram row */
+	private List<Integer> nextCols;
+	/** name of the key column */
+	public static final String KEY_COLUMN = "_id";
+	/** name of the link column */
+	public static final String LINK_COLUMN = "_parent";
+	/** name of the list position column */
+	public static final String POS_COLUMN = "_pos";
+	/** name of the mapping key column */
+	public static final String MAP_KEY_COLUMN = "_key";
+	/** name of the column for primitive elements */
+	public static final String VALUE_COLUMN = "_value";
+	/** name of the diagram metadata table */
+	public static final String DIAGRAM_TABLE = "_diagram";
+	/** name of the field metadata table */
+	public static final String FIELDS_TABLE = "_fields";
+	/** SQL reserved words that could plausibly appear as field names */
+	private static final Set<String> RESERVED = Set.of("add", "all", "alter", "and", "as", "asc", "between", "by",
+			"case", "check", "column", "constraint", "create", "cross", "default", "delete", "desc", "distinct",
+			"drop", "else", "end", "exists", "foreign", "from", "group", "having", "in", "index", "inner", "insert",
+			"into", "is", "join", "key", "left", "like", "limit", "not", "null", "of", "offset", "on", "or", "order",
+			"outer", "primary", "references", "right", "row", "rows", "select", "set", "table", "then", "to",
+			"union", "unique", "update", "using", "values", "when", "where", "with");
+
+	/**
+	 * This enum describes the role of a column in its table.
+	 */
+	public static enum Role {
+		/** key of the row */
+		KEY,
+		/** key of the parent row */
+		LINK,
+		/** position of the element in its list */
+		POSITION,
+		/** key of the element in its mapping */
+		MAP_KEY,
+		/** data from the document */
+		DATA;
+	}
+
+	/**
+	 * This enum describes where the rows of a table come from.
+	 */
+	public static enum Kind {
+		/** one row per document */
+		ROOT,
+		/** one row per list element */
+		LIST,
+		/** one row per mapping entry */
+		MAPPING;
+	}
+
+	/**
+	 * This object describes a single table column.
+	 */
+	public static class Column {
+
+		/** column name */
+		private String name;
+		/** SQL type */
+		private String sqlType;
+		/** role of the column */
+		private Role role;
+		/** path from the row value to the column's data */
+		private List<Object> path;
+		/** description of the column */
+		private String description;
+
+		/**
+		 * Create a column descriptor.
+		 *
+		 * @param name			column name
+		 * @param sqlType		SQL type of the column
+		 * @param role			role of the column
+		 * @param path			path from the row value to the column's data (data columns only)
+		 * @param description	description of the column
+		 */
+		protected Column(String name, String sqlType, Role role, List<Object> path, String description) {
+			this.name = name;
+			this.sqlType = sqlType;
+			this.role = role;
+			this.path = path;
+			this.description = description;
+		}
+
+		/**
+		 * @return the column name
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the SQL type of the column
+		 */
+		public String getSqlType() {
+			return this.sqlType;
+		}
+
+		/**
+		 * @return the role of the column
+		 */
+		public Role getRole() {
+			return this.role;
+		}
+
+		/**
+		 * @return the path from the row value to the column's data; each step is a field name or a
+		 * 		   tuple index
+		 */
+		public List<Object> getPath() {
+			return this.path;
+		}
+
+		/**
+		 * @return the description of the column
+		 */
+		public String getDescription() {
+			return this.description;
+		}
+
+		/**
+		 * @return the SQL definition of the column
+		 */
+		public String toSql() {
+			String retVal = this.name + " " + this.sqlType;
+			switch (this.role) {
+			case KEY :
+				retVal += " NOT NULL PRIMARY KEY";
+				break;
+			case DATA :
+				break;
+			default :
+				retVal += " NOT NULL";
+			}
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * This object describes a single table.
+	 */
+	public static class Table {
+
+		/** table name */
+		private String name;
+		/** parent table, or NULL for a root table */
+		private Table parent;
+		/** source of the rows */
+		private Kind kind;
+		/** path from the parent row value to the list or mapping for this table */
+		private List<Object> path;
+		/** list of columns */
+		private List<Column> columns;
+		/** set of lower-case column names */
+		private Set<String> columnNames;
+		/** list of child tables */
+		private List<Table> children;
+		/** description of the table */
+		private String description;
+		/** diagram row */
+		private int row;
+		/** diagram column */
+		private int col;
+
+		/**
+		 * Create a table descriptor.
+		 *
+		 * @param name			table name
+		 * @param parent		parent table, or NULL for a root table
+		 * @param kind			source of the rows
+		 * @param path			path from the parent row value to the list or mapping for this table
+		 * @param description	description of the table
+		 */
+		protected Table(String name, Table parent, Kind kind, List<Object> path, String description) {
+			this.name = name;
+			this.parent = parent;
+			this.kind = kind;
+			this.path = path;
+			this.description = description;
+			this.columns = new ArrayList<Column>();
+			this.columnNames = new HashSet<String>();
+			this.children = new ArrayList<Table>();
+		}
+
+		/**
+		 * Add a column to this table. If the name is already in use, a number is appended to it.
+		 *
+		 * @param name			proposed column name
+		 * @param sqlType		SQL type of the column
+		 * @param role			role of the column
+		 * @param path			path from the row value to the column's data
+		 * @param description	description of the column
+		 */
+		protected void addColumn(String name, String sqlType, Role role, List<Object> path, String description) {
+			String actual = name;
+			for (int i = 2; this.columnNames.contains(actual.toLowerCase()); i++)
+				actual = name + "_" + i;
+			this.columnNames.add(actual.toLowerCase());
+			this.columns.add(new Column(actual, sqlType, role, path, description));
+		}
+
+		/**
+		 * @return the table name
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the parent table, or NULL if this is a root table
+		 */
+		public Table getParent() {
+			return this.parent;
+		}
+
+		/**
+		 * @return the source of the rows
+		 */
+		public Kind getKind() {
+			return this.kind;
+		}
+
+		/**
+		 * @return the path from the parent row value to the list or mapping for this table
+		 */
+		public List<Object> getPath() {
+			return this.path;
+		}
+
+		/**
+		 * @return the list of columns
+		 */
+		public List<Column> getColumns() {
+			return this.columns;
+		}
+
+		/**
+		 * @return the list of child tables
+		 */
+		public List<Table> getChildren() {
+			return this.children;
+		}
+
+		/**
+		 * @return the description of the table
+		 */
+		public String getDescription() {
+			return this.description;
+		}
+
+		/**
+		 * @return the diagram row (1-based)
+		 */
+		public int getRow() {
+			return this.row;
+		}
+
+		/**
+		 * @return the diagram column (1-based)
+		 */
+		public int getCol() {
+			return this.col;
+		}
+
+		/**
+		 * @return the SQL statements to create this table and its index
+		 */
+		public List<String> toSql() {
+			List<String> retVal = new ArrayList<String>(2);
+			StringBuilder create = new StringBuilder(80 * this.columns.size());
+			create.append("CREATE TABLE ").append(this.name).append(" (");
+			String delim = "\n    ";
+			for (Column column : this.columns) {
+				create.append(delim).append(column.toSql());
+				delim = ",\n    ";
+			}
+			if (this.parent != null)
+				create.append(delim).append("FOREIGN KEY (").append(LINK_COLUMN).append(") REFERENCES ")
+						.append(this.parent.name).append(" (").append(KEY_COLUMN).append(")");
+			create.append("\n)");
+			retVal.add(create.toString());
+			if (this.parent != null) {
+				// Index the link. The position or mapping key comes second, so the children of a row are
+				// retrieved in order.
+				String second = (this.kind == Kind.LIST ? POS_COLUMN : MAP_KEY_COLUMN);
+				retVal.add("CREATE INDEX idx_" + this.name + "_parent ON " + this.name + " (" + LINK_COLUMN + ", "
+						+ second + ")");
+			}
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * Construct a schema for the specified root types.
+	 *
+	 * @param roots		list of root types; each must be a structure type
+	 */
+	public SpecSchema(List<TypeNode> roots) {
+		this.tables = new ArrayList<Table>();
+		this.tableMap = new HashMap<String, Table>();
+		this.nextCols = new ArrayList<Integer>();
+		for (TypeNode root : roots) {
+			if (! (root.getBaseType() instanceof StructureTypeNode))
+				throw new IllegalArgumentException("Root type " + root.getName() + " is not a structure.");
+			Table table = this.createTable(root.getName(), null, Kind.ROOT, Collections.emptyList(),
+					describe(root.getComments()));
+			this.addColumns(table, root, "", Collections.emptyList(), Collections.emptyList());
+		}
+	}
+
+	/**
+	 * Construct a schema for the named root types of a module.
+	 *
+	 * @param module		module containing the types
+	 * @param rootNames		names of the root types; if empty, the default root types are used
+	 *
+	 * @return the schema for the root types
+	 */
+	public static SpecSchema forModule(ModuleNode module, List<String> rootNames) {
+		List<TypeNode> roots;
+		if (rootNames.isEmpty())
+			roots = getRootTypes(module);
+		else {
+			roots = new ArrayList<TypeNode>(rootNames.size());
+			for (String rootName : rootNames) {
+				TypeNode root = module.findType(rootName);
+				if (root == null)
+					throw new IllegalArgumentException("Type " + rootName + " is not defined in module " + module.getName() + ".");
+				roots.add(root);
+			}
+		}
+		if (roots.isEmpty())
+			throw new IllegalArgumentException("Module " + module.getName() + " has no root structure types.");
+		return new SpecSchema(roots);
+	}
+
+	/**
+	 * Compute the default root types for a module. These are the named structures that are not used by
+	 * any other type.
+	 *
+	 * @param module	module of interest
+	 *
+	 * @return the list of root structure types, in definition order
+	 */
+	public static List<TypeNode> getRootTypes(ModuleNode module) {
+		List<TypeNode> retVal = new ArrayList<TypeNode>();
+		for (SpecNode child : module.getChildNodes()) {
+			if (child instanceof StructureTypeNode) {
+				StructureTypeNode type = (StructureTypeNode) child;
+				if (type.getUsers().stream().noneMatch(x -> x.getUser() instanceof TypeNode))
+					retVal.add(type);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Create a new table and place it on the diagram.
+	 *
+	 * @param name			proposed table name
+	 * @param parent		parent table, or NULL for a root table
+	 * @param kind			source of the rows
+	 * @param path			path from the parent row value to the list or mapping
+	 * @param description	description of the table
+	 *
+	 * @return the new table descriptor
+	 */
+	private Table createTable(String name, Table parent, Kind kind, List<Object> path, String description) {
+		// Insure the name is unique.
+		String base = safeName(name);
+		String actual = base;
+		for (int i = 2; this.tableMap.containsKey(actual.toLowerCase()); i++)
+			actual = base + "_" + i;
+		Table retVal = new Table(actual, parent, kind, path, description);
+		this.tables.add(retVal);
+		this.tableMap.put(actual.toLowerCase(), retVal);
+		// Add the generated columns.
+		retVal.addColumn(KEY_COLUMN, "INTEGER", Role.KEY, null, "unique key of this row");
+		if (parent == null)
+			retVal.row = 1;
+		else {
+			parent.children.add(retVal);
+			retVal.row = parent.row + 1;
+			retVal.addColumn(LINK_COLUMN, "INTEGER", Role.LINK, null, "key of the parent row in " + parent.name);
+		}
+		// Place the table in the next free diagram column of its row, but never to the left of its parent.
+		while (this.nextCols.size() < retVal.row)
+			this.nextCols.add(1);
+		int col = this.nextCols.get(retVal.row - 1);
+		if (parent != null && parent.col > col)
+			col = parent.col;
+		retVal.col = col;
+		this.nextCols.set(retVal.row - 1, col + 1);
+		return retVal;
+	}
+
+	/**
+	 * Add the columns for a value to a table. Primitive values become columns, structures and tuples are
+	 * flattened, and lists and mappings become child tables.
+	 *
+	 * @param table		table to receive the columns
+	 * @param type		type of the value
+	 * @param prefix	column name prefix for the value (empty for the row value itself)
+	 * @param path		path from the row value to this value
+	 * @param comments	comments describing the value
+	 */
+	private void addColumns(Table table, TypeNode type, String prefix, List<Object> path, List<String> comments) {
+		TypeNode base = type.getBaseType();
+		if (base instanceof PrimitiveTypeNode) {
+			String name = (prefix.isEmpty() ? VALUE_COLUMN : safeName(prefix));
+			table.addColumn(name, sqlType(base), Role.DATA, path, describe(comments));
+		} else if (base instanceof StructureTypeNode) {
+			for (FieldNode field : ((StructureTypeNode) base).getFields())
+				this.addColumns(table, field.getType(), columnName(prefix, field.getName()),
+						extend(path, field.getName()), field.getComments());
+		} else if (base instanceof TupleTypeNode) {
+			List<MemberNode> members = base.getMembers();
+			final int n = members.size();
+			for (int i = 0; i < n; i++) {
+				MemberNode member = members.get(i);
+				List<String> memberComments = member.getComments();
+				String memberName = String.valueOf(i + 1);
+				if (! memberComments.isEmpty() && memberComments.get(0).matches("[A-Za-z_]\\w*")) {
+					// The first comment is the member name.
+					memberName = memberComments.get(0);
+					memberComments = memberComments.subList(1, memberComments.size());
+				}
+				this.addColumns(table, member.getType(), columnName(prefix, memberName), extend(path, i),
+						memberComments);
+			}
+		} else if (base instanceof ListTypeNode || base instanceof MappingTypeNode) {
+			List<TypeNode> children = base.getChildTypes();
+			TypeNode elementType = children.get(children.size() - 1);
+			TypeNode elementBase = elementType.getBaseType();
+			// A named structure element gives its name and description to the child table.
+			String tableName;
+			String description;
+			if (elementBase instanceof StructureTypeNode && ! elementBase.isAnonymous()) {
+				tableName = elementBase.getName();
+				description = describe(elementBase.getComments());
+			} else {
+				tableName = table.name + "_" + (prefix.isEmpty() ? "items" : prefix);
+				description = "";
+			}
+			if (description.isEmpty())
+				description = describe(comments);
+			String field = (prefix.isEmpty() ? "parent" : prefix);
+			String kindName = (base instanceof ListTypeNode ? "list" : "mapping");
+			if (description.isEmpty())
+				description = "elements of the " + field + " " + kindName + " in " + table.name;
+			Table child;
+			if (base instanceof ListTypeNode) {
+				child = this.createTable(tableName, table, Kind.LIST, path, description);
+				child.addColumn(POS_COLUMN, "INTEGER", Role.POSITION, null, "position in the " + field + " list");
+			} else {
+				TypeNode keyType = children.get(0).getBaseType();
+				if (! (keyType instanceof PrimitiveTypeNode))
+					throw new IllegalArgumentException("Mapping key type must be primitive in " + SpecDiff.describe(base) + ".");
+				child = this.createTable(tableName, table, Kind.MAPPING, path, description);
+				child.addColumn(MAP_KEY_COLUMN, sqlType(keyType), Role.MAP_KEY, null, "key in the " + field + " mapping");
+			}
+			this.addColumns(child, elementType, "", Collections.emptyList(), Collections.emptyList());
+		} else
+			throw new IllegalArgumentException("Cannot store type " + SpecDiff.describe(type) + " in a table.");
+	}
+
+	/**
+	 * @return the SQL type for a primitive type
+	 *
+	 * @param type	primitive type of interest
+	 */
+	private static String sqlType(TypeNode type) {
+		String retVal;
+		switch (type.getName()) {
+		case "int" :
+			retVal = "INTEGER";
+			break;
+		case "float" :
+			retVal = "DOUBLE";
+			break;
+		default :
+			retVal = "TEXT";
+		}
+		return retVal;
+	}
+
+	/**
+	 * Compute the column name for a member of a flattened value.
+	 *
+	 * @param prefix	column name prefix for the flattened value
+	 * @param name		name of the member
+	 *
+	 * @return the column name for the member
+	 */
+	private static String columnName(String prefix, String name) {
+		return (prefix.isEmpty() ? name : prefix + "_" + name);
+	}
+
+	/**
+	 * @return a name that is safe to use as an SQL identifier
+	 *
+	 * @param name	proposed name
+	 */
+	private static String safeName(String name) {
+		String retVal = name.replaceAll("\\W", "_");
+		if (Character.isDigit(retVal.charAt(0)))
+			retVal = "_" + retVal;
+		else if (RESERVED.contains(retVal.toLowerCase()))
+			retVal += "_";
+		return retVal;
+	}
+
+	/**
+	 * @return a path with one more step added
+	 *
+	 * @param path	original path
+	 * @param step	step to add
+	 */
+	private static List<Object> extend(List<Object> path, Object step) {
+		List<Object> retVal = new ArrayList<Object>(path.size() + 1);
+		retVal.addAll(path);
+		retVal.add(step);
+		return retVal;
+	}
+
+	/**
+	 * @return a single-line description built from a list of comments
+	 *
+	 * @param comments	comments to join
+	 */
+	private static String describe(List<String> comments) {
+		return String.join(" ", comments).replaceAll("\\s+", " ").trim();
+	}
+
+	/**
+	 * Follow a path from a row value to the data for a column or child table.
+	 *
+	 * @param value		row value
+	 * @param path		path to follow
+	 *
+	 * @return the data at the end of the path, or NULL if it is missing
+	 */
+	@SuppressWarnings("unchecked")
+	public static Object follow(Object value, List<Object> path) {
+		Object retVal = value;
+		final int n = path.size();
+		for (int i = 0; i < n && retVal != null; i++) {
+			Object step = path.get(i);
+			if (step instanceof String) {
+				if (retVal instanceof Map)
+					retVal = ((Map<String, Object>) retVal).get(step);
+				else
+					SpecCodec.mismatch("an object for " + step, retVal);
+			} else {
+				int idx = (Integer) step;
+				if (retVal instanceof List) {
+					List<Object> list = (List<Object>) retVal;
+					retVal = (idx < list.size() ? list.get(idx) : null);
+				} else
+					SpecCodec.mismatch("an array", retVal);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the list of tables, with each parent before its children
+	 */
+	public List<Table> getTables() {
+		return this.tables;
+	}
+
+	/**
+	 * @return the table with the specified name, or NULL if there is none
+	 *
+	 * @param name	name of the desired table (case-insensitive)
+	 */
+	public Table getTable(String name) {
+		return this.tableMap.get(name.toLowerCase());
+	}
+
+	/**
+	 * @return the SQL statements to create the tables, the indexes, and the metadata
+	 */
+	public List<String> toSql() {
+		List<String> retVal = new ArrayList<String>(this.tables.size() * 8);
+		for (Table table : this.tables)
+			retVal.addAll(table.toSql());
+		// Now the metadata tables.
+		retVal.add("CREATE TABLE " + DIAGRAM_TABLE + " (\n    table_name VARCHAR(64) NOT NULL PRIMARY KEY,\n"
+				+ "    rloc INTEGER NOT NULL,\n    cloc INTEGER NOT NULL,\n    description TEXT\n)");
+		retVal.add("CREATE TABLE " + FIELDS_TABLE + " (\n    table_name VARCHAR(64) NOT NULL,\n"
+				+ "    field_name VARCHAR(64) NOT NULL,\n    description TEXT,\n"
+				+ "    PRIMARY KEY (table_name, field_name)\n)");
+		for (Table table : this.tables) {
+			retVal.add("INSERT INTO " + DIAGRAM_TABLE + " (table_name, rloc, cloc, description) VALUES ("
+					+ quote(table.name) + ", " + table.row + ", " + table.col + ", " + quote(table.description) + ")");
+			for (Column column : table.columns)
+				retVal.add("INSERT INTO " + FIELDS_TABLE + " (table_name, field_name, description) VALUES ("
+						+ quote(table.name) + ", " + quote(column.name) + ", " + quote(column.description) + ")");
+		}
+		return retVal;
+	}
+
+	/**
+	 * Write the SQL script to create the tables, the indexes, and the metadata.
+	 *
+	 * @param writer	output writer for the script
+	 */
+	public void writeSql(PrintWriter writer) {
+		for (String statement : this.toSql()) {
+			writer.println(statement + ";");
+			writer.println();
+		}
+	}
+
+	/**
+	 * Convert a string to an SQL literal. Semicolons are replaced by commas, so that the statements
+	 * in a script can be split safely.
+	 *
+	 * @param text	string to convert
+	 *
+	 * @return the SQL literal for the string
+	 */
+	private static String quote(String text) {
+		return "'" + text.replace("'", "''").replace(';', ',') + "'";
+	}
+
+}
@@ -0,0 +1,518 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonException;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+import j2html.tags.ContainerTag;
+import static j2html.TagCreator.*;
+
+/**
+ * This object is an inverted index over the declarations in a module. The documents are the named types,
+ * the structure fields, and the functions. Each document is indexed under the words in its name and in its
+ * comments, with a weight that indicates where the word was found (name, or comment). A name is split into
+ * words at underscores and case changes, and the full name is indexed as well.
+ *
+ * The terms are kept in a sorted map, so a query word matches every term of which it is a prefix. A query
+ * with several words returns only the documents that match all of them. The results are ranked by the
+ * total match weight, and then by popularity, which for a type is the number of times it is referenced by
+ * other types plus the number of times it is used in functions. A field has the popularity of its
+ * structure.
+ *
+ * The index can be saved as a compact JSON object and loaded again without re-parsing the spec. The same
+ * JSON is embedded in the web page along with a small search box.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecSearchIndex {
+
+	// FIELDS
+	/** list of documents */
+	private final List<Document> docs;
+	/** map of terms to postings; each posting is a document index followed by a weight */
+	private final TreeMap<String, int[]> terms;
+	/** weight of a full-name match */
+	public static final int NAME_WEIGHT = 10;
+	/** weight of a match to a word in a name */
+	public static final int WORD_WEIGHT = 5;
+	/** weight of a match to a word in a comment */
+	public static final int COMMENT_WEIGHT = 1;
+	/** minimum length of a comment word worth indexing */
+	private static final int MIN_WORD = 3;
+	/** client-side search script */
+	private static final String SEARCH_SCRIPT = String.join("\n",
+			"var specIndex = null;",
+			"function specSearch(query) {",
+			"  if (specIndex == null) specIndex = JSON.parse(document.getElementById('spec-index').textContent);",
+			"  var words = query.toLowerCase().split(/[^a-z0-9]+/).filter(function(w) { return w.length > 0; });",
+			"  var out = document.getElementById('spec-search-results');",
+			"  out.innerHTML = '';",
+			"  if (words.length == 0) return;",
+			"  var scores = null;",
+			"  words.forEach(function(word) {",
+			"    var best = {};",
+			"    for (var term in specIndex.terms) {",
+			"      if (term.lastIndexOf(word, 0) == 0) {",
+			"        var p = specIndex.terms[term];",
+			"        for (var i = 0; i < p.length; i += 2) best[p[i]] = Math.max(best[p[i]] || 0, p[i + 1]);",
+			"      }",
+			"    }",
+			"    if (scores == null) scores = best;",
+			"    else for (var d in scores) scores[d] = (scores[d] && best[d] ? scores[d] + best[d] : 0);",
+			"  });",
+			"  var hits = Object.keys(scores).filter(function(d) { return scores[d] > 0; });",
+			"  hits.sort(function(a, b) {",
+			"    var da = specIndex.docs[a], db = specIndex.docs[b];",
+			"    return (scores[b] - scores[a]) || (db[3] - da[3]) || (da[1] < db[1] ? -1 : da[1] > db[1] ? 1 : 0);",
+			"  });",
+			"  hits.slice(0, 20).forEach(function(d) {",
+			"    var doc = specIndex.docs[d];",
+			"    var li = document.createElement('li');",
+			"    var a = document.createElement('a');",
+			"    a.href = '#' + doc[2];",
+			"    a.textContent = doc[1] + ' (' + doc[0] + ')';",
+			"    li.appendChild(a);",
+			"    out.appendChild(li);",
+			"  });",
+			"}");
+
+	/**
+	 * This object describes a searchable declaration.
+	 */
+	public static class Document {
+
+		/** kind of declaration ("type", "field", or "function") */
+		private String kind;
+		/** name of the declaration; for a field, this is "structure.field" */
+		private String name;
+		/** anchor of the declaration in the web page */
+		private String anchor;
+		/** popularity of the declaration */
+		private int popularity;
+
+		/**
+		 * Create a document descriptor.
+		 *
+		 * @param kind			kind of declaration
+		 * @param name			name of the declaration
+		 * @param anchor		anchor of the declaration in the web page
+		 * @param popularity	popularity of the declaration
+		 */
+		protected Document(String kind, String name, String anchor, int popularity) {
+			this.kind = kind;
+			this.name = name;
+			this.anchor = anchor;
+			this.popularity = popularity;
+		}
+
+		/**
+		 * @return the kind of declaration ("type", "field", or "function")
+		 */
+		public String getKind() {
+			return this.kind;
+		}
+
+		/**
+		 * @return the name of the declaration
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the anchor of the declaration in the web page
+		 */
+		public String getAnchor() {
+			return this.anchor;
+		}
+
+		/**
+		 * @return the popularity of the declaration
+		 */
+		public int getPopularity() {
+			return this.popularity;
+		}
+
+	}
+
+	/**
+	 * This object is a single search result.
+	 */
+	public static class Hit implements Comparable<Hit> {
+
+		/** document found */
+		private Document doc;
+		/** match score */
+		private int score;
+
+		/**
+		 * Create a search result.
+		 *
+		 * @param doc		document found
+		 * @param score		match score
+		 */
+		protected Hit(Document doc, int score) {
+			this.doc = doc;
+			this.score = score;
+		}
+
+		/**
+		 * @return the document found
+		 */
+		public Document getDoc() {
+			return this.doc;
+		}
+
+		/**
+		 * @return the match score
+		 */
+		public int getScore() {
+			return this.score;
+		}
+
+		/**
+		 * Hits are sorted from best to worst: highest score, then highest popularity, then by name.
+		 */
+		@Override
+		public int compareTo(Hit o) {
+			int retVal = o.score - this.score;
+			if (retVal == 0)
+				retVal = o.doc.popularity - this.doc.popularity;
+			if (retVal == 0)
+				retVal = this.doc.name.compareTo(o.doc.name);
+			return retVal;
+		}
+
+	}
+
+	/**
+	 * Build the search index for a module.
+	 *
+	 * @param module	module to index
+	 */
+	public SpecSearchIndex(ModuleNode module) {
+		this.docs = new ArrayList<Document>(module.getChildCount() * 2);
+		// During the build, the postings are kept as maps of document index to weight.
+		Map<String, Map<Integer, Integer>> buildMap = new HashMap<String, Map<Integer, Integer>>();
+		for (SpecNode child : module.getChildNodes()) {
+			if (child instanceof FuncNode) {
+				FuncNode func = (FuncNode) child;
+				int docIdx = this.addDoc("function", func.getName(), func.getId(), 0);
+				indexName(buildMap, docIdx, func.getName());
+				indexComments(buildMap, docIdx, func.getComments());
+				for (int i = 0; i < func.getChildCount(); i++)
+					indexComments(buildMap, docIdx, func.getChildComment(i));
+			} else if (child instanceof TypeNode && ! (child instanceof PrimitiveTypeNode)) {
+				TypeNode type = (TypeNode) child;
+				int popularity = type.getRefCount() + type.getUseCount();
+				int docIdx = this.addDoc("type", type.getName(), type.getId(), popularity);
+				indexName(buildMap, docIdx, type.getName());
+				this.indexType(buildMap, docIdx, type, type, popularity);
+			}
+		}
+		// Convert the postings to compact arrays.
+		this.terms = new TreeMap<String, int[]>();
+		for (Map.Entry<String, Map<Integer, Integer>> termEntry : buildMap.entrySet()) {
+			Map<Integer, Integer> postMap = termEntry.getValue();
+			int[] postings = new int[postMap.size() * 2];
+			int i = 0;
+			for (Map.Entry<Integer, Integer> post : postMap.entrySet()) {
+				postings[i++] = post.getKey();
+				postings[i++] = post.getValue();
+			}
+			this.terms.put(termEntry.getKey(), postings);
+		}
+	}
+
+	/**
+	 * Index the comments and fields of a type. Anonymous subtypes are part of the type, so their
+	 * comments and fields are indexed with it.
+	 *
+	 * @param buildMap		map of terms to postings under construction
+	 * @param docIdx		index of the type's document
+	 * @param named			named type being indexed
+	 * @param type			type or anonymous subtype whose contents are to be indexed
+	 * @param popularity	popularity of the named type
+	 */
+	private void indexType(Map<String, Map<Integer, Integer>> buildMap, int docIdx, TypeNode named, TypeNode type,
+			int popularity) {
+		indexComments(buildMap, docIdx, type.getComments());
+		final int n = type.getChildCount();
+		for (int i = 0; i < n; i++) {
+			SpecNode child = type.getChild(i);
+			if (child instanceof FieldNode) {
+				FieldNode field = (FieldNode) child;
+				String fieldName = field.getName();
+				int fieldIdx = this.addDoc("field", named.getName() + "." + fieldName, named.getId(), popularity);
+				indexName(buildMap, fieldIdx, fieldName);
+				indexComments(buildMap, fieldIdx, field.getComments());
+				if (field.getType().isAnonymous())
+					this.indexType(buildMap, docIdx, named, field.getType(), popularity);
+			} else {
+				indexComments(buildMap, docIdx, type.getChildComment(i));
+				TypeNode childType = (TypeNode) child;
+				if (childType.isAnonymous())
+					this.indexType(buildMap, docIdx, named, childType, popularity);
+			}
+		}
+	}
+
+	/**
+	 * Add a document to the index.
+	 *
+	 * @param kind			kind of declaration
+	 * @param name			name of the declaration
+	 * @param anchor		anchor of the declaration in the web page
+	 * @param popularity	popularity of the declaration
+	 *
+	 * @return the index of the new document
+	 */
+	private int addDoc(String kind, String name, String anchor, int popularity) {
+		int retVal = this.docs.size();
+		this.docs.add(new Document(kind, name, anchor, popularity));
+		return retVal;
+	}
+
+	/**
+	 * Record a term occurrence. If the term already occurs in the document, the higher weight is kept.
+	 *
+	 * @param buildMap	map of terms to postings under construction
+	 * @param term		term to record
+	 * @param docIdx	index of the document containing the term
+	 * @param weight	weight of the occurrence
+	 */
+	private static void post(Map<String, Map<Integer, Integer>> buildMap, String term, int docIdx, int weight) {
+		Map<Integer, Integer> postMap = buildMap.computeIfAbsent(term, x -> new TreeMap<Integer, Integer>());
+		postMap.merge(docIdx, weight, Math::max);
+	}
+
+	/**
+	 * Index a declaration name.
+	 *
+	 * @param buildMap	map of terms to postings under construction
+	 * @param docIdx	index of the document containing the name
+	 * @param name		name to index
+	 */
+	private static void indexName(Map<String, Map<Integer, Integer>> buildMap, int docIdx, String name) {
+		post(buildMap, name.toLowerCase(), docIdx, NAME_WEIGHT);
+		for (String word : splitName(name))
+			post(buildMap, word, docIdx, WORD_WEIGHT);
+	}
+
+	/**
+	 * Index a list of comments.
+	 *
+	 * @param buildMap	map of terms to postings under construction
+	 * @param docIdx	index of the document containing the comments
+	 * @param comments	comments to index
+	 */
+	private static void indexComments(Map<String, Map<Integer, Integer>> buildMap, int docIdx,
+			Collection<String> comments) {
+		for (String comment : comments) {
+			for (String word : splitText(comment)) {
+				if (word.length() >= MIN_WORD)
+					post(buildMap, word, docIdx, COMMENT_WEIGHT);
+			}
+		}
+	}
+
+	/**
+	 * @return the lower-case words in a declaration name, split at underscores, digits, and case changes
+	 *
+	 * @param name	name to split
+	 */
+	public static List<String> splitName(String name) {
+		List<String> retVal = new ArrayList<String>(4);
+		StringBuilder word = new StringBuilder(name.length());
+		char prev = ' ';
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			if (! Character.isLetter(ch)) {
+				flushWord(retVal, word);
+			} else {
+				if (Character.isUpperCase(ch) && Character.isLowerCase(prev))
+					flushWord(retVal, word);
+				word.append(Character.toLowerCase(ch));
+			}
+			prev = ch;
+		}
+		flushWord(retVal, word);
+		return retVal;
+	}
+
+	/**
+	 * @return the lower-case words in a comment
+	 *
+	 * @param text	comment text to split
+	 */
+	public static List<String> splitText(String text) {
+		List<String> retVal = new ArrayList<String>();
+		StringBuilder word = new StringBuilder(20);
+		for (int i = 0; i < text.length(); i++) {
+			char ch = text.charAt(i);
+			if (Character.isLetterOrDigit(ch))
+				word.append(Character.toLowerCase(ch));
+			else
+				flushWord(retVal, word);
+		}
+		flushWord(retVal, word);
+		return retVal;
+	}
+
+	/**
+	 * Add the word in a buffer to a list and clear the buffer.
+	 *
+	 * @param words		list of words
+	 * @param word		buffer containing the current word (may be empty)
+	 */
+	private static void flushWord(List<String> words, StringBuilder word) {
+		if (word.length() > 0) {
+			words.add(word.toString());
+			word.setLength(0);
+		}
+	}
+
+	/**
+	 * Search the index.
+	 *
+	 * @param query		query string; each word in the query must be a prefix of a term in the document
+	 * @param max		maximum number of results to return
+	 *
+	 * @return the best matches, from best to worst
+	 */
+	public List<Hit> search(String query, int max) {
+		List<String> words = splitText(query);
+		int[] scores = null;
+		for (String word : words) {
+			// Compute the best weight for this prefix in each document.
+			int[] wordScores = new int[this.docs.size()];
+			SortedMap<String, int[]> matches = this.terms.subMap(word, word + Character.MAX_VALUE);
+			for (int[] postings : matches.values()) {
+				for (int i = 0; i < postings.length; i += 2) {
+					int doc = postings[i];
+					wordScores[doc] = Math.max(wordScores[doc], postings[i + 1]);
+				}
+			}
+			// Combine it with the other words. A document must match all of them.
+			if (scores == null)
+				scores = wordScores;
+			else {
+				for (int doc = 0; doc < scores.length; doc++)
+					scores[doc] = (scores[doc] == 0 || wordScores[doc] == 0 ? 0 : scores[doc] + wordScores[doc]);
+			}
+		}
+		List<Hit> retVal = new ArrayList<Hit>();
+		if (scores != null) {
+			for (int doc = 0; doc < scores.length; doc++) {
+				if (scores[doc] > 0)
+					retVal.add(new Hit(this.docs.get(doc), scores[doc]));
+			}
+			retVal.sort(null);
+			if (retVal.size() > max)
+				retVal = new ArrayList<Hit>(retVal.subList(0, max));
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the number of documents in the index
+	 */
+	public int size() {
+		return this.docs.size();
+	}
+
+	/**
+	 * @return the number of terms in the index
+	 */
+	public int getTermCount() {
+		return this.terms.size();
+	}
+
+	/**
+	 * @return the index as a compact JSON string
+	 *
+	 * The JSON object has two members. "docs" is a list of documents, each of which is a list containing
+	 * the kind, name, anchor, and popularity. "terms" maps each term to a flat list of postings, each of
+	 * which is a document index followed by a weight.
+	 */
+	public String toJson() {
+		JsonArray docList = new JsonArray();
+		for (Document doc : this.docs)
+			docList.add(Arrays.asList(doc.kind, doc.name, doc.anchor, doc.popularity));
+		JsonObject termMap = new JsonObject();
+		for (Map.Entry<String, int[]> termEntry : this.terms.entrySet())
+			termMap.put(termEntry.getKey(), termEntry.getValue());
+		JsonObject retVal = new JsonObject();
+		retVal.put("docs", docList);
+		retVal.put("terms", termMap);
+		return Jsoner.serialize(retVal);
+	}
+
+	/**
+	 * Load a search index from its JSON form.
+	 *
+	 * @param reader	reader for the JSON string
+	 *
+	 * @throws IOException
+	 */
+	public SpecSearchIndex(Reader reader) throws IOException {
+		JsonObject json;
+		try {
+			json = (JsonObject) Jsoner.deserialize(reader);
+		} catch (JsonException | ClassCastException e) {
+			throw new IOException("Invalid search index: " + e.getMessage());
+		}
+		JsonArray docList = (JsonArray) json.get("docs");
+		this.docs = new ArrayList<Document>(docList.size());
+		for (Object docObject : docList) {
+			JsonArray docArray = (JsonArray) docObject;
+			this.docs.add(new Document(docArray.getString(0), docArray.getString(1), docArray.getString(2),
+					docArray.getInteger(3)));
+		}
+		JsonObject termMap = (JsonObject) json.get("terms");
+		this.terms = new TreeMap<String, int[]>();
+		for (Map.Entry<String, Object> termEntry : termMap.entrySet()) {
+			JsonArray postList = (JsonArray) termEntry.getValue();
+			int[] postings = new int[postList.size()];
+			for (int i = 0; i < postings.length; i++)
+				postings[i] = ((BigDecimal) postList.get(i)).intValue();
+			this.terms.put(termEntry.getKey(), postings);
+		}
+	}
+
+	/**
+	 * @return the HTML for a search box that uses this index
+	 *
+	 * The index is embedded in the page as a JSON data block. The script performs the same prefix
+	 * search and ranking as the search method.
+	 */
+	public ContainerTag toHtml() {
+		// A "</" in the data would end the script block, so we escape the slash.
+		String json = this.toJson().replace("</", "<\\/");
+		ContainerTag retVal = div(
+				input().withType("search").withId("spec-search").attr("placeholder", "Search types, fields, and functions")
+						.attr("oninput", "specSearch(this.value)"),
+				ol().withId("spec-search-results"),
+				script().withType("application/json").withId("spec-index").with(rawHtml(json)),
+				script().with(rawHtml(SEARCH_SCRIPT))).withClass("search");
+		return retVal;
+	}
+
+}
@@ -0,0 +1,282 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This object breaks JSON documents of a root type into rows for the tables of a spec schema (see
+ * SpecSchema). The walk is driven by the schema, which was compiled from the type, so only the fields
+ * the type defines are examined, and each value is checked against the type of its column. Each element
+ * of a list or entry of a mapping becomes a row in a child table.
+ *
+ * The rows for a document are keyed locally: the key of each row is its position among the document's
+ * rows for the same table, and the link column contains the local key of the parent row. Because the
+ * documents can be shredded in parallel, the keys are made global afterward, in document order, by
+ * adding an offset for each table (see Rows.assignKeys).
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecShredder {
+
+	// FIELDS
+	/** tables for the root type, with each parent before its children */
+	private List<SpecSchema.Table> tables;
+	/** map of tables to their indices in the table list */
+	private Map<SpecSchema.Table, Integer> indexMap;
+	/** index of each table's parent, or -1 for the root table */
+	private int[] parents;
+
+	/**
+	 * This object contains the rows produced from a single document. Each row is an array of column
+	 * values in the order of the table's columns.
+	 */
+	public static class Rows {
+
+		/** list of rows for each table */
+		private List<List<Object[]>> tableRows;
+		/** index of each table's parent, or -1 for the root table */
+		private int[] parents;
+		/** total number of rows */
+		private int count;
+
+		/**
+		 * Create an empty row set.
+		 *
+		 * @param parents	index of each table's parent, or -1 for the root table
+		 */
+		private Rows(int[] parents) {
+			this.parents = parents;
+			this.tableRows = new ArrayList<List<Object[]>>(parents.length);
+			for (int i = 0; i < parents.length; i++)
+				this.tableRows.add(new ArrayList<Object[]>());
+			this.count = 0;
+		}
+
+		/**
+		 * Add a row to a table.
+		 *
+		 * @param idx	index of the table
+		 * @param row	row to add
+		 */
+		private void add(int idx, Object[] row) {
+			this.tableRows.get(idx).add(row);
+			this.count++;
+		}
+
+		/**
+		 * @return the rows for a table
+		 *
+		 * @param idx	index of the table
+		 */
+		public List<Object[]> get(int idx) {
+			return this.tableRows.get(idx);
+		}
+
+		/**
+		 * @return the total number of rows
+		 */
+		public int size() {
+			return this.count;
+		}
+
+		/**
+		 * Convert the local keys to global keys. The key column of each row and the link column of each
+		 * child row are offset by the next available key of the appropriate table, and the next
+		 * available keys are then advanced past the rows.
+		 *
+		 * @param nextKeys	array of the next available key for each table; this is updated
+		 */
+		public void assignKeys(long[] nextKeys) {
+			final int n = this.parents.length;
+			for (int i = 0; i < n; i++) {
+				final long offset = nextKeys[i];
+				final int parent = this.parents[i];
+				final long parentOffset = (parent < 0 ? 0 : nextKeys[parent]);
+				for (Object[] row : this.tableRows.get(i)) {
+					row[0] = (Long) row[0] + offset;
+					if (parent >= 0)
+						row[1] = (Long) row[1] + parentOffset;
+				}
+			}
+			// The parents were processed before the children, so we can only advance the keys now.
+			for (int i = 0; i < n; i++)
+				nextKeys[i] += this.tableRows.get(i).size();
+		}
+
+	}
+
+	/**
+	 * Construct a shredder for documents of a root type.
+	 *
+	 * @param schema	schema containing the tables
+	 * @param rootName	name of the root table
+	 */
+	public SpecShredder(SpecSchema schema, String rootName) {
+		SpecSchema.Table root = schema.getTable(rootName);
+		if (root == null || root.getKind() != SpecSchema.Kind.ROOT)
+			throw new IllegalArgumentException("Schema has no root table named " + rootName + ".");
+		// Collect the root table and its descendants. Since the schema lists each parent before its
+		// children, a table is in the subtree if its parent already is.
+		this.tables = new ArrayList<SpecSchema.Table>();
+		this.indexMap = new IdentityHashMap<SpecSchema.Table, Integer>();
+		List<Integer> parentList = new ArrayList<Integer>();
+		for (SpecSchema.Table table : schema.getTables()) {
+			Integer parentIdx = (table.getParent() == null ? null : this.indexMap.get(table.getParent()));
+			if (table == root || parentIdx != null) {
+				this.indexMap.put(table, this.tables.size());
+				this.tables.add(table);
+				parentList.add(parentIdx == null ? -1 : parentIdx);
+			}
+		}
+		this.parents = parentList.stream().mapToInt(x -> x).toArray();
+	}
+
+	/**
+	 * Break a document into rows.
+	 *
+	 * @param document	document to shred; it must be a JSON object
+	 *
+	 * @return the rows for the document
+	 */
+	public Rows shred(Object document) {
+		if (! (document instanceof Map))
+			SpecCodec.mismatch("an object", document);
+		Rows retVal = new Rows(this.parents);
+		this.addRow(retVal, 0, document, 0, null);
+		return retVal;
+	}
+
+	/**
+	 * Add the row for a value to a table, then add the rows for its lists and mappings to the child
+	 * tables.
+	 *
+	 * @param rows			row set to receive the rows
+	 * @param idx			index of the table
+	 * @param value			value for the row
+	 * @param parentKey		local key of the parent row
+	 * @param position		list position or mapping key for the row
+	 */
+	@SuppressWarnings("unchecked")
+	private void addRow(Rows rows, int idx, Object value, long parentKey, Object position) {
+		SpecSchema.Table table = this.tables.get(idx);
+		List<SpecSchema.Column> columns = table.getColumns();
+		final int n = columns.size();
+		Object[] row = new Object[n];
+		long key = rows.get(idx).size();
+		for (int i = 0; i < n; i++) {
+			SpecSchema.Column column = columns.get(i);
+			switch (column.getRole()) {
+			case KEY :
+				row[i] = key;
+				break;
+			case LINK :
+				row[i] = parentKey;
+				break;
+			case POSITION :
+			case MAP_KEY :
+				row[i] = position;
+				break;
+			case DATA :
+				row[i] = convert(column, SpecSchema.follow(value, column.getPath()));
+			}
+		}
+		rows.add(idx, row);
+		// Now process the child tables.
+		for (SpecSchema.Table child : table.getChildren()) {
+			int childIdx = this.indexMap.get(child);
+			Object container = SpecSchema.follow(value, child.getPath());
+			if (container != null) {
+				if (child.getKind() == SpecSchema.Kind.LIST) {
+					if (! (container instanceof List))
+						SpecCodec.mismatch("an array for " + child.getName(), container);
+					List<Object> list = (List<Object>) container;
+					final int m = list.size();
+					for (int i = 0; i < m; i++)
+						this.addRow(rows, childIdx, list.get(i), key, (long) i);
+				} else {
+					if (! (container instanceof Map))
+						SpecCodec.mismatch("an object for " + child.getName(), container);
+					SpecSchema.Column keyColumn = child.getColumns().get(2);
+					for (Map.Entry<String, Object> entry : ((Map<String, Object>) container).entrySet())
+						this.addRow(rows, childIdx, entry.getValue(), key, convertKey(keyColumn, entry.getKey()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Convert a JSON value to the form for a column.
+	 *
+	 * @param column	target column
+	 * @param value		value to convert
+	 *
+	 * @return a Long, Double, or String, or NULL if the value is missing
+	 */
+	private static Object convert(SpecSchema.Column column, Object value) {
+		Object retVal = null;
+		if (value != null) {
+			switch (column.getSqlType()) {
+			case "INTEGER" :
+				if (value instanceof BigDecimal) {
+					try {
+						retVal = ((BigDecimal) value).longValueExact();
+					} catch (ArithmeticException e) {
+						SpecCodec.mismatch("an integer for " + column.getName(), value);
+					}
+				} else if (value instanceof Number)
+					retVal = ((Number) value).longValue();
+				else
+					SpecCodec.mismatch("an integer for " + column.getName(), value);
+				break;
+			case "DOUBLE" :
+				if (! (value instanceof Number))
+					SpecCodec.mismatch("a number for " + column.getName(), value);
+				retVal = ((Number) value).doubleValue();
+				break;
+			default :
+				if (! (value instanceof String))
+					SpecCodec.mismatch("a string for " + column.getName(), value);
+				retVal = value;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Convert a mapping key to the form for its column.
+	 *
+	 * @param column	mapping key column
+	 * @param key		key string from the JSON object
+	 *
+	 * @return a Long, Double, or String
+	 */
+	private static Object convertKey(SpecSchema.Column column, String key) {
+		Object retVal;
+		switch (column.getSqlType()) {
+		case "INTEGER" :
+			retVal = Long.valueOf(key);
+			break;
+		case "DOUBLE" :
+			retVal = Double.valueOf(key);
+			break;
+		default :
+			retVal = key;
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the tables for the root type, with each parent before its children
+	 */
+	public List<SpecSchema.Table> getTables() {
+		return this.tables;
+	}
+
+}
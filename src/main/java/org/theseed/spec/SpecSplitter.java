@@ -0,0 +1,274 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This object scans a specification held in memory to find the boundaries between the top-level
+ * declarations, so that the declarations can be parsed in parallel. The scan understands only comments
+ * and braces: a declaration ends at a semicolon outside of any comment that is directly inside the module
+ * braces. This is enough, because semicolons cannot appear anywhere else.
+ *
+ * The results are a list of chunks, each containing the text of a run of whole declarations, and a
+ * skeleton, which is the original text with the declarations blanked out. The skeleton contains the
+ * module header, the comments after the last declaration, and the closing brace. Blanking preserves the
+ * line and column numbers, so errors are reported at the same place they would be in a serial parse.
+ *
+ * If the scan does not find the module braces, or there is anything other than comments between the last
+ * declaration and the closing brace, the specification cannot be split, and it should be parsed
+ * serially so that the error is reported in the usual way.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpecSplitter {
+
+	// FIELDS
+	/** input lines */
+	private List<String> lines;
+	/** position after the module's opening brace, or NULL if it was not found */
+	private Mark open;
+	/** positions after the semicolons ending the declarations */
+	private List<Mark> ends;
+	/** TRUE if the specification can be split */
+	private boolean splittable;
+
+	/**
+	 * This object represents a position in the input.
+	 */
+	private static class Mark {
+
+		/** line index (0-based) */
+		private int line;
+		/** column index */
+		private int col;
+
+		/**
+		 * Create a new position.
+		 *
+		 * @param line		line index (0-based)
+		 * @param col		column index
+		 */
+		protected Mark(int line, int col) {
+			this.line = line;
+			this.col = col;
+		}
+
+	}
+
+	/**
+	 * This object represents a chunk of whole declarations.
+	 */
+	public static class Chunk {
+
+		/** line number of the first line */
+		private int lineNum;
+		/** lines of the chunk */
+		private List<String> lines;
+		/** number of declarations */
+		private int size;
+
+		/**
+		 * Create a new chunk.
+		 *
+		 * @param lineNum	line number of the first line
+		 * @param lines		lines of the chunk
+		 * @param size		number of declarations
+		 */
+		protected Chunk(int lineNum, List<String> lines, int size) {
+			this.lineNum = lineNum;
+			this.lines = lines;
+			this.size = size;
+		}
+
+		/**
+		 * @return the line number of the first line
+		 */
+		public int getLineNum() {
+			return this.lineNum;
+		}
+
+		/**
+		 * @return the lines of the chunk
+		 */
+		public List<String> getLines() {
+			return this.lines;
+		}
+
+		/**
+		 * @return the number of declarations in the chunk
+		 */
+		public int size() {
+			return this.size;
+		}
+
+	}
+
+	/**
+	 * Scan a specification for declaration boundaries.
+	 *
+	 * @param lines		lines of the specification
+	 */
+	public SpecSplitter(List<String> lines) {
+		this.lines = lines;
+		this.open = null;
+		this.ends = new ArrayList<Mark>();
+		this.splittable = false;
+		// This will be set to FALSE if we find something other than comments after the last declaration.
+		boolean tailClean = true;
+		boolean inComment = false;
+		int depth = 0;
+		final int n = lines.size();
+		for (int i = 0; i < n && ! this.splittable; i++) {
+			String line = lines.get(i);
+			final int len = line.length();
+			int c = 0;
+			while (c < len && ! this.splittable) {
+				if (inComment) {
+					// Skip to the end of the comment.
+					int end = line.indexOf("*/", c);
+					if (end < 0)
+						c = len;
+					else {
+						inComment = false;
+						c = end + 2;
+					}
+				} else {
+					char ch = line.charAt(c);
+					if (ch == '/' && c + 1 < len && line.charAt(c + 1) == '*') {
+						inComment = true;
+						c += 2;
+					} else {
+						switch (ch) {
+						case '{' :
+							depth++;
+							if (this.open == null)
+								this.open = new Mark(i, c + 1);
+							else
+								tailClean = false;
+							break;
+						case '}' :
+							depth--;
+							if (depth == 0)
+								this.splittable = (this.open != null && tailClean && ! this.ends.isEmpty());
+							else
+								tailClean = false;
+							break;
+						case ';' :
+							if (depth == 1) {
+								this.ends.add(new Mark(i, c + 1));
+								tailClean = true;
+							} else
+								tailClean = false;
+							break;
+						default :
+							if (depth > 0 && ! Character.isWhitespace(ch))
+								tailClean = false;
+						}
+						c++;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return TRUE if the specification can be split
+	 */
+	public boolean isSplittable() {
+		return this.splittable;
+	}
+
+	/**
+	 * @return the number of declarations found
+	 */
+	public int size() {
+		return this.ends.size();
+	}
+
+	/**
+	 * Divide the declarations into chunks of roughly equal size.
+	 *
+	 * @param count		desired number of chunks
+	 *
+	 * @return a list of chunks containing all the declarations, in order
+	 */
+	public List<Chunk> getChunks(int count) {
+		final int n = this.ends.size();
+		if (count > n)
+			count = n;
+		List<Chunk> retVal = new ArrayList<Chunk>(count);
+		if (this.splittable) {
+			Mark start = this.open;
+			int done = 0;
+			for (int i = 1; i <= count; i++) {
+				// Compute the number of declarations through the end of this chunk.
+				int through = (int) ((long) n * i / count);
+				Mark end = this.ends.get(through - 1);
+				retVal.add(new Chunk(start.line + 1, this.extract(start, end), through - done));
+				start = end;
+				done = through;
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Extract the text between two positions.
+	 *
+	 * @param start		starting position
+	 * @param end		position after the end
+	 *
+	 * @return the lines containing the text, with the text outside the positions blanked
+	 */
+	private List<String> extract(Mark start, Mark end) {
+		List<String> retVal = new ArrayList<String>(this.lines.subList(start.line, end.line + 1));
+		final int last = retVal.size() - 1;
+		retVal.set(last, retVal.get(last).substring(0, end.col));
+		retVal.set(0, blank(retVal.get(0), 0, start.col));
+		return retVal;
+	}
+
+	/**
+	 * @return the specification with the declarations blanked out
+	 */
+	public List<String> getSkeleton() {
+		List<String> retVal = new ArrayList<String>(this.lines);
+		if (this.splittable) {
+			Mark end = this.ends.getLast();
+			if (this.open.line == end.line)
+				retVal.set(end.line, blank(retVal.get(end.line), this.open.col, end.col));
+			else {
+				String first = retVal.get(this.open.line);
+				retVal.set(this.open.line, blank(first, this.open.col, first.length()));
+				for (int i = this.open.line + 1; i < end.line; i++)
+					retVal.set(i, "");
+				retVal.set(end.line, blank(retVal.get(end.line), 0, end.col));
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Blank out part of a line. Tabs are kept, so that the remaining text has the same columns after the
+	 * tabs are expanded.
+	 *
+	 * @param line		line to modify
+	 * @param from		index of first character to blank
+	 * @param to		index after the last character to blank
+	 *
+	 * @return the modified line
+	 */
+	private static String blank(String line, int from, int to) {
+		StringBuilder retVal = new StringBuilder(line);
+		for (int i = from; i < to; i++) {
+			if (retVal.charAt(i) != '\t')
+				retVal.setCharAt(i, ' ');
+		}
+		return retVal.toString();
+	}
+
+}
@@ -10,6 +10,8 @@ import java.util.NoSuchElementException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.io.LineReader;
+import org.theseed.metrics.Counter;
+import org.theseed.metrics.MetricsRegistry;
 
 /**
  * This object presents an input stream as a sequence of specification tokens. It takes a line
@@ -26,15 +28,29 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 
 	// FIELDS
 	/** current input stream */
-	private LineReader inStream;
+	private Iterator<String> inStream;
 	/** current line number */
 	private int lineNum;
 	/** current line buffer */
 	private String currentLine;
 	/** position of next character in line buffer */
 	private int pos;
+	/** number of tokens produced */
+	private int tokenCount;
+	/** number of characters read */
+	private long charCount;
+	/** flight recorder event for this file, or NULL if it has been ended */
+	private TokenizeEvent event;
 	/** tab width */
 	protected static String TAB_STRING = StringUtils.repeat(' ', 8);
+	/** counter for tokens produced */
+	private static final Counter TOKEN_COUNT = MetricsRegistry.global().counter("spec.tokens");
+	/** counter for comment tokens produced */
+	private static final Counter COMMENT_COUNT = MetricsRegistry.global().counter("spec.comments");
+	/** counter for lines read */
+	private static final Counter LINE_COUNT = MetricsRegistry.global().counter("spec.lines");
+	/** counter for characters read (including line ends) */
+	private static final Counter CHAR_COUNT = MetricsRegistry.global().counter("spec.chars");
 
 	/**
 	 * This object represents a comment line during comment parsing.
@@ -102,19 +118,40 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 	 * @param reader	line reader for the input file
 	 */
 	public SpecTokenizer(LineReader reader) {
-		this.inStream = reader;
+		this(reader, 1);
+	}
+
+	/**
+	 * Construct a spec tokenizer for a sequence of lines taken from the middle of a file. The line
+	 * numbers reported in errors will be relative to the start of the whole file.
+	 *
+	 * @param lines		iterator through the input lines
+	 * @param lineNum	line number of the first line
+	 */
+	public SpecTokenizer(Iterator<String> lines, int lineNum) {
+		this.inStream = lines;
+		this.tokenCount = 0;
+		this.charCount = 0;
+		this.event = new TokenizeEvent();
+		this.event.begin();
 		// We need to position on the first token.
 		if (! inStream.hasNext()) {
 			// The input file is empty. Set up a dummy buffer.
 			this.currentLine = "";
 			this.pos = 0;
-			this.lineNum = 1;
+			this.lineNum = lineNum;
 		} else {
 			// Here we have data in the input file. Prime the buffer with the first line and
-			// eat the starting whitespace.
-			this.currentLine = reader.next();
+			// eat the starting whitespace. A line from the middle of a file gets its tabs fixed
+			// as it would if we had read the whole file.
+			this.currentLine = lines.next();
 			this.pos = 0;
-			this.lineNum = 1;
+			this.lineNum = lineNum;
+			LINE_COUNT.increment();
+			this.charCount = this.currentLine.length() + 1;
+			CHAR_COUNT.add(this.charCount);
+			if (lineNum > 1)
+				this.currentLine = StringUtils.replace(this.currentLine, "\t", TAB_STRING);
 			this.skipWhite();
 		}
 	}
@@ -181,9 +218,10 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 	 */
 	private boolean getNextLine() {
 		boolean retVal;
-		if (! this.inStream.hasNext())
+		if (! this.inStream.hasNext()) {
 			retVal = false;
-		else {
+			this.endEvent();
+		} else {
 			this.readNextLine();
 			retVal = true;
 		}
@@ -196,6 +234,9 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 	private void readNextLine() {
 		String buffer = inStream.next();
 		this.lineNum++;
+		LINE_COUNT.increment();
+		this.charCount += buffer.length() + 1;
+		CHAR_COUNT.add(buffer.length() + 1);
 		this.pos = 0;
 		// Fix the tabs.
 		this.currentLine = StringUtils.replace(buffer, "\t", TAB_STRING);
@@ -210,7 +251,27 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 	public boolean hasNext() {
 		// Because of the whitespace policy, if we are at the end of a line,
 		// we are also at the end of the file.
-		return ! this.eol();
+		boolean retVal = ! this.eol();
+		if (! retVal)
+			this.endEvent();
+		return retVal;
+	}
+
+	/**
+	 * End the flight recorder event for this file. This is done when the input runs out or the
+	 * client is finished parsing, whichever comes first.
+	 */
+	public void endEvent() {
+		if (this.event != null) {
+			this.event.end();
+			if (this.event.shouldCommit()) {
+				this.event.lines = this.lineNum;
+				this.event.characters = this.charCount;
+				this.event.tokens = this.tokenCount;
+				this.event.commit();
+			}
+			this.event = null;
+		}
 	}
 
 	@Override
@@ -229,6 +290,8 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 			retVal = this.checkDelim(ch);
 		// Push past any whitespace at the current position.
 		this.skipWhite();
+		TOKEN_COUNT.increment();
+		this.tokenCount++;
 		// Return the token itself.
 		return retVal;
 	}
@@ -236,7 +299,8 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 	/**
 	 * Create a token for the word at the current position. We consume everything up to the
 	 * first delimiter. The delimiter can be whitespace or anything other than a letter,
-	 * digit, or underscore.
+	 * digit, or underscore. A period followed by a letter or underscore is also part of
+	 * the word, so that qualified names such as "Module.type" come back as a single token.
 	 *
 	 * @param ch	character at the current position
 	 *
@@ -246,7 +310,7 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 		// Save the starting location.
 		int pos0 = this.pos;
 		// Push through all the identifier characters.
-		while (ch == '_' || Character.isLetterOrDigit(ch)) {
+		while (ch == '_' || Character.isLetterOrDigit(ch) || ch == '.' && this.qualifierFollows()) {
 			this.pos++;
 			ch = this.curr();
 		}
@@ -262,6 +326,19 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 		return retVal;
 	}
 
+	/**
+	 * @return TRUE if the character after the current position can start a name
+	 */
+	private boolean qualifierFollows() {
+		final int next = this.pos + 1;
+		boolean retVal = false;
+		if (next < this.currentLine.length()) {
+			char ch = this.currentLine.charAt(next);
+			retVal = (ch == '_' || Character.isLetter(ch));
+		}
+		return retVal;
+	}
+
 	/**
 	 * @return TRUE if the character is a valid word delimiter, else FALSE
 	 *
@@ -333,6 +410,7 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 		}
 		// Skip past leading white space.
 		this.skipLeadingWhite();
+		COMMENT_COUNT.increment();
 		// Now we must assemble the comment. We first remove leading and trailing blank lines.
 		while (! lines.isEmpty() && lines.getLast().isEmpty())
 			lines.removeLast();
@@ -407,6 +485,20 @@ public class SpecTokenizer implements Iterator<SpecToken>, Iterable<SpecToken> {
 		throw new SpecParsingException(this.lineNum, this.pos, msg);
 	}
 
+	/**
+	 * @return the current line number in the input file
+	 */
+	public int getLineNum() {
+		return this.lineNum;
+	}
+
+	/**
+	 * @return the current position in the current line
+	 */
+	public int getPos() {
+		return this.pos;
+	}
+
 	/**
 	 * @return the current location in the input file
 	 */
@@ -5,7 +5,6 @@ package org.theseed.spec;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import j2html.tags.ContainerTag;
 import static j2html.TagCreator.*;
@@ -22,11 +21,11 @@ public class StructureTypeNode extends TypeNode {
 	/**
 	 * Construct a structure type declaration and consume its tokens.
 	 *
-	 * @param typeMap		map of previously-defined types
+	 * @param definitions	definition parser for resolving type names
 	 * @param specParser	controlling specification parser
 	 * @param comments		output list for comments
 	 */
-	public StructureTypeNode(Map<String, TypeNode> typeMap, SpecParser specParser, List<String> comments) {
+	public StructureTypeNode(DefinitionParser definitions, SpecParser specParser, List<String> comments) {
 		// Get the open-brace delimiter.
 		SpecToken token = specParser.nextToken();
 		if (! token.isDelim("{"))
@@ -39,7 +38,7 @@ public class StructureTypeNode extends TypeNode {
 		while (! token.isDelim("}")) {
 			// Create a comment list for this field. We initialize it with the preceding comments.
 			List<String> fieldComments = new ArrayList<String>(specParser.pullComments());
-			TypeNode type = TypeNode.parse(token, typeMap, specParser, fieldComments);
+			TypeNode type = TypeNode.parse(token, definitions, specParser, fieldComments);
 			// Now we need the field name.
 			token = specParser.nextToken();
 			if (! token.isWord())
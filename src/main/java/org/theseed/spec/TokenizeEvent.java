@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This is a flight recorder event for tokenizing a specification file. The event begins when the
+ * tokenizer is created and ends when the input is exhausted or the module is complete, so it includes
+ * the time spent parsing the tokens as they are produced.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@Name("org.theseed.spec.Tokenize")
+@Label("Spec Tokenize")
+@Category({ "ERDB Utilities", "Spec" })
+@Description("Tokenizing of a specification file")
+class TokenizeEvent extends jdk.jfr.Event {
+
+	@Label("Lines")
+	int lines;
+
+	@Label("Characters")
+	@Description("Number of Java characters read, which is not a byte count for non-ASCII input")
+	long characters;
+
+	@Label("Tokens")
+	int tokens;
+
+}
@@ -5,7 +5,6 @@ package org.theseed.spec;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import j2html.tags.ContainerTag;
 import static j2html.TagCreator.*;
 
@@ -21,12 +20,12 @@ public class TupleTypeNode extends TypeNode {
 	/**
 	 * Construct a tuple type and consume its tokens.
 	 *
-	 * @param typeMap		map of currently-existing types
+	 * @param definitions	definition parser for resolving type names
 	 * @param specParser	controlling specification parser
 	 * @param comments		comment buffer for comments relating to this type instance
 	 */
-	public TupleTypeNode(Map<String, TypeNode> typeMap, SpecParser specParser, List<String> comments) {
-		TypeNode.parseTypeList(this, "<", ">", typeMap, specParser, comments);
+	public TupleTypeNode(DefinitionParser definitions, SpecParser specParser, List<String> comments) {
+		TypeNode.parseTypeList(this, "<", ">", definitions, specParser, comments);
 	}
 
 	@Override
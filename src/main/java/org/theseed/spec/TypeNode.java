@@ -3,9 +3,11 @@
  */
 package org.theseed.spec;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 import j2html.tags.ContainerTag;
@@ -29,8 +31,14 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 	private int refCount;
 	/** number of times used in a function */
 	private int useCount;
-	/** index number for next type identifier */
-	private static int nextNum = 0;
+	/** index number for the last type identifier; this is shared by all threads */
+	private static final AtomicInteger nextNum = new AtomicInteger();
+	/** cached list of child types, or NULL if it must be rebuilt */
+	private List<TypeNode> childTypes;
+	/** cached list of members, or NULL if it must be rebuilt */
+	private List<MemberNode> members;
+	/** list of the declarations that use this type */
+	private List<TypeUse> users;
 
 	/**
 	 * Construct an anonymous type node.
@@ -39,9 +47,9 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 		this.typeName = null;
 		this.refCount = 0;
 		this.useCount = 0;
+		this.users = Collections.emptyList();
 		// Compute the unique type ID.
-		nextNum++;
-		this.typeID = String.format("type%06d", nextNum);
+		this.typeID = String.format("type%06d", nextNum.incrementAndGet());
 	}
 
 	/**
@@ -74,6 +82,17 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 		return this.typeName == null;
 	}
 
+	/**
+	 * @return the type this type stands for, following aliases and imports to the underlying definition
+	 */
+	public TypeNode getBaseType() {
+		TypeNode retVal = this;
+		while (retVal instanceof AliasTypeNode || retVal instanceof ImportTypeNode)
+			retVal = (retVal instanceof AliasTypeNode ? ((AliasTypeNode) retVal).getActualType()
+					: ((ImportTypeNode) retVal).getTarget());
+		return retVal;
+	}
+
 	/**
 	 * @return TRUE if this is a complex type
 	 */
@@ -87,19 +106,19 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 	 * end, we will be in front of whatever token follows (a type name, field name, or
 	 * delimiter, depending on context).
 	 *
-	 * @param typeMap		map of type names to currently-available types
+	 * @param definitions	definition parser for resolving type names
 	 * @param specParser	controlling specification parser
 	 * @param comments		output list for comments
 	 *
 	 * @return a definition node for the type found
 	 */
-	public static TypeNode parse(Map<String, TypeNode> typeMap, SpecParser specParser, List<String> comments) {
+	public static TypeNode parse(DefinitionParser definitions, SpecParser specParser, List<String> comments) {
 		// Get the first token.
 		SpecToken token1 = specParser.nextToken();
 		// Save the initial comments.
 		comments.addAll(specParser.pullComments());
 		// The type declared will be put in here.
-		TypeNode retVal = parse(token1, typeMap, specParser, comments);
+		TypeNode retVal = parse(token1, definitions, specParser, comments);
 		// Return the type declaration node.
 		return retVal;
 	}
@@ -108,41 +127,82 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 	 * This parses a type declaration when the first token has already been consumed.
 	 *
 	 * @param token1		initial token of the type declaration
-	 * @param typeMap		map of type names to currently-available types
+	 * @param definitions	definition parser for resolving type names
 	 * @param specParser	controlling specification parser
 	 * @param comments		output list for comments
 	 *
 	 * @return a definition node for the type found
 	 */
-	public static TypeNode parse(SpecToken token1, Map<String, TypeNode> typeMap, SpecParser specParser,
+	public static TypeNode parse(SpecToken token1, DefinitionParser definitions, SpecParser specParser,
 			List<String> comments) {
 		TypeNode retVal;
 		// There are four key reserved words for a type declaration. We process those here.
 		String tokenText = token1.getText();
 		switch (tokenText) {
 		case "structure" :
-			retVal = new StructureTypeNode(typeMap, specParser, comments);
+			retVal = new StructureTypeNode(definitions, specParser, comments);
 			break;
 		case "tuple" :
-			retVal = new TupleTypeNode(typeMap, specParser, comments);
+			retVal = new TupleTypeNode(definitions, specParser, comments);
 			break;
 		case "list" :
-			retVal = new ListTypeNode(typeMap, specParser, comments);
+			retVal = new ListTypeNode(definitions, specParser, comments);
 			break;
 		case "mapping" :
-			retVal = new MappingTypeNode(typeMap, specParser, comments);
+			retVal = new MappingTypeNode(definitions, specParser, comments);
 			break;
 		default :
-			// Here we have a simple type name. The type must already exist.
+			// Here we have a simple type name, which the definition parser resolves.
 			// No more tokens will be absorbed.
-			retVal = typeMap.get(tokenText);
-			if (retVal == null)
-				specParser.throwSyntaxException("Undefined type \"" + tokenText + "\" specified.");
+			retVal = definitions.lookupType(tokenText);
 			break;
 		}
 		return retVal;
 	}
 
+	/**
+	 * Resolve a qualified type name from another module.
+	 *
+	 * @param qualifiedName		qualified type name, in the form "Module.type"
+	 * @param specParser		controlling specification parser
+	 *
+	 * @return an import node for the type
+	 */
+	protected static TypeNode importType(String qualifiedName, SpecParser specParser) {
+		TypeNode retVal = null;
+		try {
+			retVal = importType(qualifiedName, specParser.getRepository());
+		} catch (IllegalArgumentException e) {
+			specParser.throwSyntaxException(e.getMessage());
+		}
+		return retVal;
+	}
+
+	/**
+	 * Resolve a qualified type name from another module using a specific repository.
+	 *
+	 * @param qualifiedName		qualified type name, in the form "Module.type"
+	 * @param repository		repository for resolving imported types, or NULL if imports are not allowed
+	 *
+	 * @return an import node for the type
+	 *
+	 * @throws IllegalArgumentException if the type cannot be imported (the message describes the problem)
+	 */
+	protected static TypeNode importType(String qualifiedName, ModuleRepository repository) {
+		if (repository == null)
+			throw new IllegalArgumentException("Cannot import type \"" + qualifiedName + "\": no module library specified.");
+		TypeNode target;
+		try {
+			target = repository.getType(qualifiedName);
+		} catch (IOException | SpecParsingException e) {
+			throw new IllegalArgumentException("Cannot import type \"" + qualifiedName + "\": " + e.getMessage());
+		}
+		if (target == null)
+			throw new IllegalArgumentException("Undefined type \"" + qualifiedName + "\" specified.");
+		String modName = qualifiedName.substring(0, qualifiedName.lastIndexOf('.'));
+		return new ImportTypeNode(modName, target);
+	}
+
 	/**
 	 * Parse a list of type declarations. The type declarations are comma-delimited and enclosed in
 	 * some sort of bracketing (either parentheses or angle brackets). They will all be stored as
@@ -152,12 +212,12 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 	 * @param node			node to contain the type declarations
 	 * @param openDelim		expected first delimiter
 	 * @param closeDelim	expected termination delimiter
-	 * @param typeMap		map of currently-available types
+	 * @param definitions	definition parser for resolving type names
 	 * @param specParser	controlling specification parser
 	 * @param comments		comment buffer for this type declaration instance
 	 */
 	public static void parseTypeList(SpecNode node, String openDelim, String closeDelim,
-			Map<String, TypeNode> typeMap, SpecParser specParser, List<String> comments) {
+			DefinitionParser definitions, SpecParser specParser, List<String> comments) {
 		// Get the open bracket. The comments here go to the incoming declaration, not
 		// the child.
 		SpecToken token = specParser.nextToken();
@@ -172,7 +232,7 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 			// Initialize this child's comment list.
 			List<String> childComments = new ArrayList<String>(1);
 			// Parse the type declaration here.
-			TypeNode childType = TypeNode.parse(token, typeMap, specParser, childComments);
+			TypeNode childType = TypeNode.parse(token, definitions, specParser, childComments);
 			// Check for a delimiter.
 			token = specParser.nextToken();
 			// Any comments go to the child comments.
@@ -203,20 +263,124 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 	 * @return the child types of this type
 	 */
 	public List<TypeNode> getChildTypes() {
-		List<TypeNode> retVal = this.getChildNodes().stream().filter(x -> x instanceof TypeNode)
-				.map(x -> (TypeNode) x).toList();
-		return retVal;
+		if (this.childTypes == null)
+			this.childTypes = this.getChildNodes().stream().filter(x -> x instanceof TypeNode)
+					.map(x -> (TypeNode) x).toList();
+		return this.childTypes;
 	}
 
 	/**
 	 * @return the member types of this type
 	 */
 	public List<MemberNode> getMembers() {
-		List<MemberNode> retVal = IntStream.range(0, this.getChildCount())
-				.mapToObj(i -> new MemberNode(this, i)).toList();
+		if (this.members == null)
+			this.members = IntStream.range(0, this.getChildCount())
+					.mapToObj(i -> new MemberNode(this, i)).toList();
+		return this.members;
+	}
+
+	@Override
+	protected void childrenChanged() {
+		this.childTypes = null;
+		this.members = null;
+	}
+
+	@Override
+	protected void compact() {
+		super.compact();
+		this.users = frozenList(this.users);
+	}
+
+	/**
+	 * Record the uses of named types in a newly-parsed declaration. Anonymous types are part of the
+	 * declaration that contains them, so we look inside them, but named types are only recorded. This
+	 * means each declaration is examined only once.
+	 *
+	 * @param decl	named type or function declaration whose uses are to be recorded
+	 */
+	protected static void recordUses(SpecNode decl) {
+		final int n = decl.getChildCount();
+		for (int i = 0; i < n; i++) {
+			SpecNode child = decl.getChild(i);
+			String role;
+			TypeNode type;
+			if (child instanceof FieldNode) {
+				FieldNode field = (FieldNode) child;
+				type = field.getType();
+				role = "field " + field.getName();
+			} else {
+				type = (TypeNode) child;
+				if (decl instanceof FuncNode)
+					role = ((FuncNode) decl).getRole(i);
+				else if (decl instanceof AliasTypeNode)
+					role = "alias";
+				else
+					role = null;
+			}
+			recordUse(decl, type, role);
+		}
+	}
+
+	/**
+	 * Record the use of a type in a declaration. If the type is anonymous, the named types inside it are
+	 * recorded instead.
+	 *
+	 * @param decl		declaration containing the type
+	 * @param type		type being used
+	 * @param role		role of the type in the declaration
+	 */
+	private static void recordUse(SpecNode decl, TypeNode type, String role) {
+		if (! type.isAnonymous())
+			type.addUser(new TypeUse(decl, role));
+		else {
+			for (SpecNode child : type.getChildNodes()) {
+				if (child instanceof FieldNode)
+					recordUse(decl, ((FieldNode) child).getType(), role);
+				else
+					recordUse(decl, (TypeNode) child, role);
+			}
+		}
+	}
+
+	/**
+	 * Add a declaration to the list of users of this type.
+	 *
+	 * @param use	descriptor of the use
+	 */
+	private void addUser(TypeUse use) {
+		if (this.users.isEmpty())
+			this.users = new ArrayList<TypeUse>(2);
+		this.users.add(use);
+	}
+
+	/**
+	 * @return the list of declarations that use this type, in the order they were defined
+	 */
+	public List<TypeUse> getUsers() {
+		return this.users;
+	}
+
+	/**
+	 * @return the HTML for the list of declarations that use this type
+	 */
+	public ContainerTag getUsersHtml() {
+		ContainerTag retVal;
+		if (this.users.isEmpty())
+			retVal = p(em("Not used by any other declaration.")).withClass("used-by");
+		else
+			retVal = div(p(em("Used by:")), ul().with(this.users.stream().map(x -> x.toHtml())))
+					.withClass("used-by");
 		return retVal;
 	}
 
+	/**
+	 * Assign a new unique ID to this type. This is used when types are built out of order, so that
+	 * the IDs are in the order of the definitions.
+	 */
+	protected void renumber() {
+		this.typeID = String.format("type%06d", nextNum.incrementAndGet());
+	}
+
 	/**
 	 * @return the unique ID label of this type
 	 */
@@ -271,6 +435,20 @@ public abstract class TypeNode extends SpecNode implements Comparable<TypeNode>
 		return retVal;
 	}
 
+	/**
+	 * @return the number of times this type is referenced by other types
+	 */
+	public int getRefCount() {
+		return this.refCount;
+	}
+
+	/**
+	 * @return the number of times this type is used in functions
+	 */
+	public int getUseCount() {
+		return this.useCount;
+	}
+
 	/**
 	 * Denote this type has been used in a function.
 	 */
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import j2html.tags.ContainerTag;
+import static j2html.TagCreator.*;
+
+/**
+ * This object describes a use of a named type by a declaration. The declaration is a named type or a
+ * function, and the role describes where the type appears in it (for example, "field id" or "parameter 2").
+ * Uses inside anonymous types are attributed to the named declaration that contains them.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TypeUse {
+
+	// FIELDS
+	/** declaration using the type */
+	private SpecNode user;
+	/** role of the type in the declaration, or NULL if there is nothing to say */
+	private String role;
+
+	/**
+	 * Create a type use descriptor.
+	 *
+	 * @param user		declaration using the type
+	 * @param role		role of the type in the declaration, or NULL if there is nothing to say
+	 */
+	public TypeUse(SpecNode user, String role) {
+		this.user = user;
+		this.role = role;
+	}
+
+	/**
+	 * @return the declaration using the type
+	 */
+	public SpecNode getUser() {
+		return this.user;
+	}
+
+	/**
+	 * @return the role of the type in the declaration, or NULL if there is nothing to say
+	 */
+	public String getRole() {
+		return this.role;
+	}
+
+	/**
+	 * @return the name of the declaration using the type
+	 */
+	public String getUserName() {
+		String retVal;
+		if (this.user instanceof FuncNode)
+			retVal = ((FuncNode) this.user).getName();
+		else
+			retVal = ((TypeNode) this.user).getName();
+		return retVal;
+	}
+
+	/**
+	 * @return an HTML list item linking to the declaration using the type
+	 */
+	public ContainerTag toHtml() {
+		String anchor;
+		if (this.user instanceof FuncNode)
+			anchor = ((FuncNode) this.user).getId();
+		else
+			anchor = ((TypeNode) this.user).getId();
+		ContainerTag retVal = li(a(this.getUserName()).withHref("#" + anchor));
+		if (this.role != null)
+			retVal.with(text(" (" + this.role + ")"));
+		return retVal;
+	}
+
+	@Override
+	public String toString() {
+		return this.getUserName() + (this.role == null ? "" : " (" + this.role + ")");
+	}
+
+}
@@ -0,0 +1,173 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.theseed.java.erdb.DbConnection;
+import org.theseed.java.erdb.sqlite.SqliteDbConnection;
+
+/**
+ * These tests verify the parsing of link-path queries and their compilation into SQL.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestLinkPath {
+
+    @Test
+    void testParse() {
+        LinkPath path = new LinkPath("Genome(domain = 'Bacteria', gc_content>=0.5) -> Feature(type LIKE ?)->Protein "
+                + ": Genome.name, Feature.*, sequence");
+        assertThat(path.getTables(), contains("Genome", "Feature", "Protein"));
+        List<LinkPath.Step> steps = path.getSteps();
+        List<LinkPath.Condition> conds = steps.get(0).getConditions();
+        assertThat(conds.size(), equalTo(2));
+        assertThat(conds.get(0).getField(), equalTo("domain"));
+        assertThat(conds.get(0).getOp(), equalTo("="));
+        assertThat(conds.get(0).getValue(), equalTo((Object) "Bacteria"));
+        assertThat(conds.get(1).getOp(), equalTo(">="));
+        assertThat(conds.get(1).getValue(), equalTo((Object) 0.5));
+        LinkPath.Condition cond = steps.get(1).getConditions().get(0);
+        assertThat(cond.getOp(), equalTo("LIKE"));
+        assertThat(cond.getValue(), nullValue());
+        assertThat(steps.get(2).getConditions(), empty());
+        assertThat(path.getParmCount(), equalTo(1));
+        assertThat(path.getFields().stream().map(x -> x.toString()).toList(),
+                contains("Genome.name", "Feature.*", "sequence"));
+        // Quotes can be doubled, and numbers can be negative.
+        path = new LinkPath("Feature(name = 'Bob''s', begin > -10)");
+        conds = path.getSteps().get(0).getConditions();
+        assertThat(conds.get(0).getValue(), equalTo((Object) "Bob's"));
+        assertThat(conds.get(1).getValue(), equalTo((Object) (-10L)));
+        assertThat(path.getFields(), empty());
+        assertThat(path.getParmCount(), equalTo(0));
+        // Now some errors.
+        assertThrows(IllegalArgumentException.class, () -> new LinkPath("Genome ->"));
+        assertThrows(IllegalArgumentException.class, () -> new LinkPath("Genome(id == 'x')"));
+        assertThrows(IllegalArgumentException.class, () -> new LinkPath("Genome(id = 'x'"));
+        assertThrows(IllegalArgumentException.class, () -> new LinkPath("Genome(id = 'x)"));
+        assertThrows(IllegalArgumentException.class, () -> new LinkPath("Genome -> Feature : Protein.id"));
+        assertThrows(IllegalArgumentException.class, () -> new LinkPath("Feature -> Feature : Feature.id"));
+        assertThrows(IllegalArgumentException.class, () -> new LinkPath("Genome Feature"));
+    }
+
+    /** statements to create the test database */
+    private static final String[] TEST_DB = new String[] {
+            "CREATE TABLE Genome (id VARCHAR(32) NOT NULL PRIMARY KEY, name VARCHAR(64), domain VARCHAR(32))",
+            "CREATE TABLE Protein (id VARCHAR(32) NOT NULL PRIMARY KEY, sequence TEXT)",
+            "CREATE TABLE Feature (id VARCHAR(32) NOT NULL PRIMARY KEY, genome_id VARCHAR(32) NOT NULL, "
+                    + "type VARCHAR(16), protein_id VARCHAR(32), "
+                    + "FOREIGN KEY (genome_id) REFERENCES Genome (id), "
+                    + "FOREIGN KEY (protein_id) REFERENCES Protein (id))",
+            "CREATE TABLE _diagram (table_name VARCHAR(64) NOT NULL PRIMARY KEY, rloc INTEGER NOT NULL, "
+                    + "cloc INTEGER NOT NULL, description TEXT)",
+            "CREATE TABLE _fields (table_name VARCHAR(64) NOT NULL, field_name VARCHAR(64) NOT NULL, "
+                    + "description TEXT, PRIMARY KEY (table_name, field_name))",
+            "INSERT INTO _diagram VALUES ('Genome', 1, 1, 'genome'), ('Feature', 2, 1, 'feature'), "
+                    + "('Protein', 3, 1, 'protein')",
+            "INSERT INTO _fields VALUES ('Genome', 'id', ''), ('Genome', 'name', ''), ('Genome', 'domain', ''), "
+                    + "('Feature', 'id', ''), ('Feature', 'genome_id', ''), ('Feature', 'type', ''), "
+                    + "('Feature', 'protein_id', ''), ('Protein', 'id', ''), ('Protein', 'sequence', '')",
+            "INSERT INTO Genome VALUES ('g1', 'Escherichia coli', 'Bacteria'), ('g2', 'Methanococcus', 'Archaea')",
+            "INSERT INTO Protein VALUES ('p1', 'MKV'), ('p2', 'MAL'), ('p3', 'MSS')",
+            "INSERT INTO Feature VALUES ('f1', 'g1', 'CDS', 'p1'), ('f2', 'g1', 'rna', NULL), "
+                    + "('f3', 'g2', 'CDS', 'p2'), ('f4', 'g2', 'CDS', 'p1')"
+    };
+
+    @Test
+    void testCompile(@TempDir File tempDir) throws SQLException {
+        File dbFile = new File(tempDir, "path.db");
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+                Statement stmt = conn.createStatement()) {
+            for (String sql : TEST_DB)
+                stmt.execute(sql);
+        }
+        LinkPath path = new LinkPath("Genome -> Feature -> Protein(sequence = ?) : Genome.name, Feature.id");
+        try (DbConnection db = new SqliteDbConnection(dbFile)) {
+            SqlHelper helper = new SqlHelper(db);
+            // Without statistics, the tables are joined in path order.
+            LinkPath.Compiled compiled = path.compile(helper, null);
+            assertThat(compiled.getSql(), equalTo("SELECT t1.\"name\" AS \"Genome.name\", t2.\"id\" AS \"Feature.id\" "
+                    + "FROM \"Genome\" t1 JOIN \"Feature\" t2 ON t1.\"id\" = t2.\"genome_id\" "
+                    + "JOIN \"Protein\" t3 ON t2.\"protein_id\" = t3.\"id\" WHERE t3.\"sequence\" = ?"));
+            assertThat(runPath(helper, compiled, "MKV"), containsInAnyOrder("Escherichia coli/f1", "Methanococcus/f4"));
+            assertThat(runPath(helper, compiled, "MAL"), contains("Methanococcus/f3"));
+            assertThat(runPath(helper, compiled, "XXX"), empty());
+            // With statistics, the filtered protein table is the smallest, so the join starts there and the
+            // order is forced.
+            TableStats stats = new TableStats(helper, path.getTables(), 30);
+            compiled = path.compile(helper, stats);
+            assertThat(compiled.getSql(), equalTo("SELECT t1.\"name\" AS \"Genome.name\", t2.\"id\" AS \"Feature.id\" "
+                    + "FROM \"Protein\" t3 CROSS JOIN \"Feature\" t2 ON t2.\"protein_id\" = t3.\"id\" "
+                    + "CROSS JOIN \"Genome\" t1 ON t1.\"id\" = t2.\"genome_id\" WHERE t3.\"sequence\" = ?"));
+            assertThat(runPath(helper, compiled, "MKV"), containsInAnyOrder("Escherichia coli/f1", "Methanococcus/f4"));
+            assertThat(runPath(helper, compiled, "MAL"), contains("Methanococcus/f3"));
+            // If any row count is unknown, the order is not forced.
+            stats = new TableStats(helper, List.of("Feature", "Protein"), 30);
+            compiled = path.compile(helper, stats);
+            assertThat(compiled.getSql(), not(containsString("CROSS JOIN")));
+            assertThat(compiled.getSql(), containsString("FROM \"Genome\" t1 JOIN \"Feature\" t2"));
+            // Literal values are bound as parameters too.
+            path = new LinkPath("Genome(domain = 'Bacteria') -> Feature(type = 'CDS') : Feature.id");
+            compiled = path.compile(helper, null);
+            assertThat(compiled.getSql(), not(containsString("Bacteria")));
+            try (PreparedStatement stmt = helper.prepare(compiled.getSql())) {
+                compiled.bind(stmt, List.of());
+                try (ResultSet results = stmt.executeQuery()) {
+                    List<String> ids = new ArrayList<String>();
+                    while (results.next())
+                        ids.add(results.getString(1));
+                    assertThat(ids, contains("f1"));
+                }
+            }
+            // Expanded fields are labelled with their tables, so the two ID fields stay distinct.
+            compiled = new LinkPath("Genome -> Feature : *").compile(helper, null);
+            assertThat(compiled.getSql(), containsString("t1.\"id\" AS \"Genome.id\""));
+            assertThat(compiled.getSql(), containsString("t2.\"id\" AS \"Feature.id\""));
+            LinkPath twice = new LinkPath("Genome -> Feature : Genome.*, Genome.name");
+            assertThrows(IllegalArgumentException.class, () -> twice.compile(helper, null));
+            // A path between unlinked tables cannot be compiled.
+            LinkPath bad = new LinkPath("Genome -> Protein");
+            assertThrows(IllegalArgumentException.class, () -> bad.compile(helper, null));
+        }
+    }
+
+    /**
+     * @return the genome names and feature IDs found by a compiled path, each as "name/id"
+     *
+     * @param helper		SQL helper for the database
+     * @param compiled		compiled path to run
+     * @param sequence		protein sequence parameter
+     *
+     * @throws SQLException
+     */
+    private static List<String> runPath(SqlHelper helper, LinkPath.Compiled compiled, String sequence)
+            throws SQLException {
+        List<String> retVal = new ArrayList<String>();
+        try (PreparedStatement stmt = helper.prepare(compiled.getSql())) {
+            compiled.bind(stmt, List.of(sequence));
+            try (ResultSet results = stmt.executeQuery()) {
+                while (results.next())
+                    retVal.add(results.getString("Genome.name") + "/" + results.getString("Feature.id"));
+            }
+        }
+        return retVal;
+    }
+
+}
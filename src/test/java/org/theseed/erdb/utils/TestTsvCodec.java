@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package org.theseed.erdb.utils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * These tests verify that the field values written by the export command are restored exactly by the
+ * load command.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestTsvCodec {
+
+    @Test
+    void testRoundTrip() {
+        String[] values = new String[] { "plain", "", null, "tab\there", "two\nlines\r\n", "back\\slash",
+                "\\N", "\\t", "trailing\\" };
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                line.append('\t');
+            TsvCodec.append(line, values[i]);
+        }
+        String text = line.toString();
+        assertThat(text, not(containsString("\n")));
+        assertThat(text, not(containsString("\r")));
+        String[] fields = StringUtils.splitPreserveAllTokens(text, '\t');
+        assertThat(fields.length, equalTo(values.length));
+        for (int i = 0; i < values.length; i++)
+            assertThat(values[i], TsvCodec.decode(fields[i]), equalTo(values[i]));
+        assertThat(fields[1], equalTo(""));
+        assertThat(fields[2], equalTo(TsvCodec.NULL_VALUE));
+    }
+
+    @Test
+    void testDecode() {
+        assertThat(TsvCodec.decode("abc"), equalTo("abc"));
+        assertThat(TsvCodec.decode("\\N"), nullValue());
+        assertThat(TsvCodec.decode("a\\tb\\nc\\\\d"), equalTo("a\tb\nc\\d"));
+        assertThat(TsvCodec.decode("\\x"), equalTo("x"));
+        assertThat(TsvCodec.decode("end\\"), equalTo("end\\"));
+    }
+
+}
@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package org.theseed.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestMetrics {
+
+    @Test
+    void testRegistry() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("test.count");
+        assertThat(registry.counter("test.count"), sameInstance(counter));
+        counter.increment();
+        counter.add(4);
+        assertThat(counter.getCount(), equalTo(5L));
+        Gauge gauge = registry.gauge("test.gauge");
+        gauge.setMax(10);
+        gauge.setMax(3);
+        assertThat(gauge.getValue(), equalTo(10L));
+        gauge.set(3);
+        assertThat(gauge.getValue(), equalTo(3L));
+        Timer timer = registry.timer("test.timer");
+        timer.record(2000000);
+        timer.record(4000000);
+        assertThat(timer.getCount(), equalTo(2L));
+        assertThat(timer.getTotalMillis(), closeTo(6.0, 0.001));
+        assertThat(timer.getMeanMillis(), closeTo(3.0, 0.001));
+        assertThat(timer.getMaxMillis(), closeTo(4.0, 0.001));
+        try (Timer.Context t = timer.start()) {
+            counter.increment();
+        }
+        assertThat(timer.getCount(), equalTo(3L));
+        Map<String, Object> report = registry.getReport();
+        assertThat(report.keySet(), contains("counters", "timers", "gauges", "heap"));
+        assertThat((Map<?, ?>) report.get("counters"), hasEntry("test.count", 6L));
+        assertThat((Map<?, ?>) report.get("gauges"), hasEntry("test.gauge", 3L));
+        Map<?, ?> heap = (Map<?, ?>) report.get("heap");
+        assertThat((Long) heap.get("peak_bytes"), greaterThan(0L));
+        registry.reset();
+        assertThat(counter.getCount(), equalTo(0L));
+        assertThat(timer.getCount(), equalTo(0L));
+        assertThat(timer.getMeanMillis(), equalTo(0.0));
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.io.LineReader;
+
+/**
+ * These tests verify the importing of types from other modules.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestModuleRepository {
+
+	/** library directory for the test modules */
+	private static final File LIB_DIR = new File("data", "lib");
+
+	@Test
+	void testImports() throws IOException {
+		ModuleRepository repository = new ModuleRepository(LIB_DIR, 10);
+		ModuleNode modNode = repository.getModule("Annotation");
+		assertThat(modNode.getName(), equalTo("Annotation"));
+		// Common should have been compiled along the way.
+		assertThat(repository.contains("Common"), equalTo(true));
+		ModuleNode common = repository.getModule("Common");
+		assertThat(repository.getModule("Annotation"), sameInstance(modNode));
+		// Check the structure field.
+		Map<String, TypeNode> typeMap = modNode.getTypeMap();
+		StructureTypeNode feature = (StructureTypeNode) typeMap.get("feature");
+		TypeNode idType = feature.getFields().get(0).getType();
+		assertThat(idType, instanceOf(ImportTypeNode.class));
+		assertThat(idType.getName(), equalTo("Common.feature_id"));
+		assertThat(((ImportTypeNode) idType).getTarget(), sameInstance(common.findType("feature_id")));
+		// Check the alias and the tuple. Both uses of the genome ID type share one node.
+		AliasTypeNode alias = (AliasTypeNode) typeMap.get("genome_id");
+		TupleTypeNode tuple = (TupleTypeNode) typeMap.get("genome_features");
+		assertThat(tuple.getMembers().get(0).getType(), sameInstance(alias.getActualType()));
+		// Check the function parameter and the HTML links.
+		TypeNode handleType = modNode.getFunctions().get("get_file").getParms().get(0).getType();
+		assertThat(((ImportTypeNode) handleType).getUrl(), equalTo("Common.html#Handle"));
+		String html = modNode.toHtml().render();
+		assertThat(html, containsString("href=\"Common.html#Handle\""));
+		assertThat(html, containsString("href=\"Common.html#genome_id\""));
+		assertThat(common.toHtml().render(), containsString("id=\"Handle\""));
+	}
+
+	@Test
+	void testErrors() throws IOException {
+		ModuleRepository repository = new ModuleRepository(LIB_DIR, 10);
+		assertThrows(IOException.class, () -> repository.getModule("Missing"));
+		assertThat(repository.contains("Missing"), equalTo(false));
+		assertThrows(SpecParsingException.class, () -> repository.getModule("CycleA"));
+		// Imports are not allowed without a repository.
+		try (LineReader reader = new LineReader(new File(LIB_DIR, "Annotation.spec"))) {
+			SpecParser parser = new SpecParser(reader);
+			assertThrows(SpecParsingException.class, () -> new ModuleNode(parser));
+		}
+	}
+
+	@Test
+	void testCrossThreadCycle() throws Exception {
+		// Two threads compiling the two halves of a cycle at once must both fail instead of waiting for
+		// each other. The timing varies, so we try several times.
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			for (int i = 0; i < 20; i++) {
+				ModuleRepository repository = new ModuleRepository(LIB_DIR, 10);
+				CyclicBarrier barrier = new CyclicBarrier(2);
+				Future<ModuleNode> resultA = pool.submit(() -> {
+					barrier.await();
+					return repository.getModule("CycleA");
+				});
+				Future<ModuleNode> resultB = pool.submit(() -> {
+					barrier.await();
+					return repository.getModule("CycleB");
+				});
+				assertThrows(ExecutionException.class, () -> resultA.get(30, TimeUnit.SECONDS));
+				assertThrows(ExecutionException.class, () -> resultB.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void testCache() throws Exception {
+		// With a capacity of one, each new module pushes out the old one, so Common has to be
+		// compiled again after Annotation is loaded. The second compilation of Common (during
+		// the Annotation parse) in turn pushes out Annotation.
+		ModuleRepository repository = new ModuleRepository(LIB_DIR, 1);
+		ModuleNode common = repository.getModule("Common");
+		repository.getModule("Annotation");
+		assertThat(repository.size(), equalTo(1));
+		assertThat(repository.contains("Annotation"), equalTo(false));
+		assertThat(repository.getModule("Common"), not(sameInstance(common)));
+		// Many threads asking for the same module get the same compilation.
+		repository.clear();
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<ModuleNode>> results = new ArrayList<Future<ModuleNode>>();
+			for (int i = 0; i < 8; i++)
+				results.add(pool.submit(() -> repository.getModule("Common")));
+			ModuleNode first = results.get(0).get();
+			for (Future<ModuleNode> result : results)
+				assertThat(result.get(), sameInstance(first));
+		} finally {
+			pool.shutdown();
+		}
+		// The shared repository is the same for every reference to the directory.
+		assertThat(ModuleRepository.forDirectory(LIB_DIR),
+				sameInstance(ModuleRepository.forDirectory(LIB_DIR.getAbsoluteFile())));
+	}
+
+}
@@ -0,0 +1,251 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.theseed.io.LineReader;
+
+/**
+ * These tests verify that a parallel parse produces the same module as a serial parse.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestParallelParse {
+
+	/** pool for the parallel parses */
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+	/** pattern for type and function IDs */
+	private static final Pattern ID_PATTERN = Pattern.compile("(?:type|func)\\d{6}");
+
+	@AfterAll
+	static void shutdown() {
+		POOL.shutdown();
+	}
+
+	@Test
+	void testSplitter() {
+		List<String> lines = List.of(
+				"/* header; with { braces } */",
+				"module Test {",
+				"    typedef int a; typedef structure {",
+				"        a x; /* ; */",
+				"    } b;",
+				"    funcdef f(b) returns (a);",
+				"    /* trailing */ };");
+		SpecSplitter splitter = new SpecSplitter(lines);
+		assertThat(splitter.isSplittable(), equalTo(true));
+		assertThat(splitter.size(), equalTo(3));
+		List<SpecSplitter.Chunk> chunks = splitter.getChunks(2);
+		assertThat(chunks.size(), equalTo(2));
+		assertThat(chunks.get(0).getLineNum(), equalTo(2));
+		assertThat(chunks.get(0).size(), equalTo(1));
+		assertThat(chunks.get(0).getLines(), contains("             ", "    typedef int a;"));
+		assertThat(chunks.get(1).getLineNum(), equalTo(3));
+		assertThat(chunks.get(1).size(), equalTo(2));
+		assertThat(chunks.get(1).getLines().get(0), equalTo("                   typedef structure {"));
+		assertThat(chunks.get(1).getLines().getLast(), equalTo("    funcdef f(b) returns (a);"));
+		List<String> skeleton = splitter.getSkeleton();
+		assertThat(skeleton.size(), equalTo(lines.size()));
+		assertThat(skeleton.get(1), equalTo("module Test {"));
+		assertThat(skeleton.get(3), equalTo(""));
+		assertThat(skeleton.get(5).trim(), equalTo(""));
+		assertThat(skeleton.get(6), equalTo(lines.get(6)));
+		// Anything but comments after the last declaration prevents splitting.
+		assertThat(new SpecSplitter(List.of("module Test { typedef int a; typedef int b }")).isSplittable(), equalTo(false));
+		assertThat(new SpecSplitter(List.of("module Test { typedef int a;")).isSplittable(), equalTo(false));
+		assertThat(new SpecSplitter(List.of("module Test { };")).isSplittable(), equalTo(false));
+	}
+
+	@Test
+	void testRealSpec() throws IOException {
+		List<String> lines = Files.readAllLines(new File("data", "GenomeAnnotation.spec").toPath());
+		SpecParser parallelParser = new SpecParser(lines, null, POOL);
+		assertThat(parallelParser.isParallel(), equalTo(true));
+		assertThat(parallelParser.getChunks().size(), greaterThan(1));
+		checkSame(lines, parallelParser);
+	}
+
+	@Test
+	void testGeneratedSpec() throws IOException {
+		List<String> lines = generate(400);
+		SpecParser parallelParser = new SpecParser(lines, null, POOL);
+		assertThat(parallelParser.getChunks().size(), equalTo(16));
+		checkSame(lines, parallelParser);
+		// A small module, or a missing pool, is parsed serially.
+		assertThat(new SpecParser(generate(10), null, POOL).isParallel(), equalTo(false));
+		assertThat(new SpecParser(lines, null, null).isParallel(), equalTo(false));
+	}
+
+	@Test
+	void testErrors() throws IOException {
+		// A type used before it is defined in a later chunk.
+		List<String> lines = generate(400);
+		int idx = find(lines, "typedef string name10;");
+		lines.set(idx, "    typedef name300 name10;");
+		checkSameError(lines);
+		// A duplicate definition in a later chunk.
+		lines = generate(400);
+		idx = find(lines, "typedef string name350;");
+		lines.set(idx, "    typedef string name20;");
+		checkSameError(lines);
+		// A type that is not defined anywhere, followed by a syntax error in a later chunk.
+		lines = generate(400);
+		idx = find(lines, "typedef string name100;");
+		lines.set(idx, "    typedef list<bogus> name100;");
+		idx = find(lines, "typedef string name380;");
+		lines.set(idx, "    typedef list<string name380;");
+		checkSameError(lines);
+		// An undefined type in a declaration that also has a syntax error.
+		lines = generate(400);
+		idx = find(lines, "typedef string name300;");
+		lines.set(idx, "    typedef tuple<bogus, int string> name300;");
+		checkSameError(lines);
+		// A duplicate definition missing its semicolon.
+		lines = generate(400);
+		idx = find(lines, "typedef string name330;");
+		lines.set(idx, "    typedef string name30");
+		checkSameError(lines);
+		// An import without a module library.
+		lines = generate(400);
+		idx = find(lines, "typedef string name200;");
+		lines.set(idx, "    typedef Common.Handle name200;");
+		checkSameError(lines);
+	}
+
+	/**
+	 * Generate a specification with cross-references between the declarations.
+	 *
+	 * @param n		number of groups of declarations to generate
+	 *
+	 * @return the lines of the specification
+	 */
+	private static List<String> generate(int n) {
+		List<String> retVal = new ArrayList<String>();
+		retVal.add("/* Generated module. */");
+		retVal.add("module Generated {");
+		for (int i = 0; i < n; i++) {
+			retVal.add("    /* A name. */");
+			retVal.add("    typedef string name" + i + ";");
+			retVal.add("    /* A structure. */");
+			retVal.add("    typedef structure {");
+			retVal.add("        name" + i + " id; /* the ID */");
+			if (i > 0)
+				retVal.add("        list<tuple<thing" + (i - 1) + ", name" + (i / 2) + " pair>> prev;");
+			retVal.add("        mapping<string, float> scores;");
+			retVal.add("    } thing" + i + ";");
+			if (i % 3 == 0)
+				retVal.add("    funcdef get" + i + "(name" + i + " id, int count) returns (thing" + i
+						+ ", list<thing" + (i / 3) + ">) authentication required;");
+		}
+		retVal.add("    /* The end. */");
+		retVal.add("};");
+		return retVal;
+	}
+
+	/**
+	 * @return the index of the line containing the specified text
+	 *
+	 * @param lines		lines to search
+	 * @param text		text to find
+	 */
+	private static int find(List<String> lines, String text) {
+		int retVal = 0;
+		while (! lines.get(retVal).contains(text))
+			retVal++;
+		return retVal;
+	}
+
+	/**
+	 * Verify that a parallel parse matches the serial parse of the same lines.
+	 *
+	 * @param lines				lines of the specification
+	 * @param parallelParser	parallel parser for the lines
+	 *
+	 * @throws IOException
+	 */
+	private static void checkSame(List<String> lines, SpecParser parallelParser) throws IOException {
+		ModuleNode parallel = new ModuleNode(parallelParser);
+		ModuleNode serial = new ModuleNode(new SpecParser(reader(lines)));
+		assertThat(parallel.getName(), equalTo(serial.getName()));
+		assertThat(parallel.getComments(), equalTo(serial.getComments()));
+		SpecDiff diff = new SpecDiff(serial, parallel);
+		assertThat(diff.getChanges(), empty());
+		// Check the things the structural comparison ignores.
+		List<TypeNode> serialTypes = serial.getTypes();
+		List<TypeNode> parallelTypes = parallel.getTypes();
+		assertThat(parallelTypes.size(), equalTo(serialTypes.size()));
+		for (int i = 0; i < serialTypes.size(); i++) {
+			TypeNode serialType = serialTypes.get(i);
+			TypeNode parallelType = parallelTypes.get(i);
+			String name = serialType.getName();
+			assertThat(name, parallelType.getName(), equalTo(name));
+			assertThat(name, parallelType.getRefCount(), equalTo(serialType.getRefCount()));
+			assertThat(name, parallelType.getUseCount(), equalTo(serialType.getUseCount()));
+			assertThat(name, parallelType.getComments(), equalTo(serialType.getComments()));
+			assertThat(name, parallelType.getUsers().toString(), equalTo(serialType.getUsers().toString()));
+		}
+		// The web pages are the same once the IDs are numbered in order of appearance.
+		assertThat(normalize(parallel.toHtml().render()), equalTo(normalize(serial.toHtml().render())));
+	}
+
+	/**
+	 * Verify that a parallel parse fails with the same error as a serial parse.
+	 *
+	 * @param lines		lines of the specification
+	 */
+	private static void checkSameError(List<String> lines) {
+		SpecParser parallelParser = new SpecParser(lines, null, POOL);
+		assertThat(parallelParser.isParallel(), equalTo(true));
+		SpecParsingException serialError = assertThrows(SpecParsingException.class,
+				() -> new ModuleNode(new SpecParser(reader(lines))));
+		SpecParsingException parallelError = assertThrows(SpecParsingException.class,
+				() -> new ModuleNode(parallelParser));
+		assertThat(parallelError.getMessage(), equalTo(serialError.getMessage()));
+	}
+
+	/**
+	 * @return a web page with the type and function IDs replaced by their order of appearance
+	 *
+	 * @param html	web page to normalize
+	 */
+	private static String normalize(String html) {
+		Map<String, String> idMap = new HashMap<String, String>();
+		Matcher m = ID_PATTERN.matcher(html);
+		StringBuilder retVal = new StringBuilder(html.length());
+		while (m.find())
+			m.appendReplacement(retVal, idMap.computeIfAbsent(m.group(), x -> "id" + idMap.size()));
+		m.appendTail(retVal);
+		return retVal.toString();
+	}
+
+	/**
+	 * @return a line reader for a list of lines
+	 *
+	 * @param lines		lines to read
+	 */
+	private static LineReader reader(List<String> lines) {
+		String text = String.join("\n", lines);
+		return new LineReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+}
@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.LineReader;
+
+/**
+ * These tests check the allocation behavior of the parsing and traversal hot paths. They use the
+ * per-thread allocation counters in the JVM's thread management bean. The accessor tests require that
+ * repeated access allocates nothing, and the parse test requires that the cost of a declaration does not
+ * depend on the size of the module.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestSpecAllocation {
+
+	/** logging facility */
+	protected static Logger log = LoggerFactory.getLogger(TestSpecAllocation.class);
+	/** thread management bean with allocation counters */
+	private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	/** number of repetitions for the access tests */
+	private static final int REPEATS = 1000;
+	/** allowable fixed overhead for the measurement itself, independent of the repetition count */
+	private static final long SLACK = 2048;
+	/** number of declaration pairs in the smaller module for the parse growth test */
+	private static final int DECLARATIONS = 2000;
+	/** allowable ratio between the per-declaration costs of the larger and smaller modules */
+	private static final double GROWTH_TOLERANCE = 1.05;
+
+	/**
+	 * @return the number of bytes allocated so far by the current thread
+	 */
+	private static long allocated() {
+		return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Test
+	void testPullComments() throws IOException {
+		String spec = "module Test { typedef int x; };\n";
+		try (LineReader reader = new LineReader(new ByteArrayInputStream(spec.getBytes(StandardCharsets.UTF_8)))) {
+			SpecParser parser = new SpecParser(reader);
+			parser.nextToken();
+			// Warm up, then verify that pulling an empty comment list allocates nothing.
+			for (int i = 0; i < REPEATS; i++)
+				parser.pullComments();
+			long start = allocated();
+			int total = 0;
+			for (int i = 0; i < REPEATS; i++)
+				total += parser.pullComments().size();
+			long used = allocated() - start;
+			log.info("{} bytes allocated by {} empty comment pulls.", used, REPEATS);
+			assertThat(total, equalTo(0));
+			assertThat(used, lessThan(SLACK));
+		}
+	}
+
+	@Test
+	void testAccessors() throws IOException {
+		ModuleNode module;
+		try (LineReader reader = new LineReader(new File("data", "GenomeAnnotation.spec"))) {
+			module = new ModuleNode(new SpecParser(reader));
+		}
+		module.freeze();
+		List<TypeNode> types = module.getTypes();
+		List<FuncNode> funcs = new ArrayList<FuncNode>(module.getFunctions().values());
+		// The first pass may build caches.
+		int expected = this.touchAll(types, funcs);
+		long start = allocated();
+		int total = 0;
+		for (int i = 0; i < REPEATS; i++)
+			total += this.touchAll(types, funcs);
+		long used = allocated() - start;
+		log.info("{} bytes allocated by {} accessor passes over {} types and {} functions.", used, REPEATS,
+				types.size(), funcs.size());
+		assertThat(total, equalTo(expected * REPEATS));
+		assertThat(used, lessThan(SLACK));
+	}
+
+	/**
+	 * Call all the member accessors for a set of types and functions.
+	 *
+	 * @param types		list of types to access
+	 * @param funcs		list of functions to access
+	 *
+	 * @return the total number of members found
+	 */
+	private int touchAll(List<TypeNode> types, List<FuncNode> funcs) {
+		int retVal = 0;
+		final int nTypes = types.size();
+		for (int i = 0; i < nTypes; i++) {
+			TypeNode type = types.get(i);
+			retVal += type.getChildTypes().size();
+			// Members only make sense when all the children are types.
+			if (type instanceof TupleTypeNode)
+				retVal += type.getMembers().size();
+		}
+		final int nFuncs = funcs.size();
+		for (int i = 0; i < nFuncs; i++) {
+			FuncNode func = funcs.get(i);
+			retVal += func.getParms().size() + func.getResults().size();
+		}
+		return retVal;
+	}
+
+	@Test
+	void testParseGrowth() throws IOException {
+		// Parse once at the larger size to warm up.
+		parse(DECLARATIONS * 2);
+		long base = parse(0);
+		long single = parse(DECLARATIONS) - base;
+		long twice = parse(DECLARATIONS * 2) - base;
+		// Doubling the declarations should no more than double the allocation: the cost of each declaration
+		// must not grow with the size of the module.
+		double perDecl = (double) single / DECLARATIONS;
+		double perDecl2 = (double) twice / (DECLARATIONS * 2);
+		log.info("{} bytes allocated per declaration for {} declarations, {} for {}.", String.format("%4.1f", perDecl),
+				DECLARATIONS, String.format("%4.1f", perDecl2), DECLARATIONS * 2);
+		assertThat(perDecl2, lessThanOrEqualTo(perDecl * GROWTH_TOLERANCE));
+	}
+
+	/**
+	 * Parse a module containing a specified number of commented type and function declarations.
+	 *
+	 * @param count		number of declaration pairs to put in the module
+	 *
+	 * @return the number of bytes allocated by the parse
+	 *
+	 * @throws IOException
+	 */
+	private static long parse(int count) throws IOException {
+		StringBuilder spec = new StringBuilder(count * 120 + 40);
+		spec.append("module Test {\n");
+		for (int i = 0; i < count; i++) {
+			// Fixed-width names keep the declarations identical in size.
+			String num = String.format("%06d", i);
+			spec.append("/* type comment */\ntypedef int t").append(num).append(";\n");
+			spec.append("/* function comment */\nfuncdef f").append(num).append("(t").append(num)
+					.append(" x) returns (string y);\n");
+		}
+		spec.append("};\n");
+		byte[] bytes = spec.toString().getBytes(StandardCharsets.UTF_8);
+		long retVal;
+		try (LineReader reader = new LineReader(new ByteArrayInputStream(bytes))) {
+			long start = allocated();
+			ModuleNode module = new ModuleNode(new SpecParser(reader));
+			retVal = allocated() - start;
+			assertThat(module.getFunctions().size(), equalTo(count));
+		}
+		return retVal;
+	}
+
+}
@@ -0,0 +1,192 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.io.LineReader;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonObject;
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+/**
+ * These tests verify the spec-driven binary codec.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestSpecCodec {
+
+	@Test
+	void testRoundTrip() throws Exception {
+		ModuleNode module = parse();
+		SpecCodec codec = SpecCodec.forType(module.findType("genomeTO"));
+		JsonObject genome = genome("83333.1", 200);
+		JsonObject genome2 = genome("511145.12", 5);
+		// Encode the documents from their parsed JSON form, which uses BigDecimal for the numbers.
+		List<Object> docs = List.of(Jsoner.deserialize(Jsoner.serialize(genome)),
+				Jsoner.deserialize(Jsoner.serialize(genome2)));
+		String json = Jsoner.serialize(genome) + Jsoner.serialize(genome2);
+		byte[] encoded = encode(codec, docs, true, 32);
+		// A tiny buffer forces values across buffer boundaries.
+		SpecDecoder decoder = new SpecDecoder(codec, "genomeTO",
+				Channels.newChannel(new ByteArrayInputStream(encoded)), 16);
+		assertThat(decoder.read(), equalTo(genome));
+		assertThat(decoder.read(), equalTo(genome2));
+		assertThat(decoder.read(), nullValue());
+		assertThat(decoder.read(), nullValue());
+		assertThat(decoder.getByteCount(), equalTo((long) encoded.length));
+		// Both forms are smaller than the JSON, and the dictionary makes the output less than half the size.
+		byte[] plain = encode(codec, docs, false, SpecEncoder.BUFFER_SIZE);
+		assertThat(plain.length, lessThan(json.length()));
+		assertThat(encoded.length, lessThan(plain.length));
+		assertThat(encoded.length * 2, lessThan(json.length()));
+		decoder = new SpecDecoder(codec, "genomeTO", Channels.newChannel(new ByteArrayInputStream(plain)));
+		assertThat(decoder.read(), equalTo(genome));
+		assertThat(decoder.read(), equalTo(genome2));
+		assertThat(decoder.read(), nullValue());
+	}
+
+	@Test
+	void testErrors() throws Exception {
+		ModuleNode module = parse();
+		SpecCodec codec = SpecCodec.forType(module.findType("genomeTO"));
+		// Fields not in the spec are dropped, and null fields are omitted.
+		JsonObject genome = genome("83333.1", 1);
+		JsonObject extra = new JsonObject(genome);
+		extra.put("extra_field", "dropped");
+		extra.put("owner", null);
+		byte[] encoded = encode(codec, List.of(extra), true, SpecEncoder.BUFFER_SIZE);
+		SpecDecoder decoder = new SpecDecoder(codec, "genomeTO", Channels.newChannel(new ByteArrayInputStream(encoded)));
+		assertThat(decoder.read(), equalTo(genome));
+		// A type mismatch is an error.
+		JsonObject bad = new JsonObject(genome);
+		bad.put("genetic_code", "eleven");
+		assertThrows(IllegalArgumentException.class, () -> encode(codec, List.of(bad), true, SpecEncoder.BUFFER_SIZE));
+		bad.put("genetic_code", 11L);
+		bad.put("ncbi_lineage", new JsonArray(List.of(new JsonArray(List.of("Bacteria", 2L)))));
+		assertThrows(IllegalArgumentException.class, () -> encode(codec, List.of(bad), true, SpecEncoder.BUFFER_SIZE));
+		// The decoder checks the type name and detects truncation.
+		assertThrows(IOException.class, () -> new SpecDecoder(SpecCodec.forType(module.findType("contig")), "contig",
+				Channels.newChannel(new ByteArrayInputStream(encoded))));
+		byte[] truncated = Arrays.copyOf(encoded, encoded.length / 2);
+		SpecDecoder truncatedDecoder = new SpecDecoder(codec, "genomeTO",
+				Channels.newChannel(new ByteArrayInputStream(truncated)));
+		assertThrows(EOFException.class, () -> truncatedDecoder.read());
+		// A mapping key must be primitive.
+		SpecParser parser = new SpecParser(new LineReader(new ByteArrayInputStream(
+				"module Bad { typedef mapping<tuple<int, int>, string> bad; };".getBytes(StandardCharsets.UTF_8))));
+		ModuleNode badModule = new ModuleNode(parser);
+		assertThrows(IllegalArgumentException.class, () -> SpecCodec.forType(badModule.findType("bad")));
+	}
+
+	/**
+	 * @return the parsed genome annotation spec
+	 *
+	 * @throws IOException
+	 */
+	private static ModuleNode parse() throws IOException {
+		ModuleNode retVal;
+		try (LineReader reader = new LineReader(new File("data", "GenomeAnnotation.spec"))) {
+			retVal = new ModuleNode(new SpecParser(reader));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Encode a list of documents.
+	 *
+	 * @param codec			codec for the documents
+	 * @param docs			documents to encode
+	 * @param dictionary	TRUE to use a string dictionary
+	 * @param bufferSize	size of the encoder buffer
+	 *
+	 * @return the encoded bytes
+	 *
+	 * @throws IOException
+	 */
+	private static byte[] encode(SpecCodec codec, List<Object> docs, boolean dictionary, int bufferSize) throws IOException {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		try (SpecEncoder encoder = new SpecEncoder(codec, "genomeTO", Channels.newChannel(outStream), dictionary, bufferSize)) {
+			for (Object doc : docs)
+				encoder.write(doc);
+			assertThat(encoder.getRecordCount(), equalTo(docs.size()));
+			// The try block closes the encoder a second time. That must not write another terminator, which the
+			// byte count checks on the decoder would catch.
+			encoder.close();
+			assertThat(encoder.getByteCount(), equalTo((long) outStream.size()));
+		}
+		return outStream.toByteArray();
+	}
+
+	/**
+	 * Create a genome document. The numbers are Long and Double, as the decoder produces them.
+	 *
+	 * @param id		genome ID
+	 * @param n			number of features
+	 *
+	 * @return a genome document
+	 */
+	private static JsonObject genome(String id, int n) {
+		JsonObject retVal = new JsonObject();
+		retVal.put("id", id);
+		retVal.put("scientific_name", "Escherichia coli K-12 été");
+		retVal.put("domain", "Bacteria");
+		retVal.put("genetic_code", 11L);
+		retVal.put("ncbi_taxonomy_id", -83333L);
+		retVal.put("ncbi_lineage", new JsonArray(List.of(new JsonArray(List.of("Bacteria", 2L, "superkingdom")),
+				new JsonArray(Arrays.asList("Escherichia", null, "genus")))));
+		JsonObject contig = new JsonObject();
+		contig.put("id", id + ".con.0001");
+		contig.put("dna", "acgt".repeat(2000));
+		contig.put("genetic_code", 11L);
+		contig.put("complete", 1L);
+		retVal.put("contigs", new JsonArray(List.of(contig)));
+		JsonArray features = new JsonArray();
+		for (int i = 1; i <= n; i++) {
+			JsonObject feature = new JsonObject();
+			feature.put("id", "fig|" + id + ".peg." + i);
+			feature.put("type", "CDS");
+			feature.put("function", (i % 2 == 0 ? "hypothetical protein" : "Thr operon leader peptide"));
+			feature.put("location", new JsonArray(List.of(new JsonArray(List.of(id + ".con.0001",
+					(long) i * 1000 + Integer.MAX_VALUE, (i % 2 == 0 ? "+" : "-"), 66L)))));
+			feature.put("aliases", new JsonArray(List.of("b000" + i, "thrL")));
+			feature.put("annotations", new JsonArray(List.of(new JsonArray(List.of("Set function",
+					"rast", 1.5e9 + i * 0.25, "event1")))));
+			features.add(feature);
+		}
+		retVal.put("features", features);
+		JsonObject quality = new JsonObject();
+		quality.put("completeness", 99.5);
+		JsonObject summary = new JsonObject();
+		summary.put("cds", (long) n);
+		quality.put("feature_summary", summary);
+		JsonObject gene = new JsonObject();
+		gene.put("genes", 4L);
+		gene.put("subsystems", 2L);
+		JsonObject subsystems = new JsonObject();
+		subsystems.put("Metabolism", gene);
+		quality.put("subsystem_summary", subsystems);
+		retVal.put("quality", quality);
+		JsonObject sra = new JsonObject();
+		sra.put("run", "SRR000001");
+		retVal.put("sra_metadata", new JsonArray(List.of(sra)));
+		return retVal;
+	}
+
+}
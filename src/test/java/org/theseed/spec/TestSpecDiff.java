@@ -0,0 +1,120 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.io.LineReader;
+import org.theseed.spec.SpecDiff.Change;
+import org.theseed.spec.SpecDiff.Severity;
+import org.theseed.spec.SpecDiff.Status;
+
+/**
+ * These tests verify the structural comparison of two versions of a spec.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestSpecDiff {
+
+	@Test
+	void testNoChanges() throws IOException {
+		File inFile = new File("data", "GenomeAnnotation.spec");
+		ModuleNode oldModule = parse(inFile);
+		ModuleNode newModule = parse(inFile);
+		SpecDiff diff = new SpecDiff(oldModule, newModule);
+		assertThat(diff.getChanges(), empty());
+		assertThat(diff.isBreaking(), equalTo(false));
+		int primitives = 3;
+		assertThat(diff.getUnchangedCount(), equalTo(oldModule.getChildCount() - primitives));
+	}
+
+	@Test
+	void testChanges() throws IOException {
+		ModuleNode oldModule = parse(new File("data/diff", "old.spec"));
+		ModuleNode newModule = parse(new File("data/diff", "new.spec"));
+		SpecDiff diff = new SpecDiff(oldModule, newModule);
+		Map<String, Change> changes = new HashMap<String, Change>();
+		for (Change change : diff.getChanges())
+			changes.put(change.getName(), change);
+		// Comment changes are not structural.
+		assertThat(changes, not(hasKey("genome_id")));
+		assertThat(diff.getUnchangedCount(), equalTo(1));
+		checkChange(changes, "genome", Status.CHANGED, Severity.COMPATIBLE, "field domain added");
+		checkChange(changes, "genomes", Status.AFFECTED, Severity.COMPATIBLE, "uses changed type genome");
+		checkChange(changes, "location", Status.CHANGED, Severity.BREAKING, "element count increased from 2 to 3");
+		checkChange(changes, "feature", Status.AFFECTED, Severity.BREAKING, "uses changed type location");
+		checkChange(changes, "feature_map", Status.AFFECTED, Severity.BREAKING, "uses changed type feature");
+		checkChange(changes, "obsolete", Status.REMOVED, Severity.BREAKING, "type removed");
+		checkChange(changes, "score", Status.ADDED, Severity.COMPATIBLE, "type added");
+		checkChange(changes, "counts", Status.CHANGED, Severity.BREAKING,
+				"element type: element 2 changed from int to float");
+		// Anonymous field types are compared member by member.
+		checkChange(changes, "report", Status.CHANGED, Severity.BREAKING,
+				"field hits: element type: element count increased from 2 to 3");
+		checkChange(changes, "report", Status.CHANGED, Severity.BREAKING,
+				"field tags: value type changed from int to float");
+		checkChange(changes, "get_genome", Status.AFFECTED, Severity.COMPATIBLE, "uses changed type genome");
+		checkChange(changes, "list_genomes", Status.AFFECTED, Severity.COMPATIBLE, "uses changed type genomes");
+		checkChange(changes, "get_features", Status.AFFECTED, Severity.BREAKING, "uses changed type feature_map");
+		checkChange(changes, "ping", Status.CHANGED, Severity.COMPATIBLE, "result count increased from 1 to 2");
+		checkChange(changes, "secure", Status.CHANGED, Severity.COMPATIBLE, "authentication no longer required");
+		checkChange(changes, "count", Status.AFFECTED, Severity.BREAKING, "uses changed type counts");
+		checkChange(changes, "score_genome", Status.ADDED, Severity.COMPATIBLE, "function added");
+		assertThat(changes.size(), equalTo(16));
+		assertThat(diff.isBreaking(), equalTo(true));
+		List<String> affected = diff.getAffectedFunctions();
+		assertThat(affected, contains("count", "get_features", "get_genome", "list_genomes", "ping", "secure"));
+		// Going backward, the structure field is removed, which is breaking.
+		diff = new SpecDiff(newModule, oldModule);
+		changes.clear();
+		for (Change change : diff.getChanges())
+			changes.put(change.getName(), change);
+		checkChange(changes, "genome", Status.CHANGED, Severity.BREAKING, "field domain removed");
+		checkChange(changes, "secure", Status.CHANGED, Severity.BREAKING, "authentication now required");
+		checkChange(changes, "ping", Status.CHANGED, Severity.BREAKING, "result count decreased from 2 to 1");
+	}
+
+	/**
+	 * Verify a change.
+	 *
+	 * @param changes	map of declaration names to changes
+	 * @param name		name of the declaration to check
+	 * @param status	expected status
+	 * @param severity	expected severity
+	 * @param detail	expected detail message
+	 */
+	private static void checkChange(Map<String, Change> changes, String name, Status status, Severity severity,
+			String detail) {
+		Change change = changes.get(name);
+		assertThat(name, change, not(nullValue()));
+		assertThat(name, change.getStatus(), equalTo(status));
+		assertThat(name, change.getSeverity(), equalTo(severity));
+		assertThat(name, change.getDetails(), hasItem(detail));
+	}
+
+	/**
+	 * @return the module parsed from a spec file
+	 *
+	 * @param inFile	spec file to parse
+	 *
+	 * @throws IOException
+	 */
+	private static ModuleNode parse(File inFile) throws IOException {
+		ModuleNode retVal;
+		try (LineReader reader = new LineReader(inFile)) {
+			retVal = new ModuleNode(new SpecParser(reader));
+		}
+		return retVal;
+	}
+
+}
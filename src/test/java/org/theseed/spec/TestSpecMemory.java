@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.LineReader;
+
+/**
+ * These tests verify that freezing a specification tree replaces its lists with compact immutable ones.
+ *
+ * The retained memory before and after freezing can be measured by running with the system property
+ * "spec.memory" set to "true". The measurement parses many copies of a module and forces garbage collection,
+ * so it is a manual test and is skipped otherwise. Its result depends on the garbage collector, so it is
+ * logged rather than checked.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestSpecMemory {
+
+	/** logging facility */
+	protected static Logger log = LoggerFactory.getLogger(TestSpecMemory.class);
+	/** number of module copies to measure */
+	private static final int COPIES = 40;
+
+	@Test
+	void testFreeze() throws IOException {
+		File inFile = new File("data", "GenomeAnnotation.spec");
+		// Verify that freezing does not change the output.
+		ModuleNode testNode = parseModule(inFile);
+		String oldHtml = testNode.toHtml().render().replaceAll("(type|func)\\d+", "$1");
+		testNode.freeze();
+		String newHtml = testNode.toHtml().render().replaceAll("(type|func)\\d+", "$1");
+		assertThat(newHtml, equalTo(oldHtml));
+		// Every child list must now be the shared empty list or an immutable list exactly the size of its
+		// contents. Freezing again must not make new copies.
+		Set<SpecNode> nodes = reachableNodes(testNode);
+		IdentityHashMap<SpecNode, List<SpecNode>> childLists = new IdentityHashMap<SpecNode, List<SpecNode>>();
+		int populated = 0;
+		for (SpecNode node : nodes) {
+			List<SpecNode> children = node.getChildNodes();
+			if (children.isEmpty())
+				assertThat(children, sameInstance(Collections.emptyList()));
+			else {
+				assertThat(children, not(instanceOf(ArrayList.class)));
+				assertThat(List.copyOf(children), sameInstance(children));
+				populated++;
+			}
+			childLists.put(node, children);
+		}
+		assertThat(populated, greaterThan(0));
+		testNode.freeze();
+		for (SpecNode node : nodes)
+			assertThat(node.getChildNodes(), sameInstance(childLists.get(node)));
+	}
+
+	@Test
+	@EnabledIfSystemProperty(named = "spec.memory", matches = "true")
+	void measureFreezeMemory() throws IOException {
+		File inFile = new File("data", "GenomeAnnotation.spec");
+		int nodeCount = countNodes(parseModule(inFile));
+		List<ModuleNode> modules = new ArrayList<ModuleNode>(COPIES);
+		long base = usedHeap();
+		for (int i = 0; i < COPIES; i++)
+			modules.add(parseModule(inFile));
+		long parsed = usedHeap();
+		for (ModuleNode module : modules)
+			module.freeze();
+		long frozen = usedHeap();
+		double totalNodes = (double) nodeCount * COPIES;
+		double before = (parsed - base) / totalNodes;
+		double after = (frozen - base) / totalNodes;
+		log.info("{} nodes per module. Bytes per node: {} before freezing, {} after.", nodeCount,
+				String.format("%4.1f", before), String.format("%4.1f", after));
+		assertThat(modules.size(), equalTo(COPIES));
+	}
+
+	/**
+	 * @return a module node parsed from the specified file
+	 *
+	 * @param inFile	specification file to parse
+	 *
+	 * @throws IOException
+	 */
+	private static ModuleNode parseModule(File inFile) throws IOException {
+		ModuleNode retVal;
+		try (LineReader reader = new LineReader(inFile)) {
+			retVal = new ModuleNode(new SpecParser(reader));
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the number of distinct nodes reachable from a node
+	 *
+	 * @param root	starting node
+	 */
+	private static int countNodes(SpecNode root) {
+		return reachableNodes(root).size();
+	}
+
+	/**
+	 * @return the set of distinct nodes reachable from a node, compared by identity
+	 *
+	 * @param root	starting node
+	 */
+	private static Set<SpecNode> reachableNodes(SpecNode root) {
+		Set<SpecNode> visited = Collections.newSetFromMap(new IdentityHashMap<SpecNode, Boolean>());
+		Deque<SpecNode> stack = new ArrayDeque<SpecNode>();
+		stack.push(root);
+		visited.add(root);
+		while (! stack.isEmpty()) {
+			for (SpecNode child : stack.pop().getChildNodes()) {
+				if (visited.add(child))
+					stack.push(child);
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * @return the heap space in use after garbage collection
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
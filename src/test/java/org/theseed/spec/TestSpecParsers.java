@@ -25,6 +25,22 @@ import static j2html.TagCreator.*;
  */
 class TestSpecParsers {
 
+	@Test
+	void testWhereUsed() throws IOException {
+		ModuleNode modNode;
+		try (LineReader reader = new LineReader(new File("data", "GenomeAnnotation.spec"))) {
+			modNode = new ModuleNode(new SpecParser(reader));
+		}
+		Map<String, TypeNode> typeMap = modNode.getTypeMap();
+		List<String> users = typeMap.get("genome_metadata").getUsers().stream().map(x -> x.toString()).toList();
+		assertThat(users, contains("create_genome (parameter 1)", "set_metadata (parameter 2)"));
+		users = typeMap.get("location").getUsers().stream().map(x -> x.toString()).toList();
+		assertThat(users, contains("feature (field location)", "fid_data_tuple"));
+		TypeNode region = typeMap.get("region_of_dna");
+		assertThat(region.getUsers().get(0).getUser(), sameInstance(typeMap.get("location")));
+		assertThat(typeMap.get("genomeTO").getUsersHtml().render(), containsString("set_metadata</a> (result 1)"));
+	}
+
 	@Test
 	void testModuleCompile() throws IOException {
 		File inFile = new File("data", "GenomeAnnotation.spec");
@@ -0,0 +1,221 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.io.LineReader;
+
+/**
+ * These tests verify the streaming specification recognizer.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestSpecRecognizer {
+
+	/**
+	 * This listener records the events as strings.
+	 */
+	private static class TraceListener implements SpecListener {
+
+		/** list of events */
+		private List<String> events = new ArrayList<String>();
+
+		@Override
+		public void beginModule(String name) {
+			this.events.add("module " + name);
+		}
+
+		@Override
+		public void endModule(String name) {
+			this.events.add("end module");
+		}
+
+		@Override
+		public void comment(String text) {
+			this.events.add("comment " + text);
+		}
+
+		@Override
+		public void beginTypedef(int lineNum) {
+			this.events.add("typedef");
+		}
+
+		@Override
+		public void endTypedef(String name) {
+			this.events.add("end typedef " + name);
+		}
+
+		@Override
+		public void beginFuncdef(String name, int lineNum) {
+			this.events.add("funcdef " + name);
+		}
+
+		@Override
+		public void param(int idx) {
+			this.events.add("param " + idx);
+		}
+
+		@Override
+		public void result(int idx) {
+			this.events.add("result " + idx);
+		}
+
+		@Override
+		public void authentication() {
+			this.events.add("authentication");
+		}
+
+		@Override
+		public void endFuncdef(String name) {
+			this.events.add("end funcdef");
+		}
+
+		@Override
+		public void beginType(String kind) {
+			this.events.add(kind);
+		}
+
+		@Override
+		public void endType(String kind) {
+			this.events.add("end " + kind);
+		}
+
+		@Override
+		public void typeRef(String name) {
+			this.events.add("ref " + name);
+		}
+
+		@Override
+		public void field(String name) {
+			this.events.add("field " + name);
+		}
+
+		@Override
+		public void memberName(String name) {
+			this.events.add("name " + name);
+		}
+
+	}
+
+	/**
+	 * This listener accumulates the parameter counts of the functions and checks the type names.
+	 */
+	private static class CountListener implements SpecListener {
+
+		/** map of function names to parameter counts */
+		private Map<String, Integer> parmCounts = new TreeMap<String, Integer>();
+		/** set of defined type names */
+		private Set<String> defined = new HashSet<String>(List.of("int", "float", "string"));
+		/** list of undefined type names */
+		private List<String> undefined = new ArrayList<String>();
+		/** current function name */
+		private String funcName;
+		/** number of comments */
+		private int comments;
+
+		@Override
+		public void beginFuncdef(String name, int lineNum) {
+			this.funcName = name;
+			this.parmCounts.put(name, 0);
+		}
+
+		@Override
+		public void param(int idx) {
+			this.parmCounts.put(this.funcName, idx);
+		}
+
+		@Override
+		public void endTypedef(String name) {
+			this.defined.add(name);
+		}
+
+		@Override
+		public void typeRef(String name) {
+			if (! this.defined.contains(name))
+				this.undefined.add(name);
+		}
+
+		@Override
+		public void comment(String text) {
+			this.comments++;
+		}
+
+	}
+
+	@Test
+	void testEvents() throws IOException {
+		String spec = String.join("\n",
+				"/* header */",
+				"module Test {",
+				"    typedef structure { string id; list<int> counts; } thing;",
+				"    typedef mapping<string name, tuple<int, float> pair> dict;",
+				"    /* function comment */",
+				"    funcdef get(string id) returns (thing result, int) authentication required;",
+				"};");
+		TraceListener listener = new TraceListener();
+		new SpecRecognizer(reader(spec)).run(listener);
+		assertThat(listener.events, contains("comment header", "module Test",
+				"typedef", "structure", "ref string", "field id", "list", "ref int", "end list", "field counts",
+				"end structure", "end typedef thing",
+				"typedef", "mapping", "ref string", "name name", "tuple", "ref int", "ref float", "end tuple",
+				"name pair", "end mapping", "end typedef dict",
+				"comment function comment", "funcdef get", "param 1", "ref string", "name id", "result 1",
+				"ref thing", "name result", "result 2", "ref int", "authentication", "end funcdef",
+				"end module"));
+		// Check the syntax errors.
+		assertThrows(SpecParsingException.class, () -> new SpecRecognizer(reader("module Test { typedef list<int, int> x; };"))
+				.run(new TraceListener()));
+		assertThrows(SpecParsingException.class, () -> new SpecRecognizer(reader("module Test { funcdef f(int) };"))
+				.run(new TraceListener()));
+		assertThrows(SpecParsingException.class, () -> new SpecRecognizer(reader("module Test { typedef int x;"))
+				.run(new TraceListener()));
+	}
+
+	@Test
+	void testMatchesParser() throws IOException {
+		File inFile = new File("data", "GenomeAnnotation.spec");
+		CountListener listener = new CountListener();
+		try (LineReader reader = new LineReader(inFile)) {
+			new SpecRecognizer(reader).run(listener);
+		}
+		ModuleNode modNode;
+		try (LineReader reader = new LineReader(inFile)) {
+			modNode = new ModuleNode(new SpecParser(reader));
+		}
+		assertThat(listener.undefined, empty());
+		assertThat(listener.defined.size(), equalTo(modNode.getTypes().size()));
+		Map<String, FuncNode> funcs = modNode.getFunctions();
+		assertThat(listener.parmCounts.keySet(), equalTo(funcs.keySet()));
+		for (Map.Entry<String, FuncNode> funcEntry : funcs.entrySet())
+			assertThat(funcEntry.getKey(), listener.parmCounts.get(funcEntry.getKey()),
+					equalTo(funcEntry.getValue().getParms().size()));
+		assertThat(listener.comments, greaterThan(0));
+	}
+
+	/**
+	 * @return a line reader for a string
+	 *
+	 * @param text	text to read
+	 */
+	private static LineReader reader(String text) {
+		return new LineReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+}
@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.io.LineReader;
+
+/**
+ * These tests verify the generation of a relational schema from spec structure types.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestSpecSchema {
+
+	@Test
+	void testGenomeSchema() throws IOException {
+		ModuleNode module;
+		try (LineReader reader = new LineReader(new File("data", "GenomeAnnotation.spec"))) {
+			module = new ModuleNode(new SpecParser(reader));
+		}
+		SpecSchema schema = SpecSchema.forModule(module, List.of("genomeTO"));
+		SpecSchema.Table genome = schema.getTables().get(0);
+		assertThat(genome.getName(), equalTo("genomeTO"));
+		assertThat(genome.getKind(), equalTo(SpecSchema.Kind.ROOT));
+		assertThat(genome.getRow(), equalTo(1));
+		assertThat(column(genome, "genetic_code").getSqlType(), equalTo("INTEGER"));
+		// Aliases resolve to their primitives, and nested structures are flattened.
+		assertThat(column(genome, "id").getSqlType(), equalTo("TEXT"));
+		SpecSchema.Column completeness = column(genome, "quality_completeness");
+		assertThat(completeness.getSqlType(), equalTo("DOUBLE"));
+		assertThat(completeness.getPath(), contains("quality", "completeness"));
+		// A list of named structures becomes a table named after the structure.
+		SpecSchema.Table features = schema.getTable("feature");
+		assertThat(features.getParent(), sameInstance(genome));
+		assertThat(features.getKind(), equalTo(SpecSchema.Kind.LIST));
+		assertThat(features.getPath(), contains("features"));
+		assertThat(features.getColumns().get(1).getRole(), equalTo(SpecSchema.Role.LINK));
+		assertThat(features.getColumns().get(2).getName(), equalTo(SpecSchema.POS_COLUMN));
+		assertThat(features.getRow(), equalTo(2));
+		// A list of primitives has a value column, and a list of tuples uses the member names.
+		SpecSchema.Table aliases = schema.getTable("feature_aliases");
+		assertThat(aliases.getParent(), sameInstance(features));
+		assertThat(column(aliases, SpecSchema.VALUE_COLUMN).getPath(), empty());
+		SpecSchema.Table location = schema.getTable("feature_location");
+		assertThat(location.getColumns().stream().map(x -> x.getName()).toList(),
+				contains("_id", "_parent", "_pos", "_1", "begin", "strand", "length"));
+		assertThat(column(location, "strand").getPath(), contains(2));
+		assertThat(location.getRow(), equalTo(3));
+		assertThat(location.getCol(), greaterThanOrEqualTo(features.getCol()));
+		// The default roots are the unused structures.
+		List<TypeNode> roots = SpecSchema.getRootTypes(module);
+		assertThat(roots, hasItem(module.findType("genomeTO")));
+		assertThat(roots, not(hasItem(module.findType("feature"))));
+	}
+
+	@Test
+	void testSql() throws IOException, SQLException {
+		ModuleNode module = parse("module Test {",
+				"    /* A thing with parts. */",
+				"    typedef structure {",
+				"        string id;",
+				"        /* sort order */",
+				"        int order;",
+				"        tuple<int, float> values;",
+				"        mapping<string, list<string>> tags;",
+				"        list<list<int>> matrix;",
+				"    } thing;",
+				"};");
+		SpecSchema schema = SpecSchema.forModule(module, List.of());
+		assertThat(schema.getTables().stream().map(x -> x.getName()).toList(),
+				contains("thing", "thing_tags", "thing_tags_items", "thing_matrix", "thing_matrix_items"));
+		SpecSchema.Table thing = schema.getTable("THING");
+		assertThat(thing.getDescription(), equalTo("A thing with parts."));
+		assertThat(thing.getColumns().stream().map(x -> x.getName()).toList(),
+				contains("_id", "id", "order_", "values_1", "values_2"));
+		assertThat(column(thing, "order_").getDescription(), equalTo("sort order"));
+		SpecSchema.Table tags = schema.getTable("thing_tags");
+		assertThat(column(tags, SpecSchema.MAP_KEY_COLUMN).getRole(), equalTo(SpecSchema.Role.MAP_KEY));
+		assertThat(tags.getChildren(), contains(schema.getTable("thing_tags_items")));
+		// Run the script and verify the tables, indexes, and metadata.
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+				Statement stmt = conn.createStatement()) {
+			for (String sql : schema.toSql())
+				stmt.execute(sql);
+			assertThat(count(stmt, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name LIKE 'idx_%'"),
+					equalTo(4));
+			assertThat(count(stmt, "SELECT COUNT(*) FROM _diagram"), equalTo(5));
+			assertThat(count(stmt, "SELECT rloc FROM _diagram WHERE table_name = 'thing_matrix_items'"), equalTo(3));
+			assertThat(count(stmt, "SELECT COUNT(*) FROM _fields WHERE table_name = 'thing'"), equalTo(5));
+			stmt.execute("INSERT INTO thing (_id, id, order_) VALUES (1, 'a', 2)");
+			stmt.execute("INSERT INTO thing_matrix (_id, _parent, _pos) VALUES (1, 1, 0)");
+			stmt.execute("INSERT INTO thing_matrix_items (_id, _parent, _pos, _value) VALUES (1, 1, 0, 42)");
+			assertThat(count(stmt, "SELECT i._value FROM thing t JOIN thing_matrix m ON m._parent = t._id "
+					+ "JOIN thing_matrix_items i ON i._parent = m._id"), equalTo(42));
+		}
+		// A mapping key must be primitive, and a root must be a structure.
+		ModuleNode bad = parse("module Bad { typedef structure { mapping<tuple<int, int>, string> map; } bad; };");
+		assertThrows(IllegalArgumentException.class, () -> SpecSchema.forModule(bad, List.of()));
+		assertThrows(IllegalArgumentException.class, () -> new SpecSchema(List.of(bad.findType("int"))));
+		assertThrows(IllegalArgumentException.class, () -> SpecSchema.forModule(bad, List.of("missing")));
+	}
+
+	/**
+	 * @return the named column of a table
+	 *
+	 * @param table		table of interest
+	 * @param name		name of the desired column
+	 */
+	private static SpecSchema.Column column(SpecSchema.Table table, String name) {
+		return table.getColumns().stream().filter(x -> x.getName().equals(name)).findFirst().orElseThrow();
+	}
+
+	/**
+	 * @return the integer result of a query
+	 *
+	 * @param stmt		statement for running the query
+	 * @param query		query returning a single integer
+	 *
+	 * @throws SQLException
+	 */
+	private static int count(Statement stmt, String query) throws SQLException {
+		try (ResultSet results = stmt.executeQuery(query)) {
+			results.next();
+			return results.getInt(1);
+		}
+	}
+
+	/**
+	 * @return the module node for a spec
+	 *
+	 * @param lines		lines of the spec
+	 */
+	private static ModuleNode parse(String... lines) {
+		String text = String.join("\n", lines);
+		SpecParser parser = new SpecParser(new LineReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+		return new ModuleNode(parser);
+	}
+
+}
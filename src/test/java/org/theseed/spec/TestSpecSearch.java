@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.io.LineReader;
+
+/**
+ * These tests verify the spec search index.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestSpecSearch {
+
+	@Test
+	void testSplitting() {
+		assertThat(SpecSearchIndex.splitName("genome_metadata"), contains("genome", "metadata"));
+		assertThat(SpecSearchIndex.splitName("genomeTO"), contains("genome", "to"));
+		assertThat(SpecSearchIndex.splitName("md5s"), contains("md", "s"));
+		assertThat(SpecSearchIndex.splitText("A region of DNA, (from 1)."), contains("a", "region", "of", "dna", "from", "1"));
+	}
+
+	@Test
+	void testSearch() throws IOException {
+		ModuleNode module;
+		try (LineReader reader = new LineReader(new File("data", "GenomeAnnotation.spec"))) {
+			module = new ModuleNode(new SpecParser(reader));
+		}
+		SpecSearchIndex index = new SpecSearchIndex(module);
+		// An exact name match comes first.
+		List<SpecSearchIndex.Hit> hits = index.search("genomeTO", 10);
+		assertThat(hits.get(0).getDoc().getName(), equalTo("genomeTO"));
+		assertThat(hits.get(0).getDoc().getKind(), equalTo("type"));
+		assertThat(hits.get(0).getScore(), equalTo(SpecSearchIndex.NAME_WEIGHT));
+		// A prefix finds the structure fields and the functions.
+		hits = index.search("ncbi_lin", 10);
+		assertThat(hits.stream().map(x -> x.getDoc().getName()).toList(), hasItem("genomeTO.ncbi_lineage"));
+		hits = index.search("annotate", 100);
+		assertThat(hits.stream().filter(x -> x.getDoc().getKind().equals("function")).count(), greaterThan(0L));
+		// Among equally good name matches, the more popular type comes first.
+		hits = index.search("feature", 100);
+		for (int i = 1; i < hits.size(); i++) {
+			SpecSearchIndex.Hit prev = hits.get(i - 1);
+			SpecSearchIndex.Hit curr = hits.get(i);
+			assertThat(prev.getScore(), greaterThanOrEqualTo(curr.getScore()));
+			if (prev.getScore() == curr.getScore())
+				assertThat(prev.getDoc().getPopularity(), greaterThanOrEqualTo(curr.getDoc().getPopularity()));
+		}
+		// All the words must match.
+		List<SpecSearchIndex.Hit> both = index.search("feature contig", 100);
+		assertThat(both.size(), lessThan(hits.size()));
+		assertThat(both.size(), greaterThan(0));
+		assertThat(index.search("feat loc", 100).stream().map(x -> x.getDoc().getName()).toList(),
+				allOf(hasItem("feature"), not(hasItem("location"))));
+		assertThat(index.search("xyzzy", 10), empty());
+		assertThat(index.search("feature", 3).size(), equalTo(3));
+		// The JSON round trip produces the same results.
+		SpecSearchIndex loaded = new SpecSearchIndex(new StringReader(index.toJson()));
+		assertThat(loaded.size(), equalTo(index.size()));
+		assertThat(loaded.getTermCount(), equalTo(index.getTermCount()));
+		List<SpecSearchIndex.Hit> loadedHits = loaded.search("feature contig", 100);
+		assertThat(loadedHits.size(), equalTo(both.size()));
+		for (int i = 0; i < both.size(); i++) {
+			assertThat(loadedHits.get(i).getDoc().getName(), equalTo(both.get(i).getDoc().getName()));
+			assertThat(loadedHits.get(i).getScore(), equalTo(both.get(i).getScore()));
+		}
+		// The page fragment contains the escaped index.
+		String html = index.toHtml().render();
+		assertThat(html, containsString("id=\"spec-index\""));
+		assertThat(html, not(containsString("</a")));
+	}
+
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package org.theseed.spec;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.theseed.io.LineReader;
+
+import com.github.cliftonlabs.json_simple.Jsoner;
+
+/**
+ * These tests verify the breaking of JSON documents into rows for a spec schema.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestSpecShredder {
+
+	@Test
+	void testShred() throws Exception {
+		ModuleNode module = parse("module Test {",
+				"    typedef structure {",
+				"        string id;",
+				"        tuple<int, float> values;",
+				"        mapping<string, list<string>> tags;",
+				"    } thing;",
+				"};");
+		SpecSchema schema = SpecSchema.forModule(module, List.of());
+		SpecShredder shredder = new SpecShredder(schema, "thing");
+		assertThat(shredder.getTables().stream().map(x -> x.getName()).toList(),
+				contains("thing", "thing_tags", "thing_tags_items"));
+		Object doc1 = Jsoner.deserialize("{\"id\": \"a\", \"values\": [3, 1.5], \"tags\": {\"x\": [\"p\", \"q\"]}}");
+		Object doc2 = Jsoner.deserialize("{\"id\": \"b\", \"tags\": {\"y\": [\"r\"], \"z\": []}}");
+		SpecShredder.Rows rows1 = shredder.shred(doc1);
+		SpecShredder.Rows rows2 = shredder.shred(doc2);
+		assertThat(rows1.size(), equalTo(4));
+		assertThat(rows2.size(), equalTo(4));
+		// Columns are _id, id, values_1, values_2 for the root table.
+		assertThat(rows1.get(0).get(0), Matchers.<Object>arrayContaining(0L, "a", 3L, 1.5));
+		assertThat(rows2.get(0).get(0), Matchers.<Object>arrayContaining(0L, "b", null, null));
+		// Assign the keys in document order, starting after existing rows.
+		long[] nextKeys = new long[] { 1, 10, 100 };
+		rows1.assignKeys(nextKeys);
+		rows2.assignKeys(nextKeys);
+		assertThat(nextKeys[0], equalTo(3L));
+		assertThat(nextKeys[1], equalTo(13L));
+		assertThat(nextKeys[2], equalTo(103L));
+		assertThat(rows1.get(1).get(0), Matchers.<Object>arrayContaining(10L, 1L, "x"));
+		assertThat(rows1.get(2).get(1), Matchers.<Object>arrayContaining(101L, 10L, 1L, "q"));
+		assertThat(rows2.get(0).get(0)[0], equalTo((Object) 2L));
+		Object[] tag = rows2.get(1).stream().filter(x -> x[2].equals("y")).findFirst().orElseThrow();
+		assertThat(tag[1], equalTo((Object) 2L));
+		assertThat(rows2.get(2).get(0), Matchers.<Object>arrayContaining(102L, tag[0], 0L, "r"));
+		// Values must match their columns.
+		assertThrows(IllegalArgumentException.class, () -> shredder.shred(Jsoner.deserialize("{\"id\": 12}")));
+		assertThrows(IllegalArgumentException.class,
+				() -> shredder.shred(Jsoner.deserialize("{\"values\": [1.5, 2]}")));
+		assertThrows(IllegalArgumentException.class, () -> shredder.shred(Jsoner.deserialize("[]")));
+		assertThrows(IllegalArgumentException.class, () -> new SpecShredder(schema, "thing_tags"));
+	}
+
+	/**
+	 * @return the module node for a spec
+	 *
+	 * @param lines		lines of the spec
+	 */
+	private static ModuleNode parse(String... lines) {
+		String text = String.join("\n", lines);
+		SpecParser parser = new SpecParser(new LineReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+		return new ModuleNode(parser);
+	}
+
+}